@@ -0,0 +1,71 @@
+package bench;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+import static bench.HotPaths.*;
+
+/**
+ * Mapper 本地预聚合：DenseFactorTable 的直接寻址累加路径
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class AggregationBenchmark {
+
+    private static final int STOCKS = 300;
+    // 一个交易日约 4800 个 3 秒时间戳
+    private static final int TIMESTAMPS = 4800;
+    // 多日输入：每个时间戳在 DAYS 个交易日上轮流出现
+    private static final int DAYS = 20;
+
+    private Object table;
+    private float[] row;
+    private int[] keys;
+    private int[] multiDayKeys;
+    private int next;
+
+    @Setup
+    public void setup() throws Throwable {
+        keys = new int[TIMESTAMPS];
+        multiDayKeys = new int[TIMESTAMPS * DAYS];
+        for (int t = 0; t < TIMESTAMPS; t++) {
+            int sec = 9 * 3600 + 30 * 60 + t * 3;
+            if (sec > 11 * 3600 + 30 * 60) sec += 90 * 60;
+            int hhmmss = (sec / 3600) * 10000 + (sec % 3600 / 60) * 100 + sec % 60;
+            keys[t] = (int) ENCODE.invokeExact(BenchmarkData.TRADING_DAY, hhmmss);
+            for (int d = 0; d < DAYS; d++) {
+                multiDayKeys[t * DAYS + d] = (int) ENCODE.invokeExact(BenchmarkData.TRADING_DAY + d, hhmmss);
+            }
+        }
+        row = new float[20];
+        for (int i = 0; i < 20; i++) row[i] = i * 0.5f;
+        table = (Object) NEW_DENSE_TABLE.invokeExact((Object) DEFAULT_SPEC.invokeExact());
+    }
+
+    /**
+     * 与 FactorAccumulator.add 中 E 段一致：同一时间戳连续到达 STOCKS 行，首行赋值，其余累加
+     */
+    @Benchmark
+    public Object aggregate() throws Throwable {
+        int key = keys[next++ / STOCKS];
+        if (next == STOCKS * TIMESTAMPS) next = 0;
+        TABLE_ADD.invokeExact(table, key, row);
+        return table;
+    }
+
+    /**
+     * 多日输入：相邻行落在不同交易日 (原哈希表在此场景下会超过 flush 阈值，向 Shuffle 发送重复 Key)
+     */
+    @Benchmark
+    public Object aggregateMultiDay() throws Throwable {
+        int key = multiDayKeys[next++];
+        if (next == multiDayKeys.length) next = 0;
+        TABLE_ADD.invokeExact(table, key, row);
+        return table;
+    }
+}
@@ -0,0 +1,76 @@
+package bench;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+/**
+ * 基准数据生成
+ * 按 SnapshotData.parseFromBytes 期望的 57 列 Level-10 布局生成深交所风格快照行，
+ * 价格为整数 (元 * 10000)，量为股数，保证与真实数据的字段宽度、逗号密度一致。
+ */
+final class BenchmarkData {
+
+    static final int TRADING_DAY = 20240102;
+
+    private BenchmarkData() {}
+
+    /**
+     * 生成 rowCount 行 (每 stocks 行为同一时间戳下的一个横截面，3 秒频率)
+     */
+    static byte[][] rows(int rowCount, int stocks, long seed) {
+        Random rnd = new Random(seed);
+        long[] lastPrice = new long[stocks];
+        for (int s = 0; s < stocks; s++) {
+            lastPrice[s] = (5 + rnd.nextInt(95)) * 10000L + rnd.nextInt(100) * 100L;
+        }
+
+        byte[][] rows = new byte[rowCount][];
+        StringBuilder sb = new StringBuilder(512);
+        for (int i = 0; i < rowCount; i++) {
+            int s = i % stocks;
+            int secOfDay = 9 * 3600 + 30 * 60 + (i / stocks) * 3;
+            if (secOfDay > 11 * 3600 + 30 * 60) secOfDay += 90 * 60; // 跳过午休
+            int tradeTime = (secOfDay / 3600) * 10000 + (secOfDay % 3600 / 60) * 100 + secOfDay % 60;
+
+            lastPrice[s] = Math.max(10000L, lastPrice[s] + (rnd.nextInt(5) - 2) * 100L);
+            rows[i] = row(sb, rnd, s, tradeTime, lastPrice[s]);
+        }
+        return rows;
+    }
+
+    private static byte[] row(StringBuilder sb, Random rnd, int stock, int tradeTime, long last) {
+        sb.setLength(0);
+        // 0-4: tradingDay, tradeTime, recvTime, MIC, code
+        sb.append(TRADING_DAY).append(',');
+        sb.append(tradeTime).append(',');
+        sb.append(tradeTime).append("120,");
+        sb.append("XSHE,");
+        appendCode(sb, stock);
+        // 5-11: preClose, open, high, low, last, numTrades, volume
+        sb.append(last - 300).append(',').append(last - 100).append(',')
+                .append(last + 500).append(',').append(last - 600).append(',')
+                .append(last).append(',').append(1000 + rnd.nextInt(50000)).append(',')
+                .append(100000L + rnd.nextInt(10000000)).append(',');
+        // 12-13: tBidVol, tAskVol
+        sb.append(100000L + rnd.nextInt(5000000)).append(',');
+        sb.append(100000L + rnd.nextInt(5000000)).append(',');
+        // 14-16: wBidPrc, wAskPrc, amount
+        sb.append(last - 800).append(',').append(last + 800).append(',')
+                .append(1000000L + rnd.nextInt(100000000)).append(',');
+        // 17-56: 10 档 bp, bv, ap, av
+        for (int level = 0; level < 10; level++) {
+            sb.append(last - 100L * (level + 1)).append(',');
+            sb.append(100 * (1 + rnd.nextInt(500))).append(',');
+            sb.append(last + 100L * (level + 1)).append(',');
+            sb.append(100 * (1 + rnd.nextInt(500)));
+            if (level < 9) sb.append(',');
+        }
+        return sb.toString().getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static void appendCode(StringBuilder sb, int stock) {
+        String digits = Integer.toString(1 + stock);
+        for (int k = digits.length(); k < 6; k++) sb.append('0');
+        sb.append(digits).append(".SZ,");
+    }
+}
@@ -0,0 +1,101 @@
+package bench;
+
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.Writable;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+import static bench.HotPaths.*;
+
+/**
+ * 因子计算与 Writable 序列化
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class FactorBenchmark {
+
+    private static final int STOCKS = 300;
+    private static final int ROWS = STOCKS * 8;
+
+    // curr[i] 与 prev[i] 为同一只股票相邻两个时间戳的快照
+    private Object[] curr;
+    private Object[] prev;
+    private Object factor;
+    private Writable readBack;
+    private final DataOutputBuffer out = new DataOutputBuffer(256);
+    private final DataInputBuffer in = new DataInputBuffer();
+    private int next;
+    // ROWS 行已填充的 SoA 块，compute 每次重算整块
+    private Object batch;
+
+    @Setup
+    public void setup() throws Throwable {
+        byte[][] rows = BenchmarkData.rows(ROWS + STOCKS, STOCKS, 7L);
+        curr = new Object[ROWS];
+        prev = new Object[ROWS];
+        for (int i = 0; i < ROWS; i++) {
+            prev[i] = parse(rows[i]);
+            curr[i] = parse(rows[i + STOCKS]);
+        }
+        factor = (Object) NEW_FACTOR.invokeExact();
+        readBack = (Writable) (Object) NEW_FACTOR.invokeExact();
+        CALCULATE_FROM.invokeExact(factor, curr[0], prev[0]);
+        SET_COUNT.invokeExact(factor, 1);
+        ((Writable) factor).write(out);
+
+        batch = (Object) NEW_BATCH.invokeExact(ROWS);
+        // 每行一个槽位，先写入 prev[i]，curr[i] 的参照值即为它 (Δt = 1)
+        Object states = (Object) NEW_STATE_STORE.invokeExact(1, 0);
+        for (int i = 0; i < ROWS; i++) {
+            int slot = (int) STATE_SLOT.invokeExact(states, i);
+            STATE_PUSH.invokeExact(states, slot, prev[i], 5);
+            BATCH_ADD.invokeExact(batch, i, curr[i], states, slot);
+        }
+    }
+
+    private static Object parse(byte[] row) throws Throwable {
+        Object s = (Object) NEW_SNAPSHOT.invokeExact();
+        if (!(boolean) PARSE_FROM_BYTES.invokeExact(s, row, 0, row.length)) {
+            throw new IllegalStateException("benchmark row failed to parse");
+        }
+        return s;
+    }
+
+    @Benchmark
+    public Object calculateFrom() throws Throwable {
+        int i = next++;
+        if (next == ROWS) next = 0;
+        CALCULATE_FROM.invokeExact(factor, curr[i], prev[i]);
+        return factor;
+    }
+
+    /**
+     * 批量计算，按行计时，与 calculateFrom 直接可比
+     */
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public Object batchCompute() throws Throwable {
+        BATCH_COMPUTE.invokeExact(batch);
+        return batch;
+    }
+
+    @Benchmark
+    public int write() throws Exception {
+        out.reset();
+        ((Writable) factor).write(out);
+        return out.getLength();
+    }
+
+    @Benchmark
+    public Object readFields() throws Exception {
+        in.reset(out.getData(), out.getLength());
+        readBack.readFields(in);
+        return readBack;
+    }
+}
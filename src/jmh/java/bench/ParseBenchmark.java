@@ -0,0 +1,120 @@
+package bench;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+import static bench.HotPaths.*;
+
+/**
+ * 解析热路径：整行解析 / 单字段数值解析 / 跳过字段
+ * parseLong / skipFields 为 SWAR 版本，*Scalar 为原逐字节版本；@Setup 先逐字段核对两者结果一致
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ParseBenchmark {
+
+    private static final int ROWS = 4096; // 2 的幂，便于取模
+
+    private byte[][] rows;
+    private Object snapshot;
+    private final int[] cursor = new int[1];
+    private int next;
+
+    // 每行第 12 列 (tBidVol) 与第 5 列的起始偏移，避免把定位开销算进单字段基准
+    private int[] tBidVolOffset;
+    private int[] skipOffset;
+
+    @Setup
+    public void setup() throws Throwable {
+        rows = BenchmarkData.rows(ROWS, 300, 42L);
+        snapshot = (Object) NEW_SNAPSHOT.invokeExact();
+        tBidVolOffset = new int[ROWS];
+        skipOffset = new int[ROWS];
+        for (int i = 0; i < ROWS; i++) {
+            cursor[0] = 0;
+            SKIP_FIELDS.invokeExact(rows[i], cursor, 5);
+            skipOffset[i] = cursor[0];
+            SKIP_FIELDS.invokeExact(rows[i], cursor, 7);
+            tBidVolOffset[i] = cursor[0];
+            verifyAgainstScalar(rows[i]);
+        }
+    }
+
+    /**
+     * 对每一行：所有数值列 SWAR 与逐字节解析的值和游标一致，从每列起点跳过 1-12 列的游标一致
+     */
+    private static void verifyAgainstScalar(byte[] row) throws Throwable {
+        int[] swar = new int[1];
+        int[] scalar = new int[1];
+        int[] starts = new int[64];
+        int fields = 0;
+        for (int p = 0; p < row.length; ) {
+            starts[fields++] = p;
+            scalar[0] = p;
+            SKIP_FIELDS_SCALAR.invokeExact(row, scalar, 1, row.length);
+            p = scalar[0];
+        }
+        for (int f = 0; f < fields; f++) {
+            if (f != 3 && f != 4) { // MIC / 代码不是纯数字
+                swar[0] = scalar[0] = starts[f];
+                long a = (long) PARSE_LONG.invokeExact(row, swar);
+                long b = (long) PARSE_LONG_SCALAR.invokeExact(row, scalar, row.length);
+                if (a != b || swar[0] != scalar[0]) {
+                    throw new IllegalStateException("parseLong mismatch at field " + f + ": " + a + " vs " + b);
+                }
+            }
+            for (int n = 1; n <= 12; n++) {
+                swar[0] = scalar[0] = starts[f];
+                SKIP_FIELDS.invokeExact(row, swar, n);
+                SKIP_FIELDS_SCALAR.invokeExact(row, scalar, n, row.length);
+                if (swar[0] != scalar[0]) {
+                    throw new IllegalStateException("skipFields mismatch at field " + f + " skipping " + n);
+                }
+            }
+        }
+    }
+
+    @Benchmark
+    public boolean parseFromBytes() throws Throwable {
+        byte[] row = rows[next++ & (ROWS - 1)];
+        SNAPSHOT_RESET.invokeExact(snapshot);
+        return (boolean) PARSE_FROM_BYTES.invokeExact(snapshot, row, 0, row.length);
+    }
+
+    @Benchmark
+    public long parseLong() throws Throwable {
+        int i = next++ & (ROWS - 1);
+        cursor[0] = tBidVolOffset[i];
+        return (long) PARSE_LONG.invokeExact(rows[i], cursor);
+    }
+
+    @Benchmark
+    public long parseLongScalar() throws Throwable {
+        int i = next++ & (ROWS - 1);
+        byte[] row = rows[i];
+        cursor[0] = tBidVolOffset[i];
+        return (long) PARSE_LONG_SCALAR.invokeExact(row, cursor, row.length);
+    }
+
+    @Benchmark
+    public int skipFields() throws Throwable {
+        int i = next++ & (ROWS - 1);
+        cursor[0] = skipOffset[i];
+        SKIP_FIELDS.invokeExact(rows[i], cursor, 7);
+        return cursor[0];
+    }
+
+    @Benchmark
+    public int skipFieldsScalar() throws Throwable {
+        int i = next++ & (ROWS - 1);
+        byte[] row = rows[i];
+        cursor[0] = skipOffset[i];
+        SKIP_FIELDS_SCALAR.invokeExact(row, cursor, 7, row.length);
+        return cursor[0];
+    }
+}
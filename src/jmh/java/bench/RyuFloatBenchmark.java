@@ -0,0 +1,72 @@
+package bench;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static bench.HotPaths.*;
+
+/**
+ * Reducer 输出格式化：RyuFloat (最短往返 / 定长 7 位有效数字) 对比 Float.toString / Double.toString
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RyuFloatBenchmark {
+
+    private static final int VALUES = 1024;
+
+    private float[] values;
+    private double[] doubles;
+    private final byte[] buffer = new byte[64];
+    private int next;
+
+    /**
+     * 取值分布模仿 20 个因子的均值：比值 (-1, 1)、价格量级、极小值、成交量量级
+     */
+    @Setup
+    public void setup() {
+        Random rnd = new Random(1L);
+        values = new float[VALUES];
+        for (int i = 0; i < VALUES; i++) {
+            switch (i % 4) {
+                case 0: values[i] = (float) (rnd.nextGaussian() * 0.3); break;
+                case 1: values[i] = 50000f + rnd.nextFloat() * 500000f; break;
+                case 2: values[i] = rnd.nextFloat() * 1e-4f; break;
+                default: values[i] = 1e5f + rnd.nextFloat() * 1e7f; break;
+            }
+        }
+        // double 取同样的量级，但带满 17 位有效数字
+        doubles = new double[VALUES];
+        for (int i = 0; i < VALUES; i++) doubles[i] = values[i] * (1 + rnd.nextDouble() * 1e-7);
+    }
+
+    @Benchmark
+    public int ryuFloatToBytes() throws Throwable {
+        return (int) FLOAT_TO_BYTES.invokeExact(values[next++ & (VALUES - 1)], buffer, 0);
+    }
+
+    @Benchmark
+    public int ryuFloatToBytesFixed7() throws Throwable {
+        return (int) FLOAT_TO_BYTES_DIGITS.invokeExact(values[next++ & (VALUES - 1)], buffer, 0, 7);
+    }
+
+    @Benchmark
+    public String floatToString() {
+        return Float.toString(values[next++ & (VALUES - 1)]);
+    }
+
+    @Benchmark
+    public int ryuDoubleToBytes() throws Throwable {
+        return (int) DOUBLE_TO_BYTES.invokeExact(doubles[next++ & (VALUES - 1)], buffer, 0);
+    }
+
+    @Benchmark
+    public String doubleToString() {
+        return Double.toString(doubles[next++ & (VALUES - 1)]);
+    }
+}
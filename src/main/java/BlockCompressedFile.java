@@ -0,0 +1,248 @@
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.compress.CodecPool;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.CompressionInputStream;
+import org.apache.hadoop.io.compress.Decompressor;
+import org.apache.hadoop.util.ReflectionUtils;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * 可切分的分块压缩快照文件 (.blz) 及其块索引 (.blz.idx)
+ * 1. 数据文件由若干独立压缩的块首尾相接组成，每块是若干完整的 CSV 行 (约 factor.block.size 字节，块边界总在换行符之后)
+ * 2. 索引记录压缩算法和每块的 (压缩偏移, 压缩长度, 原始长度)，任意块都能单独解压，因此可以在块边界切分
+ * 3. Scanner 由后台线程按顺序读取并解压分片内的块，经有界队列交给解析线程 (预读 PREFETCH 块)，解压与解析重叠
+ * 压缩算法是任意 Hadoop CompressionCodec (默认 DefaultCodec / zlib，可选 SnappyCodec 等)
+ */
+public class BlockCompressedFile {
+
+    public static final String EXTENSION = ".blz";
+    public static final String INDEX_EXTENSION = ".blz.idx";
+
+    private static final int MAGIC = 0x424C5A31; // "BLZ1"
+    private static final int PREFETCH = 2;
+
+    /** 块索引 */
+    public static final class Index {
+        public final String codecClass;
+        public final long[] offsets;
+        public final int[] compressedLengths;
+        public final int[] rawLengths;
+
+        Index(String codecClass, long[] offsets, int[] compressedLengths, int[] rawLengths) {
+            this.codecClass = codecClass;
+            this.offsets = offsets;
+            this.compressedLengths = compressedLengths;
+            this.rawLengths = rawLengths;
+        }
+
+        public int blocks() { return offsets.length; }
+
+        /** 压缩偏移在 [start, start + length) 内的第一个块 */
+        int firstBlock(long start) {
+            int b = 0;
+            while (b < offsets.length && offsets[b] < start) b++;
+            return b;
+        }
+
+        public static Index read(FileSystem fs, Path data) throws IOException {
+            try (DataInputStream in = fs.open(indexPath(data))) {
+                if (in.readInt() != MAGIC) throw new IOException("Not a block index: " + indexPath(data));
+                String codec = in.readUTF();
+                int n = in.readInt();
+                long[] offsets = new long[n];
+                int[] clen = new int[n];
+                int[] rlen = new int[n];
+                for (int i = 0; i < n; i++) {
+                    offsets[i] = in.readLong();
+                    clen[i] = in.readInt();
+                    rlen[i] = in.readInt();
+                }
+                return new Index(codec, offsets, clen, rlen);
+            }
+        }
+
+        void write(DataOutputStream out) throws IOException {
+            out.writeInt(MAGIC);
+            out.writeUTF(codecClass);
+            out.writeInt(offsets.length);
+            for (int i = 0; i < offsets.length; i++) {
+                out.writeLong(offsets[i]);
+                out.writeInt(compressedLengths[i]);
+                out.writeInt(rawLengths[i]);
+            }
+        }
+    }
+
+    public static Path indexPath(Path data) {
+        return new Path(data.getParent(), data.getName() + ".idx");
+    }
+
+    public static boolean isBlockFile(Path path) {
+        return path.getName().endsWith(EXTENSION);
+    }
+
+    /**
+     * 逐行解析分片内各块的扫描器，接口与 SnapshotScanner 一致
+     */
+    public static final class Scanner implements SnapshotSource {
+
+        private static final Block END = new Block(null, 0);
+
+        private static final class Block {
+            final byte[] data;
+            final int length;
+            Block(byte[] data, int length) { this.data = data; this.length = length; }
+        }
+
+        private final FactorSpec spec;
+        // 缓冲区最多 PREFETCH + 1 个，再留一个位置给结束标记
+        private final BlockingQueue<Block> ready = new ArrayBlockingQueue<>(PREFETCH + 2);
+        private final BlockingQueue<byte[]> free = new ArrayBlockingQueue<>(PREFETCH + 1);
+        private final Thread decompressor;
+        private volatile Throwable failure;
+
+        private final int totalBlocks;
+        private int consumedBlocks;
+        private Block block;
+        private int pos;
+        private long rejected;
+
+        /**
+         * @param start, length 分片在压缩文件中的范围，起始偏移落在其中的块归本分片
+         */
+        public Scanner(Configuration conf, Path path, long start, long length) throws IOException {
+            this.spec = FactorSpec.get(conf);
+            FileSystem fs = path.getFileSystem(conf);
+            Index index = Index.read(fs, path);
+            int first = index.firstBlock(start);
+            int last = index.firstBlock(start + length);
+            this.totalBlocks = last - first;
+
+            int maxRaw = 0;
+            for (int b = first; b < last; b++) maxRaw = Math.max(maxRaw, index.rawLengths[b]);
+            for (int i = 0; i < Math.min(PREFETCH + 1, totalBlocks); i++) free.add(new byte[maxRaw]);
+
+            CompressionCodec codec;
+            try {
+                codec = (CompressionCodec) ReflectionUtils.newInstance(conf.getClassByName(index.codecClass), conf);
+            } catch (ClassNotFoundException e) {
+                throw new IOException("Unknown codec in " + indexPath(path), e);
+            }
+            decompressor = new Thread(() -> decompressAll(fs, path, index, first, last, codec),
+                    "block-decompress-" + path.getName());
+            decompressor.setDaemon(true);
+            decompressor.start();
+        }
+
+        /**
+         * 后台线程：顺序读取压缩块并解压到空闲缓冲区，解析线程用完后归还
+         */
+        private void decompressAll(FileSystem fs, Path path, Index index, int first, int last,
+                                   CompressionCodec codec) {
+            Decompressor d = CodecPool.getDecompressor(codec);
+            try (FSDataInputStream in = fs.open(path)) {
+                if (first < last) in.seek(index.offsets[first]);
+                byte[] compressed = new byte[0];
+                for (int b = first; b < last; b++) {
+                    int clen = index.compressedLengths[b];
+                    int rlen = index.rawLengths[b];
+                    if (compressed.length < clen) compressed = new byte[clen];
+                    in.readFully(compressed, 0, clen);
+
+                    byte[] raw = free.take();
+                    if (d != null) d.reset();
+                    try (CompressionInputStream cin = codec.createInputStream(
+                            new ByteArrayInputStream(compressed, 0, clen), d)) {
+                        int n = 0;
+                        while (n < rlen) {
+                            int r = cin.read(raw, n, rlen - n);
+                            if (r < 0) throw new IOException("Truncated block " + b + " in " + path);
+                            n += r;
+                        }
+                    }
+                    ready.put(new Block(raw, rlen));
+                }
+            } catch (InterruptedException e) {
+                return; // close() 提前结束
+            } catch (Throwable t) {
+                failure = t;
+            } finally {
+                if (d != null) CodecPool.returnDecompressor(d);
+            }
+            ready.offer(END);
+        }
+
+        @Override
+        public boolean next(SnapshotData s) throws IOException {
+            while (true) {
+                if (block == null || pos >= block.length) {
+                    if (!nextBlock()) return false;
+                }
+                byte[] buf = block.data;
+                int limit = block.length;
+                int nl = pos;
+                while (nl < limit && buf[nl] != '\n') nl++;
+
+                int lineStart = pos;
+                int lineEnd = nl;
+                if (lineEnd > lineStart && buf[lineEnd - 1] == '\r') lineEnd--;
+                pos = nl + 1;
+
+                s.reset();
+                if (s.parseFromBytes(buf, lineStart, lineEnd - lineStart, spec)) return true;
+                rejected++;
+            }
+        }
+
+        private boolean nextBlock() throws IOException {
+            if (block != null) {
+                free.offer(block.data);
+                block = null;
+                consumedBlocks++;
+            }
+            if (consumedBlocks >= totalBlocks) return false;
+            Block b;
+            try {
+                b = ready.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for block decompression");
+            }
+            if (b == END) {
+                Throwable t = failure;
+                throw new IOException("Block decompression failed", t);
+            }
+            block = b;
+            pos = 0;
+            return true;
+        }
+
+        @Override
+        public long rejected() { return rejected; }
+
+        public float progress() {
+            if (totalBlocks == 0) return 1.0f;
+            float inBlock = block == null || block.length == 0 ? 0 : pos / (float) block.length;
+            return Math.min(1.0f, (consumedBlocks + inBlock) / totalBlocks);
+        }
+
+        @Override
+        public void close() throws IOException {
+            decompressor.interrupt();
+            try {
+                decompressor.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
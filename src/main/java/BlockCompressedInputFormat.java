@@ -0,0 +1,192 @@
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.BlockLocation;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.JobContext;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.lib.input.CombineFileRecordReader;
+import org.apache.hadoop.mapreduce.lib.input.CombineFileSplit;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 读取 BlockCompressor 产出的 .blz 分块压缩文件 (忽略目录中的其他文件)
+ * 1. 按索引在块边界切分：大文件拆成多个分片，小文件合并进同一个 CombineFileSplit
+ * 2. 分片大小按原始 (解压后) 字节计，上限为 mapreduce.input.fileinputformat.split.maxsize，
+ *    与 CombineTextInputFormat 处理同样多的行；末尾不足 split.minsize 的零头并入上一个分片
+ * 3. 每个文件段由 BlockCompressedFile.Scanner 读取：后台线程解压，RecordReader 线程就地解析
+ */
+public class BlockCompressedInputFormat extends FileInputFormat<LongWritable, SnapshotData> {
+
+    private static final long DEFAULT_MAX_SPLIT = 512L * 1024 * 1024;
+    private static final int MAX_HOSTS = 3;
+
+    @Override
+    protected List<FileStatus> listStatus(JobContext job) throws IOException {
+        List<FileStatus> files = new ArrayList<>();
+        for (FileStatus file : super.listStatus(job)) {
+            if (BlockCompressedFile.isBlockFile(file.getPath())) files.add(file);
+        }
+        return files;
+    }
+
+    @Override
+    public List<InputSplit> getSplits(JobContext job) throws IOException {
+        Configuration conf = job.getConfiguration();
+        long maxRaw = conf.getLong(SPLIT_MAXSIZE, DEFAULT_MAX_SPLIT);
+        long minRaw = Math.min(maxRaw, conf.getLong(SPLIT_MINSIZE, 0));
+
+        List<InputSplit> splits = new ArrayList<>();
+        List<Path> paths = new ArrayList<>();
+        List<long[]> ranges = new ArrayList<>(); // {压缩起点, 压缩长度}
+        List<Path> lastPaths = new ArrayList<>();
+        List<long[]> lastRanges = new ArrayList<>();
+        long rawInSplit = 0;
+
+        for (FileStatus file : listStatus(job)) {
+            Path path = file.getPath();
+            FileSystem fs = path.getFileSystem(conf);
+            BlockCompressedFile.Index index = BlockCompressedFile.Index.read(fs, path);
+
+            int segStart = 0;
+            for (int b = 0; b < index.blocks(); b++) {
+                rawInSplit += index.rawLengths[b];
+                if (rawInSplit >= maxRaw) {
+                    // 当前分片已满：本文件的 [segStart, b] 段收尾，分片暂存一轮，末尾的零头可以并回来
+                    addSegment(paths, ranges, path, index, segStart, b + 1);
+                    if (!lastPaths.isEmpty()) splits.add(toSplit(conf, lastPaths, lastRanges));
+                    lastPaths.addAll(paths);
+                    lastRanges.addAll(ranges);
+                    paths.clear();
+                    ranges.clear();
+                    segStart = b + 1;
+                    rawInSplit = 0;
+                }
+            }
+            if (segStart < index.blocks()) addSegment(paths, ranges, path, index, segStart, index.blocks());
+        }
+        // 不足 split.minsize 的零头并入上一个分片，而不是单独占一个 Map
+        if (!paths.isEmpty() && !lastPaths.isEmpty() && rawInSplit < minRaw) {
+            lastPaths.addAll(paths);
+            lastRanges.addAll(ranges);
+            paths.clear();
+            ranges.clear();
+        }
+        if (!lastPaths.isEmpty()) splits.add(toSplit(conf, lastPaths, lastRanges));
+        if (!paths.isEmpty()) splits.add(toSplit(conf, paths, ranges));
+        return splits;
+    }
+
+    private static void addSegment(List<Path> paths, List<long[]> ranges, Path path,
+                                   BlockCompressedFile.Index index, int from, int to) {
+        long start = index.offsets[from];
+        long end = index.offsets[to - 1] + index.compressedLengths[to - 1];
+        paths.add(path);
+        ranges.add(new long[]{start, end - start});
+    }
+
+    private static CombineFileSplit toSplit(Configuration conf, List<Path> paths, List<long[]> ranges)
+            throws IOException {
+        int n = paths.size();
+        long[] starts = new long[n];
+        long[] lengths = new long[n];
+        for (int i = 0; i < n; i++) {
+            starts[i] = ranges.get(i)[0];
+            lengths[i] = ranges.get(i)[1];
+        }
+        Path[] files = paths.toArray(new Path[0]);
+        CombineFileSplit split = new CombineFileSplit(files, starts, lengths, hosts(conf, files, starts, lengths));
+        paths.clear();
+        ranges.clear();
+        return split;
+    }
+
+    /**
+     * 分片的本地性：按各文件段在 HDFS 块上的重叠字节数给主机计分，取字节数最多的几个
+     * (调度器据此把 map 放到数据所在节点；本地文件系统只返回 localhost)
+     */
+    static String[] hosts(Configuration conf, Path[] paths, long[] starts, long[] lengths) throws IOException {
+        Map<String, Long> bytes = new HashMap<>();
+        for (int i = 0; i < paths.length; i++) {
+            long start = starts[i];
+            long end = start + lengths[i];
+            FileSystem fs = paths[i].getFileSystem(conf);
+            for (BlockLocation location : fs.getFileBlockLocations(paths[i], start, lengths[i])) {
+                long overlap = Math.min(end, location.getOffset() + location.getLength())
+                        - Math.max(start, location.getOffset());
+                if (overlap <= 0) continue;
+                for (String host : location.getHosts()) bytes.merge(host, overlap, Long::sum);
+            }
+        }
+        List<Map.Entry<String, Long>> ranked = new ArrayList<>(bytes.entrySet());
+        ranked.sort((a, b) -> Long.compare(b.getValue(), a.getValue()));
+        String[] hosts = new String[Math.min(MAX_HOSTS, ranked.size())];
+        for (int i = 0; i < hosts.length; i++) hosts[i] = ranked.get(i).getKey();
+        return hosts;
+    }
+
+    @Override
+    public RecordReader<LongWritable, SnapshotData> createRecordReader(InputSplit split, TaskAttemptContext context)
+            throws IOException {
+        return new CombineFileRecordReader<>((CombineFileSplit) split, context, SegmentReader.class);
+    }
+
+    /**
+     * CombineFileSplit 中单个文件段的 RecordReader (与 SnapshotRecordReader 相同，只是数据源换成分块解压)
+     */
+    public static class SegmentReader extends RecordReader<LongWritable, SnapshotData> {
+        private final CombineFileSplit split;
+        private final int index;
+        private BlockCompressedFile.Scanner scanner;
+        private TaskAttemptContext context;
+        private long row;
+        private final LongWritable key = new LongWritable();
+        private final SnapshotData value = new SnapshotData();
+
+        // CombineFileRecordReader 通过反射调用该构造器
+        public SegmentReader(CombineFileSplit split, TaskAttemptContext context, Integer index) {
+            this.split = split;
+            this.index = index;
+        }
+
+        @Override
+        public void initialize(InputSplit genericSplit, TaskAttemptContext context) throws IOException {
+            this.context = context;
+            scanner = new BlockCompressedFile.Scanner(context.getConfiguration(),
+                    split.getPath(index), split.getOffset(index), split.getLength(index));
+        }
+
+        @Override
+        public boolean nextKeyValue() throws IOException {
+            key.set(row++);
+            return scanner.next(value);
+        }
+
+        @Override
+        public LongWritable getCurrentKey() { return key; }
+
+        @Override
+        public SnapshotData getCurrentValue() { return value; }
+
+        @Override
+        public float getProgress() { return scanner == null ? 0.0f : scanner.progress(); }
+
+        @Override
+        public void close() throws IOException {
+            if (scanner == null) return;
+            scanner.close();
+            if (scanner.rejected() > 0 && FactorMetrics.isEnabled(context.getConfiguration())) {
+                context.getCounter(FactorMetrics.Counter.PARSE_REJECTED).increment(scanner.rejected());
+            }
+            scanner = null;
+        }
+    }
+}
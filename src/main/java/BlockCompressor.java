@@ -0,0 +1,180 @@
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.compress.CodecPool;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.CompressionCodecFactory;
+import org.apache.hadoop.io.compress.CompressionOutputStream;
+import org.apache.hadoop.io.compress.Compressor;
+import org.apache.hadoop.io.compress.DefaultCodec;
+import org.apache.hadoop.util.ReflectionUtils;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * 一次性把 CSV 快照 (可以是 gzip 等不可切分的压缩文件) 转换为可切分的分块压缩文件
+ * 输出：<output>/<相对路径去掉压缩后缀>.blz 与同名 .blz.idx 索引
+ * 之后使用 -Dfactor.input.format=block 读取，分片按块边界切分，每块由后台线程解压
+ */
+public class BlockCompressor extends Configured implements Tool {
+
+    // 块的原始大小 (字节)，块边界取在该大小之前的最后一个换行符之后
+    public static final String BLOCK_SIZE_KEY = "factor.block.size";
+    // 块压缩算法 (Hadoop CompressionCodec 类名)
+    public static final String CODEC_KEY = "factor.block.codec";
+
+    private static final int DEFAULT_BLOCK_SIZE = 4 << 20;
+
+    @Override
+    public int run(String[] args) throws Exception {
+        if (args.length != 2) {
+            System.err.println("Usage: BlockCompressor <csv_input_path> <block_output_path>");
+            return -1;
+        }
+        Configuration conf = getConf();
+        Path input = new Path(args[0]);
+        Path output = new Path(args[1]);
+        int blockSize = conf.getInt(BLOCK_SIZE_KEY, DEFAULT_BLOCK_SIZE);
+        Class<?> codecClass = conf.getClass(CODEC_KEY, DefaultCodec.class);
+
+        FileSystem fs = input.getFileSystem(conf);
+        FileSystem outFs = output.getFileSystem(conf);
+        Path root = fs.makeQualified(input);
+        List<Path> files = LocalFactorEngine.listInputFiles(fs, input);
+
+        long startTime = System.currentTimeMillis();
+        long[] bytes = new long[2]; // 原始 / 压缩
+        try {
+            // 每个文件独立转换，文件间并行
+            IntStream.range(0, files.size()).parallel().forEach(i -> {
+                try {
+                    Path file = fs.makeQualified(files.get(i));
+                    long[] r = compress(conf, fs, file, outFs, targetPath(conf, root, file, output), blockSize,
+                            codecClass);
+                    synchronized (bytes) {
+                        bytes[0] += r[0];
+                        bytes[1] += r[1];
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        long endTime = System.currentTimeMillis();
+
+        System.out.println("Compressed " + files.size() + " files, " + bytes[0] + " -> " + bytes[1] + " bytes in "
+                + (endTime - startTime) / 1000.0 + "s");
+        return 0;
+    }
+
+    /**
+     * 保留输入目录下的相对路径，去掉 .gz 等压缩后缀，加上 .blz
+     */
+    private static Path targetPath(Configuration conf, Path root, Path file, Path output) {
+        String rel = file.toUri().getPath().substring(root.toUri().getPath().length());
+        if (rel.startsWith("/")) rel = rel.substring(1);
+        if (rel.isEmpty()) rel = file.getName(); // 输入本身就是单个文件
+        CompressionCodec inCodec = new CompressionCodecFactory(conf).getCodec(file);
+        if (inCodec != null) rel = CompressionCodecFactory.removeSuffix(rel, inCodec.getDefaultExtension());
+        return new Path(output, rel + BlockCompressedFile.EXTENSION);
+    }
+
+    /**
+     * @return {原始字节数, 压缩字节数}
+     */
+    static long[] compress(Configuration conf, FileSystem fs, Path file, FileSystem outFs, Path target,
+                           int blockSize, Class<?> codecClass) throws IOException {
+        CompressionCodec inCodec = new CompressionCodecFactory(conf).getCodec(file);
+        CompressionCodec codec = (CompressionCodec) ReflectionUtils.newInstance(codecClass, conf);
+        Compressor compressor = CodecPool.getCompressor(codec);
+
+        long[] offsets = new long[16];
+        int[] clens = new int[16];
+        int[] rlens = new int[16];
+        int blocks = 0;
+        long raw = 0;
+
+        byte[] buf = new byte[blockSize];
+        int filled = 0;
+        ByteArrayOutputStream packed = new ByteArrayOutputStream(blockSize);
+        try (InputStream in = inCodec == null ? fs.open(file) : inCodec.createInputStream(fs.open(file));
+             FSDataOutputStream out = outFs.create(target, true)) {
+            boolean eof = false;
+            while (!eof || filled > 0) {
+                // 填满缓冲区
+                while (!eof && filled < buf.length) {
+                    int n = in.read(buf, filled, buf.length - filled);
+                    if (n < 0) eof = true;
+                    else filled += n;
+                }
+                if (filled == 0) break;
+
+                // 块在最后一个换行符之后结束；整块没有换行符 (超长行) 时扩大缓冲区继续读
+                int cut = filled;
+                if (!eof) {
+                    cut = lastNewline(buf, filled) + 1;
+                    if (cut == 0) {
+                        buf = Arrays.copyOf(buf, buf.length << 1);
+                        continue;
+                    }
+                }
+
+                packed.reset();
+                if (compressor != null) compressor.reset();
+                CompressionOutputStream cout = codec.createOutputStream(packed, compressor);
+                cout.write(buf, 0, cut);
+                cout.finish();
+
+                if (blocks == offsets.length) {
+                    offsets = Arrays.copyOf(offsets, blocks << 1);
+                    clens = Arrays.copyOf(clens, blocks << 1);
+                    rlens = Arrays.copyOf(rlens, blocks << 1);
+                }
+                offsets[blocks] = out.getPos();
+                clens[blocks] = packed.size();
+                rlens[blocks] = cut;
+                blocks++;
+                packed.writeTo(out);
+                raw += cut;
+
+                // 剩余的半行移到缓冲区头部
+                System.arraycopy(buf, cut, buf, 0, filled - cut);
+                filled -= cut;
+            }
+        } finally {
+            if (compressor != null) CodecPool.returnCompressor(compressor);
+        }
+
+        BlockCompressedFile.Index index = new BlockCompressedFile.Index(codecClass.getName(),
+                Arrays.copyOf(offsets, blocks), Arrays.copyOf(clens, blocks), Arrays.copyOf(rlens, blocks));
+        try (DataOutputStream out = outFs.create(BlockCompressedFile.indexPath(target), true)) {
+            index.write(out);
+        }
+        long compressed = blocks == 0 ? 0 : offsets[blocks - 1] + clens[blocks - 1];
+        return new long[]{raw, compressed};
+    }
+
+    private static int lastNewline(byte[] b, int limit) {
+        for (int i = limit - 1; i >= 0; i--) {
+            if (b[i] == '\n') return i;
+        }
+        return -1;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int exitCode = ToolRunner.run(new BlockCompressor(), args);
+        System.exit(exitCode);
+    }
+}
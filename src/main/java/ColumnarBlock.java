@@ -0,0 +1,265 @@
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * 列式快照块：一个交易日 + 一只股票的全部快照，只保留 SnapshotData 用到的字段
+ * 布局 (大端)：
+ *   [magic][version][flags][tradingDay][code][rows][levels]   7 x int
+ *   [tradeTime 列] [tBidVol 列] [tAskVol 列] [每档 bp, bv, ap, av 列 ...]
+ *   每列：[byteLen int][payload]，payload 为定长 int/long，或 (FLAG_DELTA) 差分 + ZigZag + Varint
+ * levels 为 5 (默认) 或 10 (转换时 factor.depth > 5)
+ * 价格、成交量相邻快照变化很小，差分后多数字段只占 1-2 字节
+ */
+public class ColumnarBlock {
+
+    public static final String EXTENSION = ".snpc";
+    static final int MAGIC = 0x534E5043; // "SNPC"
+    static final int VERSION = 1;
+    static final int FLAG_DELTA = 1;
+
+    private static final int HEADER_BYTES = 7 * 4;
+
+    // long 列下标：0 tBidVol, 1 tAskVol, 2 + 4 * level + {0 bp, 1 bv, 2 ap, 3 av}
+    private static final int LEVEL_BASE = 2;
+    // 默认只存前 5 档；factor.depth > 5 时转换器存 10 档
+    static final int LEVELS = 5;
+    static final int MAX_LEVELS = 10;
+
+    int tradingDay;
+    int code;
+    int rows;
+    final int levels;
+    int[] tradeTime;
+    long[][] cols;
+
+    public ColumnarBlock(int capacity) {
+        this(capacity, LEVELS);
+    }
+
+    public ColumnarBlock(int capacity, int levels) {
+        if (levels != LEVELS && levels != MAX_LEVELS) throw new IllegalArgumentException("Unsupported level count " + levels);
+        this.levels = levels;
+        this.tradeTime = new int[capacity];
+        this.cols = new long[LEVEL_BASE + 4 * levels][capacity];
+    }
+
+    /** 转换时按作业深度选择存几档 */
+    static int levelsFor(int depth) {
+        return depth > LEVELS ? MAX_LEVELS : LEVELS;
+    }
+
+    public int levels() { return levels; }
+
+    /**
+     * 块中的档位不足以计算 factor.depth 时直接报错，而不是静默地用 0 补齐
+     */
+    public void checkDepth(int depth, Path path) throws IOException {
+        if (depth > levels) {
+            throw new IOException(path + " stores " + levels + " levels but " + FactorSpec.DEPTH_KEY + "=" + depth
+                    + "; re-run ColumnarConverter with the same depth");
+        }
+    }
+
+    public int rows() { return rows; }
+    public int tradingDay() { return tradingDay; }
+    public int code() { return code; }
+
+    // ---------------- 写入 (转换器) ----------------
+
+    public void add(SnapshotData s) {
+        if (rows == tradeTime.length) grow();
+        if (rows == 0) { tradingDay = s.tradingDay; code = s.code; }
+        int r = rows++;
+        tradeTime[r] = (int) s.tradeTime;
+        long[][] c = cols;
+        c[0][r] = s.tBidVol; c[1][r] = s.tAskVol;
+        c[2][r] = s.bp0;  c[3][r] = s.bv0;  c[4][r] = s.ap0;  c[5][r] = s.av0;
+        c[6][r] = s.bp1;  c[7][r] = s.bv1;  c[8][r] = s.ap1;  c[9][r] = s.av1;
+        c[10][r] = s.bp2; c[11][r] = s.bv2; c[12][r] = s.ap2; c[13][r] = s.av2;
+        c[14][r] = s.bp3; c[15][r] = s.bv3; c[16][r] = s.ap3; c[17][r] = s.av3;
+        c[18][r] = s.bp4; c[19][r] = s.bv4; c[20][r] = s.ap4; c[21][r] = s.av4;
+        if (levels == MAX_LEVELS) {
+            c[22][r] = s.bp5; c[23][r] = s.bv5; c[24][r] = s.ap5; c[25][r] = s.av5;
+            c[26][r] = s.bp6; c[27][r] = s.bv6; c[28][r] = s.ap6; c[29][r] = s.av6;
+            c[30][r] = s.bp7; c[31][r] = s.bv7; c[32][r] = s.ap7; c[33][r] = s.av7;
+            c[34][r] = s.bp8; c[35][r] = s.bv8; c[36][r] = s.ap8; c[37][r] = s.av8;
+            c[38][r] = s.bp9; c[39][r] = s.bv9; c[40][r] = s.ap9; c[41][r] = s.av9;
+        }
+    }
+
+    private void grow() {
+        int cap = Math.max(16, tradeTime.length << 1);
+        int[] t = new int[cap];
+        System.arraycopy(tradeTime, 0, t, 0, rows);
+        tradeTime = t;
+        for (int i = 0; i < cols.length; i++) {
+            long[] col = new long[cap];
+            System.arraycopy(cols[i], 0, col, 0, rows);
+            cols[i] = col;
+        }
+    }
+
+    public void write(OutputStream os, boolean delta) throws IOException {
+        DataOutputStream out = new DataOutputStream(os);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(delta ? FLAG_DELTA : 0);
+        out.writeInt(tradingDay);
+        out.writeInt(code);
+        out.writeInt(rows);
+        out.writeInt(levels);
+
+        byte[] scratch = new byte[rows * 10 + 16];
+        int len;
+        if (delta) {
+            long prev = 0;
+            len = 0;
+            for (int r = 0; r < rows; r++) { len = putVarLong(scratch, len, tradeTime[r] - prev); prev = tradeTime[r]; }
+        } else {
+            len = 0;
+            for (int r = 0; r < rows; r++) len = putInt(scratch, len, tradeTime[r]);
+        }
+        out.writeInt(len);
+        out.write(scratch, 0, len);
+
+        for (long[] col : cols) {
+            len = 0;
+            if (delta) {
+                long prev = 0;
+                for (int r = 0; r < rows; r++) { len = putVarLong(scratch, len, col[r] - prev); prev = col[r]; }
+            } else {
+                for (int r = 0; r < rows; r++) len = putLong(scratch, len, col[r]);
+            }
+            out.writeInt(len);
+            out.write(scratch, 0, len);
+        }
+        out.flush();
+    }
+
+    private static int putInt(byte[] b, int off, int v) {
+        b[off] = (byte) (v >>> 24); b[off + 1] = (byte) (v >>> 16); b[off + 2] = (byte) (v >>> 8); b[off + 3] = (byte) v;
+        return off + 4;
+    }
+
+    private static int putLong(byte[] b, int off, long v) {
+        off = putInt(b, off, (int) (v >>> 32));
+        return putInt(b, off, (int) v);
+    }
+
+    // ZigZag + Varint：小的正负差值都编码为 1-2 字节
+    private static int putVarLong(byte[] b, int off, long v) {
+        long z = (v << 1) ^ (v >> 63);
+        while ((z & ~0x7FL) != 0) {
+            b[off++] = (byte) ((z & 0x7F) | 0x80);
+            z >>>= 7;
+        }
+        b[off++] = (byte) z;
+        return off;
+    }
+
+    // ---------------- 读取 ----------------
+
+    public static ColumnarBlock load(FileSystem fs, Path path) throws IOException {
+        long len = fs.getFileStatus(path).getLen();
+        if (len > Integer.MAX_VALUE) throw new IOException("Columnar block too large: " + path);
+        byte[] data = new byte[(int) len];
+        try (FSDataInputStream in = fs.open(path)) {
+            in.readFully(0, data);
+        }
+        return read(data, data.length);
+    }
+
+    /**
+     * 从完整的块字节解码出全部列
+     */
+    public static ColumnarBlock read(byte[] data, int length) throws IOException {
+        ByteBuffer bb = ByteBuffer.wrap(data, 0, length);
+        if (length < HEADER_BYTES || bb.getInt() != MAGIC) throw new IOException("Not a columnar snapshot block");
+        int version = bb.getInt();
+        if (version != VERSION) throw new IOException("Unsupported columnar block version " + version);
+        boolean delta = (bb.getInt() & FLAG_DELTA) != 0;
+        int tradingDay = bb.getInt();
+        int code = bb.getInt();
+        int rows = bb.getInt();
+        int levels = bb.getInt();
+        if (levels != LEVELS && levels != MAX_LEVELS) throw new IOException("Unsupported level count " + levels);
+
+        ColumnarBlock block = new ColumnarBlock(rows, levels);
+        block.tradingDay = tradingDay;
+        block.code = code;
+        block.rows = rows;
+
+        int[] cursor = new int[1];
+        int len = bb.getInt();
+        cursor[0] = bb.position();
+        if (delta) {
+            long prev = 0;
+            for (int r = 0; r < rows; r++) { prev += getVarLong(data, cursor); block.tradeTime[r] = (int) prev; }
+        } else {
+            for (int r = 0; r < rows; r++) block.tradeTime[r] = bb.getInt(cursor[0] + 4 * r);
+        }
+        bb.position(bb.position() + len);
+
+        for (long[] col : block.cols) {
+            len = bb.getInt();
+            cursor[0] = bb.position();
+            if (delta) {
+                long prev = 0;
+                for (int r = 0; r < rows; r++) { prev += getVarLong(data, cursor); col[r] = prev; }
+            } else {
+                for (int r = 0; r < rows; r++) col[r] = bb.getLong(cursor[0] + 8 * r);
+            }
+            bb.position(bb.position() + len);
+        }
+        return block;
+    }
+
+    private static long getVarLong(byte[] b, int[] cursor) {
+        int i = cursor[0];
+        long z = 0;
+        int shift = 0;
+        byte v;
+        do {
+            v = b[i++];
+            z |= (long) (v & 0x7F) << shift;
+            shift += 7;
+        } while (v < 0);
+        cursor[0] = i;
+        return (z >>> 1) ^ -(z & 1);
+    }
+
+    /**
+     * 第 r 行是否通过行过滤 (只读代码与时间列，不填充 SnapshotData)
+     */
+    public boolean accept(int r, SnapshotFilter filter) {
+        return filter == null || filter.accept(tradeTime[r], code);
+    }
+
+    /**
+     * 把第 r 行写入 SnapshotData，供 Factor.calculateFrom 直接使用
+     */
+    public void fill(int r, SnapshotData s) {
+        long[][] c = cols;
+        s.tradingDay = tradingDay;
+        s.code = code;
+        s.tradeTime = tradeTime[r];
+        s.tBidVol = c[0][r]; s.tAskVol = c[1][r];
+        s.bp0 = c[2][r];  s.bv0 = c[3][r];  s.ap0 = c[4][r];  s.av0 = c[5][r];
+        s.bp1 = c[6][r];  s.bv1 = c[7][r];  s.ap1 = c[8][r];  s.av1 = c[9][r];
+        s.bp2 = c[10][r]; s.bv2 = c[11][r]; s.ap2 = c[12][r]; s.av2 = c[13][r];
+        s.bp3 = c[14][r]; s.bv3 = c[15][r]; s.ap3 = c[16][r]; s.av3 = c[17][r];
+        s.bp4 = c[18][r]; s.bv4 = c[19][r]; s.ap4 = c[20][r]; s.av4 = c[21][r];
+        if (levels == MAX_LEVELS) {
+            s.bp5 = c[22][r]; s.bv5 = c[23][r]; s.ap5 = c[24][r]; s.av5 = c[25][r];
+            s.bp6 = c[26][r]; s.bv6 = c[27][r]; s.ap6 = c[28][r]; s.av6 = c[29][r];
+            s.bp7 = c[30][r]; s.bv7 = c[31][r]; s.ap7 = c[32][r]; s.av7 = c[33][r];
+            s.bp8 = c[34][r]; s.bv8 = c[35][r]; s.ap8 = c[36][r]; s.av8 = c[37][r];
+            s.bp9 = c[38][r]; s.bv9 = c[39][r]; s.ap9 = c[40][r]; s.av9 = c[41][r];
+        }
+    }
+}
@@ -0,0 +1,106 @@
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+/**
+ * 一次性把 CSV 快照转换为列式块 (ColumnarBlock)
+ * 输出：<output>/<YYYYMMDD>/<code>_<输入文件序号>.snpc，每个块是一天一只股票 (来自同一输入文件) 的全部快照
+ * 之后的重复运行使用 -Dfactor.input.format=columnar 直接读取，跳过 57 列文本解析
+ */
+public class ColumnarConverter extends Configured implements Tool {
+
+    // 是否对价格、量做差分 + Varint 编码 (默认开启)
+    public static final String DELTA_KEY = "factor.columnar.delta";
+
+    @Override
+    public int run(String[] args) throws Exception {
+        if (args.length != 2) {
+            System.err.println("Usage: ColumnarConverter <csv_input_path> <columnar_output_path>");
+            return -1;
+        }
+        Configuration conf = getConf();
+        Path input = new Path(args[0]);
+        Path output = new Path(args[1]);
+        boolean delta = conf.getBoolean(DELTA_KEY, true);
+        int levels = ColumnarBlock.levelsFor(FactorSpec.get(conf).depth);
+        // 列式块要能服务任意因子子集与过滤条件：转换时忽略 factor.alphas 的解析投影和行过滤，只按深度决定存几档
+        Configuration scanConf = new Configuration(conf);
+        scanConf.unset(FactorSpec.ALPHAS_KEY);
+        scanConf.unset(SnapshotFilter.UNIVERSE_KEY);
+        scanConf.unset(SnapshotFilter.UNIVERSE_FILE_KEY);
+        scanConf.unset(SnapshotFilter.SESSIONS_KEY);
+        // 块头写的是 levels 档，解析也必须填满 levels 档 (depth 6-9 时否则第 depth+1..10 档是 0)
+        scanConf.setInt(FactorSpec.DEPTH_KEY, levels);
+
+        FileSystem fs = input.getFileSystem(conf);
+        FileSystem outFs = output.getFileSystem(conf);
+        List<Path> files = LocalFactorEngine.listInputFiles(fs, input);
+
+        long startTime = System.currentTimeMillis();
+        try {
+            // 每个文件独立转换，文件间并行
+            IntStream.range(0, files.size()).parallel().forEach(i -> {
+                try {
+                    convert(scanConf, files.get(i), i, outFs, output, delta, levels);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        long endTime = System.currentTimeMillis();
+
+        System.out.println("Converted " + files.size() + " files in " + (endTime - startTime) / 1000.0 + "s");
+        return 0;
+    }
+
+    private static void convert(Configuration conf, Path file, int fileIndex, FileSystem outFs, Path output,
+                                boolean delta, int levels) throws IOException {
+        // Key: tradingDay << 32 | code，保持首次出现的顺序
+        Map<Long, ColumnarBlock> blocks = new LinkedHashMap<>();
+        SnapshotData s = new SnapshotData();
+
+        long length = file.getFileSystem(conf).getFileStatus(file).getLen();
+        try (SnapshotScanner scanner = new SnapshotScanner(conf, file, 0, length)) {
+            while (scanner.next(s)) {
+                try {
+                    CompactTimeUtil.encode(s.tradingDay, (int) s.tradeTime); // 过滤表头等无效行
+                } catch (IllegalArgumentException e) {
+                    continue;
+                }
+                long key = ((long) s.tradingDay << 32) | (s.code & 0xFFFFFFFFL);
+                ColumnarBlock block = blocks.get(key);
+                if (block == null) {
+                    block = new ColumnarBlock(4096, levels);
+                    blocks.put(key, block);
+                }
+                block.add(s);
+            }
+        }
+
+        for (ColumnarBlock block : blocks.values()) {
+            Path dayDir = new Path(output, Integer.toString(block.tradingDay()));
+            String name = String.format("%06d_%05d%s", block.code(), fileIndex, ColumnarBlock.EXTENSION);
+            try (OutputStream out = new BufferedOutputStream(outFs.create(new Path(dayDir, name), true), 1 << 16)) {
+                block.write(out, delta);
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int exitCode = ToolRunner.run(new ColumnarConverter(), args);
+        System.exit(exitCode);
+    }
+}
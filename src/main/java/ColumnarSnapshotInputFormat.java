@@ -0,0 +1,78 @@
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.JobContext;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.lib.input.CombineFileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.CombineFileRecordReader;
+import org.apache.hadoop.mapreduce.lib.input.CombineFileSplit;
+import java.io.IOException;
+
+/**
+ * 读取 ColumnarConverter 产出的列式块，直接按列填充 SnapshotData 交给 FactorMapper
+ * 块文件不可切分，多个小块按 CombineFileInputFormat 的策略合并为一个分片
+ */
+public class ColumnarSnapshotInputFormat extends CombineFileInputFormat<LongWritable, SnapshotData> {
+
+    @Override
+    protected boolean isSplitable(JobContext context, Path file) {
+        return false;
+    }
+
+    @Override
+    public RecordReader<LongWritable, SnapshotData> createRecordReader(InputSplit split, TaskAttemptContext context)
+            throws IOException {
+        return new CombineFileRecordReader<>((CombineFileSplit) split, context, BlockReader.class);
+    }
+
+    public static class BlockReader extends RecordReader<LongWritable, SnapshotData> {
+        private final Path path;
+        private ColumnarBlock block;
+        private SnapshotFilter filter;
+        private int row = -1;
+        private final LongWritable key = new LongWritable();
+        private final SnapshotData value = new SnapshotData();
+
+        // CombineFileRecordReader 通过反射调用该构造器
+        public BlockReader(CombineFileSplit split, TaskAttemptContext context, Integer index) {
+            this.path = split.getPath(index);
+        }
+
+        @Override
+        public void initialize(InputSplit split, TaskAttemptContext context) throws IOException {
+            FileSystem fs = path.getFileSystem(context.getConfiguration());
+            FactorSpec spec = FactorSpec.get(context.getConfiguration());
+            block = ColumnarBlock.load(fs, path);
+            block.checkDepth(spec.depth, path);
+            filter = spec.filter;
+        }
+
+        @Override
+        public boolean nextKeyValue() {
+            do {
+                if (++row >= block.rows()) return false;
+            } while (!block.accept(row, filter));
+            key.set(row);
+            block.fill(row, value);
+            return true;
+        }
+
+        @Override
+        public LongWritable getCurrentKey() { return key; }
+
+        @Override
+        public SnapshotData getCurrentValue() { return value; }
+
+        @Override
+        public float getProgress() {
+            return block == null || block.rows() == 0 ? 1.0f : Math.min(1.0f, (row + 1) / (float) block.rows());
+        }
+
+        @Override
+        public void close() {
+            block = null;
+        }
+    }
+}
@@ -25,6 +25,9 @@ public class CompactTimeUtil {
 
     private static final int AM_DURATION = AM_END_SEC - AM_START_SEC; // 9000s
 
+    // 时间索引的最大值 (15:00:00)，按时间索引建稠密数组时的上界
+    public static final int MAX_TIME_CODE = AM_DURATION + (PM_END_SEC - PM_START_SEC) + 1;
+
     /**
      * 编码为 26 位整数
      */
@@ -128,6 +131,31 @@ public class CompactTimeUtil {
         return compactTime >>> DATE_SHIFT;
     }
 
+    public static int getTimeCode(int compactTime) {
+        return compactTime & TIME_MASK;
+    }
+
+    public static int compose(int dayCode, int timeCode) {
+        return (dayCode << DATE_SHIFT) | timeCode;
+    }
+
+    /**
+     * 重采样：时间码所在 bar 的结束时间码，bar 为右闭区间 (end - barSeconds, end]，标注为结束时间
+     * 上午 (0..9000) 从 09:00:00、下午 (9001..16201) 从 13:00:00 起对齐，最后一个 bar 截断在 11:30:00 / 15:00:00；
+     * 落在对齐起点上的时间码 (盘前折叠到的 0、13:00:00) 自成一个 bar
+     */
+    public static int barEnd(int compactTime, int barSeconds) {
+        int t = compactTime & TIME_MASK;
+        int end;
+        if (t <= AM_DURATION) {
+            end = Math.min(AM_DURATION, (t + barSeconds - 1) / barSeconds * barSeconds);
+        } else {
+            int pm = t - AM_DURATION - 1;
+            end = AM_DURATION + 1 + Math.min(PM_END_SEC - PM_START_SEC, (pm + barSeconds - 1) / barSeconds * barSeconds);
+        }
+        return (compactTime & ~TIME_MASK) | end;
+    }
+
     public static String getMMDD(int compactTime) {
         int dateCode = (compactTime >>> DATE_SHIFT) & DATE_MASK;
         int remainder = dateCode % 372;
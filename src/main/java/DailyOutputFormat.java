@@ -1,57 +1,156 @@
 import org.apache.hadoop.fs.*;
-import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.IntWritable;
 import org.apache.hadoop.mapred.InvalidJobConfException;
 import org.apache.hadoop.mapreduce.*;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputCommitter;
 import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.io.IOUtils;
+import java.io.BufferedOutputStream;
 import java.io.IOException;
-import java.util.HashMap;
-import java.util.Map;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
-public class DailyOutputFormat extends FileOutputFormat<Text, Text> {
+/**
+ * 按交易日写出 MMDD.csv
+ * 直接接收 Reducer 输出的 (压缩时间 Key, 因子和)：
+ * 1. 按日期码在 4096 项的小数组中选择该日的输出流，不做 Key 的字符串解析和 HashMap 查找
+ * 2. 时间与均值用 RyuFloat 格式化进一个复用的 byte[]，经 1MB 的缓冲流写出，每行无对象分配
+ * 3. factor.output.digits = 0 (默认) 输出最短往返的十进制，> 0 时输出定长有效位 (如 7)
+ * 4. 统计写出的行数、字节数，抽样计时格式化 + 写缓冲 (FactorMetrics)，close 时写入任务计数器
+ * 使用 DayRangePartitioner 时同一天分布在多个 Reducer 上：各 Reducer 写 _ranges/MMDD/part-NNNNN (无表头)，
+ * 作业提交时按分区号顺序拼接为 MMDD.csv (分区号与 Key 顺序一致，拼接结果整体有序)
+ * 启用分布统计 (factor.stats.centroids > 0) 时每天另写 MMDD_stats.csv：每个因子的标准差、p5、中位数、p95，与 MMDD.csv 逐行对应
+ * 启用二进制结果库 (factor.output.store) 时每天另写 MMDD.fst (FactorStore)；区间分区时各 Reducer 只写记录，提交时拼接并重建索引
+ */
+public class DailyOutputFormat extends FileOutputFormat<IntWritable, Factor> {
 
-    private final Map<String, FSDataOutputStream> dateOutputStreams = new HashMap<>();
+    static final String RANGES_DIR = "_ranges";
+    // 输出的有效位数，0 = 最短往返 (LocalFactorEngine / StreamingFactorDriver 共用)
+    public static final String OUTPUT_DIGITS_KEY = "factor.output.digits";
+    // 分布统计文件名后缀 (MMDD_stats.csv)
+    public static final String STATS_SUFFIX = "_stats";
+
+    private static final int WRITE_BUFFER_SIZE = 1 << 20;
+    private static final int DAY_CODES = 1 << 12;
 
     @Override
-    public RecordWriter<Text, Text> getRecordWriter(TaskAttemptContext context) throws IOException {
+    public RecordWriter<IntWritable, Factor> getRecordWriter(TaskAttemptContext context) throws IOException {
         Path outputDir = FileOutputFormat.getOutputPath(context);
         FileSystem fs = FileSystem.get(context.getConfiguration());
+        // 表头只包含 factor.alphas 选中的列
+        final FactorSpec spec = FactorSpec.get(context.getConfiguration());
+        final byte[] header = spec.header().getBytes(StandardCharsets.US_ASCII);
+        final byte[] statsHeader = spec.statsHeader().getBytes(StandardCharsets.US_ASCII);
+        final boolean stats = spec.statsCentroids > 0;
+        final boolean store = FactorStore.isEnabled(context.getConfiguration());
+        final int recordBytes = FactorStore.recordBytes(spec);
+        final boolean ranged = DayRangePartitioner.isEnabled(context.getConfiguration());
+        final String partName = String.format("part-%05d", context.getTaskAttemptID().getTaskID().getId());
+        final int digits = context.getConfiguration().getInt(OUTPUT_DIGITS_KEY, 0);
+        final FactorMetrics metrics = FactorMetrics.get(context.getConfiguration());
 
         if (!fs.exists(outputDir)) {
             fs.mkdirs(outputDir);
         }
 
-        return new RecordWriter<Text, Text>() {
+        return new RecordWriter<IntWritable, Factor>() {
+            // 日期码 -> 输出流 (12 位日期码)
+            private final OutputStream[] dayStreams = new OutputStream[DAY_CODES];
+            private final OutputStream[] statsStreams = stats ? new OutputStream[DAY_CODES] : null;
+            private final FactorStore.Writer[] storeWriters = store ? new FactorStore.Writer[DAY_CODES] : null;
+            private final List<OutputStream> opened = new ArrayList<>();
+            // 时间 (6) + 逗号 + 20 个因子 (每个最多约 16 字节) + 换行
+            private final byte[] buf = new byte[1024];
+            // 时间 + 逗号 + 20 x 4 个统计量
+            private final byte[] statsBuf = stats ? new byte[4096] : null;
+
             @Override
-            public void write(Text key, Text value) throws IOException {
-                // 避免使用 split("_") 创建正则对象和数组
-                // 格式：YYYYMMDD_HHMMSS
-                String keyStr = key.toString();
-                int separatorIndex = keyStr.indexOf('_');
+            public void write(IntWritable key, Factor value) throws IOException {
+                boolean timed = metrics.sample();
+                long t0 = timed ? System.nanoTime() : 0;
+                int compactTime = key.get();
+                int dayCode = CompactTimeUtil.getDayCode(compactTime);
 
-                if (separatorIndex == -1) return; // 容错
+                OutputStream out = dayStreams[dayCode];
+                if (out == null) {
+                    String mmdd = CompactTimeUtil.getMMDD(compactTime);
+                    out = open(mmdd, header);
+                    dayStreams[dayCode] = out;
+                    if (stats) statsStreams[dayCode] = open(mmdd + STATS_SUFFIX, statsHeader);
+                    if (store) storeWriters[dayCode] = openStore(mmdd, compactTime);
+                }
 
-                String datePart = keyStr.substring(0, separatorIndex);
-                // 这里保持原逻辑取MMDD;
-                String mmdd = datePart.substring(4);
-                String timePart = keyStr.substring(separatorIndex + 1);
+                int off = FactorReducer.writeTime6Digits(CompactTimeUtil.decodeTradeTime(compactTime), buf, 0);
+                buf[off++] = ',';
+                off = FactorReducer.formatAverages(value, buf, off, digits);
+                buf[off++] = '\n';
+                out.write(buf, 0, off);
+                int bytes = off;
+                if (stats) {
+                    System.arraycopy(buf, 0, statsBuf, 0, 7);
+                    off = FactorReducer.formatStats(value, statsBuf, 7, digits);
+                    statsBuf[off++] = '\n';
+                    statsStreams[dayCode].write(statsBuf, 0, off);
+                    bytes += off;
+                }
+                if (store) {
+                    storeWriters[dayCode].write(compactTime, value);
+                    bytes += recordBytes;
+                }
 
-                FSDataOutputStream out = dateOutputStreams.get(mmdd);
-                if (out == null) {
-                    Path filePath = new Path(outputDir, mmdd + ".csv");
-                    out = fs.create(filePath, true);
-                    out.writeBytes("tradeTime,alpha_1,alpha_2,alpha_3,alpha_4,alpha_5,alpha_6,alpha_7,alpha_8,alpha_9,alpha_10,alpha_11,alpha_12,alpha_13,alpha_14,alpha_15,alpha_16,alpha_17,alpha_18,alpha_19,alpha_20\n");
-                    dateOutputStreams.put(mmdd, out);
+                metrics.inc(FactorMetrics.Counter.ROWS_WRITTEN);
+                metrics.add(FactorMetrics.Counter.BYTES_WRITTEN, bytes);
+                if (timed) metrics.addSampled(FactorMetrics.Counter.FORMAT_NANOS, System.nanoTime() - t0);
+            }
+
+            /**
+             * 打开 name.csv (区间分区模式下为 _ranges/name/part-NNNNN，不写表头)
+             */
+            private OutputStream open(String name, byte[] fileHeader) throws IOException {
+                OutputStream out;
+                if (ranged) {
+                    out = new BufferedOutputStream(fs.create(new Path(new Path(new Path(outputDir, RANGES_DIR), name),
+                            partName), true), WRITE_BUFFER_SIZE);
+                } else {
+                    out = new BufferedOutputStream(fs.create(new Path(outputDir, name + ".csv"), true),
+                            WRITE_BUFFER_SIZE);
+                    out.write(fileHeader);
+                    metrics.add(FactorMetrics.Counter.BYTES_WRITTEN, fileHeader.length);
                 }
+                opened.add(out);
+                return out;
+            }
 
-                out.writeBytes(timePart + "," + value.toString() + "\n");
+            /**
+             * 打开 MMDD.fst (区间分区模式下为 _ranges/MMDD.fst/part-NNNNN，只有记录)
+             */
+            private FactorStore.Writer openStore(String mmdd, int compactTime) throws IOException {
+                String name = mmdd + FactorStore.EXTENSION;
+                Path path = ranged ? new Path(new Path(new Path(outputDir, RANGES_DIR), name), partName)
+                        : new Path(outputDir, name);
+                return new FactorStore.Writer(new BufferedOutputStream(fs.create(path, true), WRITE_BUFFER_SIZE),
+                        spec, CompactTimeUtil.decodeTradingDay(compactTime), !ranged);
             }
 
             @Override
             public void close(TaskAttemptContext context) throws IOException {
-                for (FSDataOutputStream out : dateOutputStreams.values()) {
+                for (OutputStream out : opened) {
                     out.close();
                 }
-                dateOutputStreams.clear();
+                opened.clear();
+                Arrays.fill(dayStreams, null);
+                if (stats) Arrays.fill(statsStreams, null);
+                if (store) {
+                    for (int d = 0; d < DAY_CODES; d++) {
+                        if (storeWriters[d] == null) continue;
+                        storeWriters[d].close();
+                        storeWriters[d] = null;
+                    }
+                }
+                metrics.publish(context);
             }
         };
     }
@@ -66,4 +165,58 @@ public class DailyOutputFormat extends FileOutputFormat<Text, Text> {
         outputDir = fs.makeQualified(outputDir);
         FileOutputFormat.setOutputPath((Job) context, outputDir);
     }
-}
\ No newline at end of file
+
+    @Override
+    public synchronized OutputCommitter getOutputCommitter(TaskAttemptContext context) throws IOException {
+        return new DailyOutputCommitter(FileOutputFormat.getOutputPath(context), context);
+    }
+
+    /**
+     * 区间分区模式下，在写 _SUCCESS 之前把各区间文件按分区号顺序拼接为日文件
+     */
+    static class DailyOutputCommitter extends FileOutputCommitter {
+        private final Path outputDir;
+
+        DailyOutputCommitter(Path outputDir, TaskAttemptContext context) throws IOException {
+            super(outputDir, context);
+            this.outputDir = outputDir;
+        }
+
+        @Override
+        public void commitJob(JobContext context) throws IOException {
+            if (DayRangePartitioner.isEnabled(context.getConfiguration())) {
+                mergeRanges(context);
+            }
+            super.commitJob(context);
+        }
+
+        private void mergeRanges(JobContext context) throws IOException {
+            FileSystem fs = outputDir.getFileSystem(context.getConfiguration());
+            Path rangesDir = new Path(outputDir, RANGES_DIR);
+            if (!fs.exists(rangesDir)) return;
+            FactorSpec spec = FactorSpec.get(context.getConfiguration());
+            byte[] header = spec.header().getBytes(StandardCharsets.US_ASCII);
+            byte[] statsHeader = spec.statsHeader().getBytes(StandardCharsets.US_ASCII);
+
+            // MMDD、MMDD_stats 与 MMDD.fst 三种目录
+            for (FileStatus day : fs.listStatus(rangesDir)) {
+                FileStatus[] parts = fs.listStatus(day.getPath());
+                // part-NNNNN 定宽编号，按名字排序即按分区号排序
+                Arrays.sort(parts, (a, b) -> a.getPath().getName().compareTo(b.getPath().getName()));
+                if (day.getPath().getName().endsWith(FactorStore.EXTENSION)) {
+                    FactorStore.mergeParts(fs, parts, new Path(outputDir, day.getPath().getName()), spec);
+                    continue;
+                }
+                try (FSDataOutputStream out = fs.create(new Path(outputDir, day.getPath().getName() + ".csv"), true)) {
+                    out.write(day.getPath().getName().endsWith(STATS_SUFFIX) ? statsHeader : header);
+                    for (FileStatus part : parts) {
+                        try (FSDataInputStream in = fs.open(part.getPath())) {
+                            IOUtils.copyBytes(in, out, 1 << 16, false);
+                        }
+                    }
+                }
+            }
+            fs.delete(rangesDir, true);
+        }
+    }
+}
@@ -0,0 +1,196 @@
+import org.apache.hadoop.conf.Configurable;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.compress.CompressionCodecFactory;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.Partitioner;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 基于采样的日内区间分区器 (替代 DayPartitioner)
+ * DayPartitioner 只按交易日哈希，5 天的数据最多用满 5 个 Reducer，且不同交易日可能撞到同一个 Reducer。
+ * 1. 作业提交前对输入采样，得到压缩时间 Key 的分布，按分位数切出 R-1 个分割点
+ * 2. Key 的高位是交易日、低 14 位是时间索引，全局分位数切分即把每个交易日的时间索引空间切成连续且均衡的区间
+ * 3. 分区 = 分割点上的二分查找；分区号与 Key 顺序一致，DailyOutputFormat 按分区号顺序拼接各区间文件即可得到有序的日文件
+ * 使用：-Dfactor.partitioner=range -Dmapreduce.job.reduces=N
+ */
+public class DayRangePartitioner extends Partitioner<IntWritable, Factor> implements Configurable {
+
+    public static final String PARTITIONER_KEY = "factor.partitioner";       // day (默认) | range
+    public static final String SPLITS_KEY = "factor.partition.splits";      // 由 configure 写入
+    public static final String SAMPLE_FILES_KEY = "factor.partition.sample.files";
+    public static final String SAMPLE_CHUNKS_KEY = "factor.partition.sample.chunks";
+
+    private static final int SAMPLE_CHUNK_BYTES = 64 * 1024;
+    private static final int SAMPLE_ROWS_PER_CHUNK = 64;
+
+    private Configuration conf;
+    private int[] splits = new int[0];
+
+    public static boolean isEnabled(Configuration conf) {
+        return "range".equals(conf.get(PARTITIONER_KEY, "day"));
+    }
+
+    @Override
+    public void setConf(Configuration conf) {
+        this.conf = conf;
+        String value = conf.get(SPLITS_KEY, "").trim();
+        if (value.isEmpty()) {
+            splits = new int[0];
+            return;
+        }
+        String[] parts = value.split(",");
+        splits = new int[parts.length];
+        for (int i = 0; i < parts.length; i++) splits[i] = Integer.parseInt(parts[i]);
+    }
+
+    @Override
+    public Configuration getConf() { return conf; }
+
+    @Override
+    public int getPartition(IntWritable key, Factor value, int numPartitions) {
+        int idx = Arrays.binarySearch(splits, key.get());
+        // 等于分割点的 Key 归入右侧区间
+        int partition = idx >= 0 ? idx + 1 : -(idx + 1);
+        return partition < numPartitions ? partition : numPartitions - 1;
+    }
+
+    /**
+     * 采样输入并把分割点写入作业配置
+     */
+    public static void configure(Job job, Path input) throws IOException {
+        Configuration conf = job.getConfiguration();
+        int reducers = job.getNumReduceTasks();
+        int[] sample = reducers > 1 ? sample(conf, input) : new int[0];
+        if (reducers > 1 && sample.length == 0) {
+            throw new IOException("Range partitioner found no valid snapshot to sample under " + input
+                    + "; all keys would go to one reducer");
+        }
+        int[] points = reducers > 1 ? splitPoints(sample, reducers) : new int[0];
+
+        StringBuilder sb = new StringBuilder();
+        for (int p : points) {
+            if (sb.length() > 0) sb.append(',');
+            sb.append(p);
+        }
+        conf.set(SPLITS_KEY, sb.toString());
+        System.out.println("Range partitioner: " + reducers + " reducers, " + points.length + " split points");
+    }
+
+    /**
+     * 在均匀挑选的若干文件内取均匀分布的片段，读出其中快照的压缩时间 Key
+     * (单文件按时间有序，只读开头会全部落在开盘附近)
+     * 1. 文本文件：各取若干个 64KB 片段
+     * 2. .blz：按索引各取若干个块解压，每块抽稀到固定行数
+     * 3. 压缩流 (.gz 等) 不可 seek：整文件只读一遍再抽稀，不能按片段重复从头解压
+     */
+    static int[] sample(Configuration conf, Path input) throws IOException {
+        FileSystem fs = input.getFileSystem(conf);
+        List<Path> files = LocalFactorEngine.listInputFiles(fs, input);
+        int maxFiles = conf.getInt(SAMPLE_FILES_KEY, 16);
+        int chunks = conf.getInt(SAMPLE_CHUNKS_KEY, 8);
+        CompressionCodecFactory codecs = new CompressionCodecFactory(conf);
+
+        Sample sample = new Sample();
+        SnapshotData s = new SnapshotData();
+        int fileCount = Math.min(maxFiles, files.size());
+        for (int f = 0; f < fileCount; f++) {
+            Path path = files.get((int) ((long) f * files.size() / fileCount));
+
+            if (path.getName().endsWith(ColumnarBlock.EXTENSION)) {
+                ColumnarBlock block = ColumnarBlock.load(fs, path);
+                int step = Math.max(1, block.rows() / (chunks * SAMPLE_ROWS_PER_CHUNK));
+                for (int r = 0; r < block.rows(); r += step) {
+                    block.fill(r, s);
+                    sample.add(s);
+                }
+            } else if (BlockCompressedFile.isBlockFile(path)) {
+                BlockCompressedFile.Index index = BlockCompressedFile.Index.read(fs, path);
+                int blocks = Math.min(chunks, index.blocks());
+                for (int c = 0; c < blocks; c++) {
+                    int b = (int) ((long) c * index.blocks() / blocks);
+                    int from = sample.n;
+                    // 起始偏移落在 [offset, offset + 1) 内的只有第 b 块
+                    try (BlockCompressedFile.Scanner scanner =
+                                 new BlockCompressedFile.Scanner(conf, path, index.offsets[b], 1)) {
+                        sample.drain(scanner, s);
+                    }
+                    sample.thin(from, SAMPLE_ROWS_PER_CHUNK);
+                }
+            } else if (codecs.getCodec(path) != null) {
+                int from = sample.n;
+                try (SnapshotScanner scanner = new SnapshotScanner(conf, path, 0, Long.MAX_VALUE)) {
+                    sample.drain(scanner, s);
+                }
+                sample.thin(from, chunks * SAMPLE_ROWS_PER_CHUNK);
+            } else {
+                long length = fs.getFileStatus(path).getLen();
+                for (int c = 0; c < chunks; c++) {
+                    long start = length * c / chunks;
+                    try (SnapshotScanner scanner = new SnapshotScanner(conf, path, start,
+                            Math.min(SAMPLE_CHUNK_BYTES, length - start))) {
+                        sample.drain(scanner, s);
+                    }
+                }
+            }
+        }
+        int[] out = Arrays.copyOf(sample.keys, sample.n);
+        Arrays.sort(out);
+        return out;
+    }
+
+    /**
+     * 采样 Key 的可增长缓冲
+     */
+    private static final class Sample {
+        int[] keys = new int[1024];
+        int n;
+
+        void add(SnapshotData s) {
+            int key = encodeOrNegative(s);
+            if (key < 0) return;
+            if (n == keys.length) keys = Arrays.copyOf(keys, n << 1);
+            keys[n++] = key;
+        }
+
+        void drain(SnapshotSource source, SnapshotData s) throws IOException {
+            while (source.next(s)) add(s);
+        }
+
+        /**
+         * 把 [from, n) 等距抽稀到最多 max 个 (目标下标不超过源下标，可原地前移)
+         */
+        void thin(int from, int max) {
+            int count = n - from;
+            if (count <= max) return;
+            for (int i = 0; i < max; i++) keys[from + i] = keys[from + (int) ((long) i * count / max)];
+            n = from + max;
+        }
+    }
+
+    private static int encodeOrNegative(SnapshotData s) {
+        try {
+            return CompactTimeUtil.encode(s.tradingDay, (int) s.tradeTime);
+        } catch (IllegalArgumentException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * 按样本分位数取 partitions-1 个严格递增的分割点 (样本不足时少于 partitions-1 个，多余的 Reducer 为空)
+     */
+    static int[] splitPoints(int[] sortedSample, int partitions) {
+        int n = sortedSample.length;
+        int[] points = new int[partitions - 1];
+        int count = 0;
+        for (int p = 1; p < partitions && n > 0; p++) {
+            int key = sortedSample[(int) ((long) p * n / partitions)];
+            if (count == 0 || key > points[count - 1]) points[count++] = key;
+        }
+        return Arrays.copyOf(points, count);
+    }
+}
@@ -0,0 +1,174 @@
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.JobContext;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.lib.input.CombineFileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.CombineFileRecordReader;
+import org.apache.hadoop.mapreduce.lib.input.CombineFileSplit;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 按交易日对齐的分片：同一交易日的全部文件组成一个 CombineFileSplit
+ * 一个 Map 任务看到某天的全部快照后，预聚合表就是该日的最终结果，FactorMapper 在 cleanup 中直接写出 MMDD.csv，
+ * 作业以 0 个 Reducer 运行，不再有溢写、排序、Snappy 压缩、Shuffle 和 Combiner
+ * 交易日取自路径中的 YYYYMMDD (文件名优先，其次是所在目录名)，取不到时读取文件的第一条有效快照
+ * 要求每个输入文件只包含一个交易日的数据
+ * 使用：-Dfactor.split.mode=day
+ */
+public class DaySplitInputFormat extends CombineFileInputFormat<LongWritable, SnapshotData> {
+
+    public static final String SPLIT_MODE_KEY = "factor.split.mode";   // file (默认) | day
+
+    private static final Pattern DATE_PATTERN = Pattern.compile("(?<!\\d)(20\\d{2})(\\d{2})(\\d{2})(?!\\d)");
+    private static final int PEEK_BYTES = 64 * 1024;
+
+    public static boolean isEnabled(Configuration conf) {
+        return "day".equals(conf.get(SPLIT_MODE_KEY, "file"));
+    }
+
+    @Override
+    public List<InputSplit> getSplits(JobContext job) throws IOException {
+        Configuration conf = job.getConfiguration();
+        // 交易日 -> 文件，按日期升序
+        Map<Integer, List<FileStatus>> byDay = new TreeMap<>();
+        for (FileStatus file : listStatus(job)) {
+            if (file.getPath().getName().endsWith(BlockCompressedFile.INDEX_EXTENSION)) continue; // .blz 的索引
+            if (file.getLen() == 0) continue; // 空文件
+            int day = tradingDay(conf, file.getPath());
+            byDay.computeIfAbsent(day, d -> new ArrayList<>()).add(file);
+        }
+
+        List<InputSplit> splits = new ArrayList<>(byDay.size());
+        for (List<FileStatus> files : byDay.values()) {
+            int n = files.size();
+            Path[] paths = new Path[n];
+            long[] starts = new long[n];
+            long[] lengths = new long[n];
+            for (int i = 0; i < n; i++) {
+                paths[i] = files.get(i).getPath();
+                lengths[i] = files.get(i).getLen();
+            }
+            splits.add(new CombineFileSplit(paths, starts, lengths,
+                    BlockCompressedInputFormat.hosts(conf, paths, starts, lengths)));
+        }
+        return splits;
+    }
+
+    /**
+     * 路径中的 YYYYMMDD，取不到时读第一条有效快照
+     * 读取时不套用股票池 / 时段过滤：文件开头可能全是被过滤掉的集合竞价行，不能据此判断日期
+     * @throws IOException 非空文件中读不到任何有效快照 (不能静默地从作业中丢掉)
+     */
+    static int tradingDay(Configuration conf, Path path) throws IOException {
+        int day = dateInName(path.getName());
+        if (day < 0 && path.getParent() != null) day = dateInName(path.getParent().getName());
+        if (day > 0) return day;
+
+        FileSystem fs = path.getFileSystem(conf);
+        SnapshotData s = new SnapshotData();
+        if (path.getName().endsWith(ColumnarBlock.EXTENSION)) {
+            ColumnarBlock block = ColumnarBlock.load(fs, path);
+            if (block.rows() == 0) throw new IOException("No snapshot to take the trading day from: " + path);
+            return block.tradingDay();
+        }
+        Configuration peekConf = new Configuration(conf);
+        peekConf.unset(SnapshotFilter.UNIVERSE_KEY);
+        peekConf.unset(SnapshotFilter.UNIVERSE_FILE_KEY);
+        peekConf.unset(SnapshotFilter.SESSIONS_KEY);
+        // 分块压缩文件只读第一个块 (起始偏移为 0)
+        long length = Math.min(PEEK_BYTES, fs.getFileStatus(path).getLen());
+        try (SnapshotSource scanner = BlockCompressedFile.isBlockFile(path)
+                ? new BlockCompressedFile.Scanner(peekConf, path, 0, 1)
+                : new SnapshotScanner(peekConf, path, 0, length)) {
+            while (scanner.next(s)) {
+                try {
+                    CompactTimeUtil.encode(s.tradingDay, (int) s.tradeTime); // 跳过表头等无效行
+                    return s.tradingDay;
+                } catch (IllegalArgumentException e) {
+                    // 继续找下一行
+                }
+            }
+        }
+        throw new IOException("No trading day in the path and no valid snapshot in the first "
+                + PEEK_BYTES / 1024 + "KB of " + path);
+    }
+
+    static int dateInName(String name) {
+        Matcher m = DATE_PATTERN.matcher(name);
+        while (m.find()) {
+            int month = Integer.parseInt(m.group(2));
+            int day = Integer.parseInt(m.group(3));
+            if (month >= 1 && month <= 12 && day >= 1 && day <= 31) {
+                return Integer.parseInt(m.group(1)) * 10000 + month * 100 + day;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public RecordReader<LongWritable, SnapshotData> createRecordReader(InputSplit split, TaskAttemptContext context)
+            throws IOException {
+        return new CombineFileRecordReader<>((CombineFileSplit) split, context, FileReader.class);
+    }
+
+    /**
+     * 按扩展名选择文件读取器：.snpc 列式块走 ColumnarSnapshotInputFormat.BlockReader，
+     * .blz 分块压缩文件走 BlockCompressedInputFormat.SegmentReader，其余走 SnapshotRecordReader
+     */
+    public static class FileReader extends RecordReader<LongWritable, SnapshotData> {
+        private final RecordReader<LongWritable, SnapshotData> delegate;
+
+        // CombineFileRecordReader 通过反射调用该构造器
+        public FileReader(CombineFileSplit split, TaskAttemptContext context, Integer index) {
+            Path path = split.getPath(index);
+            if (path.getName().endsWith(ColumnarBlock.EXTENSION)) {
+                this.delegate = new ColumnarSnapshotInputFormat.BlockReader(split, context, index);
+            } else if (BlockCompressedFile.isBlockFile(path)) {
+                this.delegate = new BlockCompressedInputFormat.SegmentReader(split, context, index);
+            } else {
+                this.delegate = new SnapshotRecordReader(split, context, index);
+            }
+        }
+
+        @Override
+        public void initialize(InputSplit split, TaskAttemptContext context) throws IOException, InterruptedException {
+            delegate.initialize(split, context);
+        }
+
+        @Override
+        public boolean nextKeyValue() throws IOException, InterruptedException {
+            return delegate.nextKeyValue();
+        }
+
+        @Override
+        public LongWritable getCurrentKey() throws IOException, InterruptedException {
+            return delegate.getCurrentKey();
+        }
+
+        @Override
+        public SnapshotData getCurrentValue() throws IOException, InterruptedException {
+            return delegate.getCurrentValue();
+        }
+
+        @Override
+        public float getProgress() throws IOException, InterruptedException {
+            return delegate.getProgress();
+        }
+
+        @Override
+        public void close() throws IOException {
+            delegate.close();
+        }
+    }
+}
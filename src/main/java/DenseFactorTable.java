@@ -0,0 +1,241 @@
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.mapreduce.TaskInputOutputContext;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * 稠密直接寻址的时间戳预聚合表 (替代 IntFactorMap 哈希表)
+ * 1. CompactTimeUtil 的时间索引是稠密的 (每天 0..MAX_TIME_CODE，约 1.6 万个)，日期码经一张 4096 项的小表映射为日序号，
+ *    累加位置 = sums[日序号][时间索引 * 20 + 因子]，没有哈希、探测，也没有每个 Key 一个 Factor 对象
+ * 2. 每天一个占用位图，首次写入某个时间戳时直接赋值 (与 copyFrom 一致)，之后累加，结果与原实现逐位相同
+ * 3. 表的大小只与天数有关 (每天约 1.3MB)，Mapper 不再需要中途 flush，多日输入也不会向 Shuffle 发送重复 Key
+ * 4. 按日期码升序、位图内按时间索引升序遍历，输出天然有序
+ * 5. 启用分布统计 (factor.stats.centroids > 0) 时每个已占用的时间戳另有一个 FactorSketch，首次占用时分配，clear 后复用
+ */
+public class DenseFactorTable {
+
+    private static final int FACTORS = 20;
+    private static final int SLOTS = CompactTimeUtil.MAX_TIME_CODE + 1;
+    private static final int DAY_CODES = 1 << 12;
+
+    private final FactorSpec spec;
+
+    // 日期码 -> 日序号 (-1 表示尚未出现)
+    private final int[] dayIndex = new int[DAY_CODES];
+    private int[] dayCodes = new int[8];
+    private int days;
+
+    // 每天：因子和 [时间索引 * 20 + 因子]、行数、占用位图
+    private float[][] sums = new float[8][];
+    private int[][] counts = new int[8][];
+    private long[][] occupied = new long[8][];
+    // 每天：时间索引 -> 分布草图 (未启用时为 null)
+    private FactorSketch[][] sketches;
+    private int size;
+
+    public DenseFactorTable(FactorSpec spec) {
+        this.spec = spec;
+        this.sketches = spec.statsCentroids > 0 ? new FactorSketch[8][] : null;
+        Arrays.fill(dayIndex, -1);
+    }
+
+    public FactorSpec getSpec() { return spec; }
+
+    /** 已占用的时间戳个数 */
+    public int size() { return size; }
+
+    private int day(int dayCode) {
+        int d = dayIndex[dayCode];
+        if (d >= 0) return d;
+        d = days++;
+        if (d == dayCodes.length) {
+            int cap = d << 1;
+            dayCodes = Arrays.copyOf(dayCodes, cap);
+            sums = Arrays.copyOf(sums, cap);
+            counts = Arrays.copyOf(counts, cap);
+            occupied = Arrays.copyOf(occupied, cap);
+            if (sketches != null) sketches = Arrays.copyOf(sketches, cap);
+        }
+        dayCodes[d] = dayCode;
+        // clear 之后复用已分配的数组，位图为空时旧值不会被读到
+        if (sums[d] == null) {
+            sums[d] = new float[SLOTS * FACTORS];
+            counts[d] = new int[SLOTS];
+            occupied[d] = new long[(SLOTS + 63) >>> 6];
+            if (sketches != null) sketches[d] = new FactorSketch[SLOTS];
+        }
+        dayIndex[dayCode] = d;
+        return d;
+    }
+
+    /**
+     * 累加一行 (count = 1) 的 20 个因子
+     */
+    public void add(int key, float[] f) {
+        int d = day(CompactTimeUtil.getDayCode(key));
+        int t = CompactTimeUtil.getTimeCode(key);
+        float[] s = sums[d];
+        int base = t * FACTORS;
+        if (markOccupied(d, t)) {
+            System.arraycopy(f, 0, s, base, FACTORS);
+            counts[d][t] = 1;
+        } else {
+            for (int i = 0; i < FACTORS; i++) s[base + i] += f[i];
+            counts[d][t]++;
+        }
+        if (sketches != null) sketches[d][t].add(f);
+    }
+
+    /**
+     * 累加 SnapshotBatch 列结果的第 row 行，等价于 add 该行的 20 个因子
+     */
+    public void addColumns(int key, float[][] cols, int row) {
+        int d = day(CompactTimeUtil.getDayCode(key));
+        int t = CompactTimeUtil.getTimeCode(key);
+        float[] s = sums[d];
+        int base = t * FACTORS;
+        if (markOccupied(d, t)) {
+            for (int i = 0; i < FACTORS; i++) s[base + i] = cols[i][row];
+            counts[d][t] = 1;
+        } else {
+            for (int i = 0; i < FACTORS; i++) s[base + i] += cols[i][row];
+            counts[d][t]++;
+        }
+        if (sketches != null) sketches[d][t].addColumns(cols, row);
+    }
+
+    /**
+     * 累加一个部分和 (count 行的因子和，PartialAggregateCache 读回的缓存)
+     * 部分和不含分布草图，启用分布统计时 PartialAggregateCache 不启用
+     */
+    public void addPartial(int key, float[] f, int count) {
+        int d = day(CompactTimeUtil.getDayCode(key));
+        int t = CompactTimeUtil.getTimeCode(key);
+        float[] s = sums[d];
+        int base = t * FACTORS;
+        if (markOccupied(d, t)) {
+            System.arraycopy(f, 0, s, base, FACTORS);
+            counts[d][t] = count;
+        } else {
+            for (int i = 0; i < FACTORS; i++) s[base + i] += f[i];
+            counts[d][t] += count;
+        }
+    }
+
+    /**
+     * @return true 表示该时间戳此前未被占用
+     */
+    private boolean markOccupied(int d, int t) {
+        long[] bits = occupied[d];
+        long bit = 1L << t;
+        int w = t >>> 6;
+        if ((bits[w] & bit) != 0) return false;
+        bits[w] |= bit;
+        size++;
+        if (sketches != null) {
+            FactorSketch sk = sketches[d][t];
+            if (sk == null) sketches[d][t] = new FactorSketch(spec);
+            else sk.clear();
+        }
+        return true;
+    }
+
+    /**
+     * 把 other 中的条目合并进来 (用于合并各线程的局部表)
+     */
+    public void mergeAll(DenseFactorTable other) {
+        for (int od = 0; od < other.days; od++) {
+            int d = day(other.dayCodes[od]);
+            long[] obits = other.occupied[od];
+            float[] os = other.sums[od];
+            int[] oc = other.counts[od];
+            float[] s = sums[d];
+            for (int w = 0; w < obits.length; w++) {
+                long word = obits[w];
+                while (word != 0) {
+                    int t = (w << 6) + Long.numberOfTrailingZeros(word);
+                    word &= word - 1;
+                    int base = t * FACTORS;
+                    if (markOccupied(d, t)) {
+                        System.arraycopy(os, base, s, base, FACTORS);
+                        counts[d][t] = oc[t];
+                    } else {
+                        for (int i = 0; i < FACTORS; i++) s[base + i] += os[base + i];
+                        counts[d][t] += oc[t];
+                    }
+                    if (sketches != null) sketches[d][t].merge(other.sketches[od][t]);
+                }
+            }
+        }
+    }
+
+    /**
+     * 日序号按日期码升序排列
+     */
+    private int[] daysInOrder() {
+        int[] order = new int[days];
+        for (int d = 0; d < days; d++) order[d] = d;
+        // 天数很少，插入排序即可
+        for (int i = 1; i < days; i++) {
+            int x = order[i], j = i - 1;
+            while (j >= 0 && dayCodes[order[j]] > dayCodes[x]) { order[j + 1] = order[j]; j--; }
+            order[j + 1] = x;
+        }
+        return order;
+    }
+
+    /**
+     * 升序返回所有 Key (与 Reducer 看到的 IntWritable 排序一致)
+     */
+    public int[] sortedKeys() {
+        int[] out = new int[size];
+        int n = 0;
+        for (int d : daysInOrder()) {
+            long[] bits = occupied[d];
+            for (int w = 0; w < bits.length; w++) {
+                long word = bits[w];
+                while (word != 0) {
+                    out[n++] = CompactTimeUtil.compose(dayCodes[d], (w << 6) + Long.numberOfTrailingZeros(word));
+                    word &= word - 1;
+                }
+            }
+        }
+        return out;
+    }
+
+    /**
+     * 把 key 的累加结果读入 into (key 必须已被占用)
+     */
+    public Factor get(int key, Factor into) {
+        int d = dayIndex[CompactTimeUtil.getDayCode(key)];
+        int t = CompactTimeUtil.getTimeCode(key);
+        System.arraycopy(sums[d], t * FACTORS, into.getFactorValues(), 0, FACTORS);
+        into.setCount(counts[d][t]);
+        if (sketches != null) into.getSketch().copyFrom(sketches[d][t]);
+        return into;
+    }
+
+    /**
+     * 按 Key 升序写出全部条目 (复用同一个 Factor，context.write 时即已序列化)
+     */
+    public void flush(TaskInputOutputContext<?, ?, IntWritable, Factor> context, IntWritable outKey)
+            throws IOException, InterruptedException {
+        Factor value = new Factor(spec);
+        for (int key : sortedKeys()) {
+            outKey.set(key);
+            context.write(outKey, get(key, value));
+        }
+    }
+
+    /**
+     * 清空占用位图和日期映射，保留已分配的数组
+     */
+    public void clear() {
+        for (int d = 0; d < days; d++) {
+            Arrays.fill(occupied[d], 0L);
+            dayIndex[dayCodes[d]] = -1;
+        }
+        days = 0;
+        size = 0;
+    }
+}
@@ -1,18 +1,62 @@
+import org.apache.hadoop.conf.Configurable;
+import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.io.Writable;
 import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
+import java.util.Arrays;
 
-public class Factor implements Writable {
+/**
+ * 实现 Configurable：Shuffle 反序列化时 Hadoop 通过 ReflectionUtils.newInstance 注入作业配置，
+ * 从而与 Mapper 端使用同一个 FactorSpec，只读写被选中的因子
+ * factor.stats.centroids > 0 时附带一个 FactorSketch，与因子和一起 merge / 序列化
+ */
+public class Factor implements Writable, Configurable {
     private float[] factorValues = new float[20];
     private int count;
     private static final float EPSILON = 1e-7f;
 
+    private FactorSpec spec = FactorSpec.DEFAULT;
+    private Configuration conf;
+    // 截面分布草图，未启用时为 null
+    private FactorSketch sketch;
+
     public Factor() {}
 
+    public Factor(FactorSpec spec) {
+        this.spec = spec;
+        this.sketch = spec.statsCentroids > 0 ? new FactorSketch(spec) : null;
+    }
+
+    @Override
+    public void setConf(Configuration conf) {
+        this.conf = conf;
+        if (conf != null) {
+            this.spec = FactorSpec.get(conf);
+            this.sketch = spec.statsCentroids > 0 ? new FactorSketch(spec) : null;
+        }
+    }
+
+    @Override
+    public Configuration getConf() { return conf; }
+
+    public FactorSpec getSpec() { return spec; }
+
+    public FactorSketch getSketch() { return sketch; }
+
     public void copyFrom(Factor other) {
         System.arraycopy(other.factorValues, 0, this.factorValues, 0, 20);
         this.count = other.count;
+        if (sketch != null && other.sketch != null) sketch.copyFrom(other.sketch);
+    }
+
+    /**
+     * 清零 (Combiner / Reducer 复用同一个 Factor 累加)
+     */
+    public void clear() {
+        Arrays.fill(factorValues, 0);
+        count = 0;
+        if (sketch != null) sketch.clear();
     }
 
     /**
@@ -73,6 +117,70 @@ public class Factor implements Writable {
         }
     }
 
+    /**
+     * 通用路径：任意档位深度 n，前 n 档聚合由 SnapshotData 中按 n 展开的 switch 完成
+     * depth = 5 且全选时仍走上面的手动展开版本
+     */
+    public void calculateFrom(SnapshotData s, SnapshotData p, FactorSpec spec) {
+        if (spec.isDefault()) {
+            calculateFrom(s, p);
+            return;
+        }
+        final int n = spec.depth;
+
+        long sumBidVol = s.bidVolSum(n);
+        long sumAskVol = s.askVolSum(n);
+        long totalVol = sumBidVol + sumAskVol;
+        long totalTVol = s.tBidVol + s.tAskVol;
+
+        float invSumBid = 1.0f / (sumBidVol + EPSILON);
+        float invSumAsk = 1.0f / (sumAskVol + EPSILON);
+        float invTotalVol = 1.0f / (totalVol + EPSILON);
+        float invTotalTVol = 1.0f / (totalTVol + EPSILON);
+
+        double wBidPrice = s.bidNotional(n);
+        double wAskPrice = s.askNotional(n);
+
+        float midPrice = (float)((s.ap0 + s.bp0) * 0.5);
+
+        float[] f = this.factorValues;
+
+        f[0] = s.ap0 - s.bp0;
+        f[1] = f[0] / (midPrice + EPSILON);
+        f[2] = midPrice;
+        f[3] = (s.bv0 - s.av0) * 1.0f / (s.bv0 + s.av0 + EPSILON);
+
+        f[4] = (sumBidVol - sumAskVol) * invTotalVol;
+        f[5] = sumBidVol;
+        f[6] = sumAskVol;
+        f[7] = sumBidVol - sumAskVol;
+        f[8] = sumBidVol * invSumAsk;
+        f[9] = (s.tBidVol - s.tAskVol) * invTotalTVol;
+
+        f[10] = (float)(wBidPrice * invSumBid);
+        f[11] = (float)(wAskPrice * invSumAsk);
+        f[12] = (float)((wBidPrice + wAskPrice) * invTotalVol);
+        f[13] = f[11] - f[10];
+        f[14] = f[7] * (1.0f / n);
+
+        double wBid = s.bidVolHarmonic(n);
+        double wAsk = s.askVolHarmonic(n);
+        f[15] = (float)((wBid - wAsk) / (wBid + wAsk + EPSILON));
+        f[19] = f[0] * invTotalVol;
+
+        if (p.tradeTime != 0) {
+            f[16] = s.ap0 - p.ap0;
+            f[17] = midPrice - (float)((p.ap0 + p.bp0) * 0.5);
+            float prevDepthRatio = (float)(p.bidVolSum(n) / (double)(p.askVolSum(n) + EPSILON));
+            float currDepthRatio = (float)(sumBidVol / (double)(sumAskVol + EPSILON));
+            f[18] = currDepthRatio - prevDepthRatio;
+        } else {
+            f[16] = 0;
+            f[17] = 0;
+            f[18] = 0;
+        }
+    }
+
     private float calculateAsymmetry(SnapshotData s) {
         // 使用乘法代替除法
         double wBid = s.bv0 + s.bv1*0.5 + s.bv2*0.333333 + s.bv3*0.25 + s.bv4*0.2;
@@ -104,11 +212,42 @@ public class Factor implements Writable {
         return false;
     }
 
+    /**
+     * 只检查被选中的因子 (未选中的列没有解析，其值无意义)
+     */
+    public boolean hasInvalidValue() {
+        if (spec.allSelected()) return hasInvalidValue(factorValues);
+        for (int i : spec.selected) {
+            float val = factorValues[i];
+            if (Float.isNaN(val) || Float.isInfinite(val)) return true;
+        }
+        return false;
+    }
+
     // Merge, Write, Read...
     public void merge(Factor other) {
         for (int i = 0; i < 20; i++) this.factorValues[i] += other.factorValues[i];
         this.count += other.count;
+        if (sketch != null && other.sketch != null) sketch.merge(other.sketch);
+    }
+    /**
+     * 从 SnapshotBatch 的列结果中取第 row 行 (count = 1)
+     */
+    public void setFromColumns(float[][] cols, int row) {
+        float[] f = this.factorValues;
+        for (int i = 0; i < 20; i++) f[i] = cols[i][row];
+        this.count = 1;
     }
+
+    /**
+     * 累加 SnapshotBatch 的第 row 行，等价于 merge 一个 count = 1 的 Factor
+     */
+    public void addColumns(float[][] cols, int row) {
+        float[] f = this.factorValues;
+        for (int i = 0; i < 20; i++) f[i] += cols[i][row];
+        this.count++;
+    }
+
     public float[] getFactorValues() { return factorValues; }
     public void setCount(int c) { this.count = c; }
     public int getCount() { return count; }
@@ -121,12 +260,15 @@ public class Factor implements Writable {
 
     @Override
     public void write(DataOutput out) throws IOException {
-        for (float v : factorValues) out.writeFloat(v);
+        // 只序列化被选中的因子，子集越小 Shuffle 字节越少
+        for (int i : spec.selected) out.writeFloat(factorValues[i]);
         out.writeInt(count);
+        if (sketch != null) sketch.write(out);
     }
     @Override
     public void readFields(DataInput in) throws IOException {
-        for (int i = 0; i < 20; i++) factorValues[i] = in.readFloat();
+        for (int i : spec.selected) factorValues[i] = in.readFloat();
         count = in.readInt();
+        if (sketch != null) sketch.readFields(in);
     }
 }
\ No newline at end of file
@@ -0,0 +1,248 @@
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.mapreduce.TaskInputOutputContext;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * 单线程的 "快照 -> 因子 -> 时间戳预聚合" 状态机
+ * FactorMapper 与 LocalFactorEngine 共用，保证两条路径的计算逻辑完全一致
+ * 重采样 (factor.bar.seconds > 0) 时每只股票先在自己的当前桶内取最后一行或均值，换桶 / 换文件 / 取表时
+ * 以桶的结束时间 (CompactTimeUtil.barEnd) 为 Key 并入预聚合表，每只股票每个桶只贡献一行
+ * (要求同一股票的行按时间顺序出现，与 Δt 因子的要求相同)
+ */
+public class FactorAccumulator {
+
+    // 批量 (SoA) 计算的块行数，0 表示逐行计算
+    public static final String BATCH_SIZE_KEY = "factor.batch.size";
+    public static final int DEFAULT_BATCH_SIZE = 0;
+
+    // --- 静态 Dummy 对象 (全0)，用于消除 if (prev == null) ---
+    private static final SnapshotData DUMMY_SNAPSHOT = new SnapshotData();
+    private static final int FACTORS = 20;
+
+    // 按 [日][时间索引][因子] 直接寻址的预聚合表
+    private final DenseFactorTable factorCache;
+    // 变动因子所需的按股票历史 (Δt / 滚动窗口)
+    private final StockStateStore states;
+    private final FactorSpec spec;
+    private final Factor tempFactor;
+    // 批量模式 (factor.batch.size > 0 且为默认 FactorSpec)，否则为 null
+    private final SnapshotBatch batch;
+    // 编码失败 / 无效因子 / 聚合行数计数 (默认关闭)
+    private final FactorMetrics metrics;
+    // 逐股票面板的行收集器 (factor.output.panel)，未启用时为 null
+    private final FactorPanel.Builder panel;
+    // 批量模式下与 SnapshotBatch 行对应的股票代码与历史槽位 (面板 / 重采样使用)
+    private final int[] batchCodes;
+    private final int[] batchSlots;
+
+    // 重采样：按历史槽位保存当前桶的结束 Key、股票代码、行数和因子 (last 为最后一行，mean 为累加和)
+    private final int barSeconds;
+    private int[] barKey, barCode, barRows;
+    private float[] barValues;
+    private int barSlots;
+    private final float[] barOut;
+    private final float[] rowTemp;
+
+    public FactorAccumulator() {
+        this(FactorSpec.DEFAULT, 0);
+    }
+
+    public FactorAccumulator(FactorSpec spec) {
+        this(spec, 0);
+    }
+
+    /**
+     * @param batchSize > 0 时按 SnapshotBatch 成块计算因子 (仅默认 FactorSpec 支持，否则退回逐行计算)
+     */
+    public FactorAccumulator(FactorSpec spec, int batchSize) {
+        this(spec, batchSize, FactorMetrics.DISABLED);
+    }
+
+    public FactorAccumulator(FactorSpec spec, int batchSize, FactorMetrics metrics) {
+        this(spec, batchSize, metrics, null);
+    }
+
+    /**
+     * @param panel 非 null 时把每个有效行 (股票代码 + 因子) 同时交给 FactorPanel 构建器
+     */
+    public FactorAccumulator(FactorSpec spec, int batchSize, FactorMetrics metrics, FactorPanel.Builder panel) {
+        this.spec = spec;
+        this.metrics = metrics;
+        this.panel = panel;
+        this.tempFactor = new Factor(spec);
+        this.batch = batchSize > 0 && spec.isDefault() ? new SnapshotBatch(batchSize) : null;
+        this.barSeconds = spec.barSeconds;
+        this.batchCodes = batch != null && (panel != null || barSeconds > 0) ? new int[batchSize] : null;
+        this.batchSlots = batch != null && barSeconds > 0 ? new int[batchSize] : null;
+        if (barSeconds > 0) {
+            barKey = new int[64];
+            barCode = new int[64];
+            barRows = new int[64];
+            barValues = new float[64 * FACTORS];
+        }
+        this.barOut = barSeconds > 0 ? new float[FACTORS] : null;
+        this.rowTemp = batchSlots != null ? new float[FACTORS] : null;
+        factorCache = new DenseFactorTable(spec);
+        states = new StockStateStore(spec);
+    }
+
+    /**
+     * 处理一条已解析的快照：时间编码 -> 取历史槽位 -> 计算因子 -> 按时间戳累加 -> 写入历史
+     * @return false 表示该行被丢弃 (时间越界或因子含 NaN/Inf)
+     */
+    public boolean add(SnapshotData currentSnapshot) {
+        int code = currentSnapshot.code;
+
+        // B. 时间编码
+        int compactTime;
+        try {
+            compactTime = CompactTimeUtil.encode(currentSnapshot.tradingDay, (int) currentSnapshot.tradeTime);
+        } catch (IllegalArgumentException e) {
+            metrics.inc(FactorMetrics.Counter.ENCODE_FAILED);
+            return false;
+        }
+
+        // C. 该股票的历史槽位 (变动因子由 StockStateStore 按 Δt / 窗口给出)
+        int slot = states.slot(code);
+        // 历史不跨交易日
+        states.enterDay(slot, CompactTimeUtil.getDayCode(compactTime));
+
+        // 批量模式：只把当前行和参照值写入列块，块满后整块计算、聚合
+        if (batch != null) {
+            if (batchCodes != null) batchCodes[batch.size()] = code;
+            if (batchSlots != null) batchSlots[batch.size()] = slot;
+            batch.add(compactTime, currentSnapshot, states, slot);
+            states.push(slot, currentSnapshot, spec.depth);
+            if (batch.isFull()) drainBatch();
+            return true;
+        }
+
+        // D. 计算 (使用扁平化字段)；Dummy 前一帧使 16-18 先置 0，再由状态存储填入并写入当前行
+        tempFactor.calculateFrom(currentSnapshot, DUMMY_SNAPSHOT, spec);
+        final int n = spec.depth;
+        states.apply(slot, currentSnapshot.ap0, tempFactor.getFactorValues()[2],
+                currentSnapshot.bidVolSum(n), currentSnapshot.askVolSum(n), tempFactor.getFactorValues());
+
+        if (tempFactor.hasInvalidValue()) {
+            metrics.inc(FactorMetrics.Counter.INVALID_FACTOR);
+            return false;
+        }
+
+        // E. 聚合
+        if (barSeconds > 0) {
+            addToBar(CompactTimeUtil.barEnd(compactTime, barSeconds), slot, code, tempFactor.getFactorValues());
+        } else {
+            factorCache.add(compactTime, tempFactor.getFactorValues());
+            if (panel != null) panel.add(compactTime, code, tempFactor.getFactorValues());
+        }
+        metrics.inc(FactorMetrics.Counter.ROWS_AGGREGATED);
+        return true;
+    }
+
+    /**
+     * 计算并聚合批量块中的全部行 (行序与逐行模式一致，累加结果逐位相同)
+     */
+    private void drainBatch() {
+        if (batch == null || batch.size() == 0) return;
+        batch.compute();
+        float[][] cols = batch.out;
+        int[] keys = batch.keys;
+        int invalid = 0;
+        for (int r = 0, n = batch.size(); r < n; r++) {
+            if (batch.isInvalid(r)) { invalid++; continue; }
+            if (barSeconds > 0) {
+                for (int i = 0; i < FACTORS; i++) rowTemp[i] = cols[i][r];
+                addToBar(CompactTimeUtil.barEnd(keys[r], barSeconds), batchSlots[r], batchCodes[r], rowTemp);
+                continue;
+            }
+            factorCache.addColumns(keys[r], cols, r);
+            if (panel != null) panel.addColumns(keys[r], batchCodes[r], cols, r);
+        }
+        metrics.add(FactorMetrics.Counter.INVALID_FACTOR, invalid);
+        metrics.add(FactorMetrics.Counter.ROWS_AGGREGATED, batch.size() - invalid);
+        batch.clear();
+    }
+
+    /**
+     * 把一行并入该股票的当前桶；桶变化时先把上一个桶写入预聚合表
+     */
+    private void addToBar(int bucket, int slot, int code, float[] f) {
+        if (slot >= barRows.length) growBars(slot + 1);
+        if (slot >= barSlots) barSlots = slot + 1;
+        if (barRows[slot] > 0 && barKey[slot] != bucket) emitBar(slot);
+        int base = slot * FACTORS;
+        if (barRows[slot] == 0 || !spec.barMean) {
+            System.arraycopy(f, 0, barValues, base, FACTORS);
+        } else {
+            for (int i = 0; i < FACTORS; i++) barValues[base + i] += f[i];
+        }
+        barKey[slot] = bucket;
+        barCode[slot] = code;
+        barRows[slot]++;
+    }
+
+    private void emitBar(int slot) {
+        int base = slot * FACTORS;
+        float[] out = barOut;
+        if (spec.barMean) {
+            float n = barRows[slot];
+            for (int i = 0; i < FACTORS; i++) out[i] = barValues[base + i] / n;
+        } else {
+            System.arraycopy(barValues, base, out, 0, FACTORS);
+        }
+        factorCache.add(barKey[slot], out);
+        if (panel != null) panel.add(barKey[slot], barCode[slot], out);
+        barRows[slot] = 0;
+    }
+
+    private void growBars(int minSlots) {
+        int cap = Math.max(minSlots, barRows.length << 1);
+        barKey = Arrays.copyOf(barKey, cap);
+        barCode = Arrays.copyOf(barCode, cap);
+        barRows = Arrays.copyOf(barRows, cap);
+        barValues = Arrays.copyOf(barValues, cap * FACTORS);
+    }
+
+    /**
+     * 计算完批量块，并把各股票未结束的桶写入预聚合表
+     */
+    private void drain() {
+        drainBatch();
+        if (barSeconds == 0) return;
+        for (int slot = 0; slot < barSlots; slot++) {
+            if (barRows[slot] > 0) emitBar(slot);
+        }
+        barSlots = 0;
+    }
+
+    /**
+     * 开始处理一个新文件时调用：历史只在同一输入内有效 (与 Mapper 按分片独立的语义一致)
+     * 重采样时槽位会被重新分配，先结束各股票的当前桶
+     */
+    public void resetPrevSnapshots() {
+        if (barSeconds > 0) drain();
+        states.clear();
+    }
+
+    public DenseFactorTable table() {
+        drain();
+        return factorCache;
+    }
+
+    public int size() { return factorCache.size(); }
+
+    /** @return 面板构建器，未启用时为 null */
+    public FactorPanel.Builder panel() {
+        drain();
+        return panel;
+    }
+
+    public void flush(TaskInputOutputContext<?, ?, IntWritable, Factor> context, IntWritable outKey)
+            throws IOException, InterruptedException {
+        drain();
+        metrics.add(FactorMetrics.Counter.KEYS_EMITTED, factorCache.size());
+        factorCache.flush(context, outKey);
+        factorCache.clear();
+    }
+}
@@ -3,8 +3,8 @@ import org.apache.hadoop.conf.Configured;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.IntWritable;
-import org.apache.hadoop.io.Text;
 import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.MRConfig;
 import org.apache.hadoop.mapreduce.lib.input.CombineTextInputFormat;
 import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
 import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
@@ -13,6 +13,16 @@ import org.apache.hadoop.util.ToolRunner;
 
 public class FactorCalculationJob extends Configured implements Tool {
 
+    // 执行引擎：mapreduce | local | auto (auto：mapreduce.framework.name 为 local 且输入总量不超过阈值时走进程内引擎)
+    public static final String ENGINE_KEY = "factor.engine";
+    public static final String LOCAL_MAX_BYTES_KEY = "factor.engine.local.max.bytes";
+    private static final long DEFAULT_LOCAL_MAX_BYTES = 4L * 1024 * 1024 * 1024;
+
+    // 输入格式：text (CombineTextInputFormat + Text) | nio (SnapshotInputFormat，大块读取并就地解析)
+    //         | columnar (ColumnarSnapshotInputFormat，读取 ColumnarConverter 转换后的列式块)
+    //         | block (BlockCompressedInputFormat，读取 BlockCompressor 产出的可切分分块压缩文件)
+    public static final String INPUT_FORMAT_KEY = "factor.input.format";
+
     @Override
     public int run(String[] args) throws Exception {
         if (args.length != 2) {
@@ -24,57 +34,69 @@ public class FactorCalculationJob extends Configured implements Tool {
 
         Configuration conf = getConf();
 
-        // 虽然这个是针对Local模式的优化，但在集群模式下也不会有负面影响，故保留。
-        String mapRunnerClass = conf.get("mapreduce.job.map.runner.class", "");
-        boolean isLocalMode = mapRunnerClass.contains("LocalJobRunner")
-                || conf.get("mapreduce.framework.name", "local").equals("local");
-
-        if (isLocalMode) {
-            int localMapMax = conf.getInt("mapreduce.local.map.tasks.maximum", 1);
-            if (localMapMax == 1) {
-                int cpuCores = Runtime.getRuntime().availableProcessors();
-                conf.setInt("mapreduce.local.map.tasks.maximum", cpuCores);
-                conf.setInt("mapreduce.local.reduce.tasks.maximum", cpuCores);
-            }
+        // 统计输入规模，据此选择引擎和作业参数 (-D / *-site.xml 中显式给出的值优先)
+        JobPlanner plan = JobPlanner.stat(conf, new Path(inputPath));
+        if (useLocalEngine(conf, plan.totalBytes)) {
+            plan.applyLocalEngine(conf);
+            return runLocal(conf, new Path(inputPath), new Path(outputPath));
+        }
+        if (!conf.get(PartialAggregateCache.CACHE_DIR_KEY, "").isEmpty()) {
+            // MapReduce 的合并分片跨文件保留历史，按文件的部分和缓存只用于本地引擎
+            System.err.println("Warning: " + PartialAggregateCache.CACHE_DIR_KEY
+                    + " is only used by the local engine, ignored");
         }
 
+        boolean daySplit = DaySplitInputFormat.isEnabled(conf);
+        if (FactorPanel.isEnabled(conf) && !daySplit) {
+            // 按文件分片时一个 Map 只看到某天的一部分股票，面板只由本地引擎或按日分片写出
+            System.err.println("Warning: " + FactorPanel.PANEL_KEY + " needs the local engine or "
+                    + DaySplitInputFormat.SPLIT_MODE_KEY + "=day, ignored");
+        }
+        // 分片大小、Reducer 数、排序缓冲、Map/Reduce 堆与容器、Shuffle 并发、本地模式槽位
+        plan.apply(conf, daySplit, !daySplit && DayRangePartitioner.isEnabled(conf));
+
         // ------------------ 压缩与IO优化 ------------------
         conf.setBoolean("mapreduce.map.output.compress", true);
         conf.set("mapreduce.map.output.compress.codec", "org.apache.hadoop.io.compress.SnappyCodec");
 
-        // ------------------ 内存与JVM优化 ------------------
-        // 容器内存（物理限制）
-        conf.set("mapreduce.map.memory.mb", "2048");
-        conf.set("mapreduce.reduce.memory.mb", "4096");
-
-        // JVM堆内存（逻辑限制，通常为容器内存的75%-80%）
-        // -XX:+UseG1GC: 推荐用于大内存和混合对象生命周期的场景
-        conf.set("mapreduce.map.java.opts", "-Xmx1638m -XX:+UseG1GC");
-        conf.set("mapreduce.reduce.java.opts", "-Xmx3276m -XX:+UseG1GC");
-
-        // Shuffle 参数优化
-        conf.set("mapreduce.task.io.sort.mb", "512"); // 增大排序缓存，减少溢写
-        conf.set("mapreduce.reduce.shuffle.parallelcopies", "10");
-
         // ------------------ Job配置 ------------------
         Job job = Job.getInstance(conf, "CSI300 Factor Calculation");
         job.setJarByClass(FactorCalculationJob.class);
 
-        job.setInputFormatClass(CombineTextInputFormat.class);
-        CombineTextInputFormat.setMinInputSplitSize(job, 128 * 1024 * 1024);
-        CombineTextInputFormat.setMaxInputSplitSize(job, 512 * 1024 * 1024);
+        String inputFormat = conf.get(INPUT_FORMAT_KEY, "text");
+        if (daySplit) {
+            // 一个交易日一个分片，Mapper 直接写出日文件，不经过 Shuffle
+            job.setInputFormatClass(DaySplitInputFormat.class);
+        } else if (inputFormat.equals("nio")) {
+            job.setInputFormatClass(SnapshotInputFormat.class);
+        } else if (inputFormat.equals("columnar")) {
+            job.setInputFormatClass(ColumnarSnapshotInputFormat.class);
+        } else if (inputFormat.equals("block")) {
+            job.setInputFormatClass(BlockCompressedInputFormat.class);
+        } else {
+            job.setInputFormatClass(CombineTextInputFormat.class);
+        }
+        // 各输入格式共用 FileInputFormat/CombineFileInputFormat 的分片大小配置 (由 JobPlanner 写入)
 
         job.setMapperClass(FactorMapper.class);
         job.setReducerClass(FactorReducer.class);
-        job.setPartitionerClass(DayPartitioner.class);
+        if (daySplit) {
+            job.setNumReduceTasks(0);
+        } else if (DayRangePartitioner.isEnabled(conf)) {
+            // 采样切分日内区间，Reducer 数不再受交易日数量限制
+            DayRangePartitioner.configure(job, new Path(inputPath));
+            job.setPartitionerClass(DayRangePartitioner.class);
+        } else {
+            job.setPartitionerClass(DayPartitioner.class);
+        }
         job.setCombinerClass(FactorCombiner.class);
 
         job.setMapOutputKeyClass(IntWritable.class);
         job.setMapOutputValueClass(Factor.class);
 
         // 显式设置最终输出类型
-        job.setOutputKeyClass(Text.class);
-        job.setOutputValueClass(Text.class);
+        job.setOutputKeyClass(IntWritable.class);
+        job.setOutputValueClass(Factor.class);
         job.setOutputFormatClass(DailyOutputFormat.class);
 
         FileInputFormat.addInputPath(job, new Path(inputPath));
@@ -92,6 +114,11 @@ public class FactorCalculationJob extends Configured implements Tool {
         long endTime = System.currentTimeMillis();
 
         if (success) {
+            // 各任务写入的 FactorMetrics 计数器汇总为 _metrics.json
+            if (FactorMetrics.isEnabled(conf)) {
+                FactorMetrics.fromCounters(job.getCounters()).writeReport(output.getFileSystem(conf), output,
+                        "mapreduce", endTime - startTime);
+            }
             System.out.println("Done! Time: " + (endTime - startTime) / 1000.0 + "s");
             return 0;
         } else {
@@ -99,6 +126,36 @@ public class FactorCalculationJob extends Configured implements Tool {
         }
     }
 
+    /**
+     * 几 GB 以内的输入，作业启动 + 溢写 + 排序 + Shuffle 的开销超过因子计算本身
+     * 只在本来就会单机运行 (LocalJobRunner) 时自动切换：配置了 YARN 等集群时仍提交作业，不在客户端上计算
+     */
+    private static boolean useLocalEngine(Configuration conf, long inputBytes) {
+        String engine = conf.get(ENGINE_KEY, "auto");
+        if (engine.equals("local")) return true;
+        if (!engine.equals("auto")) return false;
+        if (!conf.get(MRConfig.FRAMEWORK_NAME, MRConfig.LOCAL_FRAMEWORK_NAME).equals(MRConfig.LOCAL_FRAMEWORK_NAME)) {
+            return false;
+        }
+
+        return inputBytes <= conf.getLong(LOCAL_MAX_BYTES_KEY, DEFAULT_LOCAL_MAX_BYTES);
+    }
+
+    private static int runLocal(Configuration conf, Path input, Path output) throws Exception {
+        FileSystem fs = output.getFileSystem(conf);
+        if (fs.exists(output)) {
+            fs.delete(output, true);
+        }
+
+        long startTime = System.currentTimeMillis();
+        long rows = new LocalFactorEngine(conf).run(input, output);
+        long endTime = System.currentTimeMillis();
+
+        System.out.println("Local engine wrote " + rows + " rows");
+        System.out.println("Done! Time: " + (endTime - startTime) / 1000.0 + "s");
+        return 0;
+    }
+
     public static void main(String[] args) throws Exception {
         int exitCode = ToolRunner.run(new FactorCalculationJob(), args);
         System.exit(exitCode);
@@ -3,20 +3,35 @@ import org.apache.hadoop.mapreduce.Reducer;
 import java.io.IOException;
 
 public class FactorCombiner extends Reducer<IntWritable, Factor, IntWritable, Factor> {
-    private Factor sumFactor = new Factor(); // 复用Combiner中的Factor对象
+    private Factor sumFactor; // 复用Combiner中的Factor对象
+    private FactorMetrics metrics;
+
+    @Override
+    protected void setup(Context context) {
+        sumFactor = new Factor(FactorSpec.get(context.getConfiguration()));
+        metrics = FactorMetrics.get(context.getConfiguration());
+    }
 
     @Override
     protected void reduce(IntWritable key, Iterable<Factor> values, Context context)
             throws IOException, InterruptedException {
-        // 重置sumFactor，避免每次创建新对象
-        sumFactor.setCount(0);
-        for (int i = 0; i < 20; i++) {
-            sumFactor.getFactorValues()[i] = 0;
-        }
+        // 抽样计时 (每 N 个 Key 计时 1 个)
+        boolean timed = metrics.sample();
+        long t0 = timed ? System.nanoTime() : 0;
+        metrics.inc(FactorMetrics.Counter.COMBINE_GROUPS);
+
+        // 重置sumFactor，避免每次创建新对象 (分布草图一并清空)
+        sumFactor.clear();
 
         for (Factor factor : values) {
             sumFactor.merge(factor);
         }
         context.write(key, sumFactor);
+        if (timed) metrics.addSampled(FactorMetrics.Counter.COMBINE_NANOS, System.nanoTime() - t0);
+    }
+
+    @Override
+    protected void cleanup(Context context) {
+        metrics.publish(context);
     }
 }
\ No newline at end of file
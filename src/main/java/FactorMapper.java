@@ -2,73 +2,27 @@ import org.apache.hadoop.io.IntWritable;
 import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
 import java.io.IOException;
-import java.util.Arrays;
 
-public class FactorMapper extends Mapper<LongWritable, Text, IntWritable, Factor> {
-
-    // --- 静态 Dummy 对象 (全0)，用于消除 if (prev == null) ---
-    private static final SnapshotData DUMMY_SNAPSHOT = new SnapshotData();
-
-    // --- Primitive Map 实现 (IntFactorMap / IntSnapshotMap) ---
-
-    private static class IntFactorMap {
-        private int[] keys;
-        private Factor[] values;
-        private int size = 0;
-        private int mask;
-        public IntFactorMap(int capacity) {
-            int cap = 1; while (cap < capacity) cap <<= 1;
-            keys = new int[cap]; values = new Factor[cap]; mask = cap - 1;
-            Arrays.fill(keys, -1);
-        }
-        public Factor get(int key) {
-            int idx = key & mask;
-            while (keys[idx] != -1) { if (keys[idx] == key) return values[idx]; idx = (idx + 1) & mask; }
-            return null;
-        }
-        public void put(int key, Factor value) {
-            int idx = key & mask;
-            while (keys[idx] != -1) { if (keys[idx] == key) { values[idx] = value; return; } idx = (idx + 1) & mask; }
-            keys[idx] = key; values[idx] = value; size++;
-        }
-        public void clear() { Arrays.fill(keys, -1); size = 0; }
-        public int size() { return size; }
-        public void flush(Context context, IntWritable outKey) throws IOException, InterruptedException {
-            for (int i = 0; i < keys.length; i++) {
-                if (keys[i] != -1) { outKey.set(keys[i]); context.write(outKey, values[i]); }
-            }
-        }
-    }
-
-    private static class IntSnapshotMap {
-        private int[] keys;
-        private SnapshotData[] values;
-        private int mask;
-        public IntSnapshotMap(int capacity) {
-            int cap = 1; while (cap < capacity) cap <<= 1;
-            keys = new int[cap]; values = new SnapshotData[cap]; mask = cap - 1;
-            Arrays.fill(keys, -1);
-        }
-        public SnapshotData get(int key) {
-            int idx = key & mask;
-            while (keys[idx] != -1) { if (keys[idx] == key) return values[idx]; idx = (idx + 1) & mask; }
-            return null;
-        }
-        public void put(int key, SnapshotData value) {
-            int idx = key & mask;
-            while (keys[idx] != -1) { if (keys[idx] == key) return; idx = (idx + 1) & mask; }
-            keys[idx] = key; values[idx] = value;
-        }
-    }
+/**
+ * 输入 Value 可以是 Text (CombineTextInputFormat) 或已解析的 SnapshotData (SnapshotInputFormat)
+ * 按日分片模式 (DaySplitInputFormat) 下不向 context 输出：整天预聚合完毕后在 cleanup 中直接写出 MMDD.csv
+ * (factor.output.panel 开启时同时写出该日的 MMDD.panel；均写入任务工作目录，由 OutputCommitter 提交，输入循环抛出异常时不写出)
+ * factor.map.threads > 1 且为 text 输入时，主线程只读行，按股票分片交给 ShardedFactorPipeline 的工作线程
+ */
+public class FactorMapper extends Mapper<LongWritable, Object, IntWritable, Factor> {
 
     // --- Mapper 成员 ---
-    private IntFactorMap factorCache;
-    private IntSnapshotMap prevSnapshotCache;
+    private FactorAccumulator accumulator;
     private IntWritable outputKey = new IntWritable();
     private SnapshotData currentSnapshot = new SnapshotData();
-    private Factor tempFactor = new Factor();
-    private static final int CACHE_FLUSH_THRESHOLD = 50000;
+    private FactorSpec spec;
+    private boolean daySplit;
+    private FactorMetrics metrics;
+    private ShardedFactorPipeline pipeline;
 
     /**
      * Override run()
@@ -79,93 +33,122 @@ public class FactorMapper extends Mapper<LongWritable, Text, IntWritable, Factor
         // 1. Setup
         setup(context);
 
+        // 输入循环正常结束才写出：异常时本次 Attempt 作废，原异常直接上抛
+        boolean completed = false;
         try {
+            if (pipeline != null) {
+                // 分片模式：只把行字节交给股票所在分片，解析和计算都在工作线程中
+                while (context.nextKeyValue()) {
+                    Text text = (Text) context.getCurrentValue();
+                    pipeline.submit(text.getBytes(), 0, text.getLength());
+                }
+                completed = true;
+                return;
+            }
+
             // 2. Loop (手动控制迭代，减少栈帧深度)
+            // 抽样计时：每 N 行对 1 行计时，t0 覆盖读取 + 解析 (nio 格式在 nextKeyValue 中解析)，t1 之后是计算 + 聚合
+            final FactorMetrics m = metrics;
+            boolean timed = m.sample();
+            long t0 = timed ? System.nanoTime() : 0;
             while (context.nextKeyValue()) {
                 // 直接获取 Value，忽略 Key (LongWritable 偏移量通常无用)
-                Text value = context.getCurrentValue();
+                Object value = context.getCurrentValue();
 
                 // --- 逻辑内联 Start ---
 
-                // A. 解析
-                currentSnapshot.reset();
-                boolean parsed = currentSnapshot.parseFromBytes(
-                        value.getBytes(), 0, value.getLength());
-
-                if (!parsed) continue; // 替代 return
-
-                int code = currentSnapshot.code;
-                int tradingDay = currentSnapshot.tradingDay;
-                long tradeTime = currentSnapshot.tradeTime;
-
-                // B. 时间编码
-                int compactTime;
-                try {
-                    compactTime = CompactTimeUtil.encode(tradingDay, (int) tradeTime);
-                } catch (IllegalArgumentException e) {
-                    continue;
-                }
-
-                // C. 获取前一帧 (Branch Prediction Optimization)
-                SnapshotData prevSnapshot = prevSnapshotCache.get(code);
-                // 如果为空，指向 Dummy (全0)，避免 if (prev != null) 检查
-                // Factor 计算中会根据 tradeTime != 0 来处理逻辑
-                SnapshotData calcPrev = (prevSnapshot == null) ? DUMMY_SNAPSHOT : prevSnapshot;
-
-                // D. 计算 (使用扁平化字段)
-                tempFactor.calculateFrom(currentSnapshot, calcPrev);
-
-                if (Factor.hasInvalidValue(tempFactor.getFactorValues())) {
-                    updatePrevSnapshot(code, currentSnapshot);
-                    continue;
-                }
-                tempFactor.setCount(1);
-
-                // E. 聚合
-                Factor cachedFactor = factorCache.get(compactTime);
-                if (cachedFactor == null) {
-                    cachedFactor = new Factor();
-                    cachedFactor.copyFrom(tempFactor);
-                    factorCache.put(compactTime, cachedFactor);
+                // A. 解析 (SnapshotInputFormat 已在 RecordReader 中就地解析，拒绝行由 RecordReader 计数)
+                SnapshotData snapshot;
+                if (value instanceof SnapshotData) {
+                    snapshot = (SnapshotData) value;
                 } else {
-                    cachedFactor.merge(tempFactor);
+                    Text text = (Text) value;
+                    currentSnapshot.reset();
+                    boolean parsed = currentSnapshot.parseFromBytes(
+                            text.getBytes(), 0, text.getLength(), spec);
+
+                    if (!parsed) { // 替代 return
+                        m.inc(FactorMetrics.Counter.PARSE_REJECTED);
+                        // 拒绝行也要推进抽样：否则抽中的 t0 会留到下一条有效行，把中间的读取时间都计入
+                        timed = m.sample();
+                        if (timed) t0 = System.nanoTime();
+                        continue;
+                    }
+                    snapshot = currentSnapshot;
                 }
-
-                // F. Flush Check
-                if (factorCache.size() >= CACHE_FLUSH_THRESHOLD) {
-                    factorCache.flush(context, outputKey);
-                    factorCache.clear();
+                m.inc(FactorMetrics.Counter.ROWS_PARSED);
+
+                // B-E, G. 时间编码 / 取历史 / 计算 / 聚合 / 写入历史
+                // 稠密预聚合表的大小只与天数有关，不再中途 flush，每个 Key 在 cleanup 中只输出一次
+                if (timed) {
+                    long t1 = System.nanoTime();
+                    accumulator.add(snapshot);
+                    long t2 = System.nanoTime();
+                    m.addSampled(FactorMetrics.Counter.PARSE_NANOS, t1 - t0);
+                    m.addSampled(FactorMetrics.Counter.COMPUTE_NANOS, t2 - t1);
+                } else {
+                    accumulator.add(snapshot);
                 }
 
-                // G. Update Prev
-                updatePrevSnapshot(code, currentSnapshot);
-
                 // --- 逻辑内联 End ---
+                timed = m.sample();
+                if (timed) t0 = System.nanoTime();
             }
+            completed = true;
         } finally {
-            // 3. Cleanup
-            cleanup(context);
-        }
-    }
-
-    // 辅助方法：更新缓存
-    private void updatePrevSnapshot(int code, SnapshotData current) {
-        SnapshotData prev = prevSnapshotCache.get(code);
-        if (prev == null) {
-            prev = new SnapshotData();
-            prevSnapshotCache.put(code, prev);
+            // 3. Cleanup (失败时只停止分片线程，不合并也不输出，避免掩盖原异常)
+            if (completed) {
+                cleanup(context);
+            } else if (pipeline != null) {
+                pipeline.shutdown();
+            }
         }
-        prev.copyFrom(current);
     }
 
     @Override
     protected void setup(Context context) {
-        factorCache = new IntFactorMap(65536);
-        prevSnapshotCache = new IntSnapshotMap(16384);
+        spec = FactorSpec.get(context.getConfiguration());
+        daySplit = DaySplitInputFormat.isEnabled(context.getConfiguration());
+        metrics = FactorMetrics.get(context.getConfiguration());
+        int batchSize = context.getConfiguration().getInt(
+                FactorAccumulator.BATCH_SIZE_KEY, FactorAccumulator.DEFAULT_BATCH_SIZE);
+
+        // 分片只适用于 Text 输入：nio / columnar / 按日分片的解析已在 RecordReader 中完成
+        int threads = context.getConfiguration().getInt(ShardedFactorPipeline.THREADS_KEY, 1);
+        boolean textInput = context.getConfiguration().get(FactorCalculationJob.INPUT_FORMAT_KEY, "text").equals("text");
+        if (threads > 1 && textInput && !daySplit) {
+            pipeline = new ShardedFactorPipeline(spec, threads, batchSize, metrics);
+            pipeline.start();
+        } else {
+            // 逐股票面板需要整天的快照，只在按日分片时收集
+            boolean panel = daySplit && FactorPanel.isEnabled(context.getConfiguration());
+            accumulator = new FactorAccumulator(spec, batchSize, metrics, panel ? new FactorPanel.Builder(spec) : null);
+        }
     }
 
     @Override
     protected void cleanup(Context context) throws IOException, InterruptedException {
-        factorCache.flush(context, outputKey);
+        metrics.inc(FactorMetrics.Counter.CACHE_FLUSHES);
+        if (daySplit) {
+            // 写出耗时计入 FORMAT_NANOS
+            // 写入任务的工作目录，由 OutputCommitter 只提升成功的 Attempt (推测执行 / 重试不会留下半个日文件)
+            Path workDir = FileOutputFormat.getWorkOutputPath(context);
+            int digits = context.getConfiguration().getInt(DailyOutputFormat.OUTPUT_DIGITS_KEY, 0);
+            FileSystem fs = workDir.getFileSystem(context.getConfiguration());
+            LocalFactorEngine.writeDaily(fs, workDir, accumulator.table(), spec, digits,
+                    FactorStore.isEnabled(context.getConfiguration()), metrics);
+            if (accumulator.panel() != null) accumulator.panel().write(fs, workDir);
+        } else if (pipeline != null) {
+            long start = metrics.enabled() ? System.nanoTime() : 0;
+            DenseFactorTable merged = pipeline.finish(metrics);
+            metrics.add(FactorMetrics.Counter.KEYS_EMITTED, merged.size());
+            merged.flush(context, outputKey);
+            if (metrics.enabled()) metrics.add(FactorMetrics.Counter.FLUSH_NANOS, System.nanoTime() - start);
+        } else {
+            long start = metrics.enabled() ? System.nanoTime() : 0;
+            accumulator.flush(context, outputKey);
+            if (metrics.enabled()) metrics.add(FactorMetrics.Counter.FLUSH_NANOS, System.nanoTime() - start);
+        }
+        metrics.publish(context);
     }
-}
\ No newline at end of file
+}
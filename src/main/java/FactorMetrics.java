@@ -0,0 +1,175 @@
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapreduce.Counters;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 热路径分阶段埋点：计数器 + 抽样计时
+ * 1. 任务内只累加到 long[] (按枚举序号下标)，在 cleanup / close 时一次性写入 Hadoop 计数器，热循环中不调用 context.getCounter
+ * 2. 逐行阶段 (解析、计算、格式化) 每 factor.metrics.sample 行只计时 1 行，耗时乘以抽样间隔作为估计值，
+ *    nanoTime 的开销被摊薄到 1/N；整体性的阶段 (flush、写出日文件) 每次都计时
+ * 3. 默认关闭 (-Dfactor.metrics.enabled=true 开启)：关闭时所有方法直接返回，不计时、不创建计数器，也不写 _metrics.json
+ * 4. 作业结束后按计数器生成 _metrics.json 写在输出目录中 (LocalFactorEngine 合并各线程后写同样的文件)
+ */
+public class FactorMetrics {
+
+    public static final String ENABLED_KEY = "factor.metrics.enabled";
+    // 抽样间隔 (行)，向上取整为 2 的幂
+    public static final String SAMPLE_KEY = "factor.metrics.sample";
+    public static final String REPORT_FILE = "_metrics.json";
+
+    private static final int DEFAULT_SAMPLE = 64;
+
+    /** 计数器 (Hadoop 计数器组名为 FactorMetrics$Counter)，*_NANOS 为各阶段耗时 */
+    public enum Counter {
+        ROWS_PARSED,        // 解析成功、送入因子计算的行
+        PARSE_REJECTED,     // parseFromBytes 返回 false 的行 (含表头与 SnapshotFilter 过滤掉的行)
+        ENCODE_FAILED,      // CompactTimeUtil.encode 越界的行
+        INVALID_FACTOR,     // 因子含 NaN/Inf 被跳过的行
+        ROWS_AGGREGATED,    // 进入预聚合表的行
+        CACHE_FLUSHES,      // 预聚合表整体输出的次数
+        KEYS_EMITTED,       // Mapper 输出的 Key 数
+        COMBINE_GROUPS,     // Combiner 处理的 Key 数
+        REDUCE_GROUPS,      // Reducer 处理的 Key 数
+        ROWS_WRITTEN,       // 写出的 CSV 数据行
+        BYTES_WRITTEN,      // 写出的 CSV 字节数 (含表头)
+        CACHE_HITS,         // 增量模式下直接使用缓存部分和的文件数
+        CACHE_MISSES,       // 增量模式下重新计算的文件数
+        PARSE_NANOS,
+        COMPUTE_NANOS,
+        FLUSH_NANOS,
+        COMBINE_NANOS,
+        REDUCE_NANOS,
+        FORMAT_NANOS
+    }
+
+    private static final Counter[] COUNTERS = Counter.values();
+
+    public static final FactorMetrics DISABLED = new FactorMetrics(false, DEFAULT_SAMPLE);
+
+    private final boolean enabled;
+    private final int sampleMask;
+    private final int sampleScale;
+    private final long[] values = new long[COUNTERS.length];
+    private int tick;
+
+    private FactorMetrics(boolean enabled, int sample) {
+        this.enabled = enabled;
+        int n = Integer.highestOneBit(Math.max(1, sample));
+        if (n < sample) n <<= 1;
+        this.sampleMask = n - 1;
+        this.sampleScale = n;
+    }
+
+    public static FactorMetrics get(Configuration conf) {
+        if (!isEnabled(conf)) return DISABLED;
+        return new FactorMetrics(true, conf.getInt(SAMPLE_KEY, DEFAULT_SAMPLE));
+    }
+
+    public static boolean isEnabled(Configuration conf) {
+        return conf.getBoolean(ENABLED_KEY, false);
+    }
+
+    public boolean enabled() { return enabled; }
+
+    /**
+     * 配置相同、计数为零的新实例 (供各工作线程独立累加，之后 merge)
+     */
+    public FactorMetrics newInstance() {
+        return enabled ? new FactorMetrics(true, sampleScale) : DISABLED;
+    }
+
+    public void inc(Counter c) {
+        if (enabled) values[c.ordinal()]++;
+    }
+
+    public void add(Counter c, long n) {
+        if (enabled) values[c.ordinal()] += n;
+    }
+
+    /**
+     * 逐行调用一次，返回 true 表示本行需要计时
+     */
+    public boolean sample() {
+        return enabled && (++tick & sampleMask) == 0;
+    }
+
+    /**
+     * 记录一次抽样计时，按抽样间隔放大为估计的总耗时
+     */
+    public void addSampled(Counter c, long nanos) {
+        values[c.ordinal()] += nanos * sampleScale;
+    }
+
+    public long get(Counter c) { return values[c.ordinal()]; }
+
+    /**
+     * 合并另一个实例 (LocalFactorEngine 合并各工作线程)
+     */
+    public void merge(FactorMetrics other) {
+        if (!enabled) return;
+        for (int i = 0; i < values.length; i++) values[i] += other.values[i];
+    }
+
+    /**
+     * 把累计值写入任务计数器并清零 (Combiner 在一个任务内可能多次运行，清零后不会重复计数)
+     */
+    public void publish(TaskAttemptContext context) {
+        if (!enabled) return;
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] != 0) context.getCounter(COUNTERS[i]).increment(values[i]);
+            values[i] = 0;
+        }
+    }
+
+    /**
+     * 从作业计数器读回汇总值
+     */
+    public static FactorMetrics fromCounters(Counters counters) {
+        FactorMetrics m = new FactorMetrics(true, DEFAULT_SAMPLE);
+        for (Counter c : COUNTERS) m.values[c.ordinal()] = counters.findCounter(c).getValue();
+        return m;
+    }
+
+    /**
+     * 写出 JSON 报告：计数器原值 + 各阶段毫秒数与占比
+     */
+    public void writeReport(FileSystem fs, Path outputDir, String engine, long elapsedMs) throws IOException {
+        if (!enabled) return;
+        long phaseTotal = 0;
+        for (Counter c : COUNTERS) {
+            if (c.name().endsWith("_NANOS")) phaseTotal += values[c.ordinal()];
+        }
+
+        StringBuilder sb = new StringBuilder(1024);
+        sb.append("{\n  \"engine\": \"").append(engine).append("\",\n");
+        sb.append("  \"elapsedMs\": ").append(elapsedMs).append(",\n");
+        sb.append("  \"sampleInterval\": ").append(sampleScale).append(",\n");
+        sb.append("  \"counters\": {");
+        for (int i = 0; i < COUNTERS.length; i++) {
+            sb.append(i == 0 ? "\n" : ",\n");
+            sb.append("    \"").append(COUNTERS[i].name()).append("\": ").append(values[i]);
+        }
+        sb.append("\n  },\n  \"phases\": {");
+        boolean first = true;
+        for (Counter c : COUNTERS) {
+            String name = c.name();
+            if (!name.endsWith("_NANOS")) continue;
+            long nanos = values[c.ordinal()];
+            sb.append(first ? "\n" : ",\n");
+            first = false;
+            sb.append("    \"").append(name.substring(0, name.length() - 6).toLowerCase()).append("\": {\"ms\": ")
+                    .append(nanos / 1_000_000).append(", \"share\": ")
+                    .append(phaseTotal == 0 ? 0.0 : Math.round(nanos * 1000.0 / phaseTotal) / 1000.0).append('}');
+        }
+        sb.append("\n  }\n}\n");
+
+        try (OutputStream out = fs.create(new Path(outputDir, REPORT_FILE), true)) {
+            out.write(sb.toString().getBytes(StandardCharsets.US_ASCII));
+        }
+    }
+}
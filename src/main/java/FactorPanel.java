@@ -0,0 +1,429 @@
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 逐股票因子面板：每个交易日一个 MMDD.panel，按 [时间][股票][因子] 稠密存放单只股票的因子值 (不做截面平均)
+ * 布局 (小端，与 x86 / numpy 的 float32 一致，可直接 mmap)：
+ *   [magic][version][tradingDay][times][stocks][factors] 6 x int，[timeOffset][stockOffset][dataOffset] 3 x long，补齐到 64 字节
+ *   [因子编号 factors x int]   alpha 编号 (从 1 开始，与 CSV 表头一致)
+ *   [时间字典 times x int]     升序 HHMMSS，只包含当天至少有一只股票出现的时间戳
+ *   [股票字典 stocks x int]    升序股票代码
+ *   [数据 times x stocks x factors x float32]  按 4096 字节对齐，下标 (t * stocks + s) * factors + f
+ * 1. 某只股票在某个时间戳没有快照 (或该行因子无效) 时为 NaN，不做前值填充
+ * 2. 同一股票同一时间戳出现多次时取输入中的最后一行 (如盘后折叠到 150000 的多行；MMDD.csv 中是它们的平均)
+ * 3. 一个时间戳的截面是连续的 stocks x factors 个 float，reader 返回映射内存上的 FloatBuffer 视图，不复制
+ * 4. 一只股票的序列步长为 stocks x factors，reader 返回按行号取值的视图 (Series)
+ * 需要一个进程看到某天的全部快照：本地引擎，或按日分片 (-Dfactor.split.mode=day) 的 MapReduce 作业
+ * 使用：-Dfactor.output.panel=true，与 MMDD.csv 写在同一目录
+ */
+public final class FactorPanel {
+
+    public static final String PANEL_KEY = "factor.output.panel";
+    public static final String EXTENSION = ".panel";
+
+    static final int MAGIC = 0x4C4E5046; // "FPNL" (小端字节序)
+    static final int VERSION = 1;
+    private static final int HEADER_BYTES = 64;
+    private static final int DATA_ALIGN = 4096;
+    // 单个映射不超过 1GB，按整行切分
+    private static final long MAX_CHUNK_BYTES = 1L << 30;
+    private static final int DAY_CODES = 1 << 12;
+    private static final int SLOTS = CompactTimeUtil.MAX_TIME_CODE + 1;
+    // 写出排序键：(时间行 * stocks + 股票) << ROW_BITS | 行号
+    private static final int ROW_BITS = 29;
+
+    public static boolean isEnabled(Configuration conf) {
+        return conf.getBoolean(PANEL_KEY, false);
+    }
+
+    /** 构建器每行常驻的字节数：时间码 + 股票代码 + 选中的因子，写出时再加 8 字节排序键 */
+    static long rowBytes(FactorSpec spec) {
+        return 8 + 4L * spec.selected.length + 8;
+    }
+
+    // ---------------- 写入 ----------------
+
+    /**
+     * 单线程的行收集器 (FactorAccumulator 在因子有效的行上调用)，按日期码分组追加，写出时才排序、展开成稠密面板
+     */
+    public static final class Builder {
+
+        private final FactorSpec spec;
+        private final int[] selected;
+        private final Day[] days = new Day[DAY_CODES];
+
+        public Builder(FactorSpec spec) {
+            this.spec = spec;
+            this.selected = spec.selected;
+        }
+
+        private static final class Day {
+            int n;
+            int[] times = new int[1024];
+            int[] codes = new int[1024];
+            float[] values;
+
+            Day(int factors) {
+                values = new float[1024 * factors];
+            }
+
+            int next(int factors) {
+                if (n == times.length) {
+                    int cap = n << 1;
+                    times = Arrays.copyOf(times, cap);
+                    codes = Arrays.copyOf(codes, cap);
+                    values = Arrays.copyOf(values, cap * factors);
+                }
+                return n++;
+            }
+        }
+
+        private Day day(int key) {
+            int d = CompactTimeUtil.getDayCode(key);
+            Day day = days[d];
+            if (day == null) days[d] = day = new Day(selected.length);
+            return day;
+        }
+
+        /**
+         * 追加一行 (20 个因子，只保留选中的)
+         */
+        public void add(int key, int code, float[] f) {
+            Day day = day(key);
+            int r = day.next(selected.length);
+            day.times[r] = CompactTimeUtil.getTimeCode(key);
+            day.codes[r] = code;
+            float[] v = day.values;
+            int base = r * selected.length;
+            for (int i = 0; i < selected.length; i++) v[base + i] = f[selected[i]];
+        }
+
+        /**
+         * 追加 SnapshotBatch 列结果的第 row 行
+         */
+        public void addColumns(int key, int code, float[][] cols, int row) {
+            Day day = day(key);
+            int r = day.next(selected.length);
+            day.times[r] = CompactTimeUtil.getTimeCode(key);
+            day.codes[r] = code;
+            float[] v = day.values;
+            int base = r * selected.length;
+            for (int i = 0; i < selected.length; i++) v[base + i] = cols[selected[i]][row];
+        }
+
+        /**
+         * 写出本构建器中的每一天
+         * @return 写出的文件数
+         */
+        public int write(FileSystem fs, Path outputDir) throws IOException {
+            return FactorPanel.write(fs, outputDir, spec, Collections.singletonList(this));
+        }
+    }
+
+    /**
+     * 合并多个线程的构建器写出 MMDD.panel：按日期码升序，每天一个文件，数据逐个时间行流式写出，不在内存中展开整个面板
+     * 同一天内行的先后为 parts 的顺序 + 各构建器的追加顺序
+     * @return 写出的文件数
+     */
+    static int write(FileSystem fs, Path outputDir, FactorSpec spec, List<Builder> parts) throws IOException {
+        fs.mkdirs(outputDir);
+        int files = 0;
+        for (int d = 0; d < DAY_CODES; d++) {
+            int total = 0;
+            for (Builder b : parts) {
+                if (b.days[d] != null) total += b.days[d].n;
+            }
+            if (total == 0) continue;
+            writeDay(fs, outputDir, spec, parts, d, total);
+            files++;
+        }
+        return files;
+    }
+
+    private static void writeDay(FileSystem fs, Path outputDir, FactorSpec spec, List<Builder> parts,
+                                 int dayCode, int total) throws IOException {
+        if (total >= 1 << ROW_BITS) throw new IOException("Too many rows for one panel day: " + total);
+        final int factors = spec.selected.length;
+
+        // 股票字典 (升序去重) 与时间字典 (占用的时间码升序)
+        int[] stockCodes = new int[total];
+        boolean[] timeUsed = new boolean[SLOTS];
+        int k = 0;
+        for (Builder b : parts) {
+            Builder.Day day = b.days[dayCode];
+            if (day == null) continue;
+            System.arraycopy(day.codes, 0, stockCodes, k, day.n);
+            k += day.n;
+            for (int r = 0; r < day.n; r++) timeUsed[day.times[r]] = true;
+        }
+        Arrays.sort(stockCodes);
+        int stocks = 0;
+        for (int i = 0; i < total; i++) {
+            if (stocks == 0 || stockCodes[i] != stockCodes[stocks - 1]) stockCodes[stocks++] = stockCodes[i];
+        }
+        int[] timeRow = new int[SLOTS];
+        int[] tradeTimes = new int[SLOTS];
+        int times = 0;
+        for (int t = 0; t < SLOTS; t++) {
+            if (!timeUsed[t]) continue;
+            timeRow[t] = times;
+            tradeTimes[times++] = CompactTimeUtil.decodeTradeTime(CompactTimeUtil.compose(dayCode, t));
+        }
+
+        // 排序键：单元格 (时间行, 股票) 升序，同一单元格内按行号，最后写入的行覆盖前面的
+        long[] order = new long[total];
+        Builder.Day[] owner = new Builder.Day[parts.size()];
+        int[] ownerStart = new int[parts.size() + 1];
+        k = 0;
+        for (int p = 0; p < parts.size(); p++) {
+            Builder.Day day = parts.get(p).days[dayCode];
+            owner[p] = day;
+            ownerStart[p] = k;
+            if (day == null) continue;
+            for (int r = 0; r < day.n; r++) {
+                long cell = (long) timeRow[day.times[r]] * stocks + Arrays.binarySearch(stockCodes, 0, stocks, day.codes[r]);
+                order[k] = cell << ROW_BITS | k;
+                k++;
+            }
+        }
+        ownerStart[parts.size()] = k;
+        Arrays.sort(order);
+
+        long timeOffset = HEADER_BYTES + 4L * factors;
+        long stockOffset = timeOffset + 4L * times;
+        long dataOffset = (stockOffset + 4L * stocks + DATA_ALIGN - 1) / DATA_ALIGN * DATA_ALIGN;
+        int key = CompactTimeUtil.compose(dayCode, 0);
+        Path file = new Path(outputDir, CompactTimeUtil.getMMDD(key) + EXTENSION);
+
+        try (OutputStream out = new BufferedOutputStream(fs.create(file, true), 1 << 20)) {
+            ByteBuffer head = ByteBuffer.allocate((int) dataOffset).order(ByteOrder.LITTLE_ENDIAN);
+            head.putInt(MAGIC).putInt(VERSION).putInt(CompactTimeUtil.decodeTradingDay(key))
+                    .putInt(times).putInt(stocks).putInt(factors)
+                    .putLong(timeOffset).putLong(stockOffset).putLong(dataOffset);
+            ((Buffer) head).position(HEADER_BYTES);
+            for (int f : spec.selected) head.putInt(f + 1);
+            for (int i = 0; i < times; i++) head.putInt(tradeTimes[i]);
+            for (int i = 0; i < stocks; i++) head.putInt(stockCodes[i]);
+            out.write(head.array());
+
+            // 一次一个时间行：先填 NaN，再写入该行出现的单元格
+            int rowFloats = stocks * factors;
+            ByteBuffer row = ByteBuffer.allocate(rowFloats * 4).order(ByteOrder.LITTLE_ENDIAN);
+            byte[] empty = new byte[rowFloats * 4];
+            ByteBuffer nan = ByteBuffer.wrap(empty).order(ByteOrder.LITTLE_ENDIAN);
+            for (int i = 0; i < rowFloats; i++) nan.putFloat(Float.NaN);
+            int current = -1;
+            for (long o : order) {
+                long cell = o >>> ROW_BITS;
+                int t = (int) (cell / stocks);
+                int s = (int) (cell - (long) t * stocks);
+                if (t != current) {
+                    if (current >= 0) out.write(row.array());
+                    System.arraycopy(empty, 0, row.array(), 0, empty.length);
+                    current = t;
+                }
+                // 行号 -> 所属构建器 (构建器个数 = 线程数)
+                int g = (int) (o & ((1L << ROW_BITS) - 1));
+                int p = 0;
+                while (g >= ownerStart[p + 1]) p++;
+                float[] v = owner[p].values;
+                int src = (g - ownerStart[p]) * factors;
+                int dst = s * factors * 4;
+                for (int i = 0; i < factors; i++) row.putFloat(dst + 4 * i, v[src + i]);
+            }
+            if (current >= 0) out.write(row.array());
+        }
+    }
+
+    // ---------------- 读取 ----------------
+
+    private final int tradingDay;
+    private final int times;
+    private final int stocks;
+    private final int factors;
+    private final int[] factorIds;
+    private final int[] tradeTimes;
+    private final int[] stockCodes;
+    // 数据区按整行切分的只读映射
+    private final FloatBuffer[] chunks;
+    private final int rowsPerChunk;
+    private final int rowFloats;
+
+    private FactorPanel(int tradingDay, int[] factorIds, int[] tradeTimes, int[] stockCodes,
+                        FloatBuffer[] chunks, int rowsPerChunk) {
+        this.tradingDay = tradingDay;
+        this.times = tradeTimes.length;
+        this.stocks = stockCodes.length;
+        this.factors = factorIds.length;
+        this.factorIds = factorIds;
+        this.tradeTimes = tradeTimes;
+        this.stockCodes = stockCodes;
+        this.chunks = chunks;
+        this.rowsPerChunk = rowsPerChunk;
+        this.rowFloats = stocks * factors;
+    }
+
+    /**
+     * 映射一个 MMDD.panel (本地文件)，只读取头部和字典，数据区由操作系统按需换入
+     * 映射在返回的对象被回收后释放，文件句柄在返回前已关闭
+     */
+    public static FactorPanel open(java.nio.file.Path file) throws IOException {
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer head = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            readFully(ch, head, 0);
+            ((Buffer) head).flip();
+            if (head.getInt() != MAGIC) throw new IOException(file + " is not a factor panel");
+            int version = head.getInt();
+            if (version != VERSION) throw new IOException(file + " has unsupported panel version " + version);
+            int tradingDay = head.getInt();
+            int times = head.getInt();
+            int stocks = head.getInt();
+            int factors = head.getInt();
+            long timeOffset = head.getLong();
+            long stockOffset = head.getLong();
+            long dataOffset = head.getLong();
+
+            int[] factorIds = readInts(ch, HEADER_BYTES, factors);
+            int[] tradeTimes = readInts(ch, timeOffset, times);
+            int[] stockCodes = readInts(ch, stockOffset, stocks);
+
+            long rowBytes = 4L * stocks * factors;
+            long expected = dataOffset + rowBytes * times;
+            if (ch.size() < expected) throw new IOException(file + " is truncated: " + ch.size() + " < " + expected);
+            int rowsPerChunk = rowBytes == 0 ? Math.max(1, times) : (int) Math.max(1, MAX_CHUNK_BYTES / rowBytes);
+            int n = times == 0 ? 0 : (times + rowsPerChunk - 1) / rowsPerChunk;
+            FloatBuffer[] chunks = new FloatBuffer[n];
+            for (int c = 0; c < n; c++) {
+                int rows = Math.min(rowsPerChunk, times - c * rowsPerChunk);
+                chunks[c] = ch.map(FileChannel.MapMode.READ_ONLY, dataOffset + (long) c * rowsPerChunk * rowBytes,
+                        rows * rowBytes).order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer();
+            }
+            return new FactorPanel(tradingDay, factorIds, tradeTimes, stockCodes, chunks, rowsPerChunk);
+        }
+    }
+
+    private static void readFully(FileChannel ch, ByteBuffer dst, long pos) throws IOException {
+        while (dst.hasRemaining()) {
+            int n = ch.read(dst, pos);
+            if (n < 0) throw new IOException("Unexpected end of panel file");
+            pos += n;
+        }
+    }
+
+    private static int[] readInts(FileChannel ch, long pos, int n) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(4 * n).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(ch, buf, pos);
+        ((Buffer) buf).flip();
+        int[] a = new int[n];
+        buf.asIntBuffer().get(a);
+        return a;
+    }
+
+    /** YYYYMMDD */
+    public int tradingDay() { return tradingDay; }
+
+    public int times() { return times; }
+
+    public int stocks() { return stocks; }
+
+    public int factors() { return factors; }
+
+    /** 第 row 个时间行的 HHMMSS */
+    public int tradeTime(int row) { return tradeTimes[row]; }
+
+    /** 第 slot 只股票的代码 */
+    public int stockCode(int slot) { return stockCodes[slot]; }
+
+    /** 第 f 列的 alpha 编号 (从 1 开始) */
+    public int factorId(int f) { return factorIds[f]; }
+
+    /** @return 时间行号，该时间戳没有数据时为 -1 */
+    public int timeRow(int tradeTime) {
+        int i = Arrays.binarySearch(tradeTimes, tradeTime);
+        return i < 0 ? -1 : i;
+    }
+
+    /** @return 股票槽位，当天没有该股票时为 -1 */
+    public int stockSlot(int code) {
+        int i = Arrays.binarySearch(stockCodes, code);
+        return i < 0 ? -1 : i;
+    }
+
+    /** @return alpha 编号 (从 1 开始) 所在的列，未输出该因子时为 -1 */
+    public int factorColumn(int alpha) {
+        for (int f = 0; f < factors; f++) {
+            if (factorIds[f] == alpha) return f;
+        }
+        return -1;
+    }
+
+    /** @return NaN 表示该股票在该时间戳没有数据 */
+    public float get(int row, int slot, int f) {
+        return chunks[row / rowsPerChunk].get((row % rowsPerChunk) * rowFloats + slot * factors + f);
+    }
+
+    /**
+     * 一个时间戳的截面：映射内存上的只读视图 (不复制)，下标 slot * factors() + f
+     */
+    public FloatBuffer crossSection(int row) {
+        FloatBuffer view = chunks[row / rowsPerChunk].duplicate();
+        int start = (row % rowsPerChunk) * rowFloats;
+        ((Buffer) view).limit(start + rowFloats);
+        ((Buffer) view).position(start);
+        return view.slice();
+    }
+
+    /**
+     * 一只股票的全部时间行：按行号跨步读取映射内存的视图 (不复制)
+     */
+    public Series series(int slot) {
+        if (slot < 0 || slot >= stocks) throw new IndexOutOfBoundsException("stock slot " + slot);
+        return new Series(slot);
+    }
+
+    /**
+     * 把一只股票的一个因子复制为 float[times()] (需要连续数组的回测代码使用)
+     */
+    public float[] column(int slot, int f, float[] dst) {
+        if (dst == null || dst.length < times) dst = new float[times];
+        int off = slot * factors + f;
+        for (int c = 0, row = 0; c < chunks.length; c++) {
+            FloatBuffer chunk = chunks[c];
+            int rows = Math.min(rowsPerChunk, times - row);
+            for (int r = 0; r < rows; r++) dst[row++] = chunk.get(r * rowFloats + off);
+        }
+        return dst;
+    }
+
+    /** 单只股票的序列视图 */
+    public final class Series {
+        private final int slot;
+
+        private Series(int slot) {
+            this.slot = slot;
+        }
+
+        public int code() { return stockCodes[slot]; }
+
+        public int size() { return times; }
+
+        public int tradeTime(int row) { return tradeTimes[row]; }
+
+        public float get(int row, int f) {
+            return FactorPanel.this.get(row, slot, f);
+        }
+    }
+}
@@ -1,93 +1,92 @@
 import org.apache.hadoop.io.IntWritable;
-import org.apache.hadoop.io.Text;
 import org.apache.hadoop.mapreduce.Reducer;
 import java.io.IOException;
-import java.util.Arrays;
 
-public class FactorReducer extends Reducer<IntWritable, Factor, Text, Text> {
-    private Factor sumFactor = new Factor();
+/**
+ * 直接输出 (压缩时间 Key, 因子和)，由 DailyOutputFormat 按日期码选择文件并格式化写出，
+ * 不再在 Reducer 中拼接 Text (省去 Key 的解码 / 编码往返和每行的 String 垃圾)
+ */
+public class FactorReducer extends Reducer<IntWritable, Factor, IntWritable, Factor> {
+    private Factor sumFactor;
+    private FactorMetrics metrics;
 
-    // 缓冲区：Key (YYYYMMDD_HHMMSS = 15 chars) + Value (20 floats * 20 chars)
-    // 分给 Key 32字节，Value 1024字节，足够了
-    private byte[] keyBuffer = new byte[32];
-    private byte[] valueBuffer = new byte[1024];
-
-    private Text outputKeyText = new Text();
-    private Text outputValueText = new Text();
+    @Override
+    protected void setup(Context context) {
+        sumFactor = new Factor(FactorSpec.get(context.getConfiguration()));
+        metrics = FactorMetrics.get(context.getConfiguration());
+    }
 
     @Override
     protected void reduce(IntWritable key, Iterable<Factor> values, Context context)
             throws IOException, InterruptedException {
 
-        // --- 1. 聚合逻辑 ---
-        sumFactor.setCount(0);
-        // 如果 Factor 类没有 reset 方法，请加上，或者手动把 internal array 归零
-        // 这里假设 merge 会正确处理累加
-        Arrays.fill(sumFactor.getFactorValues(), 0);
+        // --- 1. 聚合逻辑 (抽样计时，不含 DailyOutputFormat 的格式化) ---
+        boolean timed = metrics.sample();
+        long t0 = timed ? System.nanoTime() : 0;
+        metrics.inc(FactorMetrics.Counter.REDUCE_GROUPS);
+
+        sumFactor.clear();
 
         for (Factor factor : values) {
             sumFactor.merge(factor);
         }
-        double[] avgFactors = sumFactor.getAverageFactors();
-
-        // --- 2. Value 格式化 (使用 RyuFloat 极速写入) ---
-        int valOffset = 0;
-        for (int i = 0; i < 20; i++) {
-            if (i > 0) {
-                valueBuffer[valOffset++] = ',';
-            }
-            // 强转 float 写入，实现 Zero-Allocation
-            valOffset = RyuFloat.floatToBytes((float)avgFactors[i], valueBuffer, valOffset);
-        }
-        // 直接设置 byte[]，避免 String 转换
-        outputValueText.set(valueBuffer, 0, valOffset);
-
-        // --- 3. [关键修复] Key 格式化 ---
-        // 必须还原为 "YYYYMMDD_HHMMSS" 格式，否则 DailyOutputFormat 会丢弃数据
-        int compactTime = key.get();
-        int tradingDay = CompactTimeUtil.decodeTradingDay(compactTime);
-        int tradeTime = CompactTimeUtil.decodeTradeTime(compactTime);
-
-        int keyOffset = 0;
-        // 写入 YYYYMMDD
-        keyOffset = writeIntToBytes(tradingDay, keyBuffer, keyOffset);
-        // 写入分隔符 '_'
-        keyBuffer[keyOffset++] = '_';
-        // 写入 HHMMSS (需要补0，确保是6位)
-        keyOffset = writeTime6Digits(tradeTime, keyBuffer, keyOffset);
+        if (timed) metrics.addSampled(FactorMetrics.Counter.REDUCE_NANOS, System.nanoTime() - t0);
 
-        outputKeyText.set(keyBuffer, 0, keyOffset);
+        // --- 2. 输出 (格式化在 DailyOutputFormat 中完成) ---
+        context.write(key, sumFactor);
+    }
 
-        // --- 4. 输出 ---
-        context.write(outputKeyText, outputValueText);
+    @Override
+    protected void cleanup(Context context) {
+        metrics.publish(context);
     }
 
     /**
-     * 快速写入整数到字节数组 (正整数)
+     * 把 sum/count 中被选中因子的均值以逗号分隔写入 buf (DailyOutputFormat 与 LocalFactorEngine 共用)
+     * 均值就地计算 (与 getAverageFactors 相同的 float 除法)，不分配 double[]
+     * @param digits 0 为最短往返，> 0 为定长有效位 (factor.output.digits)
+     * @return 写入后的 offset
      */
-    private int writeIntToBytes(int val, byte[] buf, int offset) {
-        if (val == 0) { buf[offset++] = '0'; return offset; }
-
-        // 计算位数
-        int temp = val;
-        int len = 0;
-        while (temp > 0) { temp /= 10; len++; }
-
-        int end = offset + len;
-        int cursor = end - 1;
+    static int formatAverages(Factor sum, byte[] buf, int offset, int digits) {
+        float[] values = sum.getFactorValues();
+        int count = sum.getCount();
+        int[] selected = sum.getSpec().selected;
+        for (int k = 0; k < selected.length; k++) {
+            int i = selected[k];
+            if (k > 0) {
+                buf[offset++] = ',';
+            }
+            offset = RyuFloat.floatToBytes(count > 0 ? values[i] / count : 0, buf, offset, digits);
+        }
+        return offset;
+    }
 
-        // 倒序填充
-        while (val > 0) {
-            buf[cursor--] = (byte) ('0' + (val % 10));
-            val /= 10;
+    /**
+     * 把分布草图中被选中因子的 标准差、p5、中位数、p95 以逗号分隔写入 buf (MMDD_stats.csv 的一行，不含时间)
+     * @return 写入后的 offset
+     */
+    static int formatStats(Factor sum, byte[] buf, int offset, int digits) {
+        FactorSketch sketch = sum.getSketch();
+        int n = sum.getSpec().selected.length;
+        for (int k = 0; k < n; k++) {
+            if (k > 0) {
+                buf[offset++] = ',';
+            }
+            offset = RyuFloat.floatToBytes(sketch.std(k), buf, offset, digits);
+            buf[offset++] = ',';
+            offset = RyuFloat.floatToBytes(sketch.quantile(k, 0.05), buf, offset, digits);
+            buf[offset++] = ',';
+            offset = RyuFloat.floatToBytes(sketch.quantile(k, 0.5), buf, offset, digits);
+            buf[offset++] = ',';
+            offset = RyuFloat.floatToBytes(sketch.quantile(k, 0.95), buf, offset, digits);
         }
-        return end;
+        return offset;
     }
 
     /**
      * 写入时间，强制填充为6位 (HHMMSS)，例如 93000 -> 093000
      */
-    private int writeTime6Digits(int val, byte[] buf, int offset) {
+    static int writeTime6Digits(int val, byte[] buf, int offset) {
         int end = offset + 6;
         int cursor = end - 1;
 
@@ -0,0 +1,346 @@
+import org.apache.hadoop.io.WritableUtils;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * 单个时间戳上被选中因子的截面分布草图 (factor.stats.centroids > 0 时随 Factor 一起预聚合、Combine、Shuffle、Reduce)
+ * 1. 每个因子一个 merging t-digest：按 k1 尺度函数 k(q) = δ/2π · asin(2q - 1) 合并相邻质心 (δ = 质心数上限)，
+ *    压缩后不超过 δ + 1 个质心，两端的质心很小，p5 / p95 比中位数更准
+ * 2. 新行先按行写入 δ 行的行缓冲 (一行的全部因子在连续内存中)，攒满后按列并入各因子的质心区，
+ *    避免每行分散写 20 个质心区 (一个时间戳一个草图，相邻两行几乎总在不同的草图上)
+ * 3. 均值与二阶中心矩 M2 用 double 按块求出后以 Chan 公式合并，标准差没有 "平方和 - 和的平方" 的相消误差
+ * 4. 数组在构造时按 δ 一次分配，add / merge / write / readFields 都不分配对象；
+ *    序列化为 行数 + 每个因子 (均值, M2, 质心数, 质心)，每个 Key 的字节数有上界 (maxSerializedBytes)
+ * 5. 没有随机压缩，相同的输入和合并顺序得到相同的结果
+ */
+public final class FactorSketch {
+
+    static final int MIN_CENTROIDS = 8;
+    static final int MAX_CENTROIDS = 1024;
+
+    private final int[] selected;
+    private final int factors;
+    // 行缓冲的行数 (= δ)
+    private final int rowCapacity;
+    // 每个因子的质心区占 stride = 2δ + 1 个位置：[k * stride, k * stride + sizes[k])
+    private final int stride;
+    // k 尺度上 1 个单位对应的角度 1/norm (norm = δ/2π) 的余弦、正弦
+    private final double cosStep;
+    private final double sinStep;
+
+    private final float[] means;
+    private final int[] weights;
+    private final int[] sizes;
+    // 每个因子已排序 (上次压缩后) 的前缀长度，之后追加的是未排序的部分
+    private final int[] sorted;
+    private final double[] mean;
+    private final double[] m2;
+    // 已并入质心区与 mean / m2 的行数
+    private int count;
+
+    // 行缓冲 [行 * factors + k]
+    private final float[] rows;
+    private int pending;
+
+    // 排序时的临时区 (一次只压缩一个因子，各因子共用)
+    private final float[] scratchMeans;
+    private final int[] scratchWeights;
+
+    /** δ 由 FactorSpec 校验 (MIN_CENTROIDS..MAX_CENTROIDS) */
+    public FactorSketch(FactorSpec spec) {
+        this.selected = spec.selected;
+        this.factors = selected.length;
+        int delta = spec.statsCentroids;
+        this.rowCapacity = delta;
+        this.stride = delta * 2 + 1;
+        double step = 2 * Math.PI / delta;
+        this.cosStep = Math.cos(step);
+        this.sinStep = Math.sin(step);
+        means = new float[factors * stride];
+        weights = new int[factors * stride];
+        sizes = new int[factors];
+        sorted = new int[factors];
+        mean = new double[factors];
+        m2 = new double[factors];
+        rows = new float[delta * factors];
+        scratchMeans = new float[stride];
+        scratchWeights = new int[stride];
+    }
+
+    /** 序列化字节数上界 (JobPlanner 估算排序缓冲用)：行数 + 每因子 (均值、M2、质心数、δ + 1 个质心) */
+    static int maxSerializedBytes(FactorSpec spec) {
+        if (spec.statsCentroids <= 0) return 0;
+        return 5 + spec.selected.length * (16 + 3 + (spec.statsCentroids + 1) * (4 + 5));
+    }
+
+    /** 常驻堆字节数 (每个已占用的时间戳一个) */
+    static long heapBytes(FactorSpec spec) {
+        if (spec.statsCentroids <= 0) return 0;
+        long delta = spec.statsCentroids;
+        return 128 + spec.selected.length * ((2 * delta + 1) * 8 + delta * 4 + 24) + (2 * delta + 1) * 8;
+    }
+
+    public int getCount() { return count + pending; }
+
+    public void clear() {
+        count = 0;
+        pending = 0;
+        Arrays.fill(sizes, 0);
+        Arrays.fill(sorted, 0);
+        Arrays.fill(mean, 0);
+        Arrays.fill(m2, 0);
+    }
+
+    public void copyFrom(FactorSketch other) {
+        other.flushRows();
+        count = other.count;
+        pending = 0;
+        for (int k = 0; k < factors; k++) {
+            int base = k * stride;
+            System.arraycopy(other.means, base, means, base, other.sizes[k]);
+            System.arraycopy(other.weights, base, weights, base, other.sizes[k]);
+        }
+        System.arraycopy(other.sizes, 0, sizes, 0, factors);
+        System.arraycopy(other.sorted, 0, sorted, 0, factors);
+        System.arraycopy(other.mean, 0, mean, 0, factors);
+        System.arraycopy(other.m2, 0, m2, 0, factors);
+    }
+
+    /**
+     * 加入一行 (f 为 20 个因子，只取被选中的)
+     */
+    public void add(float[] f) {
+        int p = pending * factors;
+        for (int k = 0; k < factors; k++) rows[p + k] = f[selected[k]];
+        if (++pending == rowCapacity) flushRows();
+    }
+
+    /**
+     * 加入 SnapshotBatch 列结果的第 row 行
+     */
+    public void addColumns(float[][] cols, int row) {
+        int p = pending * factors;
+        for (int k = 0; k < factors; k++) rows[p + k] = cols[selected[k]][row];
+        if (++pending == rowCapacity) flushRows();
+    }
+
+    /**
+     * 把行缓冲按列并入：块内均值 / M2 用 Chan 公式合并，值作为单位权重的质心追加 (放不下时先压缩)
+     */
+    private void flushRows() {
+        int b = pending;
+        if (b == 0) return;
+        int a = count;
+        int n = a + b;
+        for (int k = 0; k < factors; k++) {
+            double sum = 0;
+            for (int r = 0, p = k; r < b; r++, p += factors) sum += rows[p];
+            double blockMean = sum / b;
+            double blockM2 = 0;
+            for (int r = 0, p = k; r < b; r++, p += factors) {
+                double d = rows[p] - blockMean;
+                blockM2 += d * d;
+            }
+            double d = blockMean - mean[k];
+            mean[k] += d * b / n;
+            m2[k] += blockM2 + d * d * ((double) a * b / n);
+
+            int i = sizes[k];
+            if (i + b > stride) {
+                compress(k);
+                i = sizes[k];
+            }
+            int base = k * stride + i;
+            for (int r = 0, p = k; r < b; r++, p += factors) {
+                means[base + r] = rows[p];
+                weights[base + r] = 1;
+            }
+            sizes[k] = i + b;
+        }
+        count = n;
+        pending = 0;
+    }
+
+    public void merge(FactorSketch other) {
+        other.flushRows();
+        flushRows();
+        int b = other.count;
+        if (b == 0) return;
+        int a = count;
+        int n = a + b;
+        for (int k = 0; k < factors; k++) {
+            double d = other.mean[k] - mean[k];
+            mean[k] += d * b / n;
+            m2[k] += other.m2[k] + d * d * ((double) a * b / n);
+            int base = k * stride;
+            for (int i = 0, m = other.sizes[k]; i < m; i++) {
+                append(k, other.means[base + i], other.weights[base + i]);
+            }
+        }
+        count = n;
+    }
+
+    private void append(int k, float x, int w) {
+        int i = sizes[k];
+        if (i == stride) {
+            compress(k);
+            i = sizes[k];
+        }
+        int p = k * stride + i;
+        means[p] = x;
+        weights[p] = w;
+        sizes[k] = i + 1;
+    }
+
+    /**
+     * 排序后从左到右合并相邻质心，合并后的质心跨度不超过 1 个 k 单位；就地写回 (写位置不超过读位置)
+     */
+    private void compress(int k) {
+        int base = k * stride;
+        int n = sizes[k];
+        if (sorted[k] == n) {
+            // 没有新加入的质心，已是压缩结果
+            return;
+        }
+        sort(base, sorted[k], n);
+        long total = 0;
+        for (int i = 0; i < n; i++) total += weights[base + i];
+
+        int out = base;
+        double curMean = means[base];
+        long curWeight = weights[base];
+        long before = 0;
+        double limit = rightLimit(0, total);
+        for (int i = 1; i < n; i++) {
+            int w = weights[base + i];
+            if (before + curWeight + w <= limit) {
+                curWeight += w;
+                curMean += (means[base + i] - curMean) * w / curWeight;
+            } else {
+                means[out] = (float) curMean;
+                weights[out++] = (int) curWeight;
+                before += curWeight;
+                limit = rightLimit(before, total);
+                curMean = means[base + i];
+                curWeight = w;
+            }
+        }
+        means[out] = (float) curMean;
+        weights[out++] = (int) curWeight;
+        sizes[k] = out - base;
+        sorted[k] = sizes[k];
+    }
+
+    /**
+     * 从累计权重 before 开始的质心在 k 尺度上跨 1 个单位时的右边界 (累计权重)
+     * q1 = (sin(asin(2q0 - 1) + 1/norm) + 1) / 2，按 sin(a + b) 展开后只需一次 sqrt
+     */
+    private double rightLimit(long before, long total) {
+        double x = 2.0 * before / total - 1;
+        if (x >= cosStep) return total;
+        double right = x * cosStep + Math.sqrt(1 - x * x) * sinStep;
+        return (right + 1) * 0.5 * total;
+    }
+
+    /**
+     * 前缀 [base, base + a) 已有序：只对后面的部分插入排序，再从右向左与前缀归并
+     */
+    private void sort(int base, int a, int n) {
+        int end = base + n;
+        for (int i = base + a + 1; i < end; i++) {
+            float x = means[i];
+            int w = weights[i];
+            int j = i - 1;
+            while (j >= base + a && means[j] > x) {
+                means[j + 1] = means[j];
+                weights[j + 1] = weights[j];
+                j--;
+            }
+            means[j + 1] = x;
+            weights[j + 1] = w;
+        }
+        int b = n - a;
+        System.arraycopy(means, base + a, scratchMeans, 0, b);
+        System.arraycopy(weights, base + a, scratchWeights, 0, b);
+        int i = base + a - 1, j = b - 1, p = end - 1;
+        while (j >= 0) {
+            if (i >= base && means[i] > scratchMeans[j]) {
+                means[p] = means[i];
+                weights[p--] = weights[i--];
+            } else {
+                means[p] = scratchMeans[j];
+                weights[p--] = scratchWeights[j--];
+            }
+        }
+    }
+
+    /**
+     * 第 k 个被选中因子的 q 分位数：质心的质量放在其累计权重的中点，中点之间线性插值
+     * (全部是单点质心时即按秩 q·n - 0.5 插值的精确分位数)
+     */
+    public float quantile(int k, double q) {
+        flushRows();
+        compress(k);
+        int base = k * stride;
+        int n = sizes[k];
+        if (n == 0) return 0;
+        double target = q * count;
+        double cum = 0;
+        double prevCenter = 0, prevMean = 0;
+        for (int i = 0; i < n; i++) {
+            int w = weights[base + i];
+            double center = cum + w * 0.5;
+            if (target <= center) {
+                if (i == 0) return means[base];
+                return (float) (prevMean + (target - prevCenter) / (center - prevCenter) * (means[base + i] - prevMean));
+            }
+            prevCenter = center;
+            prevMean = means[base + i];
+            cum += w;
+        }
+        return means[base + n - 1];
+    }
+
+    /** 第 k 个被选中因子的总体标准差 */
+    public float std(int k) {
+        flushRows();
+        return count > 0 ? (float) Math.sqrt(Math.max(0, m2[k] / count)) : 0;
+    }
+
+    public void write(DataOutput out) throws IOException {
+        flushRows();
+        WritableUtils.writeVInt(out, count);
+        for (int k = 0; k < factors; k++) {
+            compress(k);
+            out.writeDouble(mean[k]);
+            out.writeDouble(m2[k]);
+            int base = k * stride;
+            int n = sizes[k];
+            WritableUtils.writeVInt(out, n);
+            for (int i = base; i < base + n; i++) {
+                out.writeFloat(means[i]);
+                WritableUtils.writeVInt(out, weights[i]);
+            }
+        }
+    }
+
+    public void readFields(DataInput in) throws IOException {
+        count = WritableUtils.readVInt(in);
+        pending = 0;
+        for (int k = 0; k < factors; k++) {
+            mean[k] = in.readDouble();
+            m2[k] = in.readDouble();
+            int n = WritableUtils.readVInt(in);
+            if (n < 0 || n > stride) throw new IOException("Corrupt sketch: " + n + " centroids, capacity " + stride);
+            int base = k * stride;
+            for (int i = base; i < base + n; i++) {
+                means[i] = in.readFloat();
+                weights[i] = WritableUtils.readVInt(in);
+            }
+            sizes[k] = n;
+            sorted[k] = n;
+        }
+    }
+}
@@ -0,0 +1,181 @@
+import org.apache.hadoop.conf.Configuration;
+
+/**
+ * 作业级因子配置：档位深度 n (1-10) 与需要计算的 alpha 子集
+ * 同时推导出解析投影：哪些档位、哪些列 (bp/bv/ap/av、委托总量) 真正被选中的因子用到，
+ * SnapshotData 只解析这些列，Factor 的 Writable 只序列化被选中的值
+ */
+public final class FactorSpec {
+
+    public static final String DEPTH_KEY = "factor.depth";   // 默认 5
+    public static final String ALPHAS_KEY = "factor.alphas"; // 如 "1-4,17"，默认全部 20 个
+    public static final String LAG_KEY = "factor.lag";       // 变动因子 (17-19) 的间隔 Δt，默认 1
+    public static final String WINDOW_KEY = "factor.window"; // > 0 时 alpha_19 = 深度比 - 前 k 行深度比的滚动均值
+    public static final String STATS_KEY = "factor.stats.centroids"; // > 0 时附带截面分布草图 (FactorSketch)，默认 0 关闭
+    public static final String BAR_KEY = "factor.bar.seconds";  // > 0 时按 bar 重采样 (如 1 / 60 / 300)，默认 0 关闭
+    public static final String BAR_MODE_KEY = "factor.bar.mode"; // last (默认，每只股票取桶内最后一行) | mean (桶内均值)
+
+    // bar 长度上限：下午连续竞价 2 小时
+    public static final int MAX_BAR_SECONDS = 7200;
+
+    public static final int MAX_DEPTH = 10;
+    public static final int NUM_FACTORS = 20;
+
+    // 列掩码
+    static final int BP = 1, BV = 2, AP = 4, AV = 8;
+
+    // 每个因子 (下标 0-19 对应 alpha_1 - alpha_20) 用到的第 1 档列、全部 n 档的列、是否用到委托总量
+    private static final int[] LEVEL1_NEEDS = {
+            BP | AP, BP | AP, BP | AP, BV | AV, 0, 0, 0, 0, 0, 0,
+            0, 0, 0, 0, 0, 0, AP, BP | AP, 0, BP | AP};
+    private static final int[] DEEP_NEEDS = {
+            0, 0, 0, 0, BV | AV, BV, AV, BV | AV, BV | AV, 0,
+            BP | BV, AP | AV, BP | BV | AP | AV, BP | BV | AP | AV, BV | AV, BV | AV, 0, 0, BV | AV, BV | AV};
+    private static final int TOTALS_FACTOR = 9;
+
+    public static final FactorSpec DEFAULT = new FactorSpec(5, allFactors(), 1, 0, null, 0, 0, false);
+
+    public final int depth;
+    public final int lag;
+    public final int window;
+    // 被选中的因子下标 (升序)
+    public final int[] selected;
+    private final boolean[] isSelected = new boolean[NUM_FACTORS];
+    private final boolean isDefault;
+
+    // --- 解析投影 ---
+    public final int parseLevels;    // 需要解析的档位数 (1 或 depth)
+    public final int level1Mask;     // 第 1 档需要的列
+    public final int deepMask;       // 第 2..parseLevels 档需要的列
+    public final boolean needTotals; // tBidVol / tAskVol
+    // 下推到解析器的股票池 / 时段过滤，未配置时为 null
+    public final SnapshotFilter filter;
+    // 每个因子的分布草图质心数上限，0 表示只输出均值
+    public final int statsCentroids;
+    // 重采样的 bar 秒数，0 表示按原始时间戳聚合
+    public final int barSeconds;
+    // true：每只股票先取桶内均值；false：取桶内最后一行
+    public final boolean barMean;
+
+    private FactorSpec(int depth, int[] selected, int lag, int window, SnapshotFilter filter, int statsCentroids,
+                       int barSeconds, boolean barMean) {
+        if (depth < 1 || depth > MAX_DEPTH) {
+            throw new IllegalArgumentException(DEPTH_KEY + " must be in [1, " + MAX_DEPTH + "]: " + depth);
+        }
+        if (lag < 1) throw new IllegalArgumentException(LAG_KEY + " must be >= 1: " + lag);
+        if (window < 0) throw new IllegalArgumentException(WINDOW_KEY + " must be >= 0: " + window);
+        if (statsCentroids != 0
+                && (statsCentroids < FactorSketch.MIN_CENTROIDS || statsCentroids > FactorSketch.MAX_CENTROIDS)) {
+            throw new IllegalArgumentException(STATS_KEY + " must be 0 or in [" + FactorSketch.MIN_CENTROIDS + ", "
+                    + FactorSketch.MAX_CENTROIDS + "]: " + statsCentroids);
+        }
+        if (barSeconds < 0 || barSeconds > MAX_BAR_SECONDS) {
+            throw new IllegalArgumentException(BAR_KEY + " must be in [0, " + MAX_BAR_SECONDS + "]: " + barSeconds);
+        }
+        if (selected.length == 0) {
+            throw new IllegalArgumentException(ALPHAS_KEY + " selects no factor");
+        }
+        this.depth = depth;
+        this.selected = selected;
+        this.lag = lag;
+        this.window = window;
+        this.filter = filter;
+        this.statsCentroids = statsCentroids;
+        this.barSeconds = barSeconds;
+        this.barMean = barMean;
+
+        int l1 = 0, deep = 0;
+        boolean totals = false;
+        for (int f : selected) {
+            isSelected[f] = true;
+            l1 |= LEVEL1_NEEDS[f];
+            deep |= DEEP_NEEDS[f];
+            totals |= f == TOTALS_FACTOR;
+        }
+        this.level1Mask = l1 | deep;
+        this.deepMask = deep;
+        this.parseLevels = deep != 0 ? depth : 1;
+        this.needTotals = totals;
+        this.isDefault = depth == 5 && selected.length == NUM_FACTORS;
+    }
+
+    private static int[] allFactors() {
+        int[] all = new int[NUM_FACTORS];
+        for (int i = 0; i < NUM_FACTORS; i++) all[i] = i;
+        return all;
+    }
+
+    public static FactorSpec get(Configuration conf) {
+        int depth = conf.getInt(DEPTH_KEY, 5);
+        String alphas = conf.get(ALPHAS_KEY, "").trim();
+        int lag = conf.getInt(LAG_KEY, 1);
+        int window = conf.getInt(WINDOW_KEY, 0);
+        SnapshotFilter filter = SnapshotFilter.get(conf);
+        int stats = conf.getInt(STATS_KEY, 0);
+        int bar = conf.getInt(BAR_KEY, 0);
+        String mode = conf.get(BAR_MODE_KEY, "last").trim();
+        if (!mode.equals("last") && !mode.equals("mean")) {
+            throw new IllegalArgumentException(BAR_MODE_KEY + " must be last or mean: " + mode);
+        }
+        if (depth == 5 && alphas.isEmpty() && lag == 1 && window == 0 && filter == null && stats == 0 && bar == 0) {
+            return DEFAULT;
+        }
+        return new FactorSpec(depth, alphas.isEmpty() ? allFactors() : parseAlphas(alphas), lag, window, filter,
+                stats, bar, mode.equals("mean"));
+    }
+
+    /**
+     * "1-4,17" -> {0, 1, 2, 3, 16}
+     */
+    static int[] parseAlphas(String spec) {
+        boolean[] picked = new boolean[NUM_FACTORS];
+        for (String part : spec.split(",")) {
+            part = part.trim();
+            if (part.isEmpty()) continue;
+            int dash = part.indexOf('-');
+            int from = Integer.parseInt(dash < 0 ? part : part.substring(0, dash).trim());
+            int to = dash < 0 ? from : Integer.parseInt(part.substring(dash + 1).trim());
+            if (from < 1 || to > NUM_FACTORS || from > to) {
+                throw new IllegalArgumentException(ALPHAS_KEY + " out of range [1, " + NUM_FACTORS + "]: " + part);
+            }
+            for (int a = from; a <= to; a++) picked[a - 1] = true;
+        }
+        int n = 0;
+        for (boolean p : picked) if (p) n++;
+        int[] out = new int[n];
+        n = 0;
+        for (int i = 0; i < NUM_FACTORS; i++) if (picked[i]) out[n++] = i;
+        return out;
+    }
+
+    /**
+     * depth = 5 且 20 个因子全选：走原有的手动展开快路径
+     * (lag / window 只影响 StockStateStore，filter 在两条路径上都生效，分布草图与重采样只影响聚合与输出)
+     */
+    public boolean isDefault() { return isDefault; }
+
+    public boolean isSelected(int factor) { return isSelected[factor]; }
+
+    public boolean allSelected() { return selected.length == NUM_FACTORS; }
+
+    /**
+     * 输出 CSV 表头 (只包含被选中的因子)
+     */
+    public String header() {
+        StringBuilder sb = new StringBuilder("tradeTime");
+        for (int f : selected) sb.append(",alpha_").append(f + 1);
+        return sb.append('\n').toString();
+    }
+
+    /**
+     * 分布统计文件 MMDD_stats.csv 的表头：每个被选中的因子依次为 标准差、p5、中位数、p95
+     */
+    public String statsHeader() {
+        StringBuilder sb = new StringBuilder("tradeTime");
+        for (int f : selected) {
+            String a = ",alpha_" + (f + 1);
+            sb.append(a).append("_std").append(a).append("_p5").append(a).append("_p50").append(a).append("_p95");
+        }
+        return sb.append('\n').toString();
+    }
+}
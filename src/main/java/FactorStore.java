@@ -0,0 +1,410 @@
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 二进制结果库：与 MMDD.csv 逐行对应的定长记录 MMDD.fst，查询时 mmap，不做文本解析
+ * 布局 (小端)：
+ *   头部 64 字节：[magic][version][tradingDay][factors][recordBytes][dataOffset] 6 x int，其余补 0
+ *   [alpha 编号 factors x int] (从 1 开始，与 CSV 表头一致)
+ *   [记录 records x recordBytes]  每条：压缩时间 Key (int) + 行数 (int) + 选中因子的均值 (float，与 CSV 中的数值相同)
+ *   [稀疏索引 entries x int]       第 i 项为第 i * stride 条记录的 Key
+ *   尾部 24 字节：[records][stride][indexOffset (long)][entries][magic]
+ * 1. 记录按 Key 升序，定位时先在稀疏索引 (常驻堆内) 上二分，再在映射内存中最多扫描 stride 条
+ * 2. 写出是顺序追加 (HDFS 不能回写头部)，记录数与索引放在尾部，读取时先读尾部
+ * 3. 区间分区模式下各 Reducer 只写记录 (framed = false)，提交作业时由 DailyOutputFormat 拼接并重建索引；
+ *    分区文件末尾不足一条记录时拼接失败，不生成缺记录的结果库
+ * 4. 按日分片时由 Mapper 写入任务工作目录，与 MMDD.csv 一起由 OutputCommitter 提交
+ * 使用：-Dfactor.output.store=true，与 MMDD.csv 写在同一目录；FactorStore.open(目录) 后按日期 / 时间区间查询
+ */
+public final class FactorStore {
+
+    public static final String STORE_KEY = "factor.output.store";
+    public static final String EXTENSION = ".fst";
+
+    static final int MAGIC = 0x54534546; // "FEST" (小端字节序)
+    static final int VERSION = 1;
+    private static final int HEADER_BYTES = 64;
+    private static final int TRAILER_BYTES = 24;
+    // 每 64 条记录一个索引项：一天最多约 1.6 万条，索引不到 1KB
+    static final int INDEX_STRIDE = 64;
+
+    public static boolean isEnabled(Configuration conf) {
+        return conf.getBoolean(STORE_KEY, false);
+    }
+
+    static int recordBytes(FactorSpec spec) {
+        return 8 + 4 * spec.selected.length;
+    }
+
+    // ---------------- 写入 ----------------
+
+    /**
+     * 一天一个 Writer，Key 必须升序写入 (Reducer 输入与 DenseFactorTable.sortedKeys 都满足)
+     */
+    public static final class Writer {
+        private final OutputStream out;
+        private final int[] selected;
+        private final boolean framed;
+        private final ByteBuffer record;
+        private int[] index = new int[64];
+        private int records;
+        private long bytes;
+
+        /**
+         * @param framed false 时只写记录 (区间分区的 part 文件)，没有头部、索引和尾部
+         */
+        public Writer(OutputStream out, FactorSpec spec, int tradingDay, boolean framed) throws IOException {
+            this.out = out;
+            this.selected = spec.selected;
+            this.framed = framed;
+            this.record = ByteBuffer.allocate(recordBytes(spec)).order(ByteOrder.LITTLE_ENDIAN);
+            if (framed) {
+                int dataOffset = HEADER_BYTES + 4 * selected.length;
+                ByteBuffer head = ByteBuffer.allocate(dataOffset).order(ByteOrder.LITTLE_ENDIAN);
+                head.putInt(MAGIC).putInt(VERSION).putInt(tradingDay).putInt(selected.length)
+                        .putInt(record.capacity()).putInt(dataOffset);
+                ((Buffer) head).position(HEADER_BYTES);
+                for (int f : selected) head.putInt(f + 1);
+                out.write(head.array());
+                bytes = dataOffset;
+            }
+        }
+
+        /** 写入一个时间戳的因子和 (保存均值 sum / count) */
+        public void write(int key, Factor sum) throws IOException {
+            float[] values = sum.getFactorValues();
+            int count = sum.getCount();
+            ByteBuffer r = record;
+            r.putInt(0, key).putInt(4, count);
+            for (int k = 0; k < selected.length; k++) {
+                r.putFloat(8 + 4 * k, count > 0 ? values[selected[k]] / count : 0);
+            }
+            append(key);
+        }
+
+        /**
+         * 复制另一个 (无头部的) 记录流中的全部记录
+         * 只在记录边界上结束；末尾不足一条记录 (分区文件被截断) 时抛出异常，不静默丢弃
+         */
+        public void copyRecords(InputStream in) throws IOException {
+            byte[] r = record.array();
+            while (true) {
+                int n = 0;
+                while (n < r.length) {
+                    int read = in.read(r, n, r.length - n);
+                    if (read < 0) break;
+                    n += read;
+                }
+                if (n == 0) return;
+                if (n < r.length) {
+                    throw new EOFException("Truncated factor record: " + n + " of " + r.length + " bytes");
+                }
+                append(record.getInt(0));
+            }
+        }
+
+        private void append(int key) throws IOException {
+            if (records % INDEX_STRIDE == 0) {
+                int i = records / INDEX_STRIDE;
+                if (i == index.length) index = Arrays.copyOf(index, i << 1);
+                index[i] = key;
+            }
+            out.write(record.array());
+            records++;
+            bytes += record.capacity();
+        }
+
+        /** @return 已写出的字节数 (关闭后含索引和尾部) */
+        public long bytes() { return bytes; }
+
+        public void close() throws IOException {
+            if (framed) {
+                int entries = (records + INDEX_STRIDE - 1) / INDEX_STRIDE;
+                ByteBuffer tail = ByteBuffer.allocate(4 * entries + TRAILER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+                for (int i = 0; i < entries; i++) tail.putInt(index[i]);
+                tail.putInt(records).putInt(INDEX_STRIDE).putLong(bytes).putInt(entries).putInt(MAGIC);
+                out.write(tail.array());
+                bytes += tail.capacity();
+            }
+            out.close();
+        }
+    }
+
+    /**
+     * 按顺序拼接区间分区的 part 文件 (只有记录) 为一个完整的 MMDD.fst，重建稀疏索引
+     */
+    static void mergeParts(FileSystem fs, FileStatus[] parts, Path target, FactorSpec spec) throws IOException {
+        // 交易日取自第一条记录的 Key (目录名只有 MMDD)
+        int tradingDay = -1;
+        for (FileStatus part : parts) {
+            if (part.getLen() < 4) continue;
+            byte[] b = new byte[4];
+            try (FSDataInputStream in = fs.open(part.getPath())) {
+                in.readFully(b);
+            }
+            tradingDay = CompactTimeUtil.decodeTradingDay(ByteBuffer.wrap(b).order(ByteOrder.LITTLE_ENDIAN).getInt());
+            break;
+        }
+        if (tradingDay < 0) return;
+        Writer writer = new Writer(new BufferedOutputStream(fs.create(target, true), 1 << 20), spec, tradingDay, true);
+        try {
+            for (FileStatus part : parts) {
+                try (FSDataInputStream in = fs.open(part.getPath())) {
+                    writer.copyRecords(new BufferedInputStream(in, 1 << 16));
+                }
+            }
+        } finally {
+            writer.close();
+        }
+    }
+
+    // ---------------- 读取 ----------------
+
+    /** 一个交易日的映射 */
+    private static final class Day {
+        final int tradingDay;
+        final int[] alphas;
+        final int records;
+        final int recordBytes;
+        final int stride;
+        final int[] index;
+        // 记录区的只读映射
+        final ByteBuffer data;
+
+        Day(int tradingDay, int[] alphas, int records, int recordBytes, int stride, int[] index, ByteBuffer data) {
+            this.tradingDay = tradingDay;
+            this.alphas = alphas;
+            this.records = records;
+            this.recordBytes = recordBytes;
+            this.stride = stride;
+            this.index = index;
+            this.data = data;
+        }
+
+        int key(int r) { return data.getInt(r * recordBytes); }
+
+        /** @return 第一条 Key >= key 的记录号 (没有时为 records) */
+        int lowerBound(int key) {
+            int i = Arrays.binarySearch(index, key);
+            // 稀疏索引上的插入点之前一项所在的块开始扫描
+            int block = i >= 0 ? i : Math.max(0, -i - 2);
+            int r = block * stride;
+            while (r < records && key(r) < key) r++;
+            return r;
+        }
+
+        int column(int alpha) {
+            for (int f = 0; f < alphas.length; f++) {
+                if (alphas[f] == alpha) return f;
+            }
+            return -1;
+        }
+    }
+
+    // 按交易日升序
+    private final Day[] days;
+
+    private FactorStore(Day[] days) {
+        this.days = days;
+    }
+
+    /**
+     * 映射目录下全部 MMDD.fst (本地文件)，每个文件只读取尾部和稀疏索引
+     */
+    public static FactorStore open(java.nio.file.Path dir) throws IOException {
+        List<Day> list = new ArrayList<>();
+        try (DirectoryStream<java.nio.file.Path> files = Files.newDirectoryStream(dir, "*" + EXTENSION)) {
+            for (java.nio.file.Path file : files) list.add(openDay(file));
+        }
+        Day[] days = list.toArray(new Day[0]);
+        Arrays.sort(days, (a, b) -> Integer.compare(a.tradingDay, b.tradingDay));
+        for (int i = 1; i < days.length; i++) {
+            if (days[i].tradingDay == days[i - 1].tradingDay) {
+                throw new IOException(dir + " has two stores for trading day " + days[i].tradingDay);
+            }
+        }
+        return new FactorStore(days);
+    }
+
+    private static Day openDay(java.nio.file.Path file) throws IOException {
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = ch.size();
+            if (size < HEADER_BYTES + TRAILER_BYTES) throw new IOException(file + " is too short for a factor store");
+            ByteBuffer head = read(ch, 0, HEADER_BYTES);
+            ByteBuffer tail = read(ch, size - TRAILER_BYTES, TRAILER_BYTES);
+            if (head.getInt(0) != MAGIC || tail.getInt(20) != MAGIC) throw new IOException(file + " is not a factor store");
+            int version = head.getInt(4);
+            if (version != VERSION) throw new IOException(file + " has unsupported store version " + version);
+            int tradingDay = head.getInt(8);
+            int factors = head.getInt(12);
+            int recordBytes = head.getInt(16);
+            int dataOffset = head.getInt(20);
+            int records = tail.getInt(0);
+            int stride = tail.getInt(4);
+            long indexOffset = tail.getLong(8);
+            int entries = tail.getInt(16);
+            if (dataOffset + (long) records * recordBytes != indexOffset) throw new IOException(file + " is corrupt");
+
+            int[] alphas = new int[factors];
+            read(ch, HEADER_BYTES, 4 * factors).asIntBuffer().get(alphas);
+            int[] index = new int[entries];
+            read(ch, indexOffset, 4 * entries).asIntBuffer().get(index);
+            ByteBuffer data = ch.map(FileChannel.MapMode.READ_ONLY, dataOffset, (long) records * recordBytes)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            return new Day(tradingDay, alphas, records, recordBytes, stride, index, data);
+        }
+    }
+
+    private static ByteBuffer read(FileChannel ch, long pos, int n) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(n).order(ByteOrder.LITTLE_ENDIAN);
+        while (buf.hasRemaining()) {
+            int r = ch.read(buf, pos + buf.position());
+            if (r < 0) throw new EOFException("Unexpected end of factor store");
+        }
+        ((Buffer) buf).flip();
+        return buf;
+    }
+
+    /** @return 库中的交易日 (YYYYMMDD 升序) */
+    public int[] tradingDays() {
+        int[] a = new int[days.length];
+        for (int i = 0; i < days.length; i++) a[i] = days[i].tradingDay;
+        return a;
+    }
+
+    /** 整个交易日区间 [fromDay, toDay] 的全部时间戳 */
+    public Range query(int fromDay, int toDay) {
+        return query(fromDay, 0, toDay, 999999);
+    }
+
+    /**
+     * 区间 [fromDay fromTime, toDay toTime] (YYYYMMDD, HHMMSS，两端包含) 内的全部记录，跨天按日期顺序拼接
+     * 只定位起止记录号，不复制数据
+     */
+    public Range query(int fromDay, int fromTime, int toDay, int toTime) {
+        List<int[]> segments = new ArrayList<>();
+        int size = 0;
+        for (int i = 0; i < days.length; i++) {
+            Day d = days[i];
+            if (d.tradingDay < fromDay || d.tradingDay > toDay || d.records == 0) continue;
+            int lo = d.tradingDay == fromDay ? d.lowerBound(firstKeyAtOrAfter(fromDay, fromTime)) : 0;
+            int hi = d.tradingDay == toDay ? d.lowerBound(firstKeyAfter(toDay, toTime)) : d.records;
+            if (lo >= hi) continue;
+            segments.add(new int[]{i, lo, hi});
+            size += hi - lo;
+        }
+        return new Range(segments.toArray(new int[0][]), size);
+    }
+
+    /**
+     * 时间码标注的时间 (decodeTradeTime) >= tradeTime 的第一个 Key
+     * CompactTimeUtil 把午休、盘后折叠到之前的时间码，这样的边界要跳过被折叠到的那一行
+     */
+    private static int firstKeyAtOrAfter(int tradingDay, int tradeTime) {
+        int key = CompactTimeUtil.encode(tradingDay, tradeTime);
+        return CompactTimeUtil.decodeTradeTime(key) < tradeTime ? key + 1 : key;
+    }
+
+    /**
+     * 时间码标注的时间 > tradeTime 的第一个 Key (盘前的边界折叠到 090000，不应包含该行)
+     */
+    private static int firstKeyAfter(int tradingDay, int tradeTime) {
+        int key = CompactTimeUtil.encode(tradingDay, tradeTime);
+        return CompactTimeUtil.decodeTradeTime(key) > tradeTime ? key : key + 1;
+    }
+
+    /**
+     * 一次查询的结果：若干个 (交易日, 起止记录号) 段，按需从映射内存复制为基本类型数组
+     */
+    public final class Range {
+        // {day 下标, 起始记录, 结束记录 (不含)}
+        private final int[][] segments;
+        private final int size;
+
+        private Range(int[][] segments, int size) {
+            this.segments = segments;
+            this.size = size;
+        }
+
+        public int size() { return size; }
+
+        /** 每条记录的交易日 YYYYMMDD */
+        public int[] tradingDays() {
+            int[] out = new int[size];
+            int k = 0;
+            for (int[] s : segments) {
+                Arrays.fill(out, k, k + s[2] - s[1], days[s[0]].tradingDay);
+                k += s[2] - s[1];
+            }
+            return out;
+        }
+
+        /** 每条记录的时间 HHMMSS */
+        public int[] tradeTimes() {
+            int[] out = keys();
+            for (int i = 0; i < size; i++) out[i] = CompactTimeUtil.decodeTradeTime(out[i]);
+            return out;
+        }
+
+        /** 每条记录的压缩时间 Key */
+        public int[] keys() {
+            return ints(0);
+        }
+
+        /** 每个时间戳参与平均的行数 (股票数) */
+        public int[] counts() {
+            return ints(4);
+        }
+
+        private int[] ints(int offset) {
+            int[] out = new int[size];
+            int k = 0;
+            for (int[] s : segments) {
+                Day d = days[s[0]];
+                for (int r = s[1]; r < s[2]; r++) out[k++] = d.data.getInt(r * d.recordBytes + offset);
+            }
+            return out;
+        }
+
+        /**
+         * 单个因子的序列 (alpha 从 1 开始)，跨天拼接；某天没有输出该因子时为 NaN
+         */
+        public float[] column(int alpha) {
+            float[] out = new float[size];
+            int k = 0;
+            for (int[] s : segments) {
+                Day d = days[s[0]];
+                int f = d.column(alpha);
+                int n = s[2] - s[1];
+                if (f < 0) {
+                    Arrays.fill(out, k, k + n, Float.NaN);
+                    k += n;
+                    continue;
+                }
+                int off = 8 + 4 * f;
+                for (int r = s[1]; r < s[2]; r++) out[k++] = d.data.getFloat(r * d.recordBytes + off);
+            }
+            return out;
+        }
+    }
+}
@@ -1,12 +1,29 @@
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.nio.ByteOrder;
 import java.nio.charset.StandardCharsets;
 
 /**
  * CSV 解析工具类
  * 1. Fused Scan-Parse: 在寻找分隔符的同时计算数值
  * 2. Manual Loop Unrolling: 针对定长字段手动展开循环，提升指令级并行度 (ILP)
+ * 3. SWAR (word-at-a-time): parseLong / skipFields 每次按小端读入 8 字节，用位运算一次判断 8 个字节是否为数字 / 逗号，
+ *    最多 8 位数字用 3 次乘法合成；剩余不足 8 字节的行尾逐字节处理
  */
 public class FastParser {
 
+    private static final long ZEROS = 0x3030303030303030L;     // 8 个 '0'
+    private static final long COMMAS = 0x2C2C2C2C2C2C2C2CL;    // 8 个 ','
+    private static final long HIGH_BITS = 0x8080808080808080L;
+    private static final long LOW_BITS = 0x7F7F7F7F7F7F7F7FL;
+
+    private static final long[] POW10 = {1L, 10L, 100L, 1000L, 10000L, 100000L, 1000000L, 10000000L, 100000000L};
+
+    // JDK 9+ 的 byteArrayViewVarHandle(long[], LITTLE_ENDIAN)，C2 编译为一次非对齐 8 字节读取；JDK 8 上为 null，逐字节拼装
+    private static final MethodHandle LONG_VIEW = longView();
+
     /**
      * [SWAR 策略] 解析 8 位定长日期 (如 20140101)
      * 性能：比循环快 3-4 倍，无分支预测失败风险
@@ -33,26 +50,60 @@ public class FastParser {
      * @param cursor 游标数组 [当前位置]，解析完会自动更新到逗号后一位
      */
     public static long parseLong(byte[] b, int[] cursor) {
+        return parseLong(b, cursor, b.length);
+    }
+
+    /**
+     * 同上，但最多扫描到 limit (不含)，用于在大块缓冲区中按行就地解析，避免越过行尾
+     * 数字后只能是逗号或 limit，其他字节 (小数点、字母、空格等) 抛出 NumberFormatException，由 parseFromBytes 计为无效行
+     */
+    public static long parseLong(byte[] b, int[] cursor, int limit) {
         long result = 0;
         int i = cursor[0];
-        int len = b.length;
 
         // 处理可能的负号 (虽量化数据多为正，但保留健壮性)
         boolean negative = false;
-        if (i < len && b[i] == '-') {
+        if (i < limit && b[i] == '-') {
             negative = true;
             i++;
         }
 
-        // 紧凑循环，消除多余分支
-        while (i < len) {
+        // 每次 8 字节：非数字字节的最高位置 1，最低的非数字字节就是字段结尾
+        while (i + 8 <= limit) {
+            long word = getLongLE(b, i);
+            long digits = word - ZEROS;
+            // < '0' 时减法借位、> '9' 时 +0x46 进位到最高位；借位 / 进位只会影响更高的字节，不影响最低非数字字节的位置
+            long nonDigit = ((word + 0x4646464646464646L) | digits) & HIGH_BITS;
+            if (nonDigit == 0) {
+                result = result * 100000000L + parseEightDigits(digits);
+                i += 8;
+                continue;
+            }
+            int n = Long.numberOfTrailingZeros(nonDigit) >>> 3;
+            // 前 n 个字节是数字：左移到高位，低位补 0 相当于前导零
+            if (n > 0) result = result * POW10[n] + parseEightDigits(digits << ((8 - n) << 3));
+            i += n;
+            if (b[i] != ',') throw invalidDigit(b, i);
+            cursor[0] = i + 1; // 更新游标到逗号后
+            return negative ? -result : result;
+        }
+
+        return parseTail(b, cursor, i, limit, result, negative);
+    }
+
+    /**
+     * 行尾不足 8 字节的部分逐字节解析 (单独成方法，保持 parseLong 足够小，可以在 parseFromBytes 中全部内联)
+     */
+    private static long parseTail(byte[] b, int[] cursor, int i, int limit, long result, boolean negative) {
+        while (i < limit) {
             byte c = b[i++];
             if (c == ',') {
-                cursor[0] = i; // 更新游标到逗号后
+                cursor[0] = i;
                 return negative ? -result : result;
             }
-            // 累加计算：result * 10 + digit
-            result = result * 10 + (c - '0');
+            int d = c - '0';
+            if (d < 0 || d > 9) throw invalidDigit(b, i - 1);
+            result = result * 10 + d;
         }
 
         // 处理行尾没有逗号的情况
@@ -60,6 +111,42 @@ public class FastParser {
         return negative ? -result : result;
     }
 
+    /**
+     * 8 个已减去 '0' 的数字字节 (最低字节为最高位) 合成整数：相邻两位、四位、八位依次合并
+     */
+    private static long parseEightDigits(long digits) {
+        digits = digits * 10 + (digits >>> 8);
+        return (((digits & 0x000000FF000000FFL) * (100 + (1000000L << 32)))
+                + (((digits >>> 16) & 0x000000FF000000FFL) * (1 + (10000L << 32)))) >>> 32;
+    }
+
+    private static NumberFormatException invalidDigit(byte[] b, int i) {
+        return new NumberFormatException("Unexpected byte 0x" + Integer.toHexString(b[i] & 0xFF) + " at " + i);
+    }
+
+    /**
+     * 原逐字节实现 (不校验数字)，保留作为 SWAR 版本的对照
+     */
+    static long parseLongScalar(byte[] b, int[] cursor, int limit) {
+        long result = 0;
+        int i = cursor[0];
+        boolean negative = false;
+        if (i < limit && b[i] == '-') {
+            negative = true;
+            i++;
+        }
+        while (i < limit) {
+            byte c = b[i++];
+            if (c == ',') {
+                cursor[0] = i;
+                return negative ? -result : result;
+            }
+            result = result * 10 + (c - '0');
+        }
+        cursor[0] = i;
+        return negative ? -result : result;
+    }
+
     /**
      * [Fused Scan-Parse] 解析字符串直到逗号
      */
@@ -81,10 +168,14 @@ public class FastParser {
     }
 
     public static int parseStockCodeToInt(byte[] data, int[] cursor) {
+        return parseStockCodeToInt(data, cursor, data.length);
+    }
+
+    public static int parseStockCodeToInt(byte[] data, int[] cursor, int limit) {
         int idx = cursor[0];
         int result = 0;
 
-        while (idx < data.length) {
+        while (idx < limit) {
             byte b = data[idx];
             if (b >= '0' && b <= '9') {
                 result = result * 10 + (b - '0');
@@ -93,7 +184,7 @@ public class FastParser {
                 // 遇到 .SH / .SZ 或者直接逗号
                 // 如果是 '.'，需要一直跳到下一个逗号
                 if (b != ',') {
-                    while (idx < data.length && data[idx] != ',') {
+                    while (idx < limit && data[idx] != ',') {
                         idx++;
                     }
                 }
@@ -106,13 +197,92 @@ public class FastParser {
 
     // 确保你有这个跳过字段的方法
     public static void skipFields(byte[] data, int[] cursor, int count) {
+        skipFields(data, cursor, count, data.length);
+    }
+
+    public static void skipFields(byte[] data, int[] cursor, int count, int limit) {
         int idx = cursor[0];
+        int remaining = count;
+        // 每次 8 字节：逗号所在字节的最高位置 1，数出本字内的逗号个数，够数时取第 remaining 个
+        while (remaining > 0 && idx + 8 <= limit) {
+            long commas = commaMask(getLongLE(data, idx));
+            int k = Long.bitCount(commas);
+            if (k < remaining) {
+                remaining -= k;
+                idx += 8;
+                continue;
+            }
+            for (int j = 1; j < remaining; j++) commas &= commas - 1; // 去掉前 remaining - 1 个逗号
+            cursor[0] = idx + (Long.numberOfTrailingZeros(commas) >>> 3) + 1;
+            return;
+        }
+        skipFieldsScalar(data, cursor, remaining, limit, idx);
+    }
+
+    /**
+     * 原逐字节实现，保留作为 SWAR 版本的对照
+     */
+    static void skipFieldsScalar(byte[] data, int[] cursor, int count, int limit) {
+        skipFieldsScalar(data, cursor, count, limit, cursor[0]);
+    }
+
+    private static void skipFieldsScalar(byte[] data, int[] cursor, int count, int limit, int idx) {
         int found = 0;
-        while (idx < data.length && found < count) {
+        while (idx < limit && found < count) {
             if (data[idx++] == ',') {
                 found++;
             }
         }
         cursor[0] = idx;
     }
-}
\ No newline at end of file
+
+    /**
+     * 等于 ',' 的字节最高位为 1，其余为 0 (先清掉最高位再加 0x7F，字节间不会进位，结果是精确的)
+     */
+    private static long commaMask(long word) {
+        long x = word ^ COMMAS;
+        return ~(((x & LOW_BITS) + LOW_BITS) | x) & HIGH_BITS;
+    }
+
+    /**
+     * 从 b[i] 起按小端读 8 字节，调用方保证 i + 8 <= b.length
+     */
+    static long getLongLE(byte[] b, int i) {
+        if (LONG_VIEW != null) {
+            try {
+                return (long) LONG_VIEW.invokeExact(b, i);
+            } catch (Throwable t) {
+                throw new IllegalStateException(t);
+            }
+        }
+        return getLongLESlow(b, i);
+    }
+
+    private static long getLongLESlow(byte[] b, int i) {
+        return (b[i] & 0xFFL)
+                | (b[i + 1] & 0xFFL) << 8
+                | (b[i + 2] & 0xFFL) << 16
+                | (b[i + 3] & 0xFFL) << 24
+                | (b[i + 4] & 0xFFL) << 32
+                | (b[i + 5] & 0xFFL) << 40
+                | (b[i + 6] & 0xFFL) << 48
+                | (b[i + 7] & 0xFFL) << 56;
+    }
+
+    /**
+     * 编译目标为 1.8，VarHandle 只能反射获取；转成 (byte[], int)long 的 MethodHandle，static final 时 C2 会内联
+     */
+    private static MethodHandle longView() {
+        try {
+            Method view = MethodHandles.class.getMethod("byteArrayViewVarHandle", Class.class, ByteOrder.class);
+            Object varHandle = view.invoke(null, long[].class, ByteOrder.LITTLE_ENDIAN);
+            Class<?> varHandleClass = Class.forName("java.lang.invoke.VarHandle");
+            Class<?> accessMode = Class.forName("java.lang.invoke.VarHandle$AccessMode");
+            Object get = accessMode.getField("GET").get(null);
+            MethodHandle mh = (MethodHandle) varHandleClass.getMethod("toMethodHandle", accessMode).invoke(varHandle, get);
+            return mh.asType(MethodType.methodType(long.class, byte[].class, int.class));
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,260 @@
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.LocatedFileStatus;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.RemoteIterator;
+import org.apache.hadoop.io.compress.CompressionCodecFactory;
+import org.apache.hadoop.mapreduce.MRConfig;
+import org.apache.hadoop.mapreduce.MRJobConfig;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.util.ConfigUtil;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * 提交前按输入规模规划作业参数 (替代 FactorCalculationJob 中写死的分片 / 排序缓冲 / 容器大小)
+ * 1. 统计输入：总字节数、文件数、路径中的交易日数，按第一个明文文件开头 64KB 的平均行长估计行数
+ * 2. 分片：按原始字节 (.blz 取块索引中的解压后长度) 计，本地模式按核数均分 (每核一个 Map)，集群按 factor.plan.slots 均分，未配置时每片 256MB；限制在 [8MB, 512MB]
+ * 3. Reducer：DayPartitioner 按天分区，多于天数的 Reducer 空闲，取 min(天数, 槽位)；范围分区器取 max(天数, 槽位)
+ * 4. 排序缓冲：Mapper 预聚合后每个 Key 只输出一次，按 (天数 x 每天时间戳数或 bar 数 x 每条约 104 字节) 估算，
+ *    堆 = 排序缓冲 + 256MB 基础开销，容器 = 堆 / 0.8；Reducer 堆按 Shuffle 总量 / 0.7 估算
+ * 5. 启用分布统计时每条记录加上 FactorSketch 的序列化上界，Map 堆再加上每个时间戳常驻的草图
+ * 6. 按日分片并输出逐股票面板时，Map 堆再加上一天全部行的面板构建器 (每行 FactorPanel.rowBytes)
+ * 配置文件 (*-site.xml) 或 -D 显式给出的值一律保留，只填写没有被显式设置的参数
+ */
+public class JobPlanner {
+
+    // 集群中可同时运行的 Map 数 (本地模式默认取 CPU 核数，集群默认 0 = 未知，按 256MB 切分)
+    public static final String SLOTS_KEY = "factor.plan.slots";
+    // 集群模式下 Reducer 数上限
+    public static final String MAX_REDUCERS_KEY = "factor.plan.max.reducers";
+
+    private static final long MB = 1024L * 1024;
+    private static final long MIN_SPLIT = 8 * MB;
+    private static final long MAX_SPLIT = 512 * MB;
+    private static final long CLUSTER_SPLIT = 256 * MB;
+    private static final int PEEK_BYTES = 64 * 1024;
+    // 一条 Map 输出在排序缓冲中的字节数：IntWritable 4 + Factor (行数 4 + 20 个 float) 84 + 元数据 16
+    private static final int RECORD_BYTES = 104;
+    private static final int BASE_HEAP_MB = 256;
+
+    public final long totalBytes;
+    public final long rawBytes;         // .blz 按解压后长度计，分片按它切 (与 BlockCompressedInputFormat 一致)
+    public final int files;
+    public final long estimatedRows;    // -1 表示无法估计 (压缩或列式输入)
+    public final int days;              // -1 表示路径中没有日期
+    public final int slots;
+    public final boolean localMode;
+
+    private final StringBuilder log = new StringBuilder();
+
+    private JobPlanner(long totalBytes, long rawBytes, int files, long estimatedRows, int days, int slots,
+                       boolean localMode) {
+        this.totalBytes = totalBytes;
+        this.rawBytes = rawBytes;
+        this.files = files;
+        this.estimatedRows = estimatedRows;
+        this.days = days;
+        this.slots = slots;
+        this.localMode = localMode;
+    }
+
+    /**
+     * 列出输入并统计规模 (与 LocalFactorEngine.listInputFiles 相同的过滤规则)
+     */
+    public static JobPlanner stat(Configuration conf, Path input) throws IOException {
+        // 把 mapred-default.xml / mapred-site.xml 加入默认资源，之后才能区分默认值与显式配置
+        ConfigUtil.loadResources();
+        boolean localMode = conf.get(MRConfig.FRAMEWORK_NAME, MRConfig.LOCAL_FRAMEWORK_NAME)
+                .equals(MRConfig.LOCAL_FRAMEWORK_NAME);
+        int slots = conf.getInt(SLOTS_KEY, localMode ? Runtime.getRuntime().availableProcessors() : 0);
+
+        FileSystem fs = input.getFileSystem(conf);
+        long bytes = 0;
+        long raw = 0;
+        int files = 0;
+        Path firstText = null;
+        Set<Integer> dayCodes = new HashSet<>();
+        boolean undated = false;
+        CompressionCodecFactory codecs = new CompressionCodecFactory(conf);
+        RemoteIterator<LocatedFileStatus> it = fs.listFiles(input, true);
+        while (it.hasNext()) {
+            LocatedFileStatus st = it.next();
+            Path p = st.getPath();
+            String name = p.getName();
+            if (name.startsWith("_") || name.startsWith(".")) continue;
+            if (name.endsWith(BlockCompressedFile.INDEX_EXTENSION)) continue;
+            bytes += st.getLen();
+            raw += BlockCompressedFile.isBlockFile(p) ? rawLength(fs, p) : st.getLen();
+            files++;
+            int day = DaySplitInputFormat.dateInName(name);
+            if (day < 0 && p.getParent() != null) day = DaySplitInputFormat.dateInName(p.getParent().getName());
+            if (day > 0) dayCodes.add(day);
+            else undated = true;
+            if (firstText == null && st.getLen() > 0 && codecs.getCodec(p) == null
+                    && !BlockCompressedFile.isBlockFile(p) && !name.endsWith(ColumnarBlock.EXTENSION)) {
+                firstText = p;
+            }
+        }
+
+        // 混有压缩 / 列式文件时仍按明文行长估计，只用作每天时间戳数的上界
+        long rows = firstText == null ? -1 : estimateRows(fs, firstText, raw);
+        return new JobPlanner(bytes, raw, files, rows, undated ? -1 : dayCodes.size(), slots, localMode);
+    }
+
+    private static long rawLength(FileSystem fs, Path file) throws IOException {
+        long raw = 0;
+        for (int len : BlockCompressedFile.Index.read(fs, file).rawLengths) raw += len;
+        return raw;
+    }
+
+    private static long estimateRows(FileSystem fs, Path file, long totalBytes) throws IOException {
+        byte[] buf = new byte[PEEK_BYTES];
+        int n = 0;
+        try (FSDataInputStream in = fs.open(file)) {
+            int r;
+            while (n < buf.length && (r = in.read(buf, n, buf.length - n)) > 0) n += r;
+        }
+        int lines = 0;
+        for (int i = 0; i < n; i++) {
+            if (buf[i] == '\n') lines++;
+        }
+        if (lines == 0) return -1;
+        return totalBytes / Math.max(1, n / lines);
+    }
+
+    /**
+     * 把规划结果写入 conf (显式配置的参数保持不变)
+     * @param daySplit 按天切分的纯 Map 作业 (没有 Reducer)
+     * @param rangePartition 使用 DayRangePartitioner
+     */
+    public void apply(Configuration conf, boolean daySplit, boolean rangePartition) {
+        log.append("Job plan: ").append(files).append(" files, ").append(totalBytes / MB).append(" MB, ")
+                .append(rawBytes != totalBytes ? rawBytes / MB + " MB raw, " : "")
+                .append(estimatedRows < 0 ? "? rows" : "~" + estimatedRows + " rows").append(", ")
+                .append(days < 0 ? "? days" : days + " days").append(", ")
+                .append(slots > 0 ? slots + " map slots" : "map slots unknown")
+                .append(localMode ? " (local)" : "").append('\n');
+
+        // --- 分片 ---
+        long split = slots > 0 ? ceilDiv(rawBytes, slots) : CLUSTER_SPLIT;
+        split = Math.max(MIN_SPLIT, Math.min(MAX_SPLIT, split));
+        split = set(conf, FileInputFormat.SPLIT_MAXSIZE, split);
+        set(conf, FileInputFormat.SPLIT_MINSIZE, split / 4);
+        int maps = (int) Math.max(1, ceilDiv(rawBytes, split));
+
+        // --- Reducer ---
+        int reducers = 0;
+        if (!daySplit) {
+            int knownDays = days > 0 ? days : Math.max(1, slots);
+            if (rangePartition) {
+                reducers = Math.max(knownDays, Math.max(1, slots));
+            } else {
+                int cap = localMode ? Math.max(1, slots) : conf.getInt(MAX_REDUCERS_KEY, 32);
+                reducers = Math.min(knownDays, cap);
+            }
+            reducers = (int) set(conf, MRJobConfig.NUM_REDUCES, reducers);
+        }
+
+        // --- 排序缓冲与堆 ---
+        // 每个分片最多覆盖全部交易日 (路径中没有日期时按 20 天)，每天的时间戳数不超过 MAX_TIME_CODE，
+        // 一个分片的 Key 数也不超过分到它的行数
+        // 重采样时每天的 Key 数为 bar 个数 (上午、下午各自对齐，另加盘前 / 13:00:00 两个边界)
+        FactorSpec spec = FactorSpec.get(conf);
+        int daysPerMap = days > 0 ? days : 20;
+        long keysPerDay = spec.barSeconds > 0
+                ? ceilDiv(CompactTimeUtil.MAX_TIME_CODE, spec.barSeconds) + 3 : CompactTimeUtil.MAX_TIME_CODE + 1;
+        long keysPerMap = daysPerMap * keysPerDay;
+        if (estimatedRows > 0) keysPerMap = Math.min(keysPerMap, ceilDiv(estimatedRows, maps));
+        long mapOutput = keysPerMap * (RECORD_BYTES + FactorSketch.maxSerializedBytes(spec));
+        int sortMb = (int) Math.max(16, Math.min(512, ceilDiv(mapOutput * 5 / 4, MB)));
+        sortMb = (int) set(conf, MRJobConfig.IO_SORT_MB, sortMb);
+
+        int sketchMb = (int) ceilDiv(keysPerMap * FactorSketch.heapBytes(spec), MB);
+        int panelMb = 0;
+        if (daySplit && FactorPanel.isEnabled(conf) && estimatedRows > 0) {
+            panelMb = (int) ceilDiv(ceilDiv(estimatedRows, Math.max(1, days)) * FactorPanel.rowBytes(spec), MB);
+        }
+        int mapHeap = roundUp(sortMb + BASE_HEAP_MB + daysPerMap * 2 + sketchMb + panelMb, 128);
+        int mapContainer = roundUp(mapHeap * 5 / 4, 128);
+        set(conf, MRJobConfig.MAP_MEMORY_MB, mapContainer);
+        setOpts(conf, MRJobConfig.MAP_JAVA_OPTS, "-Xmx" + mapHeap + "m -XX:+UseG1GC");
+
+        if (reducers > 0) {
+            // Shuffle 数据全部放进内存 (shuffle.input.buffer.percent 默认 0.7)，不落盘合并
+            long shuffle = ceilDiv((long) maps * mapOutput, reducers);
+            // 先在 long 上夹到 [512, 4096] MB 再取整 (两端都是 128 的倍数)，超大的 Shuffle 不会在转换时溢出
+            int reduceHeap = roundUp((int) Math.max(512, Math.min(4096, ceilDiv(shuffle * 10 / 7, MB) + BASE_HEAP_MB)),
+                    128);
+            int reduceContainer = roundUp(reduceHeap * 5 / 4, 128);
+            set(conf, MRJobConfig.REDUCE_MEMORY_MB, reduceContainer);
+            setOpts(conf, MRJobConfig.REDUCE_JAVA_OPTS, "-Xmx" + reduceHeap + "m -XX:+UseG1GC");
+            set(conf, MRJobConfig.SHUFFLE_PARALLEL_COPIES, Math.max(5, Math.min(20, maps)));
+        }
+
+        // --- 本地模式的并发槽位 ---
+        if (localMode) {
+            set(conf, "mapreduce.local.map.tasks.maximum", Math.max(1, Math.min(slots, maps)));
+            if (reducers > 0) set(conf, "mapreduce.local.reduce.tasks.maximum", Math.max(1, Math.min(slots, reducers)));
+        }
+        System.out.print(log);
+    }
+
+    /**
+     * 本地引擎只需要线程数：多于文件数的线程没有任务可做
+     */
+    public void applyLocalEngine(Configuration conf) {
+        log.append("Job plan: ").append(files).append(" files, ").append(totalBytes / MB).append(" MB (local engine)\n");
+        set(conf, LocalFactorEngine.THREADS_KEY,
+                Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), files)));
+        System.out.print(log);
+    }
+
+    /**
+     * @return 实际生效的值 (显式配置时为配置值)
+     */
+    private long set(Configuration conf, String key, long planned) {
+        if (isExplicit(conf, key)) {
+            long value = conf.getLong(key, planned);
+            log.append("  ").append(key).append(" = ").append(value).append(" (explicit, planned ").append(planned)
+                    .append(")\n");
+            return value;
+        }
+        conf.setLong(key, planned);
+        log.append("  ").append(key).append(" = ").append(planned).append('\n');
+        return planned;
+    }
+
+    private void setOpts(Configuration conf, String key, String planned) {
+        if (isExplicit(conf, key)) {
+            log.append("  ").append(key).append(" = ").append(conf.get(key)).append(" (explicit, planned ")
+                    .append(planned).append(")\n");
+            return;
+        }
+        conf.set(key, planned);
+        log.append("  ").append(key).append(" = ").append(planned).append('\n');
+    }
+
+    /**
+     * 来源只有 *-default.xml (或没有值) 的参数视为未设置；-D、*-site.xml、代码中 set 的都算显式
+     */
+    static boolean isExplicit(Configuration conf, String key) {
+        if (conf.get(key) == null) return false;
+        String[] sources = conf.getPropertySources(key);
+        if (sources == null) return true;
+        for (String source : sources) {
+            if (!source.endsWith("-default.xml")) return true;
+        }
+        return false;
+    }
+
+    private static long ceilDiv(long a, long b) {
+        return (a + b - 1) / b;
+    }
+
+    private static int roundUp(int v, int unit) {
+        return (v + unit - 1) / unit * unit;
+    }
+}
@@ -0,0 +1,314 @@
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.*;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * 进程内多线程引擎 (不经过 MapReduce)
+ * 输入只有几 GB 时，作业启动、溢写、排序、Shuffle 的固定开销远大于因子计算本身：
+ * 1. 每个输入文件是一个 fork-join 任务，在 work-stealing 线程池上由 SnapshotScanner 大块扫描
+ * 2. 每个工作线程持有自己的 FactorAccumulator (局部聚合表)，切换文件时只重置前一帧缓存
+ * 3. 全部完成后合并各线程局部表，按 Key 升序写出与 DailyOutputFormat 相同布局的 MMDD.csv
+ * 4. 各线程的 FactorMetrics 一并合并，写出与 MapReduce 作业相同格式的 _metrics.json
+ * 5. 增量模式 (factor.cache.dir)：未变化的文件直接并入 PartialAggregateCache 中的部分和，只计算新增或变化的文件
+ * 6. 逐股票面板 (factor.output.panel)：各线程的 FactorPanel.Builder 在写出时合并，每天另写一个 MMDD.panel
+ */
+public class LocalFactorEngine {
+
+    public static final String THREADS_KEY = "factor.local.threads";
+
+    private static final int WRITE_BUFFER_SIZE = 1 << 20;
+
+    private final Configuration conf;
+    private final FactorSpec spec;
+    // 增量模式的部分和缓存，未启用时为 null
+    private PartialAggregateCache cache;
+
+    /** 单个工作线程的全部可复用状态 */
+    private static final class WorkerState {
+        final FactorAccumulator accumulator;
+        final SnapshotData snapshot = new SnapshotData();
+        final FactorMetrics metrics;
+        // 增量模式：accumulator 只保存当前文件的部分和，文件结束后并入 total
+        final DenseFactorTable total;
+
+        WorkerState(FactorSpec spec, int batchSize, FactorMetrics metrics, boolean incremental, boolean panel) {
+            this.metrics = metrics;
+            this.accumulator = new FactorAccumulator(spec, batchSize, metrics,
+                    panel ? new FactorPanel.Builder(spec) : null);
+            this.total = incremental ? new DenseFactorTable(spec) : null;
+        }
+
+        DenseFactorTable table() {
+            return total != null ? total : accumulator.table();
+        }
+    }
+
+    public LocalFactorEngine(Configuration conf) {
+        this.conf = conf;
+        this.spec = FactorSpec.get(conf);
+    }
+
+    /**
+     * @return 写出的时间戳行数
+     */
+    public long run(Path input, Path output) throws IOException {
+        long startTime = System.currentTimeMillis();
+        FileSystem fs = input.getFileSystem(conf);
+        List<Path> files = listInputFiles(fs, input);
+        cache = PartialAggregateCache.get(conf, spec);
+        final boolean incremental = cache != null;
+        final boolean panel = FactorPanel.isEnabled(conf);
+
+        int threads = conf.getInt(THREADS_KEY, Runtime.getRuntime().availableProcessors());
+        int batchSize = conf.getInt(FactorAccumulator.BATCH_SIZE_KEY, FactorAccumulator.DEFAULT_BATCH_SIZE);
+        Queue<WorkerState> states = new ConcurrentLinkedQueue<>();
+        ThreadLocal<WorkerState> local = ThreadLocal.withInitial(() -> {
+            WorkerState state = new WorkerState(spec, batchSize, FactorMetrics.get(conf), incremental, panel);
+            states.add(state);
+            return state;
+        });
+
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            pool.invoke(new ScanTask(fs, files, 0, files.size(), local));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            pool.shutdown();
+        }
+
+        // 合并各线程局部表
+        DenseFactorTable merged = null;
+        FactorMetrics metrics = FactorMetrics.get(conf);
+        long mergeStart = System.nanoTime();
+        for (WorkerState state : states) {
+            if (merged == null) merged = state.table();
+            else merged.mergeAll(state.table());
+            metrics.merge(state.metrics);
+        }
+        if (merged == null) merged = new DenseFactorTable(spec);
+        metrics.add(FactorMetrics.Counter.FLUSH_NANOS, System.nanoTime() - mergeStart);
+        metrics.inc(FactorMetrics.Counter.CACHE_FLUSHES);
+
+        FileSystem outFs = output.getFileSystem(conf);
+        long rows = writeDaily(outFs, output, merged, spec,
+                conf.getInt(DailyOutputFormat.OUTPUT_DIGITS_KEY, 0), FactorStore.isEnabled(conf), metrics);
+        if (panel) {
+            List<FactorPanel.Builder> parts = new ArrayList<>();
+            for (WorkerState state : states) parts.add(state.accumulator.panel());
+            FactorPanel.write(outFs, output, spec, parts);
+        }
+        metrics.writeReport(outFs, output, "local", System.currentTimeMillis() - startTime);
+        outFs.create(new Path(output, "_SUCCESS"), true).close();
+        return rows;
+    }
+
+    /**
+     * 递归列出输入文件，跳过 _ 和 . 开头的隐藏文件 (与 FileInputFormat 一致)
+     */
+    static List<Path> listInputFiles(FileSystem fs, Path input) throws IOException {
+        List<Path> files = new ArrayList<>();
+        RemoteIterator<LocatedFileStatus> it = fs.listFiles(input, true);
+        while (it.hasNext()) {
+            Path p = it.next().getPath();
+            String name = p.getName();
+            if (name.startsWith("_") || name.startsWith(".")) continue;
+            if (name.endsWith(BlockCompressedFile.INDEX_EXTENSION)) continue; // .blz 的块索引
+            files.add(p);
+        }
+        return files;
+    }
+
+    /**
+     * 对文件区间二分拆分，叶子任务扫描单个文件；空闲线程从其他线程的队列尾部窃取
+     */
+    private final class ScanTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final FileSystem fs;
+        private final List<Path> files;
+        private final int lo, hi;
+        private final ThreadLocal<WorkerState> local;
+
+        ScanTask(FileSystem fs, List<Path> files, int lo, int hi, ThreadLocal<WorkerState> local) {
+            this.fs = fs; this.files = files; this.lo = lo; this.hi = hi; this.local = local;
+        }
+
+        @Override
+        protected void compute() {
+            if (hi - lo <= 1) {
+                if (hi > lo) {
+                    try {
+                        scanFile(fs, files.get(lo), local.get());
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+                return;
+            }
+            int mid = (lo + hi) >>> 1;
+            invokeAll(new ScanTask(fs, files, lo, mid, local), new ScanTask(fs, files, mid, hi, local));
+        }
+    }
+
+    private void scanFile(FileSystem fs, Path path, WorkerState state) throws IOException {
+        if (cache == null) {
+            scanRows(fs, path, state);
+            return;
+        }
+        if (cache.load(fs, path, state.total)) {
+            state.metrics.inc(FactorMetrics.Counter.CACHE_HITS);
+            return;
+        }
+        state.metrics.inc(FactorMetrics.Counter.CACHE_MISSES);
+        scanRows(fs, path, state);
+        DenseFactorTable partial = state.accumulator.table();
+        cache.store(fs, path, partial);
+        state.total.mergeAll(partial);
+        partial.clear();
+    }
+
+    private void scanRows(FileSystem fs, Path path, WorkerState state) throws IOException {
+        FactorAccumulator accumulator = state.accumulator;
+        SnapshotData snapshot = state.snapshot;
+        FactorMetrics m = state.metrics;
+        accumulator.resetPrevSnapshots();
+
+        // ColumnarConverter 产出的列式块：直接按列填充，不经过文本解析
+        if (path.getName().endsWith(ColumnarBlock.EXTENSION)) {
+            ColumnarBlock block = ColumnarBlock.load(fs, path);
+            block.checkDepth(spec.depth, path);
+            int accepted = 0;
+            for (int r = 0; r < block.rows(); r++) {
+                if (!block.accept(r, spec.filter)) continue;
+                block.fill(r, snapshot);
+                accumulator.add(snapshot);
+                accepted++;
+            }
+            m.add(FactorMetrics.Counter.ROWS_PARSED, accepted);
+            m.add(FactorMetrics.Counter.PARSE_REJECTED, block.rows() - accepted);
+            return;
+        }
+
+        long length = fs.getFileStatus(path).getLen();
+        // BlockCompressor 产出的分块压缩文件：后台线程解压，本线程解析
+        try (SnapshotSource scanner = BlockCompressedFile.isBlockFile(path)
+                ? new BlockCompressedFile.Scanner(conf, path, 0, length)
+                : new SnapshotScanner(conf, path, 0, length)) {
+            // 与 FactorMapper.run 相同的抽样计时：t0 -> t1 为扫描 + 解析，t1 -> t2 为计算 + 聚合
+            boolean timed = m.sample();
+            long t0 = timed ? System.nanoTime() : 0;
+            long parsed = 0;
+            while (scanner.next(snapshot)) {
+                parsed++;
+                if (timed) {
+                    long t1 = System.nanoTime();
+                    accumulator.add(snapshot);
+                    long t2 = System.nanoTime();
+                    m.addSampled(FactorMetrics.Counter.PARSE_NANOS, t1 - t0);
+                    m.addSampled(FactorMetrics.Counter.COMPUTE_NANOS, t2 - t1);
+                } else {
+                    accumulator.add(snapshot);
+                }
+                timed = m.sample();
+                if (timed) t0 = System.nanoTime();
+            }
+            m.add(FactorMetrics.Counter.ROWS_PARSED, parsed);
+            m.add(FactorMetrics.Counter.PARSE_REJECTED, scanner.rejected());
+        }
+    }
+
+    /**
+     * 按 Key 升序写出，Key 的高位是日期，所以每天的行连续出现，一次只打开一个文件
+     * (按日分片模式下 FactorMapper 的 cleanup 也用它直接写出该日的 CSV)
+     * 启用分布统计时同时写出 MMDD_stats.csv (与 MMDD.csv 逐行对应)，store 为 true 时同时写出二进制的 MMDD.fst
+     * 整个写出过程计入 FORMAT_NANOS，并统计写出的行数和字节数
+     */
+    static long writeDaily(FileSystem fs, Path outputDir, DenseFactorTable table,
+                                   FactorSpec spec, int digits, boolean store, FactorMetrics metrics) throws IOException {
+        long start = metrics.enabled() ? System.nanoTime() : 0;
+        fs.mkdirs(outputDir);
+        byte[] header = spec.header().getBytes(StandardCharsets.US_ASCII);
+        boolean stats = spec.statsCentroids > 0;
+        byte[] statsHeader = stats ? spec.statsHeader().getBytes(StandardCharsets.US_ASCII) : null;
+        byte[] buf = new byte[1024];
+        // 每个因子 4 列
+        byte[] statsBuf = stats ? new byte[4096] : null;
+        int[] keys = table.sortedKeys();
+        Factor sum = new Factor(spec);
+
+        int currentDay = -1;
+        long bytes = 0;
+        OutputStream out = null;
+        OutputStream statsOut = null;
+        FactorStore.Writer storeOut = null;
+        try {
+            for (int key : keys) {
+                int day = CompactTimeUtil.getDayCode(key);
+                if (day != currentDay) {
+                    if (out != null) out.close();
+                    if (statsOut != null) statsOut.close();
+                    if (storeOut != null) {
+                        storeOut.close();
+                        bytes += storeOut.bytes();
+                        storeOut = null;
+                    }
+                    String mmdd = CompactTimeUtil.getMMDD(key);
+                    out = new BufferedOutputStream(fs.create(new Path(outputDir, mmdd + ".csv"), true),
+                            WRITE_BUFFER_SIZE);
+                    out.write(header);
+                    bytes += header.length;
+                    if (stats) {
+                        statsOut = new BufferedOutputStream(fs.create(new Path(outputDir, mmdd
+                                + DailyOutputFormat.STATS_SUFFIX + ".csv"), true), WRITE_BUFFER_SIZE);
+                        statsOut.write(statsHeader);
+                        bytes += statsHeader.length;
+                    }
+                    if (store) {
+                        storeOut = new FactorStore.Writer(new BufferedOutputStream(fs.create(new Path(outputDir,
+                                mmdd + FactorStore.EXTENSION), true), WRITE_BUFFER_SIZE), spec,
+                                CompactTimeUtil.decodeTradingDay(key), true);
+                    }
+                    currentDay = day;
+                }
+                int off = FactorReducer.writeTime6Digits(CompactTimeUtil.decodeTradeTime(key), buf, 0);
+                buf[off++] = ',';
+                off = FactorReducer.formatAverages(table.get(key, sum), buf, off, digits);
+                buf[off++] = '\n';
+                out.write(buf, 0, off);
+                bytes += off;
+                if (stats) {
+                    System.arraycopy(buf, 0, statsBuf, 0, 7);
+                    off = FactorReducer.formatStats(sum, statsBuf, 7, digits);
+                    statsBuf[off++] = '\n';
+                    statsOut.write(statsBuf, 0, off);
+                    bytes += off;
+                }
+                if (store) storeOut.write(key, sum);
+            }
+        } finally {
+            if (out != null) out.close();
+            if (statsOut != null) statsOut.close();
+            if (storeOut != null) {
+                storeOut.close();
+                bytes += storeOut.bytes();
+            }
+        }
+        if (metrics.enabled()) {
+            metrics.add(FactorMetrics.Counter.ROWS_WRITTEN, keys.length);
+            metrics.add(FactorMetrics.Counter.BYTES_WRITTEN, bytes);
+            metrics.add(FactorMetrics.Counter.FORMAT_NANOS, System.nanoTime() - start);
+        }
+        return keys.length;
+    }
+}
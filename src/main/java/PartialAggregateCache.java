@@ -0,0 +1,182 @@
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileChecksum;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * 增量运行的按文件部分聚合缓存 (LocalFactorEngine，factor.cache.dir 非空时启用)
+ * 1. 每个输入文件一个缓存文件：文件头记录输入的路径、长度、修改时间、校验和 (文件系统提供时) 与 FactorSpec 签名，
+ *    其后是该文件的全部 (压缩时间 Key, 行数, 被选中因子的和)
+ * 2. 重跑时文件头全部一致则直接把部分和并入结果，否则重新计算并覆盖缓存；新增一天的数据只需计算当天的文件
+ * 3. 本引擎中每个文件的历史从空开始 (resetPrevSnapshots)，文件的部分和不依赖其他文件，因此缓存只需保存部分和
+ * 缓存文件名为路径的 64 位哈希，文件头中的完整路径用于排除哈希碰撞
+ */
+public class PartialAggregateCache {
+
+    public static final String CACHE_DIR_KEY = "factor.cache.dir";
+    public static final String EXTENSION = ".pac";
+
+    private static final int MAGIC = 0x50414332; // "PAC2" (历史不跨交易日)
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final FileSystem cacheFs;
+    private final Path cacheDir;
+    private final FactorSpec spec;
+    private final int[] selected;
+
+    private PartialAggregateCache(FileSystem cacheFs, Path cacheDir, FactorSpec spec) {
+        this.cacheFs = cacheFs;
+        this.cacheDir = cacheDir;
+        this.spec = spec;
+        this.selected = spec.selected;
+    }
+
+    /**
+     * @return 未配置 factor.cache.dir 时返回 null；缓存只保存部分和，启用分布统计时也返回 null
+     */
+    public static PartialAggregateCache get(Configuration conf, FactorSpec spec) throws IOException {
+        String dir = conf.get(CACHE_DIR_KEY, "");
+        if (dir.isEmpty()) return null;
+        if (spec.statsCentroids > 0) {
+            System.err.println("Warning: " + CACHE_DIR_KEY + " does not store " + FactorSpec.STATS_KEY
+                    + " sketches, ignored");
+            return null;
+        }
+        if (FactorPanel.isEnabled(conf)) {
+            // 命中缓存的文件不再逐行计算，面板会缺少这些股票
+            System.err.println("Warning: " + CACHE_DIR_KEY + " does not store per-stock rows for "
+                    + FactorPanel.PANEL_KEY + ", ignored");
+            return null;
+        }
+        Path cacheDir = new Path(dir);
+        FileSystem fs = cacheDir.getFileSystem(conf);
+        fs.mkdirs(cacheDir);
+        return new PartialAggregateCache(fs, cacheDir, spec);
+    }
+
+    /**
+     * 把 input 的缓存部分和并入 into
+     * @return false 表示没有可用的缓存 (不存在、输入已变化或 FactorSpec 不同)
+     */
+    public boolean load(FileSystem fs, Path input, DenseFactorTable into) throws IOException {
+        Path file = cacheFile(input);
+        if (!cacheFs.exists(file)) return false;
+        Header expected = header(fs, input);
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(cacheFs.open(file), BUFFER_SIZE))) {
+            if (in.readInt() != MAGIC) return false;
+            if (!expected.matches(Header.read(in))) return false;
+
+            int n = in.readInt();
+            float[] f = new float[FactorSpec.NUM_FACTORS];
+            for (int r = 0; r < n; r++) {
+                int key = in.readInt();
+                int count = in.readInt();
+                for (int i : selected) f[i] = in.readFloat();
+                into.addPartial(key, f, count);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 写出 input 的部分和 (先写临时文件再改名，中断时不会留下半个缓存)
+     */
+    public void store(FileSystem fs, Path input, DenseFactorTable partial) throws IOException {
+        Header header = header(fs, input);
+        Path file = cacheFile(input);
+        Path tmp = new Path(cacheDir, "." + file.getName() + ".tmp");
+
+        int[] keys = partial.sortedKeys();
+        Factor sum = new Factor(spec);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(cacheFs.create(tmp, true),
+                BUFFER_SIZE))) {
+            out.writeInt(MAGIC);
+            header.write(out);
+            out.writeInt(keys.length);
+            for (int key : keys) {
+                partial.get(key, sum);
+                out.writeInt(key);
+                out.writeInt(sum.getCount());
+                float[] v = sum.getFactorValues();
+                for (int i : selected) out.writeFloat(v[i]);
+            }
+        }
+        cacheFs.delete(file, false);
+        if (!cacheFs.rename(tmp, file)) {
+            throw new IOException("Failed to move cache file into place: " + file);
+        }
+    }
+
+    private Path cacheFile(Path input) {
+        String p = input.toUri().getPath();
+        // FNV-1a 64
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < p.length(); i++) {
+            h ^= p.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        return new Path(cacheDir, String.format("%016x", h) + EXTENSION);
+    }
+
+    private Header header(FileSystem fs, Path input) throws IOException {
+        FileStatus st = fs.getFileStatus(input);
+        // 本地文件系统不提供校验和 (null)，此时只比较长度和修改时间
+        FileChecksum checksum = fs.getFileChecksum(input);
+        return new Header(input.toUri().getPath(), st.getLen(), st.getModificationTime(),
+                checksum == null ? new byte[0] : checksum.getBytes(), signature(spec));
+    }
+
+    /**
+     * 影响部分和的配置：档位深度、选中的因子、Δt、窗口、行过滤、重采样
+     */
+    static String signature(FactorSpec spec) {
+        return "depth=" + spec.depth + ";alphas=" + Arrays.toString(spec.selected)
+                + ";lag=" + spec.lag + ";window=" + spec.window
+                + (spec.filter == null ? "" : ";" + spec.filter.signature())
+                + (spec.barSeconds == 0 ? "" : ";bar=" + spec.barSeconds + (spec.barMean ? "mean" : "last"));
+    }
+
+    private static final class Header {
+        final String path;
+        final long length;
+        final long mtime;
+        final byte[] checksum;
+        final String spec;
+
+        Header(String path, long length, long mtime, byte[] checksum, String spec) {
+            this.path = path; this.length = length; this.mtime = mtime; this.checksum = checksum; this.spec = spec;
+        }
+
+        static Header read(DataInputStream in) throws IOException {
+            String path = in.readUTF();
+            long length = in.readLong();
+            long mtime = in.readLong();
+            byte[] checksum = new byte[in.readInt()];
+            in.readFully(checksum);
+            return new Header(path, length, mtime, checksum, in.readUTF());
+        }
+
+        void write(DataOutputStream out) throws IOException {
+            out.writeUTF(path);
+            out.writeLong(length);
+            out.writeLong(mtime);
+            out.writeInt(checksum.length);
+            out.write(checksum);
+            out.writeUTF(spec);
+        }
+
+        boolean matches(Header o) {
+            return path.equals(o.path) && length == o.length && mtime == o.mtime
+                    && Arrays.equals(checksum, o.checksum) && spec.equals(o.spec);
+        }
+    }
+}
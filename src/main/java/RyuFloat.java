@@ -1,176 +1,527 @@
+import java.math.BigInteger;
+
 /**
- * 性能的浮点数转字节工具 (基于 Ryu 算法简化版)
- * 目标：实现 Zero-Allocation 的 float -> byte[] 转换
+ * 零分配的浮点数转字节工具 (完整 Ryu 算法，float 与 double)
+ * 1. 最短往返：输出能唯一还原原值的最短十进制位数，所有取值都走同一条快速路径，不再回退 Float.toString
+ * 2. 5 的幂次表 (float 61 位，double 125 位) 在类加载时用 BigInteger 生成，运行时只有整数乘法和移位
+ * 3. 布局与 Float.toString / Double.toString 一致：10^-3 <= |v| < 10^7 用普通小数，否则用 d.dddE±n
+ * 4. 定长有效位模式 (digits > 0)：按 digits 位有效数字四舍五入后输出，比最短往返更便宜，
+ *    7 位有效数字已远高于 1% 的误差要求
  */
 public class RyuFloat {
+
+    // ---------------- float ----------------
     private static final int FLOAT_MANTISSA_BITS = 23;
     private static final int FLOAT_MANTISSA_MASK = (1 << FLOAT_MANTISSA_BITS) - 1;
-    private static final int FLOAT_EXPONENT_BITS = 8;
+    private static final int FLOAT_EXPONENT_MASK = (1 << 8) - 1;
     private static final int FLOAT_EXPONENT_BIAS = 127;
-    private static final int FLOAT_EXPONENT_MASK = (1 << FLOAT_EXPONENT_BITS) - 1;
 
-    // 预计算的 10 的幂次表 (用于快速定位小数点)
-    // 实际 Ryu 算法需要更大的 POW5 表，这里为了代码紧凑，
-    // 我们使用一个针对金融数据范围优化过的快速路径：
-    // 如果是常规小数，使用基于长整型乘法的快速除法。
+    private static final int FLOAT_POW5_INV_BITCOUNT = 59;
+    private static final int FLOAT_POW5_BITCOUNT = 61;
+    private static final long[] FLOAT_POW5_INV_SPLIT = new long[32];
+    private static final long[] FLOAT_POW5_SPLIT = new long[48];
+
+    // ---------------- double ----------------
+    private static final int DOUBLE_MANTISSA_BITS = 52;
+    private static final long DOUBLE_MANTISSA_MASK = (1L << DOUBLE_MANTISSA_BITS) - 1;
+    private static final int DOUBLE_EXPONENT_MASK = (1 << 11) - 1;
+    private static final int DOUBLE_EXPONENT_BIAS = 1023;
+
+    private static final int DOUBLE_POW5_INV_BITCOUNT = 125;
+    private static final int DOUBLE_POW5_BITCOUNT = 125;
+    // 每项 125 位，拆成 [低 64 位, 高 61 位]
+    private static final long[][] DOUBLE_POW5_INV_SPLIT = new long[292][2];
+    private static final long[][] DOUBLE_POW5_SPLIT = new long[326][2];
+
+    // 定长有效位模式使用的 10 的幂次
+    private static final long[] POW10 = new long[19];
+    private static final double[] DOUBLE_POW10 = new double[23];
+
+    static {
+        BigInteger mask64 = BigInteger.ONE.shiftLeft(64).subtract(BigInteger.ONE);
+        int n = Math.max(DOUBLE_POW5_SPLIT.length, DOUBLE_POW5_INV_SPLIT.length);
+        for (int i = 0; i < n; i++) {
+            BigInteger pow = BigInteger.valueOf(5).pow(i);
+            int bits = pow.bitLength(); // == pow5bits(i)
+
+            if (i < FLOAT_POW5_SPLIT.length) {
+                FLOAT_POW5_SPLIT[i] = shift(pow, bits - FLOAT_POW5_BITCOUNT).longValue();
+            }
+            if (i < FLOAT_POW5_INV_SPLIT.length) {
+                FLOAT_POW5_INV_SPLIT[i] = BigInteger.ONE.shiftLeft(bits - 1 + FLOAT_POW5_INV_BITCOUNT)
+                        .divide(pow).add(BigInteger.ONE).longValue();
+            }
+            if (i < DOUBLE_POW5_SPLIT.length) {
+                BigInteger v = shift(pow, bits - DOUBLE_POW5_BITCOUNT);
+                DOUBLE_POW5_SPLIT[i][0] = v.and(mask64).longValue();
+                DOUBLE_POW5_SPLIT[i][1] = v.shiftRight(64).longValue();
+            }
+            if (i < DOUBLE_POW5_INV_SPLIT.length) {
+                BigInteger v = BigInteger.ONE.shiftLeft(bits - 1 + DOUBLE_POW5_INV_BITCOUNT).divide(pow).add(BigInteger.ONE);
+                DOUBLE_POW5_INV_SPLIT[i][0] = v.and(mask64).longValue();
+                DOUBLE_POW5_INV_SPLIT[i][1] = v.shiftRight(64).longValue();
+            }
+        }
+        long p = 1;
+        for (int i = 0; i < POW10.length; i++, p *= 10) POW10[i] = p;
+        double d = 1;
+        for (int i = 0; i < DOUBLE_POW10.length; i++, d *= 10) DOUBLE_POW10[i] = d;
+    }
+
+    private static BigInteger shift(BigInteger v, int right) {
+        return right >= 0 ? v.shiftRight(right) : v.shiftLeft(-right);
+    }
+
+    // ---------------- 公共入口 ----------------
 
     /**
-     * 将 float 格式化写入 byte 数组
+     * 将 float 以最短往返形式写入 byte 数组
      * @param value 输入浮点数
      * @param result 目标数组
      * @param index 写入起始位置
      * @return 新的 index 位置
      */
     public static int floatToBytes(float value, byte[] result, int index) {
+        return floatToBytes(value, result, index, 0);
+    }
+
+    /**
+     * @param digits <= 0 为最短往返；1..9 为定长有效位
+     */
+    public static int floatToBytes(float value, byte[] result, int index, int digits) {
         // 1. 处理特殊值
         int bits = Float.floatToIntBits(value);
-        boolean negative = (bits & 0x80000000) != 0;
-        int exponent = (bits >>> FLOAT_MANTISSA_BITS) & FLOAT_EXPONENT_MASK;
-        int mantissa = bits & FLOAT_MANTISSA_MASK;
-
-        if (exponent == 255) {
-            if (mantissa == 0) {
-                if (negative) result[index++] = '-';
-                result[index++] = 'I'; result[index++] = 'n'; result[index++] = 'f';
-                return index;
-            } else {
-                result[index++] = 'N'; result[index++] = 'a'; result[index++] = 'N';
-                return index;
-            }
+        int ieeeExponent = (bits >>> FLOAT_MANTISSA_BITS) & FLOAT_EXPONENT_MASK;
+        int ieeeMantissa = bits & FLOAT_MANTISSA_MASK;
+        if (ieeeExponent == FLOAT_EXPONENT_MASK || (ieeeExponent == 0 && ieeeMantissa == 0)) {
+            return special(bits < 0, ieeeMantissa != 0, ieeeExponent == 0, result, index);
         }
+        if (bits < 0) result[index++] = '-';
 
-        if (exponent == 0 && mantissa == 0) {
-            if (negative) result[index++] = '-';
-            result[index++] = '0';
-            result[index++] = '.';
-            result[index++] = '0';
-            return index;
+        // 2. 定长有效位
+        if (digits > 0) {
+            return fixed(Math.abs((double) value), Math.min(digits, 9), result, index);
         }
 
-        if (negative) {
-            result[index++] = '-';
+        // 3. Ryu：统一规格化数与非规格化数
+        int e2;
+        int m2;
+        if (ieeeExponent == 0) {
+            e2 = 1 - FLOAT_EXPONENT_BIAS - FLOAT_MANTISSA_BITS - 2;
+            m2 = ieeeMantissa;
+        } else {
+            e2 = ieeeExponent - FLOAT_EXPONENT_BIAS - FLOAT_MANTISSA_BITS - 2;
+            m2 = (1 << FLOAT_MANTISSA_BITS) | ieeeMantissa;
         }
+        boolean acceptBounds = (m2 & 1) == 0;
 
-        // 2. 核心转换逻辑 (简化版 Grisu/Ryu 混合策略)
-        // 为了在不引入几KB查表代码的情况下保证高性能，我们使用
-        // "基于 long 的定点算术" 处理最常见的范围。
-        // 对于极小或极大数值，回退到标准处理（为了安全性）。
+        // 合法十进制表示的区间 [mm, mp] (都乘了 4)
+        long mv = 4L * m2;
+        long mp = mv + 2;
+        int mmShift = (ieeeMantissa != 0 || ieeeExponent <= 1) ? 1 : 0;
+        long mm = mv - 1 - mmShift;
 
-        // 检查是否在普通范围内 (1e-3 ~ 1e7)，这是金融因子的常见范围
-        // 直接使用 Grisu2 风格的快速除法
-        if (Math.abs(value) >= 0.001f && Math.abs(value) <= 10000000f) {
-            return formatNormal(Math.abs(value), result, index);
+        // 转为 10 的幂次基
+        long vr, vp, vm;
+        int e10;
+        boolean vmIsTrailingZeros = false;
+        boolean vrIsTrailingZeros = false;
+        int lastRemovedDigit = 0;
+        if (e2 >= 0) {
+            int q = log10Pow2(e2);
+            e10 = q;
+            int k = FLOAT_POW5_INV_BITCOUNT + pow5bits(q) - 1;
+            int i = -e2 + q + k;
+            vr = mulShift32(mv, FLOAT_POW5_INV_SPLIT[q], i);
+            vp = mulShift32(mp, FLOAT_POW5_INV_SPLIT[q], i);
+            vm = mulShift32(mm, FLOAT_POW5_INV_SPLIT[q], i);
+            if (q != 0 && (vp - 1) / 10 <= vm / 10) {
+                // 下面的循环不会执行时，仍需要知道被去掉的最后一位
+                int l = FLOAT_POW5_INV_BITCOUNT + pow5bits(q - 1) - 1;
+                lastRemovedDigit = (int) (mulShift32(mv, FLOAT_POW5_INV_SPLIT[q - 1], -e2 + q - 1 + l) % 10);
+            }
+            if (q <= 9) {
+                // mv、mp、mm 中至多有一个是 5 的倍数
+                if (mv % 5 == 0) {
+                    vrIsTrailingZeros = pow5Factor(mv) >= q;
+                } else if (acceptBounds) {
+                    vmIsTrailingZeros = pow5Factor(mm) >= q;
+                } else if (pow5Factor(mp) >= q) {
+                    vp--;
+                }
+            }
         } else {
-            // 极值情况使用标准转换的 fallback (避免引入巨大查表)
-            String s = Float.toString(Math.abs(value));
-            for (int i = 0; i < s.length(); i++) {
-                result[index++] = (byte) s.charAt(i);
+            int q = log10Pow5(-e2);
+            e10 = q + e2;
+            int i = -e2 - q;
+            int k = pow5bits(i) - FLOAT_POW5_BITCOUNT;
+            int j = q - k;
+            vr = mulShift32(mv, FLOAT_POW5_SPLIT[i], j);
+            vp = mulShift32(mp, FLOAT_POW5_SPLIT[i], j);
+            vm = mulShift32(mm, FLOAT_POW5_SPLIT[i], j);
+            if (q != 0 && (vp - 1) / 10 <= vm / 10) {
+                j = q - 1 - (pow5bits(i + 1) - FLOAT_POW5_BITCOUNT);
+                lastRemovedDigit = (int) (mulShift32(mv, FLOAT_POW5_SPLIT[i + 1], j) % 10);
             }
-            return index;
+            if (q <= 1) {
+                // mv = 4 * m2 至少有两个末尾 0 位
+                vrIsTrailingZeros = true;
+                if (acceptBounds) {
+                    vmIsTrailingZeros = mmShift == 1;
+                } else {
+                    vp--;
+                }
+            } else if (q < 31) {
+                vrIsTrailingZeros = (mv & ((1L << q) - 1)) == 0;
+            }
+        }
+
+        // 4. 在区间内找最短的十进制表示
+        int removed = 0;
+        long output;
+        if (vmIsTrailingZeros || vrIsTrailingZeros) {
+            // 少见的一般情况 (约 4%)
+            while (vp / 10 > vm / 10) {
+                vmIsTrailingZeros &= vm % 10 == 0;
+                vrIsTrailingZeros &= lastRemovedDigit == 0;
+                lastRemovedDigit = (int) (vr % 10);
+                vr /= 10; vp /= 10; vm /= 10;
+                removed++;
+            }
+            if (vmIsTrailingZeros) {
+                while (vm % 10 == 0) {
+                    vrIsTrailingZeros &= lastRemovedDigit == 0;
+                    lastRemovedDigit = (int) (vr % 10);
+                    vr /= 10; vp /= 10; vm /= 10;
+                    removed++;
+                }
+            }
+            if (vrIsTrailingZeros && lastRemovedDigit == 5 && vr % 2 == 0) {
+                // 恰好是 ...50..0 时向偶数舍入
+                lastRemovedDigit = 4;
+            }
+            output = vr + (((vr == vm && (!acceptBounds || !vmIsTrailingZeros)) || lastRemovedDigit >= 5) ? 1 : 0);
+        } else {
+            while (vp / 10 > vm / 10) {
+                lastRemovedDigit = (int) (vr % 10);
+                vr /= 10; vp /= 10; vm /= 10;
+                removed++;
+            }
+            output = vr + ((vr == vm || lastRemovedDigit >= 5) ? 1 : 0);
         }
+
+        int olength = decimalLength(output);
+        return format(output, olength, e10 + removed + olength - 1, result, index);
     }
 
-    // 针对普通范围的高性能格式化 (无对象分配)
-    private static int formatNormal(float val, byte[] buf, int offset) {
-        // 将 float 转为整数处理
-        // 简单策略：乘 10^N 转为 long，然后取模
-        // 注意：这种方法不是最通用的 Ryu，但对于你的 alpha 因子场景（保留小数）足够快且极其简单
-        int iPart = (int) val;
-        float fPart = val - iPart;
+    /**
+     * 将 double 以最短往返形式写入 byte 数组
+     */
+    public static int doubleToBytes(double value, byte[] result, int index) {
+        return doubleToBytes(value, result, index, 0);
+    }
 
-        // 写入整数部分
-        if (iPart == 0) {
-            buf[offset++] = '0';
+    /**
+     * @param digits <= 0 为最短往返；1..17 为定长有效位
+     */
+    public static int doubleToBytes(double value, byte[] result, int index, int digits) {
+        long bits = Double.doubleToLongBits(value);
+        int ieeeExponent = (int) ((bits >>> DOUBLE_MANTISSA_BITS) & DOUBLE_EXPONENT_MASK);
+        long ieeeMantissa = bits & DOUBLE_MANTISSA_MASK;
+        if (ieeeExponent == DOUBLE_EXPONENT_MASK || (ieeeExponent == 0 && ieeeMantissa == 0)) {
+            return special(bits < 0, ieeeMantissa != 0, ieeeExponent == 0, result, index);
+        }
+        if (bits < 0) result[index++] = '-';
+
+        // 定长有效位 (按 10 的幂缩放会上溢 / 下溢的极端量级仍走最短往返)
+        double abs = Math.abs(value);
+        if (digits > 0 && abs >= 1e-290 && abs <= 1e290) {
+            return fixed(abs, Math.min(digits, 17), result, index);
+        }
+
+        int e2;
+        long m2;
+        if (ieeeExponent == 0) {
+            e2 = 1 - DOUBLE_EXPONENT_BIAS - DOUBLE_MANTISSA_BITS - 2;
+            m2 = ieeeMantissa;
         } else {
-            offset = writeInt(iPart, buf, offset);
+            e2 = ieeeExponent - DOUBLE_EXPONENT_BIAS - DOUBLE_MANTISSA_BITS - 2;
+            m2 = (1L << DOUBLE_MANTISSA_BITS) | ieeeMantissa;
         }
+        boolean acceptBounds = (m2 & 1) == 0;
 
-        buf[offset++] = '.';
+        long mv = 4 * m2;
+        long mp = mv + 2;
+        int mmShift = (ieeeMantissa != 0 || ieeeExponent <= 1) ? 1 : 0;
+        long mm = mv - 1 - mmShift;
 
-        // 写入小数部分 (固定精度优化，或者直到为0)
-        // 你的原代码用了 12 位精度，这里我们为了速度演示写 8 位有效数字
-        // 或者是直到无余数。这里演示一种基于乘法的快速提取。
+        long vr, vp, vm;
+        int e10;
+        boolean vmIsTrailingZeros = false;
+        boolean vrIsTrailingZeros = false;
+        if (e2 >= 0) {
+            int q = log10Pow2(e2) - (e2 > 3 ? 1 : 0);
+            e10 = q;
+            int k = DOUBLE_POW5_INV_BITCOUNT + pow5bits(q) - 1;
+            int i = -e2 + q + k;
+            long[] mul = DOUBLE_POW5_INV_SPLIT[q];
+            vr = mulShift64(mv, mul, i);
+            vp = mulShift64(mp, mul, i);
+            vm = mulShift64(mm, mul, i);
+            if (q <= 21) {
+                if (mv % 5 == 0) {
+                    vrIsTrailingZeros = pow5Factor(mv) >= q;
+                } else if (acceptBounds) {
+                    vmIsTrailingZeros = pow5Factor(mm) >= q;
+                } else if (pow5Factor(mp) >= q) {
+                    vp--;
+                }
+            }
+        } else {
+            int q = log10Pow5(-e2) - (-e2 > 1 ? 1 : 0);
+            e10 = q + e2;
+            int i = -e2 - q;
+            int k = pow5bits(i) - DOUBLE_POW5_BITCOUNT;
+            int j = q - k;
+            long[] mul = DOUBLE_POW5_SPLIT[i];
+            vr = mulShift64(mv, mul, j);
+            vp = mulShift64(mp, mul, j);
+            vm = mulShift64(mm, mul, j);
+            if (q <= 1) {
+                vrIsTrailingZeros = true;
+                if (acceptBounds) {
+                    vmIsTrailingZeros = mmShift == 1;
+                } else {
+                    vp--;
+                }
+            } else if (q < 63) {
+                vrIsTrailingZeros = (mv & ((1L << q) - 1)) == 0;
+            }
+        }
 
-        if (fPart == 0) {
-            buf[offset++] = '0';
-            return offset;
+        int removed = 0;
+        int lastRemovedDigit = 0;
+        long output;
+        if (vmIsTrailingZeros || vrIsTrailingZeros) {
+            while (vp / 10 > vm / 10) {
+                vmIsTrailingZeros &= vm % 10 == 0;
+                vrIsTrailingZeros &= lastRemovedDigit == 0;
+                lastRemovedDigit = (int) (vr % 10);
+                vr /= 10; vp /= 10; vm /= 10;
+                removed++;
+            }
+            if (vmIsTrailingZeros) {
+                while (vm % 10 == 0) {
+                    vrIsTrailingZeros &= lastRemovedDigit == 0;
+                    lastRemovedDigit = (int) (vr % 10);
+                    vr /= 10; vp /= 10; vm /= 10;
+                    removed++;
+                }
+            }
+            if (vrIsTrailingZeros && lastRemovedDigit == 5 && vr % 2 == 0) {
+                lastRemovedDigit = 4;
+            }
+            output = vr + (((vr == vm && (!acceptBounds || !vmIsTrailingZeros)) || lastRemovedDigit >= 5) ? 1 : 0);
+        } else {
+            // 常见情况：先按 100 去位，减少除法次数
+            boolean roundUp = false;
+            if (vp / 100 > vm / 100) {
+                roundUp = vr % 100 >= 50;
+                vr /= 100; vp /= 100; vm /= 100;
+                removed += 2;
+            }
+            while (vp / 10 > vm / 10) {
+                roundUp = vr % 10 >= 5;
+                vr /= 10; vp /= 10; vm /= 10;
+                removed++;
+            }
+            output = vr + ((vr == vm || roundUp) ? 1 : 0);
         }
 
-        // 提取小数位：乘以 1亿 (10^8) 转 long
-        // 这种方法避免了多次 float 乘法带来的累积误差
-        // 也是 Dragon4 的一种简化
-        long fScaled = (long) (fPart * 100000000L + 0.5);
+        int olength = decimalLength(output);
+        return format(output, olength, e10 + removed + olength - 1, result, index);
+    }
+
+    // ---------------- 定长有效位 ----------------
+
+    /**
+     * v > 0 且有限；按 digits 位有效数字四舍五入
+     */
+    private static int fixed(double v, int digits, byte[] result, int index) {
+        // 首位数字的十进制指数：由二进制指数估计，再用比较修正
+        int exp = (int) Math.floor(Math.getExponent(v) * 0.30102999566398120);
+        while (v >= pow10(exp + 1)) exp++;
+        while (v < pow10(exp)) exp--;
 
-        // 如果 fScaled 太小，需要补前导 0
-        // 例如 0.01 -> fPart=0.01 -> fScaled=1000000. 需要补一个0
-        // 快速计算需要补几个0
-        long temp = fScaled;
-        int digits = 0;
-        if (temp == 0) digits = 1;
-        else {
-            // 简单的位数计算
-            while (temp > 0) { temp /= 10; digits++; }
+        long output = roundScaled(v, digits - 1 - exp);
+        if (output >= POW10[digits]) {
+            // 进位 (如 9.9999999 -> 10.000000)，按新的指数重新舍入
+            exp++;
+            output = roundScaled(v, digits - 1 - exp);
+        }
+        int olength = digits;
+        while (olength > 1 && output % 10 == 0) {
+            output /= 10;
+            olength--;
         }
+        return format(output, olength, exp, result, index);
+    }
 
-        // 补 0 (8 - digits)
-        for (int k = 0; k < (8 - digits); k++) {
-            buf[offset++] = '0';
+    private static long roundScaled(double v, int scale) {
+        return Math.round(scale >= 0 ? v * pow10(scale) : v / pow10(-scale));
+    }
+
+    private static double pow10(int e) {
+        if (e >= 0) {
+            if (e < DOUBLE_POW10.length) return DOUBLE_POW10[e];
+            return Math.pow(10, e);
         }
+        if (-e < DOUBLE_POW10.length) return 1.0 / DOUBLE_POW10[-e];
+        return Math.pow(10, e);
+    }
+
+    // ---------------- 输出 ----------------
 
-        // 移除末尾的 0 (Trim)
-        while (fScaled > 0 && fScaled % 10 == 0) {
-            fScaled /= 10;
+    /**
+     * 写出 olength 位数字 output，首位数字的十进制指数为 exp (布局与 Float.toString 一致)
+     */
+    private static int format(long output, int olength, int exp, byte[] result, int index) {
+        if (exp >= -3 && exp < 7) {
+            if (exp < 0) {
+                // 0.000ddd
+                result[index++] = '0';
+                result[index++] = '.';
+                for (int i = -1; i > exp; i--) result[index++] = '0';
+                writeDigits(output, olength, result, index);
+                return index + olength;
+            }
+            if (olength <= exp + 1) {
+                // ddd000.0
+                writeDigits(output, olength, result, index);
+                index += olength;
+                for (int i = olength; i <= exp; i++) result[index++] = '0';
+                result[index++] = '.';
+                result[index++] = '0';
+                return index;
+            }
+            // ddd.ddd：先整体写出，再把小数部分后移一位放入小数点
+            int intLen = exp + 1;
+            writeDigits(output, olength, result, index);
+            System.arraycopy(result, index + intLen, result, index + intLen + 1, olength - intLen);
+            result[index + intLen] = '.';
+            return index + olength + 1;
         }
 
-        if (fScaled == 0) {
-            // 如果全是0 (比如 fPart 极小)
-            buf[offset++] = '0';
-        } else {
-            offset = writeLong(fScaled, buf, offset);
+        // d.dddE±n
+        writeDigits(output, olength, result, index + 1);
+        result[index] = result[index + 1];
+        result[index + 1] = '.';
+        index += olength + 1;
+        if (olength == 1) result[index++] = '0';
+        result[index++] = 'E';
+        if (exp < 0) {
+            result[index++] = '-';
+            exp = -exp;
+        }
+        if (exp >= 100) {
+            result[index++] = (byte) ('0' + exp / 100);
+            exp %= 100;
+            result[index++] = (byte) ('0' + exp / 10);
+        } else if (exp >= 10) {
+            result[index++] = (byte) ('0' + exp / 10);
         }
+        result[index++] = (byte) ('0' + exp % 10);
+        return index;
+    }
 
-        return offset;
+    // 从 offset 起倒序填充 olength 位
+    private static void writeDigits(long output, int olength, byte[] buf, int offset) {
+        int i = offset + olength;
+        while (output >= 10) {
+            long q = output / 10;
+            buf[--i] = (byte) ('0' + (output - q * 10));
+            output = q;
+        }
+        buf[--i] = (byte) ('0' + output);
     }
 
-    // 快速整数转字节 (从高位到低位)
-    private static int writeInt(int value, byte[] buf, int offset) {
-        if (value == 0) { buf[offset++] = '0'; return offset; }
-        int i = offset;
-        int q, r;
-        // 先计算长度
-        int temp = value;
-        int len = 0;
-        while(temp > 0) { temp /= 10; len++; }
+    private static int special(boolean negative, boolean nan, boolean zero, byte[] result, int index) {
+        if (zero) {
+            if (negative) result[index++] = '-';
+            result[index++] = '0';
+            result[index++] = '.';
+            result[index++] = '0';
+            return index;
+        }
+        if (nan) {
+            result[index++] = 'N'; result[index++] = 'a'; result[index++] = 'N';
+            return index;
+        }
+        if (negative) result[index++] = '-';
+        result[index++] = 'I'; result[index++] = 'n'; result[index++] = 'f';
+        return index;
+    }
 
-        i += len;
-        int end = i;
+    // ---------------- Ryu 辅助 ----------------
 
-        // 倒序填充
-        while (value > 0) {
-            q = value / 10;
-            r = value - (q * 10); // value % 10
-            buf[--i] = (byte) (r + '0');
-            value = q;
-        }
-        return end;
+    // floor(log10(2^e))
+    private static int log10Pow2(int e) {
+        return (e * 78913) >>> 18;
+    }
+
+    // floor(log10(5^e))
+    private static int log10Pow5(int e) {
+        return (e * 732923) >>> 20;
     }
 
-    private static int writeLong(long value, byte[] buf, int offset) {
-        if (value == 0) { buf[offset++] = '0'; return offset; }
-        int i = offset;
-        long q, r;
-        long temp = value;
-        int len = 0;
-        while(temp > 0) { temp /= 10; len++; }
+    // 5^e 的二进制位数
+    private static int pow5bits(int e) {
+        return ((e * 1217359) >>> 19) + 1;
+    }
 
-        i += len;
-        int end = i;
-        while (value > 0) {
-            q = value / 10;
-            r = value - (q * 10);
-            buf[--i] = (byte) (r + '0');
-            value = q;
+    private static int pow5Factor(long value) {
+        int count = 0;
+        while (value % 5 == 0) {
+            value /= 5;
+            count++;
         }
-        return end;
+        return count;
+    }
+
+    private static int decimalLength(long v) {
+        int len = 1;
+        while (len < 19 && v >= POW10[len]) len++;
+        return len;
+    }
+
+    // (m * factor) >> shift，m < 2^32，factor < 2^61，shift > 32
+    private static long mulShift32(long m, long factor, int shift) {
+        long bits0 = m * (factor & 0xFFFFFFFFL);
+        long bits1 = m * (factor >>> 32);
+        long sum = (bits0 >>> 32) + bits1;
+        return sum >>> (shift - 32);
+    }
+
+    // (m * mul) >> j，mul 为 125 位 [低 64 位, 高 61 位]，64 < j < 128
+    private static long mulShift64(long m, long[] mul, int j) {
+        long b0Hi = multiplyHighUnsigned(m, mul[0]);
+        long b2Lo = m * mul[1];
+        long b2Hi = multiplyHighUnsigned(m, mul[1]);
+        long lo = b0Hi + b2Lo;
+        long hi = b2Hi + (Long.compareUnsigned(lo, b0Hi) < 0 ? 1 : 0);
+        int dist = j - 64;
+        return (hi << (64 - dist)) | (lo >>> dist);
+    }
+
+    // 无符号 64 x 64 位乘积的高 64 位 (Java 8 没有 Math.multiplyHigh)
+    private static long multiplyHighUnsigned(long a, long b) {
+        long aLo = a & 0xFFFFFFFFL, aHi = a >>> 32;
+        long bLo = b & 0xFFFFFFFFL, bHi = b >>> 32;
+        long loLo = aLo * bLo;
+        long hiLo = aHi * bLo;
+        long loHi = aLo * bHi;
+        long hiHi = aHi * bHi;
+        long cross = (loLo >>> 32) + (hiLo & 0xFFFFFFFFL) + loHi;
+        return hiHi + (hiLo >>> 32) + (cross >>> 32);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,242 @@
+import java.io.IOException;
+
+/**
+ * 单个 Map 任务内的按股票分片多线程流水线
+ * 1. 读取线程 (Mapper 主线程) 只做行切分：取出第 5 列股票代码按哈希选分片，把整行字节追加到该分片当前的块中
+ * 2. 块满后经 SPSC 环形队列交给分片的工作线程，工作线程解析、计算因子并累加到自己的 FactorAccumulator，
+ *    用完的块经另一条 SPSC 队列还给读取线程复用 (每个分片固定 CHUNKS 个块，块用完即形成背压)
+ * 3. 同一股票的所有行落在同一工作线程且保持输入顺序，前一帧 / Δt / 窗口状态与单线程完全一致；
+ *    MultithreadedMapper 按行轮转分发，做不到这一点
+ * 4. finish 时合并各线程的 DenseFactorTable，由 Mapper 按 Key 升序输出；读取失败时改用 shutdown，只停止线程不合并
+ * 注：同一时间戳在各线程中的部分和按线程合并，浮点求和顺序与单线程不同 (与 LocalFactorEngine 多线程相同)
+ */
+public class ShardedFactorPipeline {
+
+    // 每个 Map 任务的工作线程数，<= 1 表示不分片 (仅 text 输入格式生效)
+    public static final String THREADS_KEY = "factor.map.threads";
+
+    private static final int CHUNK_BYTES = 256 << 10;
+    private static final int CHUNK_LINES = 2048;
+    private static final int CHUNKS = 8;
+    private static final int CODE_FIELD = 4;
+
+    /** 一块待处理的行：data 中第 i 行为 [starts[i], starts[i] + lengths[i]) */
+    private static final class Chunk {
+        byte[] data = new byte[CHUNK_BYTES];
+        final int[] starts = new int[CHUNK_LINES];
+        final int[] lengths = new int[CHUNK_LINES];
+        int used;
+        int lines;
+
+        boolean fits(int len) {
+            return lines < CHUNK_LINES && used + len <= data.length;
+        }
+
+        void append(byte[] b, int off, int len) {
+            if (used + len > data.length) data = new byte[Math.max(data.length, len)]; // 仅在空块装不下单行时
+            System.arraycopy(b, off, data, used, len);
+            starts[lines] = used;
+            lengths[lines++] = len;
+            used += len;
+        }
+    }
+
+    // 结束标记
+    private static final Chunk END = new Chunk();
+
+    private final Worker[] workers;
+    private final Chunk[] current;
+    private volatile Throwable failure;
+    // shutdown 后工作线程不再处理队列中剩余的块
+    private volatile boolean aborted;
+
+    /**
+     * @param metrics 每个工作线程使用与其配置相同的独立实例，finish 时合并
+     */
+    public ShardedFactorPipeline(FactorSpec spec, int threads, int batchSize, FactorMetrics metrics) {
+        workers = new Worker[threads];
+        current = new Chunk[threads];
+        for (int i = 0; i < threads; i++) {
+            workers[i] = new Worker(spec, batchSize, metrics.newInstance());
+            workers[i].setName("factor-shard-" + i);
+            workers[i].setDaemon(true);
+        }
+    }
+
+    public void start() {
+        for (Worker w : workers) w.start();
+    }
+
+    /**
+     * 读取线程调用：把一行分配给其股票所在的分片 (行字节会被复制，调用方可立即复用 b)
+     */
+    public void submit(byte[] b, int off, int len) throws IOException {
+        int shard = shardOf(b, off, off + len, workers.length);
+        Chunk c = current[shard];
+        if (c != null && !c.fits(len)) {
+            publish(shard, c);
+            c = null;
+        }
+        if (c == null) {
+            c = takeFree(shard);
+            current[shard] = c;
+        }
+        c.append(b, off, len);
+    }
+
+    /**
+     * 交出剩余的块并等待全部工作线程结束，返回合并后的预聚合表
+     * @param metrics 各线程的计数合并到这里
+     */
+    public DenseFactorTable finish(FactorMetrics metrics) throws IOException {
+        for (int i = 0; i < workers.length; i++) {
+            if (current[i] != null && current[i].lines > 0) publish(i, current[i]);
+            current[i] = null;
+        }
+        awaitWorkers();
+        checkFailure();
+
+        DenseFactorTable merged = workers[0].accumulator.table();
+        metrics.merge(workers[0].metrics);
+        for (int i = 1; i < workers.length; i++) {
+            merged.mergeAll(workers[i].accumulator.table());
+            metrics.merge(workers[i].metrics);
+        }
+        return merged;
+    }
+
+    /**
+     * 异常路径 (读取线程抛出异常时) 调用：丢弃未处理的块并停止工作线程，不合并、不抛出，
+     * 调用方的原异常继续上抛
+     */
+    public void shutdown() {
+        aborted = true;
+        try {
+            awaitWorkers();
+        } catch (IOException e) {
+            // 等待时被中断：中断标记已恢复，工作线程为守护线程，看到 aborted 后自行退出
+        }
+    }
+
+    /**
+     * 发送结束标记并等待工作线程退出
+     */
+    private void awaitWorkers() throws IOException {
+        for (Worker w : workers) {
+            // full 队列容量大于块数，结束标记一定放得下
+            w.full.offer(END);
+        }
+        try {
+            for (Worker w : workers) w.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for shard workers", e);
+        }
+    }
+
+    private void publish(int shard, Chunk c) throws IOException {
+        // 块总数不超过队列容量，不会失败
+        workers[shard].full.offer(c);
+        checkFailure();
+    }
+
+    private Chunk takeFree(int shard) throws IOException {
+        SpscRing<Chunk> free = workers[shard].free;
+        int misses = 0;
+        Chunk c;
+        while ((c = free.poll()) == null) {
+            checkFailure();
+            SpscRing.idle(misses++);
+        }
+        c.used = 0;
+        c.lines = 0;
+        return c;
+    }
+
+    private void checkFailure() throws IOException {
+        Throwable t = failure;
+        if (t != null) throw new IOException("Shard worker failed", t);
+    }
+
+    /**
+     * 取第 CODE_FIELD 列 (股票代码) 的字节哈希；字段不足的行 (表头、截断行) 归 0 号分片，由其解析时丢弃
+     */
+    static int shardOf(byte[] b, int from, int to, int shards) {
+        int i = from;
+        for (int commas = 0; commas < CODE_FIELD; i++) {
+            if (i >= to) return 0;
+            if (b[i] == ',') commas++;
+        }
+        int h = 0;
+        for (; i < to && b[i] != ','; i++) h = h * 31 + b[i];
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        return (h & 0x7fffffff) % shards;
+    }
+
+    private final class Worker extends Thread {
+        final SpscRing<Chunk> full = new SpscRing<>(CHUNKS * 2);
+        final SpscRing<Chunk> free = new SpscRing<>(CHUNKS * 2);
+        final FactorAccumulator accumulator;
+        final FactorMetrics metrics;
+        final FactorSpec spec;
+        final SnapshotData snapshot = new SnapshotData();
+
+        Worker(FactorSpec spec, int batchSize, FactorMetrics metrics) {
+            this.spec = spec;
+            this.metrics = metrics;
+            this.accumulator = new FactorAccumulator(spec, batchSize, metrics);
+            for (int i = 0; i < CHUNKS; i++) free.offer(new Chunk());
+        }
+
+        @Override
+        public void run() {
+            try {
+                int misses = 0;
+                while (true) {
+                    Chunk c = full.poll();
+                    if (c == null) {
+                        SpscRing.idle(misses++);
+                        continue;
+                    }
+                    misses = 0;
+                    if (c == END || aborted) return;
+                    process(c);
+                    free.offer(c);
+                }
+            } catch (Throwable t) {
+                failure = t;
+            }
+        }
+
+        /**
+         * 与 FactorMapper.run 的单线程循环相同的解析 -> 计算 -> 聚合，计时按同样的方式抽样
+         */
+        private void process(Chunk c) {
+            final FactorMetrics m = metrics;
+            byte[] data = c.data;
+            long parsed = 0;
+            for (int i = 0, n = c.lines; i < n; i++) {
+                boolean timed = m.sample();
+                long t0 = timed ? System.nanoTime() : 0;
+                snapshot.reset();
+                if (!snapshot.parseFromBytes(data, c.starts[i], c.lengths[i], spec)) {
+                    m.inc(FactorMetrics.Counter.PARSE_REJECTED);
+                    continue;
+                }
+                parsed++;
+                if (timed) {
+                    long t1 = System.nanoTime();
+                    accumulator.add(snapshot);
+                    long t2 = System.nanoTime();
+                    m.addSampled(FactorMetrics.Counter.PARSE_NANOS, t1 - t0);
+                    m.addSampled(FactorMetrics.Counter.COMPUTE_NANOS, t2 - t1);
+                } else {
+                    accumulator.add(snapshot);
+                }
+            }
+            m.add(FactorMetrics.Counter.ROWS_PARSED, parsed);
+        }
+    }
+}
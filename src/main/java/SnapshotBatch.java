@@ -0,0 +1,177 @@
+/**
+ * 结构数组 (SoA) 快照块：几千行快照按列存放，一次性计算整块的 20 个因子
+ * 1. 每个字段一个 double[]，计算循环是同一列上的简单逐元素运算，没有对象访问和方法调用，
+ *    C2 可以自动向量化 (SuperWord)
+ * 2. 变动因子 (16-18) 需要同一只股票 Δt 行之前的值：add 时从 StockStateStore 取出参照的 ap0 / 中间价 / 深度比
+ *    拷进 p 列，块内不再需要按股票查找
+ * 3. 因子按列输出到 out[20][capacity]，表达式与 Factor.calculateFrom 完全一致 (逐位相同的结果)
+ * 仅用于 depth = 5 且全选的默认 FactorSpec
+ */
+public class SnapshotBatch {
+
+    private static final float EPSILON = 1e-7f;
+    private static final int TILE = 256;
+
+    final int capacity;
+    int size;
+
+    // 每行的聚合 Key (CompactTimeUtil 编码)
+    final int[] keys;
+
+    // 价格 / 量都是远小于 2^53 的整数，存为 double 是精确的，且 double 运算可以向量化
+    final double[] tBidVol, tAskVol;
+    final double[] bp0, bp1, bp2, bp3, bp4;
+    final double[] bv0, bv1, bv2, bv3, bv4;
+    final double[] ap0, ap1, ap2, ap3, ap4;
+    final double[] av0, av1, av2, av3, av4;
+
+    // 参照值 (同一只股票)；没有参照时填入当前行自身，差值恰好为 +0，与逐行路径的置 0 一致且无分支
+    final double[] pAp0;
+    final float[] pMid, pRatio;
+
+    // 计算结果：out[factor][row]
+    final float[][] out;
+    // 有限值行为 0，含 NaN / Inf 的行为 NaN (见 compute 第 7 步)
+    final float[] check;
+
+    // 中间列 (块内复用)
+    private final double[] sumBid, sumAsk;
+
+    public SnapshotBatch(int capacity) {
+        this.capacity = capacity;
+        keys = new int[capacity];
+        tBidVol = new double[capacity]; tAskVol = new double[capacity];
+        bp0 = new double[capacity]; bp1 = new double[capacity]; bp2 = new double[capacity]; bp3 = new double[capacity]; bp4 = new double[capacity];
+        bv0 = new double[capacity]; bv1 = new double[capacity]; bv2 = new double[capacity]; bv3 = new double[capacity]; bv4 = new double[capacity];
+        ap0 = new double[capacity]; ap1 = new double[capacity]; ap2 = new double[capacity]; ap3 = new double[capacity]; ap4 = new double[capacity];
+        av0 = new double[capacity]; av1 = new double[capacity]; av2 = new double[capacity]; av3 = new double[capacity]; av4 = new double[capacity];
+        pAp0 = new double[capacity]; pMid = new float[capacity]; pRatio = new float[capacity];
+        out = new float[20][capacity];
+        check = new float[capacity];
+        sumBid = new double[capacity];
+        sumAsk = new double[capacity];
+    }
+
+    public int size() { return size; }
+
+    public boolean isFull() { return size == capacity; }
+
+    public void clear() { size = 0; }
+
+    /**
+     * 追加一行；参照值取自 states 的 slot 槽位 (须在当前行写入历史之前调用)
+     */
+    public void add(int key, SnapshotData s, StockStateStore states, int slot) {
+        int r = size++;
+        keys[r] = key;
+        tBidVol[r] = s.tBidVol; tAskVol[r] = s.tAskVol;
+        bp0[r] = s.bp0; bp1[r] = s.bp1; bp2[r] = s.bp2; bp3[r] = s.bp3; bp4[r] = s.bp4;
+        bv0[r] = s.bv0; bv1[r] = s.bv1; bv2[r] = s.bv2; bv3[r] = s.bv3; bv4[r] = s.bv4;
+        ap0[r] = s.ap0; ap1[r] = s.ap1; ap2[r] = s.ap2; ap3[r] = s.ap3; ap4[r] = s.ap4;
+        av0[r] = s.av0; av1[r] = s.av1; av2[r] = s.av2; av3[r] = s.av3; av4[r] = s.av4;
+
+        if (states.hasLag(slot)) {
+            pAp0[r] = states.lagAp0(slot);
+            pMid[r] = states.lagMid(slot);
+        } else {
+            pAp0[r] = s.ap0;
+            pMid[r] = (float) ((s.ap0 + s.bp0) * 0.5);
+        }
+        pRatio[r] = states.hasRatioRef(slot) ? states.refRatio(slot)
+                : StockStateStore.depthRatio(s.bv0 + s.bv1 + s.bv2 + s.bv3 + s.bv4, s.av0 + s.av1 + s.av2 + s.av3 + s.av4);
+    }
+
+    /** 第 r 行是否含 NaN / Inf (compute 之后有效) */
+    public boolean isInvalid(int r) {
+        return check[r] != 0;
+    }
+
+    /**
+     * 计算整块的因子到 out，并标记含 NaN / Inf 的行
+     * 按 TILE 行分段，每段内各循环读写的列都留在 L1；循环体无分支
+     * 注：long -> float 的转换在这里写成 (float) (double 表达式)，整数值的 double 是精确的，
+     *    只舍入一次，结果与 Factor.calculateFrom 逐位相同
+     */
+    public void compute() {
+        for (int from = 0; from < size; from += TILE) {
+            computeTile(from, Math.min(size, from + TILE));
+        }
+    }
+
+    private void computeTile(final int from, final int to) {
+        final double[] sb = sumBid, sa = sumAsk;
+        final float[] f0 = out[0], f1 = out[1], f2 = out[2], f3 = out[3], f4 = out[4];
+        final float[] f5 = out[5], f6 = out[6], f7 = out[7], f8 = out[8], f9 = out[9];
+        final float[] f10 = out[10], f11 = out[11], f12 = out[12], f13 = out[13], f14 = out[14];
+        final float[] f15 = out[15], f16 = out[16], f17 = out[17], f18 = out[18], f19 = out[19];
+
+        // --- 1. 前 5 档量的和 ---
+        for (int i = from; i < to; i++) {
+            sb[i] = bv0[i] + bv1[i] + bv2[i] + bv3[i] + bv4[i];
+            sa[i] = av0[i] + av1[i] + av2[i] + av3[i] + av4[i];
+        }
+
+        // --- 2. 第 1 档价差类因子 ---
+        for (int i = from; i < to; i++) {
+            float spread = (float) (ap0[i] - bp0[i]);
+            float mid = (float) ((ap0[i] + bp0[i]) * 0.5);
+            f0[i] = spread;
+            f1[i] = spread / (mid + EPSILON);
+            f2[i] = mid;
+            f3[i] = (float) (bv0[i] - av0[i]) * 1.0f / ((float) (bv0[i] + av0[i]) + EPSILON);
+        }
+
+        // --- 3. 深度类因子 ---
+        for (int i = from; i < to; i++) {
+            double bid = sb[i], ask = sa[i];
+            float invSumAsk = 1.0f / ((float) ask + EPSILON);
+            float invTotalVol = 1.0f / ((float) (bid + ask) + EPSILON);
+            float diff = (float) (bid - ask);
+            f4[i] = diff * invTotalVol;
+            f5[i] = (float) bid;
+            f6[i] = (float) ask;
+            f7[i] = diff;
+            f8[i] = (float) bid * invSumAsk;
+            f14[i] = diff * 0.2f;
+            f19[i] = f0[i] * invTotalVol;
+        }
+        for (int i = from; i < to; i++) {
+            f9[i] = (float) (tBidVol[i] - tAskVol[i]) * (1.0f / ((float) (tBidVol[i] + tAskVol[i]) + EPSILON));
+        }
+
+        // --- 4. 加权价格 ---
+        for (int i = from; i < to; i++) {
+            double bid = sb[i], ask = sa[i];
+            double wBidPrice = bp0[i] * bv0[i] + bp1[i] * bv1[i] + bp2[i] * bv2[i] + bp3[i] * bv3[i] + bp4[i] * bv4[i];
+            double wAskPrice = ap0[i] * av0[i] + ap1[i] * av1[i] + ap2[i] * av2[i] + ap3[i] * av3[i] + ap4[i] * av4[i];
+            float bidPrice = (float) (wBidPrice * (1.0f / ((float) bid + EPSILON)));
+            float askPrice = (float) (wAskPrice * (1.0f / ((float) ask + EPSILON)));
+            f10[i] = bidPrice;
+            f11[i] = askPrice;
+            f12[i] = (float) ((wBidPrice + wAskPrice) * (1.0f / ((float) (bid + ask) + EPSILON)));
+            f13[i] = askPrice - bidPrice;
+        }
+
+        // --- 5. 加权不对称度 ---
+        for (int i = from; i < to; i++) {
+            double wBid = bv0[i] + bv1[i] * 0.5 + bv2[i] * 0.333333 + bv3[i] * 0.25 + bv4[i] * 0.2;
+            double wAsk = av0[i] + av1[i] * 0.5 + av2[i] * 0.333333 + av3[i] * 0.25 + av4[i] * 0.2;
+            f15[i] = (float) ((wBid - wAsk) / (wBid + wAsk + EPSILON));
+        }
+
+        // --- 6. 变动因子 ---
+        for (int i = from; i < to; i++) {
+            float currDepthRatio = (float) (sb[i] / (double) ((float) sa[i] + EPSILON));
+            f16[i] = (float) (ap0[i] - pAp0[i]);
+            f17[i] = f2[i] - pMid[i];
+            f18[i] = currDepthRatio - pRatio[i];
+        }
+
+        // --- 7. NaN / Inf 检测：x - x 对有限值为 0，对 NaN / Inf 为 NaN，逐列累加 (纯浮点加法，可向量化) ---
+        final float[] chk = check;
+        for (int i = from; i < to; i++) chk[i] = 0;
+        for (float[] col : out) {
+            for (int i = from; i < to; i++) chk[i] += col[i] - col[i];
+        }
+    }
+}
@@ -24,6 +24,12 @@ public class SnapshotData {
     // Ask Volumes
     public long av0, av1, av2, av3, av4;
 
+    // --- 第 6-10 档 (仅 factor.depth > 5 时解析，放在后面不影响前5档的缓存行) ---
+    public long bp5, bp6, bp7, bp8, bp9;
+    public long bv5, bv6, bv7, bv8, bv9;
+    public long ap5, ap6, ap7, ap8, ap9;
+    public long av5, av6, av7, av8, av9;
+
     private final int[] cursor = new int[1];
 
     public void reset() {
@@ -48,10 +54,157 @@ public class SnapshotData {
         this.av0 = s.av0; this.av1 = s.av1; this.av2 = s.av2; this.av3 = s.av3; this.av4 = s.av4;
     }
 
+    /**
+     * copyFrom + 第 6-10 档 (factor.depth > 5 时使用)
+     */
+    public void copyAllLevelsFrom(SnapshotData s) {
+        copyFrom(s);
+        this.bp5 = s.bp5; this.bp6 = s.bp6; this.bp7 = s.bp7; this.bp8 = s.bp8; this.bp9 = s.bp9;
+        this.bv5 = s.bv5; this.bv6 = s.bv6; this.bv7 = s.bv7; this.bv8 = s.bv8; this.bv9 = s.bv9;
+        this.ap5 = s.ap5; this.ap6 = s.ap6; this.ap7 = s.ap7; this.ap8 = s.ap8; this.ap9 = s.ap9;
+        this.av5 = s.av5; this.av6 = s.av6; this.av7 = s.av7; this.av8 = s.av8; this.av9 = s.av9;
+    }
+
+    /**
+     * 按档位写入 (level 从 0 开始)，每档一次 switch 而不是每个字段一次
+     */
+    public void setLevel(int level, long bp, long bv, long ap, long av) {
+        switch (level) {
+            case 0: bp0 = bp; bv0 = bv; ap0 = ap; av0 = av; break;
+            case 1: bp1 = bp; bv1 = bv; ap1 = ap; av1 = av; break;
+            case 2: bp2 = bp; bv2 = bv; ap2 = ap; av2 = av; break;
+            case 3: bp3 = bp; bv3 = bv; ap3 = ap; av3 = av; break;
+            case 4: bp4 = bp; bv4 = bv; ap4 = ap; av4 = av; break;
+            case 5: bp5 = bp; bv5 = bv; ap5 = ap; av5 = av; break;
+            case 6: bp6 = bp; bv6 = bv; ap6 = ap; av6 = av; break;
+            case 7: bp7 = bp; bv7 = bv; ap7 = ap; av7 = av; break;
+            case 8: bp8 = bp; bv8 = bv; ap8 = ap; av8 = av; break;
+            case 9: bp9 = bp; bv9 = bv; ap9 = ap; av9 = av; break;
+            default: throw new IndexOutOfBoundsException("level " + level);
+        }
+    }
+
+    // --- 前 n 档聚合 (fall-through switch = 按 n 手动展开，无数组、无循环) ---
+
+    public long bidVolSum(int n) {
+        long sum = 0;
+        switch (n) {
+            case 10: sum += bv9;
+            case 9: sum += bv8;
+            case 8: sum += bv7;
+            case 7: sum += bv6;
+            case 6: sum += bv5;
+            case 5: sum += bv4;
+            case 4: sum += bv3;
+            case 3: sum += bv2;
+            case 2: sum += bv1;
+            default: sum += bv0;
+        }
+        return sum;
+    }
+
+    public long askVolSum(int n) {
+        long sum = 0;
+        switch (n) {
+            case 10: sum += av9;
+            case 9: sum += av8;
+            case 8: sum += av7;
+            case 7: sum += av6;
+            case 6: sum += av5;
+            case 5: sum += av4;
+            case 4: sum += av3;
+            case 3: sum += av2;
+            case 2: sum += av1;
+            default: sum += av0;
+        }
+        return sum;
+    }
+
+    /** Σ bp_i * bv_i */
+    public long bidNotional(int n) {
+        long sum = 0;
+        switch (n) {
+            case 10: sum += bp9 * bv9;
+            case 9: sum += bp8 * bv8;
+            case 8: sum += bp7 * bv7;
+            case 7: sum += bp6 * bv6;
+            case 6: sum += bp5 * bv5;
+            case 5: sum += bp4 * bv4;
+            case 4: sum += bp3 * bv3;
+            case 3: sum += bp2 * bv2;
+            case 2: sum += bp1 * bv1;
+            default: sum += bp0 * bv0;
+        }
+        return sum;
+    }
+
+    /** Σ ap_i * av_i */
+    public long askNotional(int n) {
+        long sum = 0;
+        switch (n) {
+            case 10: sum += ap9 * av9;
+            case 9: sum += ap8 * av8;
+            case 8: sum += ap7 * av7;
+            case 7: sum += ap6 * av6;
+            case 6: sum += ap5 * av5;
+            case 5: sum += ap4 * av4;
+            case 4: sum += ap3 * av3;
+            case 3: sum += ap2 * av2;
+            case 2: sum += ap1 * av1;
+            default: sum += ap0 * av0;
+        }
+        return sum;
+    }
+
+    /** Σ bv_i / (i+1)，系数与 Factor.calculateAsymmetry 保持一致 */
+    public double bidVolHarmonic(int n) {
+        double sum = 0;
+        switch (n) {
+            case 10: sum += bv9 * 0.1;
+            case 9: sum += bv8 * 0.111111;
+            case 8: sum += bv7 * 0.125;
+            case 7: sum += bv6 * 0.142857;
+            case 6: sum += bv5 * 0.166667;
+            case 5: sum += bv4 * 0.2;
+            case 4: sum += bv3 * 0.25;
+            case 3: sum += bv2 * 0.333333;
+            case 2: sum += bv1 * 0.5;
+            default: sum += bv0;
+        }
+        return sum;
+    }
+
+    /** Σ av_i / (i+1) */
+    public double askVolHarmonic(int n) {
+        double sum = 0;
+        switch (n) {
+            case 10: sum += av9 * 0.1;
+            case 9: sum += av8 * 0.111111;
+            case 8: sum += av7 * 0.125;
+            case 7: sum += av6 * 0.142857;
+            case 6: sum += av5 * 0.166667;
+            case 5: sum += av4 * 0.2;
+            case 4: sum += av3 * 0.25;
+            case 3: sum += av2 * 0.333333;
+            case 2: sum += av1 * 0.5;
+            default: sum += av0;
+        }
+        return sum;
+    }
+
     public boolean parseFromBytes(byte[] data, int offset, int length) {
+        return parseFromBytes(data, offset, length, (SnapshotFilter) null);
+    }
+
+    /**
+     * @param filter 非 null 时解析完日期、时间、代码即判断，被拒绝的行不再解析后续列
+     */
+    private boolean parseFromBytes(byte[] data, int offset, int length, SnapshotFilter filter) {
         cursor[0] = offset;
         final int maxLen = data.length;
-        if (offset + length > maxLen) return false;
+        // limit 为本行末尾：调用方可能传入一个包含多行的大缓冲区 (SnapshotScanner)
+        final int limit = offset + length;
+        if (limit > maxLen || length < 9) return false;
 
         try {
             // Index 0: TradingDay
@@ -59,58 +212,111 @@ public class SnapshotData {
             cursor[0] += 9;
 
             // Index 1: TradeTime
-            this.tradeTime = FastParser.parseLong(data, cursor);
+            this.tradeTime = FastParser.parseLong(data, cursor, limit);
 
             // Index 2, 3: Skip recvTime, MIC
-            FastParser.skipFields(data, cursor, 2);
+            FastParser.skipFields(data, cursor, 2, limit);
 
             // Index 4: Code
-            this.code = FastParser.parseStockCodeToInt(data, cursor);
+            this.code = FastParser.parseStockCodeToInt(data, cursor, limit);
+            if (filter != null && !filter.accept(tradeTime, code)) return false;
 
             // Index 5-11: Skip
-            FastParser.skipFields(data, cursor, 7);
+            FastParser.skipFields(data, cursor, 7, limit);
 
             // Index 12, 13
-            this.tBidVol = FastParser.parseLong(data, cursor);
-            this.tAskVol = FastParser.parseLong(data, cursor);
+            this.tBidVol = FastParser.parseLong(data, cursor, limit);
+            this.tAskVol = FastParser.parseLong(data, cursor, limit);
 
             // Index 14-16: Skip
-            FastParser.skipFields(data, cursor, 3);
+            FastParser.skipFields(data, cursor, 3, limit);
+
+            // 字段不足的截断行：档位数据已越过行尾
+            if (cursor[0] >= limit) return false;
 
             // --- 5. 解析前5档 (手动展开) ---
             // Level 1 (Index 17-20)
-            bp0 = FastParser.parseLong(data, cursor);
-            bv0 = FastParser.parseLong(data, cursor);
-            ap0 = FastParser.parseLong(data, cursor);
-            av0 = FastParser.parseLong(data, cursor);
+            bp0 = FastParser.parseLong(data, cursor, limit);
+            bv0 = FastParser.parseLong(data, cursor, limit);
+            ap0 = FastParser.parseLong(data, cursor, limit);
+            av0 = FastParser.parseLong(data, cursor, limit);
 
             // Level 2
-            bp1 = FastParser.parseLong(data, cursor);
-            bv1 = FastParser.parseLong(data, cursor);
-            ap1 = FastParser.parseLong(data, cursor);
-            av1 = FastParser.parseLong(data, cursor);
+            bp1 = FastParser.parseLong(data, cursor, limit);
+            bv1 = FastParser.parseLong(data, cursor, limit);
+            ap1 = FastParser.parseLong(data, cursor, limit);
+            av1 = FastParser.parseLong(data, cursor, limit);
 
             // Level 3
-            bp2 = FastParser.parseLong(data, cursor);
-            bv2 = FastParser.parseLong(data, cursor);
-            ap2 = FastParser.parseLong(data, cursor);
-            av2 = FastParser.parseLong(data, cursor);
+            bp2 = FastParser.parseLong(data, cursor, limit);
+            bv2 = FastParser.parseLong(data, cursor, limit);
+            ap2 = FastParser.parseLong(data, cursor, limit);
+            av2 = FastParser.parseLong(data, cursor, limit);
 
             // Level 4
-            bp3 = FastParser.parseLong(data, cursor);
-            bv3 = FastParser.parseLong(data, cursor);
-            ap3 = FastParser.parseLong(data, cursor);
-            av3 = FastParser.parseLong(data, cursor);
+            bp3 = FastParser.parseLong(data, cursor, limit);
+            bv3 = FastParser.parseLong(data, cursor, limit);
+            ap3 = FastParser.parseLong(data, cursor, limit);
+            av3 = FastParser.parseLong(data, cursor, limit);
 
             // Level 5
-            bp4 = FastParser.parseLong(data, cursor);
-            bv4 = FastParser.parseLong(data, cursor);
-            ap4 = FastParser.parseLong(data, cursor);
-            av4 = FastParser.parseLong(data, cursor);
+            bp4 = FastParser.parseLong(data, cursor, limit);
+            bv4 = FastParser.parseLong(data, cursor, limit);
+            ap4 = FastParser.parseLong(data, cursor, limit);
+            av4 = FastParser.parseLong(data, cursor, limit);
+
+            return true;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    /**
+     * 按 FactorSpec 投影解析：只解析被选中因子用到的列，不需要的列只扫描逗号跳过，
+     * 最后一个需要的档位之后的列完全不读
+     */
+    public boolean parseFromBytes(byte[] data, int offset, int length, FactorSpec spec) {
+        if (spec.isDefault()) return parseFromBytes(data, offset, length, spec.filter);
+
+        cursor[0] = offset;
+        final int limit = offset + length;
+        if (limit > data.length || length < 9) return false;
 
+        try {
+            this.tradingDay = FastParser.parseDate8(data, cursor[0]);
+            cursor[0] += 9;
+            this.tradeTime = FastParser.parseLong(data, cursor, limit);
+            FastParser.skipFields(data, cursor, 2, limit);
+            this.code = FastParser.parseStockCodeToInt(data, cursor, limit);
+            if (spec.filter != null && !spec.filter.accept(tradeTime, code)) return false;
+            FastParser.skipFields(data, cursor, 7, limit);
+
+            if (spec.needTotals) {
+                this.tBidVol = FastParser.parseLong(data, cursor, limit);
+                this.tAskVol = FastParser.parseLong(data, cursor, limit);
+                FastParser.skipFields(data, cursor, 3, limit);
+            } else {
+                FastParser.skipFields(data, cursor, 5, limit);
+            }
+            if (cursor[0] >= limit) return false;
+
+            int mask = spec.level1Mask;
+            for (int level = 0; level < spec.parseLevels; level++) {
+                long bp = (mask & FactorSpec.BP) != 0 ? FastParser.parseLong(data, cursor, limit) : skip(data, limit);
+                long bv = (mask & FactorSpec.BV) != 0 ? FastParser.parseLong(data, cursor, limit) : skip(data, limit);
+                long ap = (mask & FactorSpec.AP) != 0 ? FastParser.parseLong(data, cursor, limit) : skip(data, limit);
+                long av = (mask & FactorSpec.AV) != 0 ? FastParser.parseLong(data, cursor, limit) : skip(data, limit);
+                setLevel(level, bp, bv, ap, av);
+                mask = spec.deepMask;
+            }
             return true;
         } catch (Exception e) {
             return false;
         }
     }
-}
\ No newline at end of file
+
+    private long skip(byte[] data, int limit) {
+        FastParser.skipFields(data, cursor, 1, limit);
+        return 0;
+    }
+}
@@ -0,0 +1,170 @@
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.Path;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * 下推到解析器的行过滤：股票池 + 日内时段
+ * 1. 股票池是按股票代码 (去掉 .SH/.SZ 后的整数) 下标的 long[] 位图，判断一次是一次移位和按位与
+ * 2. 时段是若干个 HHMMSS 闭区间，例如连续竞价 "093000-113000,130000-150000"
+ * 3. SnapshotData 只解析日期、时间、代码三列就调用 accept，被拒绝的行不再解析后面的委托总量和各档位列
+ * 4. 解析结果按 Configuration 缓存，FactorSpec.get 多次调用时股票池文件只读一次
+ * 不配置时 FactorSpec.filter 为 null，解析路径与原来完全相同 (集合竞价 / 盘后时间仍由 CompactTimeUtil 折叠到边界)
+ */
+public final class SnapshotFilter {
+
+    // 股票代码列表，逗号或空白分隔 (可带 .SH/.SZ 后缀)，如 "600000,000001.SZ"
+    public static final String UNIVERSE_KEY = "factor.filter.universe";
+    // 股票代码列表文件 (格式同上，可换行分隔)，与 UNIVERSE_KEY 取并集
+    public static final String UNIVERSE_FILE_KEY = "factor.filter.universe.file";
+    // 日内时段，如 "093000-113000,130000-150000"
+    public static final String SESSIONS_KEY = "factor.filter.sessions";
+
+    private static final int MAX_CODE = 999_999;
+
+    // Configuration -> 解析结果 (弱引用键，配置被回收后条目随之清除)
+    private static final Map<Configuration, Cached> CACHE = Collections.synchronizedMap(new WeakHashMap<>());
+
+    /** 一次解析的输入与结果，配置值改变后不再命中 */
+    private static final class Cached {
+        final String codes;
+        final String file;
+        final String sessions;
+        final SnapshotFilter filter;
+
+        Cached(String codes, String file, String sessions, SnapshotFilter filter) {
+            this.codes = codes;
+            this.file = file;
+            this.sessions = sessions;
+            this.filter = filter;
+        }
+
+        boolean matches(String codes, String file, String sessions) {
+            return this.codes.equals(codes) && this.file.equals(file) && this.sessions.equals(sessions);
+        }
+    }
+
+    // null 表示不限股票
+    private final long[] universe;
+    // null 表示不限时段；sessionFrom[i] <= tradeTime <= sessionTo[i]
+    private final int[] sessionFrom;
+    private final int[] sessionTo;
+
+    private SnapshotFilter(long[] universe, int[] sessionFrom, int[] sessionTo) {
+        this.universe = universe;
+        this.sessionFrom = sessionFrom;
+        this.sessionTo = sessionTo;
+    }
+
+    /**
+     * @return 没有配置任何过滤条件时返回 null
+     */
+    public static SnapshotFilter get(Configuration conf) {
+        String codes = conf.get(UNIVERSE_KEY, "").trim();
+        String file = conf.get(UNIVERSE_FILE_KEY, "").trim();
+        String sessions = conf.get(SESSIONS_KEY, "").trim();
+        if (codes.isEmpty() && file.isEmpty() && sessions.isEmpty()) return null;
+
+        Cached cached = CACHE.get(conf);
+        if (cached != null && cached.matches(codes, file, sessions)) return cached.filter;
+        SnapshotFilter filter = parse(conf, codes, file, sessions);
+        CACHE.put(conf, new Cached(codes, file, sessions, filter));
+        return filter;
+    }
+
+    private static SnapshotFilter parse(Configuration conf, String codes, String file, String sessions) {
+        long[] universe = null;
+        if (!codes.isEmpty() || !file.isEmpty()) {
+            universe = new long[(MAX_CODE >>> 6) + 1];
+            addCodes(universe, codes);
+            if (!file.isEmpty()) addCodes(universe, readFile(conf, new Path(file)));
+        }
+
+        int[] from = null, to = null;
+        if (!sessions.isEmpty()) {
+            String[] parts = sessions.split(",");
+            from = new int[parts.length];
+            to = new int[parts.length];
+            for (int i = 0; i < parts.length; i++) {
+                String[] range = parts[i].trim().split("-");
+                if (range.length != 2) {
+                    throw new IllegalArgumentException(SESSIONS_KEY + " expects HHMMSS-HHMMSS ranges: " + parts[i]);
+                }
+                from[i] = Integer.parseInt(range[0].trim());
+                to[i] = Integer.parseInt(range[1].trim());
+                if (from[i] > to[i]) throw new IllegalArgumentException(SESSIONS_KEY + " empty range: " + parts[i]);
+            }
+        }
+        return new SnapshotFilter(universe, from, to);
+    }
+
+    private static void addCodes(long[] universe, String list) {
+        for (String token : list.split("[,\\s]+")) {
+            if (token.isEmpty()) continue;
+            int dot = token.indexOf('.');
+            int code = Integer.parseInt(dot < 0 ? token : token.substring(0, dot));
+            if (code < 0 || code > MAX_CODE) throw new IllegalArgumentException("Stock code out of range: " + token);
+            universe[code >>> 6] |= 1L << code;
+        }
+    }
+
+    private static String readFile(Configuration conf, Path path) {
+        try (FSDataInputStream in = path.getFileSystem(conf).open(path)) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buf = new byte[8192];
+            int n;
+            while ((n = in.read(buf)) > 0) out.write(buf, 0, n);
+            return out.toString("US-ASCII");
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot read " + UNIVERSE_FILE_KEY + ": " + path, e);
+        }
+    }
+
+    /**
+     * @param tradeTime HHMMSS
+     */
+    public boolean accept(long tradeTime, int code) {
+        if (universe != null) {
+            if (code < 0 || code > MAX_CODE || (universe[code >>> 6] & (1L << code)) == 0) return false;
+        }
+        if (sessionFrom != null) {
+            for (int i = 0; i < sessionFrom.length; i++) {
+                if (tradeTime >= sessionFrom[i] && tradeTime <= sessionTo[i]) return true;
+            }
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * PartialAggregateCache 的签名 (过滤条件不同的缓存不能复用)
+     * 股票池取整个位图的 SHA-256，不同股票池不会因哈希碰撞误用缓存
+     */
+    String signature() {
+        return "universe=" + (universe == null ? "all" : sha256(universe))
+                + ";sessions=" + Arrays.toString(sessionFrom) + "~" + Arrays.toString(sessionTo);
+    }
+
+    private static String sha256(long[] bits) {
+        ByteBuffer bytes = ByteBuffer.allocate(bits.length * 8);
+        bytes.asLongBuffer().put(bits);
+        byte[] digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256").digest(bytes.array());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        StringBuilder sb = new StringBuilder(digest.length * 2);
+        for (byte b : digest) sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        return sb.toString();
+    }
+}
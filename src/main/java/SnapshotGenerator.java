@@ -0,0 +1,338 @@
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.SplittableRandom;
+import java.util.stream.IntStream;
+
+/**
+ * 合成深交所风格 Level-10 快照 CSV (列布局与 SnapshotData.parseFromBytes 一致)，用于复现 Optim_track.md 中的计时
+ * 1. 每只股票每天一个独立的随机数种子 (seed, 日期, 代码)，同一参数下输出与线程数、文件布局无关
+ * 2. 价格是以 0.01 元为最小变动单位的随机游走 (元 * 10000)，买卖价差多为 1 个价位，10 档逐档偏离并偶有空档；
+ *    委托量为 100 股整数倍，成交笔数 / 成交量 / 成交额在连续竞价时段内单调累加
+ * 3. 时段：091500-113000、130000-150000；3s 频率为固定 3 秒网格，tick 频率为每秒以 factor.gen.tick.prob 的概率更新
+ * 用法：SnapshotGenerator <output_path>，参数见下方配置项
+ */
+public class SnapshotGenerator extends Configured implements Tool {
+
+    public static final String STOCKS_KEY = "factor.gen.stocks";
+    public static final String DAYS_KEY = "factor.gen.days";
+    // 第一个交易日 YYYYMMDD，之后跳过周末
+    public static final String START_KEY = "factor.gen.start";
+    // 3s | tick
+    public static final String FREQ_KEY = "factor.gen.freq";
+    public static final String TICK_PROB_KEY = "factor.gen.tick.prob";
+    // flat: <YYYYMMDD>_<code>.csv | daydir: <YYYYMMDD>/<code>.csv | day: <YYYYMMDD>.csv (当天全部股票按时间交错)
+    public static final String LAYOUT_KEY = "factor.gen.layout";
+    public static final String SEED_KEY = "factor.gen.seed";
+
+    private static final String HEADER = "TradingDay,TradeTime,RecvTime,MIC,Code,PreClosePrice,OpenPrice,HighPrice,"
+            + "LowPrice,LastPrice,NumTrades,Volume,TotalBidVolume,TotalAskVolume,WeightedAvgBidPrice,"
+            + "WeightedAvgAskPrice,Amount"
+            + ",BidPrice1,BidVolume1,AskPrice1,AskVolume1,BidPrice2,BidVolume2,AskPrice2,AskVolume2"
+            + ",BidPrice3,BidVolume3,AskPrice3,AskVolume3,BidPrice4,BidVolume4,AskPrice4,AskVolume4"
+            + ",BidPrice5,BidVolume5,AskPrice5,AskVolume5,BidPrice6,BidVolume6,AskPrice6,AskVolume6"
+            + ",BidPrice7,BidVolume7,AskPrice7,AskVolume7,BidPrice8,BidVolume8,AskPrice8,AskVolume8"
+            + ",BidPrice9,BidVolume9,AskPrice9,AskVolume9,BidPrice10,BidVolume10,AskPrice10,AskVolume10\n";
+
+    private static final int TICK = 100;        // 0.01 元
+    private static final int LEVELS = 10;
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    // 秒级时刻：集合竞价开始、连续竞价开始、午休、收盘
+    private static final int AUCTION_START = 9 * 3600 + 15 * 60;
+    private static final int CONTINUOUS_START = 9 * 3600 + 30 * 60;
+    private static final int MORNING_END = 11 * 3600 + 30 * 60;
+    private static final int AFTERNOON_START = 13 * 3600;
+    private static final int CLOSE_AUCTION = 14 * 3600 + 57 * 60;
+    private static final int CLOSE = 15 * 3600;
+
+    @Override
+    public int run(String[] args) throws Exception {
+        if (args.length != 1) {
+            System.err.println("Usage: SnapshotGenerator <output_path>");
+            return -1;
+        }
+        Configuration conf = getConf();
+        Path output = new Path(args[0]);
+        int stocks = conf.getInt(STOCKS_KEY, 300);
+        int days = conf.getInt(DAYS_KEY, 5);
+        boolean tick = conf.get(FREQ_KEY, "3s").equals("tick");
+        double tickProb = conf.getDouble(TICK_PROB_KEY, 0.6);
+        String layout = conf.get(LAYOUT_KEY, "flat");
+        long seed = conf.getLong(SEED_KEY, 42L);
+        if (!layout.equals("flat") && !layout.equals("daydir") && !layout.equals("day")) {
+            throw new IllegalArgumentException(LAYOUT_KEY + " must be flat, daydir or day: " + layout);
+        }
+        int[] tradingDays = tradingDays(conf.get(START_KEY, "20240102"), days);
+        FileSystem fs = output.getFileSystem(conf);
+
+        long startTime = System.currentTimeMillis();
+        long[] totals = new long[2]; // 行数 / 字节数
+        int tasks = layout.equals("day") ? days : days * stocks;
+        try {
+            IntStream.range(0, tasks).parallel().forEach(t -> {
+                try {
+                    long[] r;
+                    if (layout.equals("day")) {
+                        int day = tradingDays[t];
+                        r = writeDay(fs, new Path(output, day + ".csv"), day, stocks, tick, tickProb, seed);
+                    } else {
+                        int day = tradingDays[t / stocks];
+                        int code = 1 + t % stocks;
+                        Path file = layout.equals("flat")
+                                ? new Path(output, String.format("%d_%06d.csv", day, code))
+                                : new Path(new Path(output, Integer.toString(day)), String.format("%06d.csv", code));
+                        r = writeStock(fs, file, day, code, tick, tickProb, seed);
+                    }
+                    synchronized (totals) {
+                        totals[0] += r[0];
+                        totals[1] += r[1];
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        long endTime = System.currentTimeMillis();
+
+        System.out.println("Generated " + totals[0] + " rows (" + stocks + " stocks x " + days + " days, "
+                + (tick ? "tick" : "3s") + ", " + layout + "), " + totals[1] + " bytes in "
+                + (endTime - startTime) / 1000.0 + "s");
+        return 0;
+    }
+
+    static int[] tradingDays(String start, int days) {
+        LocalDate d = LocalDate.parse(start, DateTimeFormatter.BASIC_ISO_DATE);
+        int[] out = new int[days];
+        for (int i = 0; i < days; d = d.plusDays(1)) {
+            if (d.getDayOfWeek() == DayOfWeek.SATURDAY || d.getDayOfWeek() == DayOfWeek.SUNDAY) continue;
+            out[i++] = Integer.parseInt(d.format(DateTimeFormatter.BASIC_ISO_DATE));
+        }
+        return out;
+    }
+
+    /**
+     * 单只股票一天的文件
+     * @return {行数, 字节数}
+     */
+    private static long[] writeStock(FileSystem fs, Path file, int day, int code, boolean tick, double tickProb,
+                                     long seed) throws IOException {
+        Stock s = new Stock(day, code, seed);
+        RowWriter w = new RowWriter();
+        try (OutputStream out = new BufferedOutputStream(fs.create(file, true), BUFFER_SIZE)) {
+            out.write(HEADER.getBytes(StandardCharsets.US_ASCII));
+            long bytes = HEADER.length();
+            long rows = 0;
+            for (int sec = AUCTION_START; sec <= CLOSE; sec = nextSecond(sec, tick)) {
+                if (!s.update(sec, tick, tickProb)) continue;
+                int n = w.format(s, day, sec);
+                out.write(w.buf, 0, n);
+                bytes += n;
+                rows++;
+            }
+            return new long[]{rows, bytes};
+        }
+    }
+
+    /**
+     * 一天全部股票写入同一文件，按时间逐秒交错
+     */
+    private static long[] writeDay(FileSystem fs, Path file, int day, int stocks, boolean tick, double tickProb,
+                                   long seed) throws IOException {
+        Stock[] all = new Stock[stocks];
+        for (int i = 0; i < stocks; i++) all[i] = new Stock(day, 1 + i, seed);
+        RowWriter w = new RowWriter();
+        try (OutputStream out = new BufferedOutputStream(fs.create(file, true), BUFFER_SIZE)) {
+            out.write(HEADER.getBytes(StandardCharsets.US_ASCII));
+            long bytes = HEADER.length();
+            long rows = 0;
+            for (int sec = AUCTION_START; sec <= CLOSE; sec = nextSecond(sec, tick)) {
+                for (Stock s : all) {
+                    if (!s.update(sec, tick, tickProb)) continue;
+                    int n = w.format(s, day, sec);
+                    out.write(w.buf, 0, n);
+                    bytes += n;
+                    rows++;
+                }
+            }
+            return new long[]{rows, bytes};
+        }
+    }
+
+    private static int nextSecond(int sec, boolean tick) {
+        int next = sec + (tick ? 1 : 3);
+        return next > MORNING_END && next < AFTERNOON_START ? AFTERNOON_START : next;
+    }
+
+    /**
+     * 单只股票的盘口状态
+     */
+    static final class Stock {
+        final int code;
+        final SplittableRandom rnd;
+        final long preClose;
+        long open, high, low, last;
+        long numTrades, volume, amount;
+        long tBidVol, tAskVol, wBidPrc, wAskPrc;
+        long bid;        // 买一价
+        int spread;      // 买卖价差 (价位数)
+        final long[] bp = new long[LEVELS], bv = new long[LEVELS], ap = new long[LEVELS], av = new long[LEVELS];
+
+        Stock(int day, int code, long seed) {
+            this.code = code;
+            // 昨收只取决于 (seed, 代码)，日间再加一段与日期相关的漂移
+            SplittableRandom base = new SplittableRandom(seed * 1_000_003L + code);
+            long price = (3 + base.nextInt(97)) * 10000L + base.nextInt(100) * TICK;
+            this.rnd = new SplittableRandom((seed * 1_000_003L + code) ^ (long) day * 0x9E3779B97F4A7C15L);
+            price += (rnd.nextInt(11) - 5) * (price / 100 / TICK) * TICK; // ±5%
+            this.preClose = Math.max(TICK * 10L, price);
+            this.bid = preClose - TICK;
+            this.spread = 1;
+        }
+
+        /**
+         * 推进到 sec 时刻
+         * @return 该时刻是否产生一条快照
+         */
+        boolean update(int sec, boolean tick, double tickProb) {
+            if (tick && rnd.nextDouble() >= tickProb) return false;
+
+            // 价格：多数时刻不动，偶尔 ±1-3 个价位
+            int r = rnd.nextInt(100);
+            if (r < 15) bid -= TICK * (1 + (r < 2 ? rnd.nextInt(3) : 0));
+            else if (r < 30) bid += TICK * (1 + (r < 17 ? rnd.nextInt(3) : 0));
+            bid = Math.max(TICK, bid);
+            spread = rnd.nextInt(10) < 8 ? 1 : 2 + rnd.nextInt(2);
+            long ask = bid + (long) spread * TICK;
+
+            // 10 档：逐档偏离 1 个价位，约 1/10 的概率空一档；量为 100 股整数倍，深处略厚
+            long p = bid, q = ask;
+            long sumBid = 0, sumAsk = 0, wb = 0, wa = 0;
+            for (int i = 0; i < LEVELS; i++) {
+                bp[i] = p;
+                ap[i] = q;
+                bv[i] = 100L * lots(i);
+                av[i] = 100L * lots(i);
+                sumBid += bv[i];
+                sumAsk += av[i];
+                wb += bp[i] * bv[i];
+                wa += ap[i] * av[i];
+                p = Math.max(TICK, p - TICK * (rnd.nextInt(10) == 0 ? 2 : 1));
+                q += TICK * (rnd.nextInt(10) == 0 ? 2 : 1);
+            }
+            // 全部委托量包含 10 档之外的挂单
+            tBidVol = sumBid + 100L * rnd.nextInt(20000);
+            tAskVol = sumAsk + 100L * rnd.nextInt(20000);
+            wBidPrc = Math.max(TICK, wb / sumBid - TICK * rnd.nextInt(20));
+            wAskPrc = wa / sumAsk + TICK * rnd.nextInt(20);
+
+            // 成交只发生在开盘集合竞价结束之后、收盘集合竞价之前 (收盘时刻一次撮合)
+            boolean continuous = sec >= CONTINUOUS_START && sec < CLOSE_AUCTION;
+            if (open == 0 && sec >= CONTINUOUS_START - 5 * 60) {
+                open = last = high = low = rnd.nextBoolean() ? bid : ask;
+                trade(1 + rnd.nextInt(200));
+            } else if (open != 0 && (continuous || sec == CLOSE) && rnd.nextInt(10) < 7) {
+                last = rnd.nextBoolean() ? bid : ask;
+                high = Math.max(high, last);
+                low = Math.min(low, last);
+                trade(1 + rnd.nextInt(30));
+            }
+            return true;
+        }
+
+        private void trade(int trades) {
+            long lots = 0;
+            for (int i = 0; i < trades; i++) lots += 1 + rnd.nextInt(50);
+            numTrades += trades;
+            volume += lots * 100;
+            amount += lots * 100 * last / 10000;
+        }
+
+        /** 每档手数：对数均匀分布在 1 到约 100 * (1 + 档位 / 3) 手之间 */
+        private int lots(int level) {
+            double max = Math.log(100 * (1 + level / 3.0));
+            return 1 + (int) Math.exp(rnd.nextDouble() * max);
+        }
+    }
+
+    /**
+     * 逐字节格式化一行，不经过 String
+     */
+    static final class RowWriter {
+        final byte[] buf = new byte[1024];
+        private int pos;
+
+        int format(Stock s, int day, int sec) {
+            pos = 0;
+            int hhmmss = sec / 3600 * 10000 + sec % 3600 / 60 * 100 + sec % 60;
+            num(day); comma();
+            num(hhmmss); comma();
+            num(hhmmss * 1000L + 120 + s.code % 500); comma();
+            ascii("XSHE,");
+            pad6(s.code); ascii(".SZ,");
+            num(s.preClose); comma();
+            num(s.open); comma();
+            num(s.high); comma();
+            num(s.low); comma();
+            num(s.last); comma();
+            num(s.numTrades); comma();
+            num(s.volume); comma();
+            num(s.tBidVol); comma();
+            num(s.tAskVol); comma();
+            num(s.wBidPrc); comma();
+            num(s.wAskPrc); comma();
+            num(s.amount);
+            for (int i = 0; i < LEVELS; i++) {
+                comma(); num(s.bp[i]);
+                comma(); num(s.bv[i]);
+                comma(); num(s.ap[i]);
+                comma(); num(s.av[i]);
+            }
+            buf[pos++] = '\n';
+            return pos;
+        }
+
+        private void comma() { buf[pos++] = ','; }
+
+        private void ascii(String s) {
+            for (int i = 0; i < s.length(); i++) buf[pos++] = (byte) s.charAt(i);
+        }
+
+        private void pad6(int code) {
+            for (int div = 100000; div > 0; div /= 10) buf[pos++] = (byte) ('0' + code / div % 10);
+        }
+
+        private void num(long v) {
+            if (v == 0) {
+                buf[pos++] = '0';
+                return;
+            }
+            int start = pos;
+            while (v > 0) {
+                buf[pos++] = (byte) ('0' + v % 10);
+                v /= 10;
+            }
+            for (int i = start, j = pos - 1; i < j; i++, j--) {
+                byte t = buf[i]; buf[i] = buf[j]; buf[j] = t;
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int exitCode = ToolRunner.run(new SnapshotGenerator(), args);
+        System.exit(exitCode);
+    }
+}
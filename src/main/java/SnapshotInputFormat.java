@@ -0,0 +1,33 @@
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.compress.CompressionCodecFactory;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.JobContext;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.lib.input.CombineFileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.CombineFileRecordReader;
+import org.apache.hadoop.mapreduce.lib.input.CombineFileSplit;
+import java.io.IOException;
+
+/**
+ * 与 CombineTextInputFormat 相同的小文件合并策略，但直接产出解析好的 SnapshotData
+ * (每个文件块由 SnapshotRecordReader 通过 SnapshotScanner 大块读取并就地解析)
+ */
+public class SnapshotInputFormat extends CombineFileInputFormat<LongWritable, SnapshotData> {
+
+    /**
+     * SnapshotScanner 对压缩文件总是从头读到尾，不认分片边界：
+     * 即使是可切分的编解码器 (bzip2) 也只能整文件一个分片，否则每个分片都会重复读取全部行
+     */
+    @Override
+    protected boolean isSplitable(JobContext context, Path file) {
+        return new CompressionCodecFactory(context.getConfiguration()).getCodec(file) == null;
+    }
+
+    @Override
+    public RecordReader<LongWritable, SnapshotData> createRecordReader(InputSplit split, TaskAttemptContext context)
+            throws IOException {
+        return new CombineFileRecordReader<>((CombineFileSplit) split, context, SnapshotRecordReader.class);
+    }
+}
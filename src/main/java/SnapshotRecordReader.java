@@ -0,0 +1,59 @@
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.lib.input.CombineFileSplit;
+import java.io.IOException;
+
+/**
+ * CombineFileSplit 中单个文件块的 RecordReader
+ * Value 是复用的 SnapshotData (每次 nextKeyValue 覆盖写入)，Mapper 不得跨行持有引用
+ */
+public class SnapshotRecordReader extends RecordReader<LongWritable, SnapshotData> {
+
+    private final CombineFileSplit split;
+    private final int index;
+    private SnapshotScanner scanner;
+    private TaskAttemptContext context;
+    private final LongWritable key = new LongWritable();
+    private final SnapshotData value = new SnapshotData();
+
+    // CombineFileRecordReader 通过反射调用该构造器
+    public SnapshotRecordReader(CombineFileSplit split, TaskAttemptContext context, Integer index) {
+        this.split = split;
+        this.index = index;
+    }
+
+    @Override
+    public void initialize(InputSplit genericSplit, TaskAttemptContext context) throws IOException {
+        this.context = context;
+        scanner = new SnapshotScanner(context.getConfiguration(),
+                split.getPath(index), split.getOffset(index), split.getLength(index));
+    }
+
+    @Override
+    public boolean nextKeyValue() throws IOException {
+        key.set(scanner.position());
+        return scanner.next(value);
+    }
+
+    @Override
+    public LongWritable getCurrentKey() { return key; }
+
+    @Override
+    public SnapshotData getCurrentValue() { return value; }
+
+    @Override
+    public float getProgress() { return scanner == null ? 0.0f : scanner.progress(); }
+
+    @Override
+    public void close() throws IOException {
+        if (scanner == null) return;
+        scanner.close();
+        // 解析在 RecordReader 中完成，拒绝行只有这里知道
+        if (scanner.rejected() > 0 && FactorMetrics.isEnabled(context.getConfiguration())) {
+            context.getCounter(FactorMetrics.Counter.PARSE_REJECTED).increment(scanner.rejected());
+        }
+        scanner = null;
+    }
+}
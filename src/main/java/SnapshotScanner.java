@@ -0,0 +1,198 @@
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.LocalFileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.RawLocalFileSystem;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.CompressionCodecFactory;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * 大块缓冲区的快照扫描器 (替代 LineRecordReader + Text)
+ * 1. 本地文件走内存映射，按 256MB 窗口 map，HDFS 等远端文件按 4MB 整块读取
+ * 2. 在缓冲区内批量定位换行符，直接调用 parseFromBytes(buf, lineStart, lineLen) 就地解析，
+ *    行数据不再复制进 Text，也没有逐行的 nextKeyValue 虚调用
+ * 3. 分片边界语义与 LineRecordReader 一致：start != 0 时丢弃第一行 (属于上一分片)，
+ *    起始位置 <= end 的行都归本分片
+ * 注：FastParser 基于 byte[] 工作，映射区与流都按块批量拷入同一个堆数组 (每 4MB 一次，而不是每行一次)
+ */
+public class SnapshotScanner implements SnapshotSource {
+
+    private static final int BUFFER_SIZE = 4 << 20;
+    private static final long MAP_WINDOW = 256L << 20;
+
+    private byte[] buf = new byte[BUFFER_SIZE];
+    private int pos;          // 下一行在 buf 中的起点
+    private int limit;        // buf 中有效数据的末尾
+    private long bufStart;    // buf[0] 对应的文件偏移
+    private boolean eof;
+    private long rejected;    // parseFromBytes 拒绝的行数 (含表头)
+
+    // 解析投影 (factor.depth / factor.alphas)
+    private final FactorSpec spec;
+
+    private final long start;
+    private final long end;   // 起始位置 <= end 的行属于本分片
+
+    // 数据源二选一
+    private FileChannel channel;
+    private MappedByteBuffer window;
+    private long windowEnd;
+    private InputStream stream;
+
+    public SnapshotScanner(Configuration conf, Path path, long start, long length) throws IOException {
+        FileSystem fs = path.getFileSystem(conf);
+        this.spec = FactorSpec.get(conf);
+        CompressionCodec codec = new CompressionCodecFactory(conf).getCodec(path);
+        File localFile = codec == null ? localFile(fs, path) : null;
+
+        if (codec != null) {
+            // 压缩文件不可切分，整文件由一个 reader 处理
+            stream = codec.createInputStream(fs.open(path, BUFFER_SIZE));
+            this.start = 0;
+            this.end = Long.MAX_VALUE;
+        } else if (localFile != null) {
+            channel = FileChannel.open(localFile.toPath(), StandardOpenOption.READ);
+            this.start = start;
+            this.end = start + length;
+            windowEnd = start;
+        } else {
+            FSDataInputStream in = fs.open(path, BUFFER_SIZE);
+            in.seek(start);
+            stream = in;
+            this.start = start;
+            this.end = start + length;
+        }
+        bufStart = this.start;
+
+        if (this.start != 0) {
+            skipFirstLine();
+        }
+    }
+
+    private static File localFile(FileSystem fs, Path path) {
+        if (fs instanceof LocalFileSystem) return ((LocalFileSystem) fs).pathToFile(path);
+        if (fs instanceof RawLocalFileSystem) return ((RawLocalFileSystem) fs).pathToFile(path);
+        return null;
+    }
+
+    /**
+     * 读取下一条可解析的快照到 s，无法解析的行 (表头、截断行) 直接跳过
+     * @return false 表示本分片已读完
+     */
+    @Override
+    public boolean next(SnapshotData s) throws IOException {
+        while (true) {
+            if (bufStart + pos > end) return false;
+
+            int nl = indexOfNewline(buf, pos, limit);
+            if (nl < 0) {
+                if (!eof) {
+                    refill();
+                    continue;
+                }
+                if (pos >= limit) return false;
+                nl = limit; // 文件末尾没有换行符的最后一行
+            }
+
+            int lineStart = pos;
+            int lineEnd = nl;
+            if (lineEnd > lineStart && buf[lineEnd - 1] == '\r') lineEnd--;
+            pos = Math.min(nl + 1, limit);
+
+            s.reset();
+            if (s.parseFromBytes(buf, lineStart, lineEnd - lineStart, spec)) return true;
+            rejected++;
+        }
+    }
+
+    @Override
+    public long rejected() {
+        return rejected;
+    }
+
+    /** 当前行之后的文件偏移，用作 RecordReader 的 key */
+    public long position() {
+        return bufStart + pos;
+    }
+
+    public float progress() {
+        if (end == Long.MAX_VALUE) return eof ? 1.0f : 0.0f;
+        if (end == start) return 1.0f;
+        return Math.min(1.0f, (position() - start) / (float) (end - start));
+    }
+
+    private static int indexOfNewline(byte[] b, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (b[i] == '\n') return i;
+        }
+        return -1;
+    }
+
+    private void skipFirstLine() throws IOException {
+        while (true) {
+            int nl = indexOfNewline(buf, pos, limit);
+            if (nl >= 0) { pos = nl + 1; return; }
+            pos = limit;
+            if (eof) return;
+            refill();
+        }
+    }
+
+    /**
+     * 把未消费的残行移到缓冲区头部，再批量读入后续数据；单行超过缓冲区时扩容
+     */
+    private void refill() throws IOException {
+        int remaining = limit - pos;
+        if (pos > 0) {
+            System.arraycopy(buf, pos, buf, 0, remaining);
+            bufStart += pos;
+            pos = 0;
+            limit = remaining;
+        } else if (limit == buf.length) {
+            byte[] bigger = new byte[buf.length << 1];
+            System.arraycopy(buf, 0, bigger, 0, limit);
+            buf = bigger;
+        }
+
+        int n = read(buf, limit, buf.length - limit);
+        if (n < 0) eof = true;
+        else limit += n;
+    }
+
+    private int read(byte[] dst, int off, int len) throws IOException {
+        if (stream != null) {
+            int total = 0;
+            while (total < len) {
+                int n = stream.read(dst, off + total, len - total);
+                if (n < 0) break;
+                total += n;
+            }
+            return total == 0 ? -1 : total;
+        }
+
+        if (window == null || !window.hasRemaining()) {
+            long size = channel.size();
+            if (windowEnd >= size) return -1;
+            long mapLen = Math.min(MAP_WINDOW, size - windowEnd);
+            window = channel.map(FileChannel.MapMode.READ_ONLY, windowEnd, mapLen);
+            windowEnd += mapLen;
+        }
+        int n = Math.min(len, window.remaining());
+        window.get(dst, off, n);
+        return n;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (stream != null) stream.close();
+        if (channel != null) channel.close();
+        window = null;
+    }
+}
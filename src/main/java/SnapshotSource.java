@@ -0,0 +1,17 @@
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * 逐条产出已解析快照的数据源 (SnapshotScanner：明文 / 流式压缩文件，BlockCompressedFile.Scanner：分块压缩文件)
+ */
+public interface SnapshotSource extends Closeable {
+
+    /**
+     * 读取下一条可解析的快照到 s，无法解析的行直接跳过
+     * @return false 表示已读完
+     */
+    boolean next(SnapshotData s) throws IOException;
+
+    /** 已跳过的无法解析的行数 */
+    long rejected();
+}
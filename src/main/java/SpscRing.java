@@ -0,0 +1,66 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 单生产者单消费者的有界环形队列 (ShardedFactorPipeline 的线程间交接)
+ * 1. 容量为 2 的幂，下标 = 序号 & mask；head 只由消费者写，tail 只由生产者写，无锁无 CAS
+ * 2. 发布用 lazySet (store-store 屏障即可)，另一端的序号在本地缓存，只在看似空 / 满时才重新读取
+ * 3. 交接粒度是整块 (几百行)，队列操作的开销摊到每行可以忽略
+ */
+final class SpscRing<T> {
+
+    private final Object[] items;
+    private final int mask;
+    private final AtomicLong head = new AtomicLong();  // 下一个出队序号 (消费者)
+    private final AtomicLong tail = new AtomicLong();  // 下一个入队序号 (生产者)
+    private long headCache;  // 生产者看到的 head
+    private long tailCache;  // 消费者看到的 tail
+
+    SpscRing(int capacity) {
+        int cap = Integer.highestOneBit(Math.max(2, capacity));
+        if (cap < capacity) cap <<= 1;
+        this.items = new Object[cap];
+        this.mask = cap - 1;
+    }
+
+    /**
+     * 仅由生产者线程调用
+     * @return false 表示队列已满
+     */
+    boolean offer(T item) {
+        long t = tail.get();
+        if (t - headCache > mask) {
+            headCache = head.get();
+            if (t - headCache > mask) return false;
+        }
+        items[(int) t & mask] = item;
+        tail.lazySet(t + 1);
+        return true;
+    }
+
+    /**
+     * 仅由消费者线程调用
+     * @return null 表示队列为空
+     */
+    @SuppressWarnings("unchecked")
+    T poll() {
+        long h = head.get();
+        if (h >= tailCache) {
+            tailCache = tail.get();
+            if (h >= tailCache) return null;
+        }
+        int i = (int) h & mask;
+        T item = (T) items[i];
+        items[i] = null;
+        head.lazySet(h + 1);
+        return item;
+    }
+
+    /**
+     * 等待策略：先让出 CPU，多次落空后短暂 park (避免空转占满核心)
+     */
+    static void idle(int misses) {
+        if (misses < 64) Thread.yield();
+        else LockSupport.parkNanos(20_000L);
+    }
+}
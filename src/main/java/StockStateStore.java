@@ -0,0 +1,189 @@
+import java.util.Arrays;
+
+/**
+ * 按股票保存变动因子所需历史的状态存储 (替代每行 copyFrom 整个 SnapshotData 的 IntSnapshotMap)
+ * 1. 股票代码 -> 稠密槽位 (原始类型开放寻址表)，每个槽位在扁平数组中占 cap 个连续位置 (cap = 2 的幂)
+ * 2. 每行只写入 3 个值：ap0、中间价、深度比 (环形缓冲，下标 count & mask)，更新 O(1)
+ * 3. 间隔 Δt (factor.lag)：变动因子取 Δt 行之前的值；不足 Δt 行时为 0 (与 Δt = 1 时没有前一帧的语义一致)
+ * 4. 滚动窗口 (factor.window = k > 0)：维护最近 k 行深度比的滚动和，alpha_19 = 当前深度比 - 前 k 行均值
+ * 5. 历史只在同一交易日内有效 (enterDay)：跨日的前一帧取决于文件 / 分片的处理顺序，
+ *    换日即丢弃，各引擎结果与分片方式无关 (与 StreamingFactorDriver 按 (交易日, 股票) 保存前一帧一致)
+ */
+public class StockStateStore {
+
+    private static final float EPSILON = 1e-7f;
+
+    private final int lag;
+    private final int window;
+    private final int cap;
+    private final int mask;
+
+    // --- 代码 -> 槽位 ---
+    private int[] codes;
+    private int[] slotOf;
+    private int codeMask;
+    private int slots;
+
+    // --- 每槽位状态 ---
+    private int[] count;          // 已写入的行数
+    private int[] day;            // 历史所属的日期码
+    private double[] windowSum;   // 最近 window 行深度比之和
+
+    // --- 环形缓冲 (slot * cap + (i & mask)) ---
+    private long[] ap0Ring;
+    private float[] midRing;
+    private float[] ratioRing;
+
+    public StockStateStore(FactorSpec spec) {
+        this(spec.lag, spec.window);
+    }
+
+    public StockStateStore(int lag, int window) {
+        this.lag = lag;
+        this.window = window;
+        int c = 1;
+        while (c < Math.max(lag, window)) c <<= 1;
+        this.cap = c;
+        this.mask = c - 1;
+
+        codes = new int[1024];
+        slotOf = new int[1024];
+        codeMask = 1023;
+        Arrays.fill(codes, -1);
+        allocate(512);
+    }
+
+    private void allocate(int slotCapacity) {
+        count = count == null ? new int[slotCapacity] : Arrays.copyOf(count, slotCapacity);
+        day = day == null ? new int[slotCapacity] : Arrays.copyOf(day, slotCapacity);
+        windowSum = windowSum == null ? new double[slotCapacity] : Arrays.copyOf(windowSum, slotCapacity);
+        ap0Ring = ap0Ring == null ? new long[slotCapacity * cap] : Arrays.copyOf(ap0Ring, slotCapacity * cap);
+        midRing = midRing == null ? new float[slotCapacity * cap] : Arrays.copyOf(midRing, slotCapacity * cap);
+        ratioRing = ratioRing == null ? new float[slotCapacity * cap] : Arrays.copyOf(ratioRing, slotCapacity * cap);
+    }
+
+    /**
+     * 股票代码对应的稠密槽位，首次出现时分配
+     */
+    public int slot(int code) {
+        int idx = code & codeMask;
+        while (codes[idx] != -1) {
+            if (codes[idx] == code) return slotOf[idx];
+            idx = (idx + 1) & codeMask;
+        }
+        int slot = slots++;
+        codes[idx] = code;
+        slotOf[idx] = slot;
+        if (slot == count.length) allocate(count.length << 1);
+        if (slots > (codeMask >> 1)) rehash();
+        return slot;
+    }
+
+    private void rehash() {
+        int[] oldCodes = codes, oldSlots = slotOf;
+        int size = oldCodes.length << 1;
+        codes = new int[size];
+        slotOf = new int[size];
+        codeMask = size - 1;
+        Arrays.fill(codes, -1);
+        for (int i = 0; i < oldCodes.length; i++) {
+            if (oldCodes[i] == -1) continue;
+            int idx = oldCodes[i] & codeMask;
+            while (codes[idx] != -1) idx = (idx + 1) & codeMask;
+            codes[idx] = oldCodes[i];
+            slotOf[idx] = oldSlots[i];
+        }
+    }
+
+    /** 与 Factor.calculateFrom 中的深度比表达式一致 */
+    public static float depthRatio(long sumBid, long sumAsk) {
+        return (float) (sumBid / (double) (sumAsk + EPSILON));
+    }
+
+    /**
+     * 当前行属于 dayCode：与历史不是同一交易日时清空该股票的历史 (读取参照值之前调用)
+     */
+    public void enterDay(int slot, int dayCode) {
+        if (day[slot] == dayCode) return;
+        day[slot] = dayCode;
+        count[slot] = 0;
+        windowSum[slot] = 0;
+    }
+
+    // ---------------- 读取 (写入当前行之前调用) ----------------
+
+    /** 是否已有 Δt 行之前的数据 */
+    public boolean hasLag(int slot) {
+        return count[slot] >= lag;
+    }
+
+    /** alpha_19 是否有参照值 (窗口模式下只需前面有 1 行) */
+    public boolean hasRatioRef(int slot) {
+        return window > 0 ? count[slot] > 0 : count[slot] >= lag;
+    }
+
+    public long lagAp0(int slot) {
+        return ap0Ring[slot * cap + ((count[slot] - lag) & mask)];
+    }
+
+    public float lagMid(int slot) {
+        return midRing[slot * cap + ((count[slot] - lag) & mask)];
+    }
+
+    /** alpha_19 的参照深度比：Δt 行之前的值，或窗口模式下前 k 行的均值 */
+    public float refRatio(int slot) {
+        if (window > 0) return (float) (windowSum[slot] / Math.min(count[slot], window));
+        return ratioRing[slot * cap + ((count[slot] - lag) & mask)];
+    }
+
+    // ---------------- 写入 ----------------
+
+    public void push(int slot, long ap0, float mid, float ratio) {
+        int c = count[slot];
+        int i = slot * cap + (c & mask);
+        if (window > 0) {
+            // 先减去移出窗口的值 (cap == window 时它与新值在同一位置，必须先读)
+            double sum = windowSum[slot] + ratio;
+            if (c >= window) sum -= ratioRing[slot * cap + ((c - window) & mask)];
+            windowSum[slot] = sum;
+        }
+        ap0Ring[i] = ap0;
+        midRing[i] = mid;
+        ratioRing[i] = ratio;
+        count[slot] = c + 1;
+    }
+
+    /**
+     * 把快照 s 写入历史 (前 depth 档的深度比)，与 apply 中的写入一致
+     */
+    public void push(int slot, SnapshotData s, int depth) {
+        push(slot, s.ap0, (float) ((s.ap0 + s.bp0) * 0.5), depthRatio(s.bidVolSum(depth), s.askVolSum(depth)));
+    }
+
+    /**
+     * 计算当前行的变动因子写入 f[16..18]，然后把当前行写入历史
+     * @param mid 当前中间价 (即 f[2])
+     */
+    public void apply(int slot, long ap0, float mid, long sumBid, long sumAsk, float[] f) {
+        float ratio = depthRatio(sumBid, sumAsk);
+        if (hasLag(slot)) {
+            f[16] = ap0 - lagAp0(slot);
+            f[17] = mid - lagMid(slot);
+        } else {
+            f[16] = 0;
+            f[17] = 0;
+        }
+        f[18] = hasRatioRef(slot) ? ratio - refRatio(slot) : 0;
+        push(slot, ap0, mid, ratio);
+    }
+
+    /**
+     * 清空全部历史 (开始处理新文件时)，保留已分配的数组
+     */
+    public void clear() {
+        Arrays.fill(codes, -1);
+        Arrays.fill(count, 0, slots, 0);
+        Arrays.fill(windowSum, 0, slots, 0);
+        slots = 0;
+    }
+}
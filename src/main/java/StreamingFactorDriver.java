@@ -0,0 +1,520 @@
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * 盘中流式模式：持续追踪本地目录中不断增长的快照 CSV，时间戳一旦 "关闭" 就立即输出其截面均值
+ * 1. 每个文件记录已消费的偏移，每轮只读新增字节中的完整行，用 SnapshotData.parseFromBytes 就地解析
+ * 2. 每只股票保留前一帧与最后一个时间戳；每个交易日一个按时间索引的稠密 Factor 槽位数组 + 输出指针，
+ *    已输出的槽位立即置空，内存只与尚未关闭的时间戳数量有关
+ * 3. 每个交易日的水位线 = 活跃股票最后时间戳的最小值 (落后该日最新时间超过 factor.stream.max.lag.seconds
+ *    的股票视为停牌，不参与)，水位线之前的时间戳按 DailyOutputFormat 的 MMDD.csv 布局追加输出；迟到的行计数后丢弃
+ * 4. 定期把文件偏移、前一帧、未关闭的累加器和各输出文件长度原子地写入 <output>/_checkpoint，
+ *    重启时恢复状态并把输出文件截断回检查点长度，不会重放整天的数据，也不会重复输出
+ * 5. 不支持 factor.lag != 1、factor.window、factor.stats.centroids、factor.bar.seconds (启动时报错)
+ */
+public class StreamingFactorDriver extends Configured implements Tool {
+
+    public static final String POLL_MS_KEY = "factor.stream.poll.ms";
+    public static final String IDLE_EXIT_MS_KEY = "factor.stream.idle.exit.ms";   // 0 = 一直运行
+    public static final String MAX_LAG_KEY = "factor.stream.max.lag.seconds";
+    public static final String CHECKPOINT_MS_KEY = "factor.stream.checkpoint.ms";
+
+    static final String CHECKPOINT_FILE = "_checkpoint";
+    private static final int CHECKPOINT_MAGIC = 0x534E5354; // "SNST"
+    private static final int CHECKPOINT_VERSION = 1;
+
+    private static final int READ_BUFFER_SIZE = 4 << 20;
+    private static final SnapshotData DUMMY_SNAPSHOT = new SnapshotData();
+
+    /** 单只股票的流式状态 */
+    private static final class StockState {
+        final SnapshotData prev = new SnapshotData();
+        int lastTime = -1;   // 最后一行的时间索引
+    }
+
+    /** 单个交易日尚未输出的时间戳 */
+    private static final class DayBuffer {
+        final int dayCode;
+        final Factor[] slots = new Factor[CompactTimeUtil.MAX_TIME_CODE + 1];
+        int emitPos;   // 小于 emitPos 的时间索引已输出
+        int maxTime;   // 本轮计算的最新时间索引与水位线 (见 updateWatermarks)
+        int watermark;
+
+        DayBuffer(int dayCode) {
+            this.dayCode = dayCode;
+        }
+    }
+
+    private Path inputDir;
+    private Path outputDir;
+    private FactorSpec spec;
+    private int maxLag;
+
+    private final Map<String, Long> offsets = new HashMap<>();
+    // Key: dayCode << 32 | code
+    private final Map<Long, StockState> stocks = new HashMap<>();
+    private final TreeMap<Integer, DayBuffer> days = new TreeMap<>();
+    private int closedDay = -1;   // 不晚于该交易日的数据都已输出
+
+    // 输出：MMDD -> 流；restoredLengths 为检查点记录的文件长度 (重启时截断到该长度)
+    private final Map<String, FileChannel> outChannels = new HashMap<>();
+    private final Map<String, OutputStream> outStreams = new HashMap<>();
+    private final Map<String, Long> restoredLengths = new HashMap<>();
+
+    private Factor tempFactor;
+    private final SnapshotData current = new SnapshotData();
+    private byte[] readBuf = new byte[READ_BUFFER_SIZE];
+    private final byte[] rowBuf = new byte[1024];
+
+    private int outputDigits;
+    private long lateRows;
+    private long emittedRows;
+
+    /**
+     * 流式状态每只股票只保留前一帧，检查点也只记录这些：需要更长历史、bar 桶或截面草图的设置不支持，
+     * 直接拒绝而不是静默地按默认值计算
+     */
+    static void checkSupported(FactorSpec spec) {
+        if (spec.lag != 1) {
+            throw new IllegalArgumentException(FactorSpec.LAG_KEY + " must be 1 in streaming mode: " + spec.lag);
+        }
+        if (spec.window > 0) {
+            throw new IllegalArgumentException(FactorSpec.WINDOW_KEY + " is not supported in streaming mode");
+        }
+        if (spec.statsCentroids > 0) {
+            throw new IllegalArgumentException(FactorSpec.STATS_KEY + " is not supported in streaming mode");
+        }
+        if (spec.barSeconds > 0) {
+            throw new IllegalArgumentException(FactorSpec.BAR_KEY + " is not supported in streaming mode");
+        }
+    }
+
+    @Override
+    public int run(String[] args) throws Exception {
+        if (args.length != 2) {
+            System.err.println("Usage: StreamingFactorDriver <snapshot_dir> <output_dir>");
+            return -1;
+        }
+        Configuration conf = getConf();
+        inputDir = Paths.get(args[0]);
+        outputDir = Paths.get(args[1]);
+        spec = FactorSpec.get(conf);
+        checkSupported(spec);
+        maxLag = conf.getInt(MAX_LAG_KEY, 60);
+        outputDigits = conf.getInt(DailyOutputFormat.OUTPUT_DIGITS_KEY, 0);
+        tempFactor = new Factor(spec);
+        long pollMs = conf.getLong(POLL_MS_KEY, 1000);
+        long idleExitMs = conf.getLong(IDLE_EXIT_MS_KEY, 0);
+        long checkpointMs = conf.getLong(CHECKPOINT_MS_KEY, 10000);
+
+        Files.createDirectories(outputDir);
+        restore();
+
+        long startTime = System.currentTimeMillis();
+        long lastData = startTime;
+        long lastCheckpoint = startTime;
+        try {
+            while (true) {
+                long rows = poll();
+                emit(false);
+                long now = System.currentTimeMillis();
+                if (rows > 0) lastData = now;
+
+                if (idleExitMs > 0 && now - lastData >= idleExitMs) {
+                    // 输入不再增长：关闭全部时间戳后退出
+                    emit(true);
+                    checkpoint();
+                    break;
+                }
+                if (now - lastCheckpoint >= checkpointMs) {
+                    checkpoint();
+                    lastCheckpoint = now;
+                }
+                Thread.sleep(pollMs);
+            }
+        } finally {
+            closeOutputs();
+        }
+
+        System.out.println("Emitted " + emittedRows + " rows, dropped " + lateRows + " late rows");
+        System.out.println("Done! Time: " + (System.currentTimeMillis() - startTime) / 1000.0 + "s");
+        return 0;
+    }
+
+    // ---------------- 读取 ----------------
+
+    /**
+     * 扫描目录，读取每个文件自上次偏移以来新增的完整行
+     * @return 本轮读到的行数
+     */
+    private long poll() throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> dir = Files.newDirectoryStream(inputDir)) {
+            for (Path p : dir) {
+                String name = p.getFileName().toString();
+                if (name.startsWith("_") || name.startsWith(".") || !Files.isRegularFile(p)) continue;
+                files.add(p);
+            }
+        }
+        Collections.sort(files);
+
+        long rows = 0;
+        for (Path file : files) {
+            rows += tail(file);
+        }
+        return rows;
+    }
+
+    private long tail(Path file) throws IOException {
+        String name = file.getFileName().toString();
+        long offset = offsets.getOrDefault(name, 0L);
+        long rows = 0;
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = ch.size();
+            if (size < offset) {
+                // 文件被截断或替换，从头开始
+                offset = 0;
+            }
+            int carry = 0;   // 上一块末尾未完成的半行
+            while (offset + carry < size) {
+                if (carry == readBuf.length) {
+                    byte[] bigger = new byte[readBuf.length << 1];
+                    System.arraycopy(readBuf, 0, bigger, 0, carry);
+                    readBuf = bigger;
+                }
+                ByteBuffer bb = ByteBuffer.wrap(readBuf, carry, readBuf.length - carry);
+                int n = ch.read(bb, offset + carry);
+                if (n <= 0) break;
+                int limit = carry + n;
+
+                int lineStart = 0;
+                for (int i = 0; i < limit; i++) {
+                    if (readBuf[i] != '\n') continue;
+                    int lineEnd = i;
+                    if (lineEnd > lineStart && readBuf[lineEnd - 1] == '\r') lineEnd--;
+                    if (processLine(readBuf, lineStart, lineEnd - lineStart)) rows++;
+                    lineStart = i + 1;
+                }
+                // 只提交到最后一个换行符，写到一半的行留到下一轮
+                offset += lineStart;
+                carry = limit - lineStart;
+                if (carry > 0 && lineStart > 0) System.arraycopy(readBuf, lineStart, readBuf, 0, carry);
+            }
+        }
+        offsets.put(name, offset);
+        return rows;
+    }
+
+    private boolean processLine(byte[] buf, int start, int length) {
+        SnapshotData s = current;
+        s.reset();
+        if (!s.parseFromBytes(buf, start, length, spec)) return false;
+
+        int key;
+        try {
+            key = CompactTimeUtil.encode(s.tradingDay, (int) s.tradeTime);
+        } catch (IllegalArgumentException e) {
+            return false; // 表头等无效行
+        }
+
+        int dayCode = CompactTimeUtil.getDayCode(key);
+        int timeCode = CompactTimeUtil.getTimeCode(key);
+        if (dayCode <= closedDay) {
+            lateRows++;  // 该交易日已经全部输出
+            return true;
+        }
+        DayBuffer day = days.get(dayCode);
+        if (day == null) {
+            day = new DayBuffer(dayCode);
+            days.put(dayCode, day);
+        }
+
+        // 前一帧按 (交易日, 股票) 保存，与批处理按日文件重置前一帧的语义一致
+        long stockKey = ((long) dayCode << 32) | (s.code & 0xFFFFFFFFL);
+        StockState stock = stocks.get(stockKey);
+        if (stock == null) {
+            stock = new StockState();
+            stocks.put(stockKey, stock);
+        }
+        SnapshotData prev = stock.lastTime < 0 ? DUMMY_SNAPSHOT : stock.prev;
+        tempFactor.calculateFrom(s, prev, spec);
+        if (spec.depth > 5) stock.prev.copyAllLevelsFrom(s);
+        else stock.prev.copyFrom(s);
+        if (timeCode > stock.lastTime) stock.lastTime = timeCode;
+
+        if (tempFactor.hasInvalidValue()) return true;
+        tempFactor.setCount(1);
+
+        if (timeCode < day.emitPos) {
+            lateRows++;  // 该时间戳已经输出
+            return true;
+        }
+        Factor slot = day.slots[timeCode];
+        if (slot == null) {
+            slot = new Factor(spec);
+            slot.copyFrom(tempFactor);
+            day.slots[timeCode] = slot;
+        } else {
+            slot.merge(tempFactor);
+        }
+        return true;
+    }
+
+    // ---------------- 输出 ----------------
+
+    /**
+     * 按交易日计算水位线：该日活跃股票 (最后时间距该日最新时间不超过 maxLag 秒) 最后时间索引的最小值，
+     * 严格小于水位线的时间戳不会再收到新行
+     */
+    private void updateWatermarks() {
+        for (DayBuffer day : days.values()) {
+            day.maxTime = -1;
+            day.watermark = Integer.MAX_VALUE;
+        }
+        for (Map.Entry<Long, StockState> e : stocks.entrySet()) {
+            DayBuffer day = days.get((int) (e.getKey() >>> 32));
+            if (day != null) day.maxTime = Math.max(day.maxTime, e.getValue().lastTime);
+        }
+        for (Map.Entry<Long, StockState> e : stocks.entrySet()) {
+            DayBuffer day = days.get((int) (e.getKey() >>> 32));
+            int t = e.getValue().lastTime;
+            if (day != null && t >= day.maxTime - maxLag) day.watermark = Math.min(day.watermark, t);
+        }
+    }
+
+    /**
+     * 输出各交易日水位线之前的时间戳；更新的交易日开盘超过 maxLag 秒后，之前的交易日整天输出并释放
+     * @param closeAll true 时 (输入不再增长) 输出全部时间戳
+     */
+    private void emit(boolean closeAll) throws IOException {
+        if (days.isEmpty()) return;
+        updateWatermarks();
+        DayBuffer newest = days.lastEntry().getValue();
+        boolean newestStarted = newest.maxTime > maxLag;
+
+        Iterator<DayBuffer> it = days.values().iterator();
+        while (it.hasNext()) {
+            DayBuffer day = it.next();
+            if (closeAll || (day != newest && newestStarted)) {
+                emitDay(day, CompactTimeUtil.MAX_TIME_CODE + 1);
+                closeOutput(day);
+                closedDay = Math.max(closedDay, day.dayCode);
+                stocks.keySet().removeIf(k -> (int) (k >>> 32) == day.dayCode);
+                it.remove();
+            } else if (day.watermark != Integer.MAX_VALUE) {
+                emitDay(day, day.watermark);
+            }
+        }
+    }
+
+    private void emitDay(DayBuffer day, int end) throws IOException {
+        Factor[] slots = day.slots;
+        for (int t = day.emitPos; t < end; t++) {
+            Factor f = slots[t];
+            if (f == null) continue;
+            int key = CompactTimeUtil.compose(day.dayCode, t);
+            int off = FactorReducer.writeTime6Digits(CompactTimeUtil.decodeTradeTime(key), rowBuf, 0);
+            rowBuf[off++] = ',';
+            off = FactorReducer.formatAverages(f, rowBuf, off, outputDigits);
+            rowBuf[off++] = '\n';
+            output(key).write(rowBuf, 0, off);
+            slots[t] = null;
+            emittedRows++;
+        }
+        day.emitPos = Math.max(day.emitPos, end);
+    }
+
+    /**
+     * 打开 (或续写) MMDD.csv：检查点记录过的文件截断回记录的长度，否则从头写表头
+     */
+    private OutputStream output(int key) throws IOException {
+        String mmdd = CompactTimeUtil.getMMDD(key);
+        OutputStream out = outStreams.get(mmdd);
+        if (out != null) return out;
+
+        FileChannel ch = FileChannel.open(outputDir.resolve(mmdd + ".csv"),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        Long length = restoredLengths.remove(mmdd);
+        ch.truncate(length == null ? 0 : length);
+        ch.position(ch.size());
+        out = new BufferedOutputStream(Channels.newOutputStream(ch), 1 << 16);
+        if (length == null || length == 0) out.write(spec.header().getBytes(StandardCharsets.US_ASCII));
+        outChannels.put(mmdd, ch);
+        outStreams.put(mmdd, out);
+        return out;
+    }
+
+    private void closeOutput(DayBuffer day) throws IOException {
+        String mmdd = CompactTimeUtil.getMMDD(CompactTimeUtil.compose(day.dayCode, 0));
+        OutputStream out = outStreams.remove(mmdd);
+        if (out != null) out.close();
+        outChannels.remove(mmdd);
+    }
+
+    private void closeOutputs() throws IOException {
+        for (OutputStream out : outStreams.values()) out.close();
+        outStreams.clear();
+        outChannels.clear();
+    }
+
+    // ---------------- 检查点 ----------------
+
+    /**
+     * 先 flush 输出，再把全部状态写入临时文件并原子替换 _checkpoint
+     */
+    private void checkpoint() throws IOException {
+        for (OutputStream out : outStreams.values()) out.flush();
+
+        Path tmp = outputDir.resolve(CHECKPOINT_FILE + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16))) {
+            out.writeInt(CHECKPOINT_MAGIC);
+            out.writeInt(CHECKPOINT_VERSION);
+            out.writeInt(spec.depth);
+            out.writeInt(spec.selected.length);
+            for (int f : spec.selected) out.writeInt(f);
+            out.writeInt(closedDay);
+
+            out.writeInt(offsets.size());
+            for (Map.Entry<String, Long> e : offsets.entrySet()) {
+                out.writeUTF(e.getKey());
+                out.writeLong(e.getValue());
+            }
+
+            out.writeInt(stocks.size());
+            for (Map.Entry<Long, StockState> e : stocks.entrySet()) {
+                out.writeLong(e.getKey());
+                out.writeInt(e.getValue().lastTime);
+                writeSnapshot(out, e.getValue().prev);
+            }
+
+            out.writeInt(days.size());
+            for (DayBuffer day : days.values()) {
+                out.writeInt(day.dayCode);
+                out.writeInt(day.emitPos);
+                int open = 0;
+                for (Factor f : day.slots) if (f != null) open++;
+                out.writeInt(open);
+                for (int t = 0; t < day.slots.length; t++) {
+                    if (day.slots[t] == null) continue;
+                    out.writeInt(t);
+                    day.slots[t].write(out);
+                }
+            }
+
+            // 当前打开的输出文件长度 (已 flush)
+            out.writeInt(outChannels.size() + restoredLengths.size());
+            for (Map.Entry<String, FileChannel> e : outChannels.entrySet()) {
+                out.writeUTF(e.getKey());
+                out.writeLong(e.getValue().size());
+            }
+            for (Map.Entry<String, Long> e : restoredLengths.entrySet()) {
+                out.writeUTF(e.getKey());
+                out.writeLong(e.getValue());
+            }
+        }
+        Files.move(tmp, outputDir.resolve(CHECKPOINT_FILE),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void restore() throws IOException {
+        Path file = outputDir.resolve(CHECKPOINT_FILE);
+        if (!Files.exists(file)) return;
+
+        try (InputStream is = Files.newInputStream(file);
+             DataInputStream in = new DataInputStream(new BufferedInputStream(is, 1 << 16))) {
+            if (in.readInt() != CHECKPOINT_MAGIC) throw new IOException("Not a streaming checkpoint: " + file);
+            int version = in.readInt();
+            if (version != CHECKPOINT_VERSION) throw new IOException("Unsupported checkpoint version " + version);
+
+            int depth = in.readInt();
+            int[] selected = new int[in.readInt()];
+            for (int i = 0; i < selected.length; i++) selected[i] = in.readInt();
+            if (depth != spec.depth || !Arrays.equals(selected, spec.selected)) {
+                throw new IOException("Checkpoint " + file + " was written with a different "
+                        + FactorSpec.DEPTH_KEY + " / " + FactorSpec.ALPHAS_KEY);
+            }
+            closedDay = in.readInt();
+
+            for (int i = in.readInt(); i > 0; i--) offsets.put(in.readUTF(), in.readLong());
+
+            for (int i = in.readInt(); i > 0; i--) {
+                StockState st = new StockState();
+                long stockKey = in.readLong();
+                st.lastTime = in.readInt();
+                readSnapshot(in, st.prev);
+                stocks.put(stockKey, st);
+            }
+
+            for (int i = in.readInt(); i > 0; i--) {
+                DayBuffer day = new DayBuffer(in.readInt());
+                day.emitPos = in.readInt();
+                for (int j = in.readInt(); j > 0; j--) {
+                    Factor f = new Factor(spec);
+                    int t = in.readInt();
+                    f.readFields(in);
+                    day.slots[t] = f;
+                }
+                days.put(day.dayCode, day);
+            }
+
+            for (int i = in.readInt(); i > 0; i--) restoredLengths.put(in.readUTF(), in.readLong());
+        }
+        System.out.println("Restored checkpoint: " + offsets.size() + " files, " + stocks.size()
+                + " stocks, " + days.size() + " open days");
+    }
+
+    private static void writeSnapshot(DataOutputStream out, SnapshotData s) throws IOException {
+        out.writeInt(s.tradingDay);
+        out.writeLong(s.tradeTime);
+        out.writeInt(s.code);
+        out.writeLong(s.tBidVol); out.writeLong(s.tAskVol);
+        long[] levels = {
+                s.bp0, s.bv0, s.ap0, s.av0, s.bp1, s.bv1, s.ap1, s.av1, s.bp2, s.bv2, s.ap2, s.av2,
+                s.bp3, s.bv3, s.ap3, s.av3, s.bp4, s.bv4, s.ap4, s.av4, s.bp5, s.bv5, s.ap5, s.av5,
+                s.bp6, s.bv6, s.ap6, s.av6, s.bp7, s.bv7, s.ap7, s.av7, s.bp8, s.bv8, s.ap8, s.av8,
+                s.bp9, s.bv9, s.ap9, s.av9};
+        for (long v : levels) out.writeLong(v);
+    }
+
+    private static void readSnapshot(DataInputStream in, SnapshotData s) throws IOException {
+        s.tradingDay = in.readInt();
+        s.tradeTime = in.readLong();
+        s.code = in.readInt();
+        s.tBidVol = in.readLong(); s.tAskVol = in.readLong();
+        for (int level = 0; level < FactorSpec.MAX_DEPTH; level++) {
+            s.setLevel(level, in.readLong(), in.readLong(), in.readLong(), in.readLong());
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int exitCode = ToolRunner.run(new StreamingFactorDriver(), args);
+        System.exit(exitCode);
+    }
+}
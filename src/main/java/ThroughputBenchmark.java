@@ -0,0 +1,144 @@
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.CompressionCodecFactory;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 端到端吞吐基准：在同一 JVM 内依次用各引擎运行 FactorCalculationJob，报告行/秒、MB/秒、GC 时间与堆峰值
+ * 1. 输入为 CSV (可以是 gzip)，先完整扫描一遍统计数据行数 (以数字开头的行，不含表头) 和解压后字节数
+ * 2. 每个引擎先跑 factor.bench.warmup 次预热 (不计入)，再跑 factor.bench.runs 次，最后一行为中位数
+ * 3. GC 时间取各 GarbageCollectorMXBean 累计时间之差；堆峰值为运行前 resetPeakUsage 后各堆内存池峰值之和
+ *    (各池峰值不一定同时出现，是上界)
+ * 用法：ThroughputBenchmark <csv_input_path> <output_root>，每个引擎的结果写到 <output_root>/<engine>
+ * 配合 SnapshotGenerator 生成的数据使用，例如 300 / 1000 / 5000 只股票各跑一次
+ */
+public class ThroughputBenchmark extends Configured implements Tool {
+
+    // 逗号分隔的 factor.engine 取值
+    public static final String ENGINES_KEY = "factor.bench.engines";
+    public static final String RUNS_KEY = "factor.bench.runs";
+    public static final String WARMUP_KEY = "factor.bench.warmup";
+
+    @Override
+    public int run(String[] args) throws Exception {
+        if (args.length != 2) {
+            System.err.println("Usage: ThroughputBenchmark <csv_input_path> <output_root>");
+            return -1;
+        }
+        Configuration conf = getConf();
+        Path input = new Path(args[0]);
+        Path outputRoot = new Path(args[1]);
+        String[] engines = conf.getTrimmedStrings(ENGINES_KEY, "local", "mapreduce");
+        int runs = conf.getInt(RUNS_KEY, 3);
+        int warmup = conf.getInt(WARMUP_KEY, 1);
+        // 先校验再扫描输入：runs = 0 时中位数越界，warmup < 0 会跳过前几次计时而把 0 秒算进中位数
+        if (runs < 1) throw new IllegalArgumentException(RUNS_KEY + " must be >= 1: " + runs);
+        if (warmup < 0) throw new IllegalArgumentException(WARMUP_KEY + " must be >= 0: " + warmup);
+
+        long[] size = scanInput(conf, input);
+        long rows = size[0];
+        double mb = size[1] / (1024.0 * 1024.0);
+        System.out.printf("Input: %d files, %d rows, %.1f MB%n", size[2], rows, mb);
+        System.out.println("| engine | run | seconds | rows/s | MB/s | GC ms | GC count | peak heap MB |");
+        System.out.println("| --- | --- | --- | --- | --- | --- | --- | --- |");
+
+        for (String engine : engines) {
+            double[] seconds = new double[runs];
+            for (int r = -warmup; r < runs; r++) {
+                Configuration runConf = new Configuration(conf);
+                runConf.set(FactorCalculationJob.ENGINE_KEY, engine);
+                Measurement m = measure(runConf, input, new Path(outputRoot, engine));
+                if (r < 0) continue;
+                seconds[r] = m.seconds;
+                System.out.printf("| %s | %d | %.3f | %.0f | %.1f | %d | %d | %.0f |%n", engine, r + 1, m.seconds,
+                        rows / m.seconds, mb / m.seconds, m.gcMillis, m.gcCount, m.peakHeap / (1024.0 * 1024.0));
+            }
+            Arrays.sort(seconds);
+            double median = seconds[runs / 2];
+            System.out.printf("| %s | median | %.3f | %.0f | %.1f | | | |%n", engine, median, rows / median,
+                    mb / median);
+        }
+        return 0;
+    }
+
+    private static final class Measurement {
+        double seconds;
+        long gcMillis;
+        long gcCount;
+        long peakHeap;
+    }
+
+    private static Measurement measure(Configuration conf, Path input, Path output) throws Exception {
+        List<GarbageCollectorMXBean> gcs = ManagementFactory.getGarbageCollectorMXBeans();
+        List<MemoryPoolMXBean> pools = ManagementFactory.getMemoryPoolMXBeans();
+        System.gc();
+        for (MemoryPoolMXBean pool : pools) pool.resetPeakUsage();
+        long gcTime = 0, gcCount = 0;
+        for (GarbageCollectorMXBean gc : gcs) {
+            gcTime += gc.getCollectionTime();
+            gcCount += gc.getCollectionCount();
+        }
+
+        long start = System.nanoTime();
+        int exit = ToolRunner.run(conf, new FactorCalculationJob(), new String[]{input.toString(), output.toString()});
+        long elapsed = System.nanoTime() - start;
+        if (exit != 0) throw new IllegalStateException("FactorCalculationJob failed with exit code " + exit);
+
+        Measurement m = new Measurement();
+        m.seconds = elapsed / 1e9;
+        for (GarbageCollectorMXBean gc : gcs) {
+            m.gcMillis += gc.getCollectionTime();
+            m.gcCount += gc.getCollectionCount();
+        }
+        m.gcMillis -= gcTime;
+        m.gcCount -= gcCount;
+        for (MemoryPoolMXBean pool : pools) {
+            if (pool.getType() == MemoryType.HEAP && pool.getPeakUsage() != null) m.peakHeap += pool.getPeakUsage().getUsed();
+        }
+        return m;
+    }
+
+    /**
+     * @return {数据行数, 解压后字节数, 文件数}
+     */
+    private static long[] scanInput(Configuration conf, Path input) throws IOException {
+        FileSystem fs = input.getFileSystem(conf);
+        CompressionCodecFactory codecs = new CompressionCodecFactory(conf);
+        List<Path> files = LocalFactorEngine.listInputFiles(fs, input);
+        long rows = 0, bytes = 0;
+        byte[] buf = new byte[1 << 20];
+        for (Path file : files) {
+            CompressionCodec codec = codecs.getCodec(file);
+            try (InputStream in = codec == null ? fs.open(file) : codec.createInputStream(fs.open(file))) {
+                boolean lineStart = true;
+                int n;
+                while ((n = in.read(buf)) > 0) {
+                    bytes += n;
+                    for (int i = 0; i < n; i++) {
+                        byte b = buf[i];
+                        if (lineStart && b >= '0' && b <= '9') rows++;
+                        lineStart = b == '\n';
+                    }
+                }
+            }
+        }
+        return new long[]{rows, bytes, files.size()};
+    }
+
+    public static void main(String[] args) throws Exception {
+        int exitCode = ToolRunner.run(new ThroughputBenchmark(), args);
+        System.exit(exitCode);
+    }
+}
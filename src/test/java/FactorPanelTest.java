@@ -0,0 +1,128 @@
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * .panel 写入 -> open -> get / crossSection / series / column 往返
+ * 行按随机顺序追加，部分 (股票, 时间) 缺失 (应为 NaN)，部分重复 (取最后追加的一行)
+ */
+public class FactorPanelTest {
+
+    private static final int[] DAYS = {20240102, 20240103};
+    private static final int[] CODES = {600000, 1, 300750, 2, 688981};
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void roundTrip() throws IOException {
+        Configuration conf = new Configuration(false);
+        conf.set(FactorSpec.ALPHAS_KEY, "2,5-6,20");
+        FactorSpec spec = FactorSpec.get(conf);
+        int factors = spec.selected.length;
+
+        SplittableRandom random = new SplittableRandom(42);
+        FactorPanel.Builder builder = new FactorPanel.Builder(spec);
+        // 期望值：day -> (HHMMSS -> (code -> 选中的因子))
+        TreeMap<Integer, TreeMap<Integer, TreeMap<Integer, float[]>>> expected = new TreeMap<>();
+        float[] row = new float[FactorSpec.NUM_FACTORS];
+        for (int n = 0; n < 6000; n++) {
+            int day = DAYS[random.nextInt(DAYS.length)];
+            int code = CODES[random.nextInt(CODES.length)];
+            // 时间集中在午休与收盘附近，制造重复的 (股票, 时间)
+            int timeCode = random.nextInt(4) == 0
+                    ? 8990 + random.nextInt(20)
+                    : random.nextInt(CompactTimeUtil.MAX_TIME_CODE + 1);
+            int key = CompactTimeUtil.compose(CompactTimeUtil.getDayCode(CompactTimeUtil.encode(day, 93000)), timeCode);
+            for (int f = 0; f < row.length; f++) row[f] = (float) random.nextDouble(-1e6, 1e6);
+            if (random.nextBoolean()) {
+                builder.add(key, code, row);
+            } else {
+                float[][] cols = new float[FactorSpec.NUM_FACTORS][3];
+                for (int f = 0; f < row.length; f++) cols[f][1] = row[f];
+                builder.addColumns(key, code, cols, 1);
+            }
+            float[] kept = new float[factors];
+            for (int i = 0; i < factors; i++) kept[i] = row[spec.selected[i]];
+            expected.computeIfAbsent(day, d -> new TreeMap<>())
+                    .computeIfAbsent(CompactTimeUtil.decodeTradeTime(key), t -> new TreeMap<>())
+                    .put(code, kept);
+        }
+
+        File dir = tmp.newFolder();
+        assertEquals(DAYS.length, builder.write(FileSystem.getLocal(conf), new Path(dir.toURI())));
+
+        for (int day : DAYS) {
+            TreeMap<Integer, TreeMap<Integer, float[]>> byTime = expected.get(day);
+            FactorPanel panel = FactorPanel.open(new File(dir, CompactTimeUtil.getMMDD(
+                    CompactTimeUtil.encode(day, 93000)) + FactorPanel.EXTENSION).toPath());
+            assertEquals(day, panel.tradingDay());
+            assertEquals(factors, panel.factors());
+            for (int i = 0; i < factors; i++) assertEquals(spec.selected[i] + 1, panel.factorId(i));
+            assertEquals(-1, panel.factorColumn(1));
+            assertEquals(1, panel.factorColumn(5));
+
+            // 字典：有数据的时间戳与股票，各自升序
+            int[] times = byTime.keySet().stream().mapToInt(Integer::intValue).toArray();
+            TreeSet<Integer> codes = new TreeSet<>();
+            for (TreeMap<Integer, float[]> m : byTime.values()) codes.addAll(m.keySet());
+            assertEquals(times.length, panel.times());
+            assertEquals(codes.size(), panel.stocks());
+            for (int t = 0; t < times.length; t++) {
+                assertEquals(times[t], panel.tradeTime(t));
+                assertEquals(t, panel.timeRow(times[t]));
+            }
+            int slot = 0;
+            for (int code : codes) {
+                assertEquals(code, panel.stockCode(slot));
+                assertEquals(slot++, panel.stockSlot(code));
+            }
+            assertEquals(-1, panel.timeRow(120000));
+            assertEquals(-1, panel.stockSlot(999999));
+
+            // get 与 crossSection
+            for (int t = 0; t < times.length; t++) {
+                FloatBuffer cross = panel.crossSection(t);
+                assertEquals(panel.stocks() * factors, cross.remaining());
+                for (int s = 0; s < panel.stocks(); s++) {
+                    float[] want = byTime.get(times[t]).get(panel.stockCode(s));
+                    for (int f = 0; f < factors; f++) {
+                        float v = want == null ? Float.NaN : want[f];
+                        assertEquals(v, panel.get(t, s, f), 0.0f);
+                        assertEquals(v, cross.get(s * factors + f), 0.0f);
+                    }
+                }
+            }
+
+            // series 与 column
+            for (int s = 0; s < panel.stocks(); s++) {
+                FactorPanel.Series series = panel.series(s);
+                assertEquals(panel.stockCode(s), series.code());
+                assertEquals(times.length, series.size());
+                for (int f = 0; f < factors; f++) {
+                    float[] column = panel.column(s, f, null);
+                    float[] want = new float[times.length];
+                    for (int t = 0; t < times.length; t++) {
+                        assertEquals(times[t], series.tradeTime(t));
+                        assertEquals(panel.get(t, s, f), series.get(t, f), 0.0f);
+                        want[t] = panel.get(t, s, f);
+                    }
+                    assertArrayEquals(want, Arrays.copyOf(column, times.length), 0.0f);
+                }
+            }
+        }
+    }
+}
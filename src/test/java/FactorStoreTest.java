@@ -0,0 +1,221 @@
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * .fst 写入 -> open -> query / column 往返
+ * 区间查询与按标注时间 (decodeTradeTime) 逐条过滤的结果对照，边界覆盖盘前、午休 (11:30 / 12:00 / 13:00) 与收盘后
+ */
+public class FactorStoreTest {
+
+    private static final int DAY1 = 20240102;
+    private static final int DAY2 = 20240103;
+    private static final int DAY3 = 20240104;   // 没有记录
+    private static final int[] BOUNDS = {0, 80000, 90000, 90001, 91500, 112959, 113000, 113001, 120000, 125959,
+            130000, 130001, 145959, 150000, 150001, 160000, 235959};
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void queryMatchesLabelFilter() throws IOException {
+        File dir = tmp.newFolder();
+        FactorSpec all = FactorSpec.DEFAULT;
+        FactorSpec subset = subset("1-3,17");
+        int[] keys1 = keys(DAY1, 37);
+        int[] keys2 = keys(DAY2, 53);
+        write(new File(dir, "0102.fst"), all, DAY1, keys1);
+        write(new File(dir, "0103.fst"), subset, DAY2, keys2);
+        write(new File(dir, "0104.fst"), all, DAY3, new int[0]);
+
+        FactorStore store = FactorStore.open(dir.toPath());
+        assertArrayEquals(new int[]{DAY1, DAY2, DAY3}, store.tradingDays());
+
+        // 单日内的全部边界组合
+        for (int from : BOUNDS) {
+            for (int to : BOUNDS) {
+                FactorStore.Range r = store.query(DAY1, from, DAY1, to);
+                assertArrayEquals(from + "-" + to, expected(keys1, from, to), r.keys());
+            }
+        }
+        // 跨天：首日取 from 之后，末日取 to 之前，空的一天不出现
+        for (int from : BOUNDS) {
+            for (int to : BOUNDS) {
+                FactorStore.Range r = store.query(DAY1, from, DAY3, to);
+                int[] head = expected(keys1, from, 999999);
+                int[] tail = keys2;
+                int[] want = new int[head.length + tail.length];
+                System.arraycopy(head, 0, want, 0, head.length);
+                System.arraycopy(tail, 0, want, head.length, tail.length);
+                assertArrayEquals(from + "-" + to, want, r.keys());
+            }
+        }
+
+        FactorStore.Range lunch = store.query(DAY1, 113000, DAY1, 130000);
+        assertArrayEquals(new int[]{113000, 130000}, lunch.tradeTimes());
+        assertEquals(0, store.query(DAY1, 120000, DAY1, 125959).size());
+        assertArrayEquals(new int[]{150000}, store.query(DAY1, 150000, DAY1, 160000).tradeTimes());
+    }
+
+    @Test
+    public void columnsRoundTrip() throws IOException {
+        File dir = tmp.newFolder();
+        FactorSpec subset = subset("1-3,17");
+        int[] keys1 = keys(DAY1, 11);
+        int[] keys2 = keys(DAY2, 97);
+        write(new File(dir, "0102.fst"), FactorSpec.DEFAULT, DAY1, keys1);
+        write(new File(dir, "0103.fst"), subset, DAY2, keys2);
+
+        FactorStore.Range r = FactorStore.open(dir.toPath()).query(DAY1, DAY2);
+        assertEquals(keys1.length + keys2.length, r.size());
+        int[] days = r.tradingDays();
+        int[] counts = r.counts();
+        for (int i = 0; i < r.size(); i++) {
+            int key = i < keys1.length ? keys1[i] : keys2[i - keys1.length];
+            assertEquals(CompactTimeUtil.decodeTradingDay(key), days[i]);
+            assertEquals(count(key), counts[i]);
+        }
+        for (int alpha = 1; alpha <= FactorSpec.NUM_FACTORS; alpha++) {
+            float[] column = r.column(alpha);
+            for (int i = 0; i < r.size(); i++) {
+                boolean day1 = i < keys1.length;
+                int key = day1 ? keys1[i] : keys2[i - keys1.length];
+                float want = day1 || subset.isSelected(alpha - 1) ? mean(key, alpha - 1) : Float.NaN;
+                assertEquals("alpha_" + alpha + " row " + i, want, column[i], 0.0f);
+            }
+        }
+    }
+
+    @Test
+    public void mergedPartsMatchSingleWriter() throws IOException {
+        File dir = tmp.newFolder();
+        File whole = new File(dir, "whole");
+        File parts = new File(dir, "parts");
+        File merged = new File(dir, "merged");
+        assertTrue(whole.mkdir() && parts.mkdir() && merged.mkdir());
+        FactorSpec spec = subset("2,5-6,20");
+        int[] keys = keys(DAY1, 7);
+        write(new File(whole, "0102.fst"), spec, DAY1, keys);
+
+        // 区间分区：每个 Reducer 只写记录，按分区号拼接
+        int[] cuts = {0, 100, 101, 1500, keys.length};
+        FileSystem fs = FileSystem.getLocal(new Configuration(false));
+        FileStatus[] statuses = new FileStatus[cuts.length - 1];
+        for (int p = 0; p + 1 < cuts.length; p++) {
+            File part = new File(parts, String.format("part-%05d", p));
+            int[] slice = new int[cuts[p + 1] - cuts[p]];
+            System.arraycopy(keys, cuts[p], slice, 0, slice.length);
+            writeRecords(part, spec, DAY1, slice, false);
+            statuses[p] = fs.getFileStatus(new Path(part.toURI()));
+        }
+        FactorStore.mergeParts(fs, statuses, new Path(new File(merged, "0102.fst").toURI()), spec);
+
+        FactorStore.Range a = FactorStore.open(whole.toPath()).query(DAY1, DAY1);
+        FactorStore.Range b = FactorStore.open(merged.toPath()).query(DAY1, DAY1);
+        assertArrayEquals(a.keys(), b.keys());
+        assertArrayEquals(a.counts(), b.counts());
+        for (int alpha : new int[]{2, 5, 6, 20}) assertArrayEquals(a.column(alpha), b.column(alpha), 0.0f);
+        assertArrayEquals(expected(keys, 113000, 130000),
+                FactorStore.open(merged.toPath()).query(DAY1, 113000, DAY1, 130000).keys());
+    }
+
+    @Test
+    public void truncatedPartIsRejected() throws IOException {
+        File dir = tmp.newFolder();
+        FactorSpec spec = subset("1-3,17");
+        File part = new File(dir, "part-00000");
+        writeRecords(part, spec, DAY1, keys(DAY1, 101), false);
+        // 末尾多出半条记录
+        try (FileOutputStream out = new FileOutputStream(part, true)) {
+            out.write(new byte[FactorStore.recordBytes(spec) / 2]);
+        }
+        FileSystem fs = FileSystem.getLocal(new Configuration(false));
+        try {
+            FactorStore.mergeParts(fs, new FileStatus[]{fs.getFileStatus(new Path(part.toURI()))},
+                    new Path(new File(dir, "0102.fst").toURI()), spec);
+            fail("truncated part was merged");
+        } catch (EOFException expected) {
+            // 期望
+        }
+    }
+
+    // ---------------- 数据 ----------------
+
+    private static FactorSpec subset(String alphas) {
+        Configuration conf = new Configuration(false);
+        conf.set(FactorSpec.ALPHAS_KEY, alphas);
+        return FactorSpec.get(conf);
+    }
+
+    /** 每隔 step 个时间码一条，另加各时段的首尾 (盘前折叠到的 0、11:30、13:00、收盘) */
+    private static int[] keys(int tradingDay, int step) {
+        int dayCode = CompactTimeUtil.getDayCode(CompactTimeUtil.encode(tradingDay, 93000));
+        List<Integer> list = new ArrayList<>();
+        for (int t = 0; t <= CompactTimeUtil.MAX_TIME_CODE; t++) {
+            if (t % step == 0 || t == 8999 || t == 9000 || t == 9001 || t == 9002
+                    || t == CompactTimeUtil.MAX_TIME_CODE) {
+                list.add(CompactTimeUtil.compose(dayCode, t));
+            }
+        }
+        int[] keys = new int[list.size()];
+        for (int i = 0; i < keys.length; i++) keys[i] = list.get(i);
+        return keys;
+    }
+
+    private static int[] expected(int[] keys, int from, int to) {
+        List<Integer> list = new ArrayList<>();
+        for (int key : keys) {
+            int label = CompactTimeUtil.decodeTradeTime(key);
+            if (label >= from && label <= to) list.add(key);
+        }
+        int[] out = new int[list.size()];
+        for (int i = 0; i < out.length; i++) out[i] = list.get(i);
+        return out;
+    }
+
+    private static int count(int key) {
+        return 1 + (key & 0xFFFF) % 7;
+    }
+
+    private static float sum(int key, int factor) {
+        return (key & 0xFFFF) * 0.25f + factor;
+    }
+
+    private static float mean(int key, int factor) {
+        return sum(key, factor) / count(key);
+    }
+
+    private static void write(File file, FactorSpec spec, int tradingDay, int[] keys) throws IOException {
+        writeRecords(file, spec, tradingDay, keys, true);
+    }
+
+    private static void writeRecords(File file, FactorSpec spec, int tradingDay, int[] keys, boolean framed)
+            throws IOException {
+        FactorStore.Writer writer = new FactorStore.Writer(
+                new BufferedOutputStream(new FileOutputStream(file)), spec, tradingDay, framed);
+        Factor factor = new Factor(spec);
+        for (int key : keys) {
+            float[] values = factor.getFactorValues();
+            for (int f = 0; f < FactorSpec.NUM_FACTORS; f++) values[f] = sum(key, f);
+            factor.setCount(count(key));
+            writer.write(key, factor);
+        }
+        writer.close();
+    }
+}
@@ -0,0 +1,123 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import org.junit.Test;
+
+/**
+ * FastParser 的 SWAR 实现与逐字节实现 (*Scalar) 对照
+ * 字段放在 0..7 的各个起始偏移、长度 0..18 位，逗号结尾或恰好结束在 limit 上，
+ * limit 之后填满数字，确认 8 字节读取不会越过 limit
+ */
+public class FastParserTest {
+
+    private static final int MAX_DIGITS = 18;
+
+    @Test
+    public void parseLongMatchesScalarOnFieldBoundaries() {
+        SplittableRandom random = new SplittableRandom(7);
+        for (int offset = 0; offset < 8; offset++) {
+            for (int len = 0; len <= MAX_DIGITS; len++) {
+                for (int sign = 0; sign < 2; sign++) {
+                    for (int tail = 0; tail < 3; tail++) {
+                        String field = (sign == 1 ? "-" : "") + digits(random, len);
+                        // tail 0: 逗号后还有字段；1: 逗号恰好是 limit 前最后一个字节；2: 没有逗号，字段结束在 limit
+                        String text = tail == 0 ? field + ",123" : tail == 1 ? field + "," : field;
+                        assertSameParse(offset, text, field);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void parseLongConsecutiveFields() {
+        SplittableRandom random = new SplittableRandom(11);
+        for (int row = 0; row < 2000; row++) {
+            StringBuilder sb = new StringBuilder();
+            int fields = 1 + random.nextInt(12);
+            for (int f = 0; f < fields; f++) {
+                if (f > 0) sb.append(',');
+                if (random.nextInt(5) == 0) sb.append('-');
+                sb.append(digits(random, random.nextInt(MAX_DIGITS + 1)));
+            }
+            byte[] b = padded(0, sb.toString());
+            int limit = sb.length();
+            int[] fast = {0};
+            int[] scalar = {0};
+            for (int f = 0; f < fields; f++) {
+                long expected = FastParser.parseLongScalar(b, scalar, limit);
+                assertEquals(sb.toString(), expected, FastParser.parseLong(b, fast, limit));
+                assertEquals(sb.toString(), scalar[0], fast[0]);
+            }
+        }
+    }
+
+    @Test
+    public void parseLongRejectsNonDigits() {
+        String[] bad = {"12.5,", "123456789.0,", "1 2,", "12a", "123456789012345x,"};
+        for (String text : bad) {
+            byte[] b = padded(0, text);
+            try {
+                FastParser.parseLong(b, new int[]{0}, text.length());
+                fail("accepted " + text);
+            } catch (NumberFormatException expected) {
+                // 由 parseFromBytes 计为无效行
+            }
+        }
+    }
+
+    @Test
+    public void skipFieldsMatchesScalar() {
+        SplittableRandom random = new SplittableRandom(13);
+        for (int row = 0; row < 2000; row++) {
+            StringBuilder sb = new StringBuilder();
+            int fields = 1 + random.nextInt(20);
+            for (int f = 0; f < fields; f++) {
+                if (f > 0) sb.append(',');
+                sb.append(digits(random, random.nextInt(10)));
+            }
+            int offset = random.nextInt(8);
+            byte[] b = padded(offset, sb.toString());
+            int limit = offset + sb.length();
+            for (int count = 0; count <= fields; count++) {
+                int[] fast = {offset};
+                int[] scalar = {offset};
+                FastParser.skipFields(b, fast, count, limit);
+                FastParser.skipFieldsScalar(b, scalar, count, limit);
+                assertEquals(sb + " skip " + count, scalar[0], fast[0]);
+            }
+        }
+    }
+
+    private static void assertSameParse(int offset, String text, String field) {
+        byte[] b = padded(offset, text);
+        int limit = offset + text.length();
+        int[] fast = {offset};
+        int[] scalar = {offset};
+        long expected = FastParser.parseLongScalar(b, scalar, limit);
+        long actual = FastParser.parseLong(b, fast, limit);
+        String where = "'" + text + "' at " + offset;
+        assertEquals(where, expected, actual);
+        assertEquals(where, scalar[0], fast[0]);
+        if (!field.isEmpty() && !field.equals("-")) assertEquals(where, Long.parseLong(field), actual);
+    }
+
+    /** offset 个前导字节 + text + 16 个 '9' (limit 之外的数据) */
+    private static byte[] padded(int offset, String text) {
+        byte[] b = new byte[offset + text.length() + 16];
+        Arrays.fill(b, (byte) '9');
+        Arrays.fill(b, 0, offset, (byte) ',');
+        byte[] t = text.getBytes(StandardCharsets.US_ASCII);
+        System.arraycopy(t, 0, b, offset, t.length);
+        return b;
+    }
+
+    private static String digits(SplittableRandom random, int n) {
+        StringBuilder sb = new StringBuilder(n);
+        for (int i = 0; i < n; i++) sb.append((char) ('0' + random.nextInt(10)));
+        return sb.toString();
+    }
+}
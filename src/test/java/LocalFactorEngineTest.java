@@ -0,0 +1,69 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.util.ToolRunner;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * 本地引擎与 MapReduce (LocalJobRunner) 在多文件输入上的结果对照
+ * 每只股票每天一个文件，MapReduce 把全部文件合并为一个分片 (文件顺序不保证按日期)，
+ * 每天首个时间戳的变动因子 (alpha_17-19) 不能受另一天的前一帧影响
+ */
+public class LocalFactorEngineTest {
+
+    private static final double TOLERANCE = 0.01;
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void matchesMapReduceAcrossFiles() throws Exception {
+        File input = tmp.newFolder("in");
+        Configuration gen = new Configuration();
+        gen.setInt(SnapshotGenerator.STOCKS_KEY, 4);
+        gen.setInt(SnapshotGenerator.DAYS_KEY, 3);
+        gen.set(SnapshotGenerator.LAYOUT_KEY, "flat");
+        assertEquals(0, ToolRunner.run(gen, new SnapshotGenerator(), new String[]{input.getPath()}));
+
+        File local = run(input, "local");
+        File mapreduce = run(input, "mapreduce");
+
+        String[] days = {"0102.csv", "0103.csv", "0104.csv"};
+        for (String day : days) {
+            List<String> a = Files.readAllLines(new File(local, day).toPath(), StandardCharsets.US_ASCII);
+            List<String> b = Files.readAllLines(new File(mapreduce, day).toPath(), StandardCharsets.US_ASCII);
+            assertEquals(day, a.size(), b.size());
+            assertEquals(a.get(0), b.get(0));
+            for (int r = 1; r < a.size(); r++) {
+                String[] x = a.get(r).split(",");
+                String[] y = b.get(r).split(",");
+                assertEquals(day + " row " + r, x[0], y[0]);
+                for (int c = 1; c < x.length; c++) {
+                    double u = Double.parseDouble(x[c]);
+                    double v = Double.parseDouble(y[c]);
+                    double scale = Math.max(Math.max(Math.abs(u), Math.abs(v)), 1e-3);
+                    assertTrue(day + " " + x[0] + " alpha_" + c + ": " + u + " vs " + v,
+                            Math.abs(u - v) <= TOLERANCE * scale);
+                }
+            }
+        }
+    }
+
+    private File run(File input, String engine) throws Exception {
+        File output = new File(tmp.getRoot(), "out_" + engine);
+        Configuration conf = new Configuration();
+        conf.set(FactorCalculationJob.ENGINE_KEY, engine);
+        int exit = ToolRunner.run(conf, new FactorCalculationJob(),
+                new String[]{input.getPath(), output.getPath()});
+        if (exit != 0) throw new IOException(engine + " engine failed with exit code " + exit);
+        return output;
+    }
+}
@@ -0,0 +1,129 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.SplittableRandom;
+import org.junit.Test;
+
+/**
+ * RyuFloat 往返校验：随机位模式 + 特殊值 (Inf / NaN / ±0 / 非规格化数)
+ * 1. 最短模式：解析回来的位模式与原值完全相同，有效位数不多于 Float.toString / Double.toString
+ * 2. 定长模式：相对误差不超过第 digits 位的半个单位
+ */
+public class RyuFloatTest {
+
+    private static final int SAMPLES = 200_000;
+    private static final long SEED = 20240102L;
+
+    private final byte[] buf = new byte[64];
+
+    private String floatString(float v, int digits) {
+        return new String(buf, 0, RyuFloat.floatToBytes(v, buf, 0, digits), StandardCharsets.US_ASCII);
+    }
+
+    private String doubleString(double v, int digits) {
+        return new String(buf, 0, RyuFloat.doubleToBytes(v, buf, 0, digits), StandardCharsets.US_ASCII);
+    }
+
+    @Test
+    public void floatSpecialValues() {
+        assertEquals("NaN", floatString(Float.NaN, 0));
+        assertEquals("Inf", floatString(Float.POSITIVE_INFINITY, 0));
+        assertEquals("-Inf", floatString(Float.NEGATIVE_INFINITY, 0));
+        assertEquals("0.0", floatString(0.0f, 0));
+        assertEquals("-0.0", floatString(-0.0f, 0));
+        assertEquals("0.0", floatString(0.0f, 7));
+        assertEquals("NaN", floatString(Float.NaN, 7));
+    }
+
+    @Test
+    public void doubleSpecialValues() {
+        assertEquals("NaN", doubleString(Double.NaN, 0));
+        assertEquals("Inf", doubleString(Double.POSITIVE_INFINITY, 0));
+        assertEquals("-Inf", doubleString(Double.NEGATIVE_INFINITY, 0));
+        assertEquals("0.0", doubleString(0.0, 0));
+        assertEquals("-0.0", doubleString(-0.0, 0));
+    }
+
+    @Test
+    public void floatBoundaryValues() {
+        float[] values = {Float.MIN_VALUE, -Float.MIN_VALUE, 2 * Float.MIN_VALUE, Float.MIN_NORMAL,
+                Math.nextDown(Float.MIN_NORMAL), Math.nextUp(Float.MIN_NORMAL), Float.MAX_VALUE, -Float.MAX_VALUE,
+                1.0f, 0.1f, 1e-3f, Math.nextDown(1e-3f), 1e7f, Math.nextDown(1e7f), 8.114961E-4f, 470025.0f};
+        for (float v : values) assertFloatRoundTrip(v);
+    }
+
+    @Test
+    public void doubleBoundaryValues() {
+        double[] values = {Double.MIN_VALUE, -Double.MIN_VALUE, Double.MIN_NORMAL, Math.nextDown(Double.MIN_NORMAL),
+                Double.MAX_VALUE, -Double.MAX_VALUE, 1.0, 0.1, 1e-3, Math.nextDown(1e-3), 1e7, Math.nextDown(1e7),
+                5e-324, 1.7976931348623157e308, 2.2250738585072014e-308};
+        for (double v : values) assertDoubleRoundTrip(v);
+    }
+
+    @Test
+    public void floatRandomBits() {
+        SplittableRandom random = new SplittableRandom(SEED);
+        for (int i = 0; i < SAMPLES; i++) {
+            float v = Float.intBitsToFloat(random.nextInt());
+            if (Float.isNaN(v) || Float.isInfinite(v)) continue;
+            assertFloatRoundTrip(v);
+        }
+        // 非规格化数单独覆盖 (随机位模式中只占 1/256)
+        for (int i = 0; i < SAMPLES / 10; i++) {
+            assertFloatRoundTrip(Float.intBitsToFloat(random.nextInt(1 << 23) | (random.nextBoolean() ? 1 << 31 : 0)));
+        }
+    }
+
+    @Test
+    public void doubleRandomBits() {
+        SplittableRandom random = new SplittableRandom(SEED);
+        for (int i = 0; i < SAMPLES; i++) {
+            double v = Double.longBitsToDouble(random.nextLong());
+            if (Double.isNaN(v) || Double.isInfinite(v)) continue;
+            assertDoubleRoundTrip(v);
+        }
+        for (int i = 0; i < SAMPLES / 10; i++) {
+            assertDoubleRoundTrip(Double.longBitsToDouble(random.nextLong() & ((1L << 52) - 1)));
+        }
+    }
+
+    @Test
+    public void fixedDigitsWithinHalfUnit() {
+        SplittableRandom random = new SplittableRandom(SEED);
+        for (int digits = 1; digits <= 9; digits++) {
+            double bound = 0.5 * Math.pow(10, 1 - digits) * (1 + 1e-9);
+            for (int i = 0; i < SAMPLES / 10; i++) {
+                float v = Float.intBitsToFloat(random.nextInt());
+                if (Float.isNaN(v) || Float.isInfinite(v) || v == 0) continue;
+                String s = floatString(v, digits);
+                double error = Math.abs(Double.parseDouble(s) - v) / Math.abs(v);
+                assertTrue(s + " for " + v + " at " + digits + " digits", error <= bound);
+                assertTrue(s, significantDigits(s) <= digits);
+            }
+        }
+    }
+
+    private void assertFloatRoundTrip(float v) {
+        String s = floatString(v, 0);
+        assertEquals(s, Float.floatToIntBits(v), Float.floatToIntBits(Float.parseFloat(s)));
+        assertTrue(s + " vs " + Float.toString(v), significantDigits(s) <= significantDigits(Float.toString(v)));
+    }
+
+    private void assertDoubleRoundTrip(double v) {
+        String s = doubleString(v, 0);
+        assertEquals(s, Double.doubleToLongBits(v), Double.doubleToLongBits(Double.parseDouble(s)));
+        assertTrue(s + " vs " + Double.toString(v), significantDigits(s) <= significantDigits(Double.toString(v)));
+    }
+
+    /** 尾数中去掉前导零和末尾零后的位数 */
+    private static int significantDigits(String s) {
+        int e = s.indexOf('E');
+        String mantissa = (e < 0 ? s : s.substring(0, e)).replace("-", "").replace(".", "");
+        int from = 0;
+        int to = mantissa.length();
+        while (from < to - 1 && mantissa.charAt(from) == '0') from++;
+        while (to > from + 1 && mantissa.charAt(to - 1) == '0') to--;
+        return to - from;
+    }
+}